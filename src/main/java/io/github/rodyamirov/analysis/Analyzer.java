@@ -3,10 +3,15 @@ package io.github.rodyamirov.analysis;
 import com.google.common.collect.ImmutableList;
 import io.github.rodyamirov.parse.Parser;
 import io.github.rodyamirov.symbols.ScopeAssigner;
+import io.github.rodyamirov.symbols.SlotResolver;
 import io.github.rodyamirov.symbols.SymbolTable;
 import io.github.rodyamirov.symbols.SymbolTableBuilder;
 import io.github.rodyamirov.tree.ProgramNode;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -16,6 +21,10 @@ import java.util.List;
 public final class Analyzer {
     // TODO - test this class a lot
     public static Program setup(String programText) throws AnalyzerException {
+        return setup(programText, Program.Engine.VISITOR);
+    }
+
+    public static Program setup(String programText, Program.Engine engine) throws AnalyzerException {
         ProgramNode programNode;
 
         try {
@@ -24,10 +33,46 @@ public final class Analyzer {
             throw new AnalyzerException(ise.getMessage(), Collections.emptyList(), AnalysisStage.PARSING);
         }
 
+        return analyze(programNode, engine);
+    }
+
+    public static Program setup(Path programFile) throws AnalyzerException, IOException {
+        return setup(programFile, Program.Engine.VISITOR);
+    }
+
+    /**
+     * Sets up the program in the given UTF-8 file, which is read through memory maps, so however
+     * large it is it never has to be held as a String.
+     */
+    public static Program setup(Path programFile, Program.Engine engine) throws AnalyzerException, IOException {
+        ProgramNode programNode;
+
+        try {
+            programNode = Parser.parseProgram(programFile);
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
+        } catch (IllegalStateException ise) {
+            throw new AnalyzerException(ise.getMessage(), Collections.emptyList(), AnalysisStage.PARSING);
+        }
+
+        return analyze(programNode, engine);
+    }
+
+    /**
+     * Sets up a program which is already parsed, say by an IncrementalParser, which has the tree
+     * ready again after each edit without parsing all of it.
+     */
+    public static Program setup(ProgramNode programNode, Program.Engine engine) throws AnalyzerException {
+        return analyze(programNode, engine);
+    }
+
+    private static Program analyze(ProgramNode programNode, Program.Engine engine) throws AnalyzerException {
         ScopeAssigner.assignScopes(ScopeAssigner.ROOT_SCOPE, programNode);
         SymbolTable symbolTable = SymbolTableBuilder.buildFrom(programNode);
 
-        List<ErrorMessage> controlErrors = BreakChecker.check(programNode);
+        List<ErrorMessage> controlErrors = new ArrayList<>();
+        controlErrors.addAll(BreakChecker.check(programNode));
+        controlErrors.addAll(LoopVariableChecker.check(programNode, symbolTable));
 
         if (! controlErrors.isEmpty()) {
             throw new AnalyzerException(
@@ -46,7 +91,21 @@ public final class Analyzer {
             );
         }
 
-        return new Program(symbolTable, programNode);
+        programNode = ConstantFolder.fold(programNode);
+        programNode = DeadCodeEliminator.eliminate(programNode, symbolTable);
+
+        ProcedureInliner.Result inlined = ProcedureInliner.inline(programNode, symbolTable);
+        programNode = inlined.programNode;
+        symbolTable = inlined.symbolTable;
+
+        LoopInvariantHoister.Result hoisted = LoopInvariantHoister.hoist(programNode, symbolTable);
+        programNode = hoisted.programNode;
+        symbolTable = hoisted.symbolTable;
+
+        SlotResolver.resolve(programNode, symbolTable);
+        TailCallMarker.mark(programNode);
+
+        return new Program(symbolTable, programNode, engine);
     }
 
     private Analyzer() {
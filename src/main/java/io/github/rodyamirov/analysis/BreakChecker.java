@@ -35,21 +35,21 @@ public class BreakChecker extends ThoroughVisitor {
     public void visit(WhileNode whileNode) {
         loopStack.push(whileNode);
         super.visit(whileNode);
-        loopStack.pop();
+        then(loopStack::pop);
     }
 
     @Override
     public void visit(DoUntilNode doUntilNode) {
         loopStack.push(doUntilNode);
         super.visit(doUntilNode);
-        loopStack.pop();
+        then(loopStack::pop);
     }
 
     @Override
     public void visit(ForNode forNode) {
         loopStack.push(forNode);
         super.visit(forNode);
-        loopStack.pop();
+        then(loopStack::pop);
     }
 
     @Override
@@ -57,7 +57,7 @@ public class BreakChecker extends ThoroughVisitor {
         Stack<LoopStatementNode> outsideLoopStack = loopStack;
         loopStack = new Stack<>();
         super.visit(procedureCallNode);
-        loopStack = outsideLoopStack;
+        then(() -> loopStack = outsideLoopStack);
     }
 
     @Override
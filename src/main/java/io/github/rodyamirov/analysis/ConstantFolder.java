@@ -0,0 +1,269 @@
+package io.github.rodyamirov.analysis;
+
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.symbols.SymbolValue;
+import io.github.rodyamirov.tree.AndThenNode;
+import io.github.rodyamirov.tree.BinOpNode;
+import io.github.rodyamirov.tree.BooleanConstantNode;
+import io.github.rodyamirov.tree.ExpressionNode;
+import io.github.rodyamirov.tree.IfStatementNode;
+import io.github.rodyamirov.tree.IntConstantNode;
+import io.github.rodyamirov.tree.NoOpNode;
+import io.github.rodyamirov.tree.OrElseNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.RealConstantNode;
+import io.github.rodyamirov.tree.TreeRewriter;
+import io.github.rodyamirov.tree.UnaryOpNode;
+
+/**
+ * Folds constant subexpressions into constants, applies a handful of algebraic identities
+ * (x*1, x+0, not not b, b and then true, ...), and replaces if statements whose condition turns
+ * out to be constant by the branch which would be taken.
+ *
+ * This runs after the TypeChecker, since it relies on the operations it picked. It never drops
+ * an expression which might fail when evaluated, so x*0 stays as it is (x might not be assigned),
+ * and so does anything which would divide by a constant zero. Additive identities are only used
+ * on integers, since -0.0 + 0 is not -0.0.
+ */
+public class ConstantFolder extends TreeRewriter {
+    public static ProgramNode fold(ProgramNode programNode) {
+        return new ConstantFolder().rewrite(programNode);
+    }
+
+    private ConstantFolder() {
+    }
+
+    // the value of a constant node, or null if it is not a constant
+    private static SymbolValue constantValue(ExpressionNode expressionNode) {
+        if (expressionNode instanceof IntConstantNode) {
+            return ((IntConstantNode) expressionNode).value;
+        } else if (expressionNode instanceof RealConstantNode) {
+            return ((RealConstantNode) expressionNode).value;
+        } else if (expressionNode instanceof BooleanConstantNode) {
+            return ((BooleanConstantNode) expressionNode).value;
+        } else {
+            return null;
+        }
+    }
+
+    private static boolean isNumber(ExpressionNode expressionNode, int number) {
+        SymbolValue value = constantValue(expressionNode);
+        return value != null
+                && value.value instanceof Number
+                && ((Number) value.value).floatValue() == number;
+    }
+
+    private static boolean isBoolean(ExpressionNode expressionNode, boolean expected) {
+        SymbolValue value = constantValue(expressionNode);
+        return value != null && Boolean.valueOf(expected).equals(value.value);
+    }
+
+    private static ExpressionNode makeConstant(ExpressionNode original, SymbolValue value) {
+        ExpressionNode out;
+
+        switch (value.typeSpec) {
+            case INTEGER:
+                out = IntConstantNode.make(Token.INT_CONSTANT((Integer) value.value));
+                break;
+
+            case REAL:
+                out = RealConstantNode.make(Token.REAL_CONSTANT((Float) value.value));
+                break;
+
+            case BOOLEAN:
+                out = BooleanConstantNode.make(Token.BOOLEAN_CONSTANT((Boolean) value.value));
+                break;
+
+            default:
+                String message = String.format("Cannot make a constant of type %s", value.typeSpec);
+                throw new IllegalStateException(message);
+        }
+
+        return copyAnnotations(original, out);
+    }
+
+    // an identity can only hand back an operand which already has the type of the whole node
+    private void replaceWithOperand(BinOpNode original, ExpressionNode operand) {
+        if (operand.outputType == original.outputType) {
+            replaceWith(operand);
+        } else {
+            replaceWith(original);
+        }
+    }
+
+    @Override
+    public void visit(BinOpNode binOpNode) {
+        super.visit(binOpNode);
+
+        // the children are only rewritten once this returns, so the folding has to wait for them
+        then(() -> {
+            // untyped trees have nothing to go on
+            if (binOpNode.operation == null) {
+                return;
+            }
+
+            BinOpNode rewritten = (BinOpNode) replacement();
+            ExpressionNode left = rewritten.left;
+            ExpressionNode right = rewritten.right;
+
+            SymbolValue leftValue = constantValue(left);
+            SymbolValue rightValue = constantValue(right);
+
+            if (leftValue != null && rightValue != null) {
+                boolean divides = rewritten.operation == BinOpNode.Operation.DIVIDE_INTEGERS
+                        || rewritten.operation == BinOpNode.Operation.MOD_INTEGERS;
+
+                // leave division by zero to fail at runtime, if it is ever reached
+                if (! (divides && isNumber(right, 0))) {
+                    replaceWith(makeConstant(rewritten, rewritten.function.apply(leftValue, rightValue)));
+                }
+                return;
+            }
+
+            switch (rewritten.operation) {
+                case ADD_INTEGERS:
+                    if (isNumber(right, 0)) {
+                        replaceWithOperand(rewritten, left);
+                    } else if (isNumber(left, 0)) {
+                        replaceWithOperand(rewritten, right);
+                    }
+                    break;
+
+                case SUBTRACT_INTEGERS:
+                    if (isNumber(right, 0)) {
+                        replaceWithOperand(rewritten, left);
+                    }
+                    break;
+
+                case MULTIPLY_INTEGERS:
+                case MULTIPLY_REALS:
+                    if (isNumber(right, 1)) {
+                        replaceWithOperand(rewritten, left);
+                    } else if (isNumber(left, 1)) {
+                        replaceWithOperand(rewritten, right);
+                    }
+                    break;
+
+                case DIVIDE_INTEGERS:
+                case DIVIDE_REALS:
+                    if (isNumber(right, 1)) {
+                        replaceWithOperand(rewritten, left);
+                    }
+                    break;
+
+                case AND_BOOLEANS:
+                    if (isBoolean(right, true)) {
+                        replaceWithOperand(rewritten, left);
+                    } else if (isBoolean(left, true)) {
+                        replaceWithOperand(rewritten, right);
+                    }
+                    break;
+
+                case OR_BOOLEANS:
+                    if (isBoolean(right, false)) {
+                        replaceWithOperand(rewritten, left);
+                    } else if (isBoolean(left, false)) {
+                        replaceWithOperand(rewritten, right);
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+        });
+    }
+
+    @Override
+    public void visit(UnaryOpNode unaryOpNode) {
+        super.visit(unaryOpNode);
+
+        then(() -> {
+            if (unaryOpNode.operation == null) {
+                return;
+            }
+
+            UnaryOpNode rewritten = (UnaryOpNode) replacement();
+            ExpressionNode child = rewritten.child;
+
+            SymbolValue childValue = constantValue(child);
+            if (childValue != null) {
+                replaceWith(makeConstant(rewritten, rewritten.function.apply(childValue)));
+                return;
+            }
+
+            switch (rewritten.operation) {
+                case IDENTITY_INTEGER:
+                case IDENTITY_REAL:
+                    replaceWith(child);
+                    break;
+
+                case NEGATE_INTEGER:
+                case NEGATE_REAL:
+                case NOT_BOOLEAN:
+                    // the same operation twice cancels out
+                    if (child instanceof UnaryOpNode && ((UnaryOpNode) child).operation == rewritten.operation) {
+                        replaceWith(((UnaryOpNode) child).child);
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+        });
+    }
+
+    @Override
+    public void visit(AndThenNode andThenNode) {
+        super.visit(andThenNode);
+
+        then(() -> {
+            AndThenNode rewritten = (AndThenNode) replacement();
+
+            if (isBoolean(rewritten.left, false)) {
+                // the right side is never evaluated
+                replaceWith(rewritten.left);
+            } else if (isBoolean(rewritten.left, true)) {
+                replaceWith(rewritten.right);
+            } else if (isBoolean(rewritten.right, true)) {
+                replaceWith(rewritten.left);
+            }
+        });
+    }
+
+    @Override
+    public void visit(OrElseNode orElseNode) {
+        super.visit(orElseNode);
+
+        then(() -> {
+            OrElseNode rewritten = (OrElseNode) replacement();
+
+            if (isBoolean(rewritten.left, true)) {
+                // the right side is never evaluated
+                replaceWith(rewritten.left);
+            } else if (isBoolean(rewritten.left, false)) {
+                replaceWith(rewritten.right);
+            } else if (isBoolean(rewritten.right, false)) {
+                replaceWith(rewritten.left);
+            }
+        });
+    }
+
+    @Override
+    public void visit(IfStatementNode ifStatementNode) {
+        super.visit(ifStatementNode);
+
+        then(() -> {
+            IfStatementNode rewritten = (IfStatementNode) replacement();
+
+            if (isBoolean(rewritten.condition, true)) {
+                replaceWith(rewritten.thenStatement);
+            } else if (isBoolean(rewritten.condition, false)) {
+                if (rewritten.elseStatement.isPresent()) {
+                    replaceWith(rewritten.elseStatement.get());
+                } else {
+                    replaceWith(copyAnnotations(rewritten, new NoOpNode()));
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,256 @@
+package io.github.rodyamirov.analysis;
+
+import com.google.common.collect.ImmutableList;
+import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.TypeSpec;
+import io.github.rodyamirov.tree.BlockNode;
+import io.github.rodyamirov.tree.BooleanConstantNode;
+import io.github.rodyamirov.tree.CompoundNode;
+import io.github.rodyamirov.tree.DeclarationNode;
+import io.github.rodyamirov.tree.IfStatementNode;
+import io.github.rodyamirov.tree.LoopControlNode;
+import io.github.rodyamirov.tree.NoOpNode;
+import io.github.rodyamirov.tree.ProcedureCallNode;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.StatementNode;
+import io.github.rodyamirov.tree.ThoroughVisitor;
+import io.github.rodyamirov.tree.TreeRewriter;
+import io.github.rodyamirov.tree.WhileNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes code which can never run: statements following a break or continue, while loops whose
+ * condition is constantly false, no-ops, and the bodies of procedures which are never called from
+ * anything reachable from the program body. Best run after the ConstantFolder, which turns up most
+ * of the constant conditions.
+ *
+ * A procedure which is never called keeps its declaration, emptied out, so its slot is still
+ * filled in when the program runs and the end state looks just as it did; procedures declared
+ * inside it go entirely, since the frame they would live in never exists.
+ */
+public class DeadCodeEliminator extends TreeRewriter {
+    public static ProgramNode eliminate(ProgramNode programNode, SymbolTable symbolTable) {
+        Set<Scope> reachable = reachableProcedures(programNode, symbolTable);
+        return new DeadCodeEliminator(reachable).rewrite(programNode);
+    }
+
+    // block scopes of the procedures which might be called
+    private final Set<Scope> reachableProcedures;
+
+    // what alwaysJumps has found out so far
+    private final Map<StatementNode, Boolean> jumps = new IdentityHashMap<>();
+
+    private DeadCodeEliminator(Set<Scope> reachableProcedures) {
+        this.reachableProcedures = reachableProcedures;
+    }
+
+    private static Set<Scope> reachableProcedures(ProgramNode programNode, SymbolTable symbolTable) {
+        // for each block scope, the block scopes of the procedures it calls directly
+        Map<Scope, Set<Scope>> callees = new HashMap<>();
+
+        programNode.acceptVisit(new ThoroughVisitor() {
+            private final Deque<Scope> owners = new ArrayDeque<>();
+
+            @Override
+            public void visit(ProgramNode programNode) {
+                owners.push(programNode.blockNode.scope);
+                super.visit(programNode);
+                then(owners::pop);
+            }
+
+            @Override
+            public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
+                owners.push(procedureDeclarationNode.blockNode.scope);
+                super.visit(procedureDeclarationNode);
+                then(owners::pop);
+            }
+
+            @Override
+            public void visit(ProcedureCallNode procedureCallNode) {
+                Scope scope = procedureCallNode.scope;
+
+                if (symbolTable.isDefined(scope, procedureCallNode.procedureName)
+                        && symbolTable.getType(scope, procedureCallNode.procedureName) == TypeSpec.PROCEDURE) {
+                    Scope target = symbolTable
+                            .closestScopeFound(scope, procedureCallNode.procedureName)
+                            .makeChildScope(procedureCallNode.procedureName);
+
+                    callees.computeIfAbsent(owners.peek(), s -> new HashSet<>()).add(target);
+                }
+            }
+        });
+
+        Set<Scope> reachable = new HashSet<>();
+        Deque<Scope> toVisit = new ArrayDeque<>();
+        toVisit.push(programNode.blockNode.scope);
+
+        while (! toVisit.isEmpty()) {
+            Scope next = toVisit.pop();
+            for (Scope callee : callees.getOrDefault(next, new HashSet<>())) {
+                if (reachable.add(callee)) {
+                    toVisit.push(callee);
+                }
+            }
+        }
+
+        return reachable;
+    }
+
+    // whether control can never get to the statement after this one; worked out from the inside
+    // out without recursing, and remembered, since a compound statement asks again about each of
+    // the statements it was built from
+    private boolean alwaysJumps(StatementNode statementNode) {
+        Deque<StatementNode> toCheck = new ArrayDeque<>();
+        toCheck.push(statementNode);
+
+        while (! toCheck.isEmpty()) {
+            StatementNode next = toCheck.peek();
+            if (jumps.containsKey(next)) {
+                toCheck.pop();
+                continue;
+            }
+
+            List<StatementNode> parts = new ArrayList<>();
+            if (next instanceof CompoundNode) {
+                parts.addAll(((CompoundNode) next).statements);
+            } else if (next instanceof IfStatementNode) {
+                parts.add(((IfStatementNode) next).thenStatement);
+                ((IfStatementNode) next).elseStatement.ifPresent(parts::add);
+            }
+
+            boolean ready = true;
+            for (StatementNode part : parts) {
+                if (! jumps.containsKey(part)) {
+                    toCheck.push(part);
+                    ready = false;
+                }
+            }
+
+            if (! ready) {
+                continue;
+            }
+
+            toCheck.pop();
+
+            if (next instanceof LoopControlNode) {
+                jumps.put(next, true);
+            } else if (next instanceof CompoundNode) {
+                jumps.put(next, parts.stream().anyMatch(jumps::get));
+            } else if (next instanceof IfStatementNode) {
+                jumps.put(next, parts.size() == 2 && jumps.get(parts.get(0)) && jumps.get(parts.get(1)));
+            } else {
+                jumps.put(next, false);
+            }
+        }
+
+        return jumps.get(statementNode);
+    }
+
+    // keeps the declaration, so running the program still fills in the procedure's slot, but drops
+    // everything it would have run, along with the procedures declared inside it
+    private static ProcedureDeclarationNode withoutBody(ProcedureDeclarationNode procedure) {
+        BlockNode block = procedure.blockNode;
+
+        if (block.declarationNode.procedureDeclarations.isEmpty() && block.compoundNode.statements.isEmpty()) {
+            return procedure;
+        }
+
+        DeclarationNode declarations = copyAnnotations(
+                block.declarationNode,
+                new DeclarationNode(block.declarationNode.variableDeclarations, ImmutableList.of())
+        );
+        CompoundNode body = copyAnnotations(block.compoundNode, new CompoundNode(ImmutableList.of()));
+
+        return copyAnnotations(
+                procedure,
+                new ProcedureDeclarationNode(procedure.name, copyAnnotations(block, new BlockNode(declarations, body)))
+        );
+    }
+
+    @Override
+    public void visit(DeclarationNode declarationNode) {
+        for (ProcedureDeclarationNode procedure : declarationNode.procedureDeclarations) {
+            if (reachableProcedures.contains(procedure.blockNode.scope)) {
+                rewriteChild(procedure);
+            }
+        }
+
+        then(() -> {
+            List<ProcedureDeclarationNode> procedures = new ArrayList<>();
+            boolean changed = false;
+
+            for (ProcedureDeclarationNode procedure : declarationNode.procedureDeclarations) {
+                if (! reachableProcedures.contains(procedure.blockNode.scope)) {
+                    ProcedureDeclarationNode emptied = withoutBody(procedure);
+                    changed |= emptied != procedure;
+                    procedures.add(emptied);
+                    continue;
+                }
+
+                ProcedureDeclarationNode rewritten = rewritten(procedure);
+                changed |= rewritten != procedure;
+                procedures.add(rewritten);
+            }
+
+            if (changed) {
+                replaceWith(copyAnnotations(
+                        declarationNode,
+                        new DeclarationNode(declarationNode.variableDeclarations, procedures)
+                ));
+            } else {
+                replaceWith(declarationNode);
+            }
+        });
+    }
+
+    @Override
+    public void visit(CompoundNode compoundNode) {
+        super.visit(compoundNode);
+
+        then(() -> {
+            CompoundNode rewritten = (CompoundNode) replacement();
+            List<StatementNode> statements = new ArrayList<>(rewritten.statements.size());
+
+            for (StatementNode statementNode : rewritten.statements) {
+                if (statementNode instanceof NoOpNode) {
+                    continue;
+                }
+
+                statements.add(statementNode);
+
+                if (alwaysJumps(statementNode)) {
+                    break;
+                }
+            }
+
+            if (statements.size() != rewritten.statements.size()) {
+                replaceWith(copyAnnotations(rewritten, new CompoundNode(statements)));
+            }
+        });
+    }
+
+    @Override
+    public void visit(WhileNode whileNode) {
+        super.visit(whileNode);
+
+        then(() -> {
+            WhileNode rewritten = (WhileNode) replacement();
+
+            if (rewritten.condition instanceof BooleanConstantNode
+                    && ! ((BooleanConstantNode) rewritten.condition).value.value) {
+                replaceWith(copyAnnotations(rewritten, new NoOpNode()));
+            }
+        });
+    }
+}
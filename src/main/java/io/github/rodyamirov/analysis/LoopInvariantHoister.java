@@ -0,0 +1,532 @@
+package io.github.rodyamirov.analysis;
+
+import com.google.common.collect.ImmutableList;
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.tree.AndThenNode;
+import io.github.rodyamirov.tree.AssignNode;
+import io.github.rodyamirov.tree.BinOpNode;
+import io.github.rodyamirov.tree.BlockNode;
+import io.github.rodyamirov.tree.CompoundNode;
+import io.github.rodyamirov.tree.DoUntilNode;
+import io.github.rodyamirov.tree.ExpressionNode;
+import io.github.rodyamirov.tree.ForNode;
+import io.github.rodyamirov.tree.IfStatementNode;
+import io.github.rodyamirov.tree.IntConstantNode;
+import io.github.rodyamirov.tree.OrElseNode;
+import io.github.rodyamirov.tree.ProcedureCallNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.StatementNode;
+import io.github.rodyamirov.tree.ThoroughVisitor;
+import io.github.rodyamirov.tree.TreeRewriter;
+import io.github.rodyamirov.tree.UnaryOpNode;
+import io.github.rodyamirov.tree.VariableAssignNode;
+import io.github.rodyamirov.tree.VariableEvalNode;
+import io.github.rodyamirov.tree.WhileNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Moves loop-invariant computations out of loops. For each while, do-until and for loop, this
+ * finds the variables the loop assigns, then replaces every operator subexpression which reads
+ * none of them by a temporary, assigned once just before the loop. Identical subexpressions
+ * share a temporary. The temporaries are new variables in the scope of the loop, added to the
+ * symbol table under names no program can spell.
+ *
+ * Hoisting an expression means evaluating it even if the loop never would have, so only
+ * expressions which cannot fail are moved: every variable they read has to have been assigned
+ * unconditionally earlier in the same block, and they may not divide (div or mod) by anything
+ * but a nonzero constant. Loops containing procedure calls are left alone entirely, since a
+ * call can assign variables, or clear them on the way out.
+ */
+public class LoopInvariantHoister extends TreeRewriter {
+    /**
+     * The result of the pass: the rewritten program, and a symbol table which also holds the
+     * temporaries it introduced.
+     */
+    public static final class Result {
+        public final ProgramNode programNode;
+        public final SymbolTable symbolTable;
+
+        private Result(ProgramNode programNode, SymbolTable symbolTable) {
+            this.programNode = programNode;
+            this.symbolTable = symbolTable;
+        }
+    }
+
+    public static Result hoist(ProgramNode programNode, SymbolTable symbolTable) {
+        LoopInvariantHoister hoister = new LoopInvariantHoister(symbolTable);
+        ProgramNode rewritten = hoister.rewrite(programNode);
+
+        if (hoister.temporaryCount == 0) {
+            return new Result(rewritten, symbolTable);
+        } else {
+            return new Result(rewritten, hoister.builder.build());
+        }
+    }
+
+    private static final String TEMPORARY_PREFIX = "$invariant";
+
+    // a variable, identified by the scope it was declared in
+    private static final class VariableKey {
+        private final Scope scope;
+        private final Token<String> name;
+
+        private VariableKey(Scope scope, Token<String> name) {
+            this.scope = scope;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == null || !(o instanceof VariableKey)) {
+                return false;
+            }
+
+            VariableKey other = (VariableKey)o;
+            return Objects.equals(this.scope, other.scope)
+                    && Objects.equals(this.name, other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 43 * scope.hashCode() + name.hashCode();
+        }
+    }
+
+    /**
+     * What a loop does, gathered while its parts are rewritten: the variables it assigns, and
+     * whether it calls anything. What a nested loop does, the loop around it does too.
+     */
+    private static final class LoopSummary {
+        private final Set<VariableKey> written = new HashSet<>();
+        private boolean hasCalls = false;
+    }
+
+    private final SymbolTable symbolTable;
+    private final SymbolTable.Builder builder;
+    private int temporaryCount = 0;
+
+    // variables certainly assigned at this point of the block being rewritten
+    private Set<VariableKey> assigned = new HashSet<>();
+
+    // the loops we are currently inside, innermost first
+    private final Deque<LoopSummary> loops = new ArrayDeque<>();
+
+    private LoopInvariantHoister(SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
+        this.builder = symbolTable.toBuilder();
+    }
+
+    private Optional<VariableKey> keyOf(Scope scope, Token<String> name) {
+        if (! symbolTable.isDefined(scope, name)) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new VariableKey(symbolTable.closestScopeFound(scope, name), name));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Tracking which variables are certainly assigned
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    public void visit(BlockNode blockNode) {
+        // nothing is known to be assigned when a block starts
+        Set<VariableKey> outer = assigned;
+        assigned = new HashSet<>();
+        super.visit(blockNode);
+        then(() -> assigned = outer);
+    }
+
+    @Override
+    public void visit(AssignNode assignNode) {
+        VariableAssignNode target = assignNode.variableAssignNode;
+        Optional<VariableKey> key = keyOf(target.scope, target.idToken);
+
+        // this covers the variables of for loops too
+        if (! loops.isEmpty()) {
+            key.ifPresent(loops.peek().written::add);
+        }
+
+        super.visit(assignNode);
+        then(() -> key.ifPresent(assigned::add));
+    }
+
+    @Override
+    public void visit(IfStatementNode ifStatementNode) {
+        // each branch may or may not run, so neither contributes anything afterward
+        Set<VariableKey> before = assigned;
+
+        assigned = new HashSet<>(before);
+        rewriteChild(ifStatementNode.condition);
+        rewriteChild(ifStatementNode.thenStatement);
+
+        then(() -> assigned = new HashSet<>(before));
+        ifStatementNode.elseStatement.ifPresent(this::rewriteChild);
+
+        then(() -> {
+            assigned = before;
+
+            ExpressionNode condition = rewritten(ifStatementNode.condition);
+            StatementNode thenStatement = rewritten(ifStatementNode.thenStatement);
+            Optional<StatementNode> elseStatement = ifStatementNode.elseStatement.map(this::rewritten);
+
+            boolean unchanged = condition == ifStatementNode.condition
+                    && thenStatement == ifStatementNode.thenStatement
+                    && elseStatement.orElse(null) == ifStatementNode.elseStatement.orElse(null);
+
+            if (unchanged) {
+                replaceWith(ifStatementNode);
+            } else if (elseStatement.isPresent()) {
+                replaceWith(copyAnnotations(
+                        ifStatementNode,
+                        new IfStatementNode(condition, thenStatement, elseStatement.get())
+                ));
+            } else {
+                replaceWith(copyAnnotations(ifStatementNode, new IfStatementNode(condition, thenStatement)));
+            }
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Tracking what the loops do
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    public void visit(ProcedureCallNode procedureCallNode) {
+        if (! loops.isEmpty()) {
+            loops.peek().hasCalls = true;
+        }
+
+        super.visit(procedureCallNode);
+    }
+
+    // the start of a loop, before its parts are rewritten; returns what was assigned on entry
+    private Set<VariableKey> enterLoop() {
+        Set<VariableKey> atEntry = assigned;
+        assigned = new HashSet<>(atEntry);
+        loops.push(new LoopSummary());
+        return atEntry;
+    }
+
+    // the end of a loop, once its parts are rewritten; returns what it did
+    private LoopSummary exitLoop(Set<VariableKey> atEntry) {
+        assigned = atEntry;
+        LoopSummary summary = loops.pop();
+
+        if (! loops.isEmpty()) {
+            loops.peek().written.addAll(summary.written);
+            loops.peek().hasCalls |= summary.hasCalls;
+        }
+
+        return summary;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // The loops themselves
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    public void visit(WhileNode whileNode) {
+        Set<VariableKey> atEntry = enterLoop();
+        super.visit(whileNode);
+
+        then(() -> {
+            LoopSummary summary = exitLoop(atEntry);
+
+            WhileNode loop = (WhileNode) replacement();
+            LoopHoister hoister = new LoopHoister(loop, atEntry, summary);
+
+            ExpressionNode condition = hoister.rewriteLoopPart(loop.condition);
+            StatementNode body = hoister.rewriteLoopPart(loop.childStatement);
+
+            if (hoister.hasTemporaries()) {
+                replaceWith(hoister.precede(copyAnnotations(loop, new WhileNode(condition, body))));
+            }
+        });
+    }
+
+    @Override
+    public void visit(DoUntilNode doUntilNode) {
+        Set<VariableKey> atEntry = enterLoop();
+        super.visit(doUntilNode);
+
+        then(() -> {
+            LoopSummary summary = exitLoop(atEntry);
+
+            DoUntilNode loop = (DoUntilNode) replacement();
+            LoopHoister hoister = new LoopHoister(loop, atEntry, summary);
+
+            ExpressionNode condition = hoister.rewriteLoopPart(loop.condition);
+            StatementNode body = hoister.rewriteLoopPart(loop.childStatement);
+
+            if (hoister.hasTemporaries()) {
+                replaceWith(hoister.precede(copyAnnotations(loop, new DoUntilNode(condition, body))));
+            }
+        });
+    }
+
+    @Override
+    public void visit(ForNode forNode) {
+        Set<VariableKey> atEntry = enterLoop();
+        super.visit(forNode);
+
+        then(() -> {
+            LoopSummary summary = exitLoop(atEntry);
+
+            // the start and the bound are only evaluated once anyway
+            ForNode loop = (ForNode) replacement();
+            LoopHoister hoister = new LoopHoister(loop, atEntry, summary);
+
+            StatementNode body = hoister.rewriteLoopPart(loop.body);
+
+            if (hoister.hasTemporaries()) {
+                replaceWith(hoister.precede(copyAnnotations(loop, withParts(loop, loop.assignNode, loop.bound, body))));
+            }
+        });
+    }
+
+    private static ForNode withParts(ForNode loop, AssignNode assignNode, ExpressionNode bound, StatementNode body) {
+        switch (loop.direction) {
+            case FORWARD:
+                return ForNode.Forward(assignNode, bound, body);
+
+            case BACKWARD:
+                return ForNode.Backward(assignNode, bound, body);
+
+            default:
+                String message = String.format("Unrecognized direction %s for a for-loop", loop.direction);
+                throw new IllegalStateException(message);
+        }
+    }
+
+    /**
+     * Does the hoisting for a single loop: swaps invariant subexpressions for temporaries. Loops
+     * nested inside it were done first, and anything they kept is not invariant here either, so
+     * this never looks inside them, other than at the start and bound of a for loop.
+     */
+    private final class LoopHoister extends TreeRewriter {
+        private final Scope scope;
+        private final boolean hasCalls;
+        private final Set<VariableKey> written;
+        private final Set<VariableKey> assignedAtEntry;
+
+        // the expressions of the loop part being rewritten which read some variable, and the
+        // ones which read a variable that may change or not be assigned yet, or which divide
+        private final Set<ExpressionNode> readsVariable = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<ExpressionNode> unsafe = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        // the hoisted expressions, and the temporary holding each
+        private final Map<ExpressionNode, Token<String>> temporaries = new LinkedHashMap<>();
+
+        private LoopHoister(StatementNode loop, Set<VariableKey> assignedAtEntry, LoopSummary summary) {
+            this.scope = loop.scope;
+            this.assignedAtEntry = assignedAtEntry;
+            this.written = summary.written;
+            this.hasCalls = summary.hasCalls;
+        }
+
+        private boolean hasTemporaries() {
+            return ! temporaries.isEmpty();
+        }
+
+        private ExpressionNode rewriteLoopPart(ExpressionNode expressionNode) {
+            if (hasCalls) {
+                return expressionNode;
+            }
+
+            expressionNode.acceptVisit(new Invariance());
+            return rewrite(expressionNode);
+        }
+
+        private StatementNode rewriteLoopPart(StatementNode statementNode) {
+            if (hasCalls) {
+                return statementNode;
+            }
+
+            statementNode.acceptVisit(new Invariance());
+            return rewrite(statementNode);
+        }
+
+        // whether the expression reads some variable, and could be computed before the loop
+        private boolean isHoistable(ExpressionNode expressionNode) {
+            return expressionNode.outputType != null
+                    && readsVariable.contains(expressionNode)
+                    && ! unsafe.contains(expressionNode);
+        }
+
+        /**
+         * Works out, once for each expression of a loop part, what isHoistable needs to know.
+         */
+        private final class Invariance extends ThoroughVisitor {
+            private void combine(ExpressionNode expressionNode, ExpressionNode... children) {
+                for (ExpressionNode child : children) {
+                    if (readsVariable.contains(child)) {
+                        readsVariable.add(expressionNode);
+                    }
+
+                    if (unsafe.contains(child)) {
+                        unsafe.add(expressionNode);
+                    }
+                }
+            }
+
+            @Override
+            public void visit(VariableEvalNode variableEvalNode) {
+                readsVariable.add(variableEvalNode);
+
+                Optional<VariableKey> key = keyOf(variableEvalNode.scope, variableEvalNode.idToken);
+                if (! key.isPresent() || written.contains(key.get()) || ! assignedAtEntry.contains(key.get())) {
+                    unsafe.add(variableEvalNode);
+                }
+            }
+
+            @Override
+            public void visit(BinOpNode binOpNode) {
+                boolean divides = binOpNode.operation == BinOpNode.Operation.DIVIDE_INTEGERS
+                        || binOpNode.operation == BinOpNode.Operation.MOD_INTEGERS;
+
+                if (divides && ! isNonzeroConstant(binOpNode.right)) {
+                    unsafe.add(binOpNode);
+                }
+
+                super.visit(binOpNode);
+                then(() -> combine(binOpNode, binOpNode.left, binOpNode.right));
+            }
+
+            @Override
+            public void visit(UnaryOpNode unaryOpNode) {
+                super.visit(unaryOpNode);
+                then(() -> combine(unaryOpNode, unaryOpNode.child));
+            }
+
+            @Override
+            public void visit(AndThenNode andThenNode) {
+                super.visit(andThenNode);
+                then(() -> combine(andThenNode, andThenNode.left, andThenNode.right));
+            }
+
+            @Override
+            public void visit(OrElseNode orElseNode) {
+                super.visit(orElseNode);
+                then(() -> combine(orElseNode, orElseNode.left, orElseNode.right));
+            }
+
+            @Override
+            public void visit(WhileNode whileNode) {
+            }
+
+            @Override
+            public void visit(DoUntilNode doUntilNode) {
+            }
+
+            @Override
+            public void visit(ForNode forNode) {
+                visitChild(forNode.assignNode);
+                visitChild(forNode.bound);
+            }
+        }
+
+        private ExpressionNode temporaryFor(ExpressionNode expressionNode) {
+            Token<String> name = temporaries.get(expressionNode);
+
+            if (name == null) {
+                name = Token.ID(TEMPORARY_PREFIX + temporaryCount);
+                temporaryCount += 1;
+
+                builder.addSymbol(scope, name, expressionNode.outputType);
+                temporaries.put(expressionNode, name);
+            }
+
+            VariableEvalNode out = new VariableEvalNode(name);
+            out.scope = scope;
+            out.outputType = expressionNode.outputType;
+            return out;
+        }
+
+        @Override
+        public void visit(BinOpNode binOpNode) {
+            if (isHoistable(binOpNode)) {
+                replaceWith(temporaryFor(binOpNode));
+            } else {
+                super.visit(binOpNode);
+            }
+        }
+
+        @Override
+        public void visit(UnaryOpNode unaryOpNode) {
+            if (isHoistable(unaryOpNode)) {
+                replaceWith(temporaryFor(unaryOpNode));
+            } else {
+                super.visit(unaryOpNode);
+            }
+        }
+
+        @Override
+        public void visit(WhileNode whileNode) {
+            replaceWith(whileNode);
+        }
+
+        @Override
+        public void visit(DoUntilNode doUntilNode) {
+            replaceWith(doUntilNode);
+        }
+
+        @Override
+        public void visit(ForNode forNode) {
+            // the start and bound of a nested loop are evaluated each time round this one
+            rewriteChild(forNode.assignNode);
+            rewriteChild(forNode.bound);
+
+            then(() -> {
+                AssignNode assignNode = rewritten(forNode.assignNode);
+                ExpressionNode bound = rewritten(forNode.bound);
+
+                if (assignNode == forNode.assignNode && bound == forNode.bound) {
+                    replaceWith(forNode);
+                } else {
+                    replaceWith(copyAnnotations(forNode, withParts(forNode, assignNode, bound, forNode.body)));
+                }
+            });
+        }
+
+        // puts the assignments to the temporaries in front of the rewritten loop
+        private CompoundNode precede(StatementNode loop) {
+            List<StatementNode> statements = new ArrayList<>();
+
+            for (Map.Entry<ExpressionNode, Token<String>> entry : temporaries.entrySet()) {
+                VariableAssignNode target = new VariableAssignNode(entry.getValue());
+                target.scope = scope;
+                target.variableType = entry.getKey().outputType;
+
+                AssignNode assignNode = new AssignNode(target, entry.getKey());
+                assignNode.scope = scope;
+                statements.add(assignNode);
+            }
+
+            statements.add(loop);
+
+            CompoundNode out = new CompoundNode(ImmutableList.copyOf(statements));
+            out.scope = scope;
+            return out;
+        }
+    }
+
+    private static boolean isNonzeroConstant(ExpressionNode expressionNode) {
+        return expressionNode instanceof IntConstantNode
+                && ((IntConstantNode) expressionNode).value.value != 0;
+    }
+}
@@ -0,0 +1,251 @@
+package io.github.rodyamirov.analysis;
+
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.TypeSpec;
+import io.github.rodyamirov.tree.AssignNode;
+import io.github.rodyamirov.tree.ForNode;
+import io.github.rodyamirov.tree.ProcedureCallNode;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.SyntaxTree;
+import io.github.rodyamirov.tree.ThoroughVisitor;
+import io.github.rodyamirov.tree.VariableAssignNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Checks that nothing assigns the variable of a for loop while that loop is running: not an
+ * assignment in its body, not a for loop nested inside it, and not a procedure called from its
+ * body (or anything that procedure calls in turn). This is what the runtime locks enforce; once a
+ * program passes this check, the loops it proved are stamped lockFree, and the evaluators skip
+ * the locking for them.
+ */
+public class LoopVariableChecker extends ThoroughVisitor {
+    public static List<ErrorMessage> check(ProgramNode programNode, SymbolTable symbolTable) {
+        Map<Scope, Set<VariableKey>> procedureWrites = procedureWrites(programNode, symbolTable);
+
+        LoopVariableChecker checker = new LoopVariableChecker(symbolTable, procedureWrites);
+        programNode.acceptVisit(checker);
+        return checker.errorMessages;
+    }
+
+    // a variable, identified by the scope it was declared in
+    private static final class VariableKey {
+        private final Scope scope;
+        private final Token<String> name;
+
+        private VariableKey(Scope scope, Token<String> name) {
+            this.scope = scope;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == null || !(o instanceof VariableKey)) {
+                return false;
+            }
+
+            VariableKey other = (VariableKey)o;
+            return Objects.equals(this.scope, other.scope)
+                    && Objects.equals(this.name, other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 43 * scope.hashCode() + name.hashCode();
+        }
+    }
+
+    private static Optional<VariableKey> keyOf(SymbolTable symbolTable, Scope scope, Token<String> name) {
+        if (! symbolTable.isDefined(scope, name)) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new VariableKey(symbolTable.closestScopeFound(scope, name), name));
+    }
+
+    // the block scope of the procedure a call goes to, if there is one
+    private static Optional<Scope> targetOf(SymbolTable symbolTable, ProcedureCallNode procedureCallNode) {
+        Scope scope = procedureCallNode.scope;
+        Token<String> name = procedureCallNode.procedureName;
+
+        if (symbolTable.isDefined(scope, name) && symbolTable.getType(scope, name) == TypeSpec.PROCEDURE) {
+            return Optional.of(symbolTable.closestScopeFound(scope, name).makeChildScope(name));
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    // the variables of writes which a call to callee could change in the caller's frame; anything
+    // declared in the callee, or in procedures inside it, gets a new frame for the call, so a
+    // recursive call can't touch the caller's copy
+    private static Set<VariableKey> escapingWrites(Map<Scope, Set<VariableKey>> writes, Scope callee) {
+        Set<VariableKey> out = new HashSet<>();
+
+        for (VariableKey key : writes.getOrDefault(callee, new HashSet<>())) {
+            if (! isWithin(key.scope, callee)) {
+                out.add(key);
+            }
+        }
+
+        return out;
+    }
+
+    private static boolean isWithin(Scope scope, Scope ancestor) {
+        while (scope.depth > ancestor.depth) {
+            scope = scope.parentScope.get();
+        }
+
+        return scope == ancestor;
+    }
+
+    /**
+     * For each procedure (by its block scope), every variable a call to it might assign, whether
+     * directly or through the procedures it calls.
+     */
+    private static Map<Scope, Set<VariableKey>> procedureWrites(ProgramNode programNode, SymbolTable symbolTable) {
+        Map<Scope, Set<VariableKey>> writes = new HashMap<>();
+        Map<Scope, Set<Scope>> callees = new HashMap<>();
+
+        programNode.acceptVisit(new ThoroughVisitor() {
+            private final Deque<Scope> owners = new ArrayDeque<>();
+
+            @Override
+            public void visit(ProgramNode programNode) {
+                owners.push(programNode.blockNode.scope);
+                super.visit(programNode);
+                then(owners::pop);
+            }
+
+            @Override
+            public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
+                owners.push(procedureDeclarationNode.blockNode.scope);
+                super.visit(procedureDeclarationNode);
+                then(owners::pop);
+            }
+
+            @Override
+            public void visit(VariableAssignNode variableAssignNode) {
+                keyOf(symbolTable, variableAssignNode.scope, variableAssignNode.idToken).ifPresent(
+                        key -> writes.computeIfAbsent(owners.peek(), s -> new HashSet<>()).add(key)
+                );
+            }
+
+            @Override
+            public void visit(ProcedureCallNode procedureCallNode) {
+                targetOf(symbolTable, procedureCallNode).ifPresent(
+                        target -> callees.computeIfAbsent(owners.peek(), s -> new HashSet<>()).add(target)
+                );
+            }
+        });
+
+        // push writes back along the call graph until nothing changes
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (Map.Entry<Scope, Set<Scope>> entry : callees.entrySet()) {
+                Set<VariableKey> callerWrites = writes.computeIfAbsent(entry.getKey(), s -> new HashSet<>());
+
+                for (Scope callee : entry.getValue()) {
+                    changed |= callerWrites.addAll(escapingWrites(writes, callee));
+                }
+            }
+        }
+
+        return writes;
+    }
+
+    private final SymbolTable symbolTable;
+    private final Map<Scope, Set<VariableKey>> procedureWrites;
+    private final List<ErrorMessage> errorMessages = new ArrayList<>();
+
+    // the variables of the for loops we are currently inside, innermost last
+    private final Deque<VariableKey> activeLoopVariables = new ArrayDeque<>();
+
+    // whether a violation was found since the innermost enclosing loop started
+    private boolean violationFound = false;
+
+    private LoopVariableChecker(SymbolTable symbolTable, Map<Scope, Set<VariableKey>> procedureWrites) {
+        this.symbolTable = symbolTable;
+        this.procedureWrites = procedureWrites;
+    }
+
+    private void reportViolation(String message, VariableKey key, SyntaxTree problemNode) {
+        errorMessages.add(new ErrorMessage(String.format(message, key.name.value), problemNode));
+        violationFound = true;
+    }
+
+    @Override
+    public void visit(ForNode forNode) {
+        // the start and bound are evaluated before the loop takes hold of the variable
+        visitChild(forNode.assignNode.expressionNode);
+        visitChild(forNode.bound);
+
+        VariableAssignNode loopVariable = forNode.assignNode.variableAssignNode;
+        Optional<VariableKey> key = keyOf(symbolTable, loopVariable.scope, loopVariable.idToken);
+        boolean[] outerViolationFound = new boolean[1];
+
+        then(() -> {
+            if (key.isPresent() && activeLoopVariables.contains(key.get())) {
+                reportViolation("Loop variable %s is reused by a nested for loop", key.get(), forNode);
+            }
+
+            outerViolationFound[0] = violationFound;
+            violationFound = false;
+
+            key.ifPresent(activeLoopVariables::addLast);
+        });
+
+        visitChild(forNode.body);
+
+        then(() -> {
+            key.ifPresent(k -> activeLoopVariables.removeLast());
+
+            forNode.lockFree = key.isPresent() && ! violationFound;
+            violationFound |= outerViolationFound[0];
+        });
+    }
+
+    @Override
+    public void visit(AssignNode assignNode) {
+        super.visit(assignNode);
+
+        then(() -> {
+            VariableAssignNode target = assignNode.variableAssignNode;
+            Optional<VariableKey> key = keyOf(symbolTable, target.scope, target.idToken);
+
+            if (key.isPresent() && activeLoopVariables.contains(key.get())) {
+                reportViolation("Cannot assign to loop variable %s inside its for loop", key.get(), assignNode);
+            }
+        });
+    }
+
+    @Override
+    public void visit(ProcedureCallNode procedureCallNode) {
+        Optional<Scope> target = targetOf(symbolTable, procedureCallNode);
+
+        if (! target.isPresent()) {
+            return;
+        }
+
+        Set<VariableKey> writes = escapingWrites(procedureWrites, target.get());
+        for (VariableKey key : activeLoopVariables) {
+            if (writes.contains(key)) {
+                reportViolation("Procedure call may assign to loop variable %s", key, procedureCallNode);
+                break;
+            }
+        }
+    }
+}
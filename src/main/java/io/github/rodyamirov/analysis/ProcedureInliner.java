@@ -0,0 +1,553 @@
+package io.github.rodyamirov.analysis;
+
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.symbols.FrameLayout;
+import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.symbols.ScopeAssigner;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.TypeSpec;
+import io.github.rodyamirov.tree.AndThenNode;
+import io.github.rodyamirov.tree.AssignNode;
+import io.github.rodyamirov.tree.BinOpNode;
+import io.github.rodyamirov.tree.BooleanConstantNode;
+import io.github.rodyamirov.tree.CompoundNode;
+import io.github.rodyamirov.tree.DoUntilNode;
+import io.github.rodyamirov.tree.ForNode;
+import io.github.rodyamirov.tree.IfStatementNode;
+import io.github.rodyamirov.tree.IntConstantNode;
+import io.github.rodyamirov.tree.LoopControlNode;
+import io.github.rodyamirov.tree.NoOpNode;
+import io.github.rodyamirov.tree.OrElseNode;
+import io.github.rodyamirov.tree.ProcedureCallNode;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.RealConstantNode;
+import io.github.rodyamirov.tree.SyntaxTree;
+import io.github.rodyamirov.tree.ThoroughVisitor;
+import io.github.rodyamirov.tree.TreeRewriter;
+import io.github.rodyamirov.tree.UnaryOpNode;
+import io.github.rodyamirov.tree.VariableAssignNode;
+import io.github.rodyamirov.tree.VariableEvalNode;
+import io.github.rodyamirov.tree.WhileNode;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Replaces calls to small procedures by a copy of the procedure's body. The copy runs in the
+ * caller's scope, so the callee's locals are renamed to new variables in the caller's frame,
+ * added to the symbol table under names no program can spell, and everything else the body
+ * refers to has to mean the same thing from where the call is.
+ *
+ * Only leaf procedures are inlined: ones which declare no procedures of their own and call
+ * none. Inlining those can turn their callers into leaves, so this goes round until nothing
+ * changes; recursive procedures never become leaves, and are never inlined. A call leaves its
+ * callee's locals cleared, and the renamed variables are not, so a procedure also only
+ * qualifies if it certainly assigns each local before reading it.
+ *
+ * Calls inside loops are inlined if the body is small; calls elsewhere only if it is tiny. On
+ * top of that, the program may grow by at most its own original size in total (plus a little, so
+ * that small programs have room too).
+ */
+public class ProcedureInliner extends TreeRewriter {
+    /**
+     * The result of the pass: the rewritten program, and a symbol table which also holds the
+     * variables it introduced.
+     */
+    public static final class Result {
+        public final ProgramNode programNode;
+        public final SymbolTable symbolTable;
+
+        private Result(ProgramNode programNode, SymbolTable symbolTable) {
+            this.programNode = programNode;
+            this.symbolTable = symbolTable;
+        }
+    }
+
+    public static Result inline(ProgramNode programNode, SymbolTable symbolTable) {
+        ProgramNode current = programNode;
+        SymbolTable currentTable = symbolTable;
+
+        // small programs get enough room for at least one loop's worth
+        int remainingGrowth = sizeOf(programNode) + MAX_SIZE_IN_LOOP;
+        int temporaryCount = 0;
+
+        while (true) {
+            ProcedureInliner inliner = new ProcedureInliner(current, currentTable, remainingGrowth, temporaryCount);
+            ProgramNode rewritten = inliner.rewrite(current);
+
+            if (rewritten == current) {
+                return new Result(current, currentTable);
+            }
+
+            current = rewritten;
+            currentTable = inliner.builder.build();
+            remainingGrowth = inliner.remainingGrowth;
+            temporaryCount = inliner.temporaryCount;
+        }
+    }
+
+    private static final String TEMPORARY_PREFIX = "$inline";
+
+    // the most a body can weigh (see sizeOf) and still be inlined into a loop
+    static final int MAX_SIZE_IN_LOOP = 40;
+
+    // outside of loops a call costs little next to everything else, so only bother for the tiniest
+    static final int MAX_SIZE = 6;
+
+    /**
+     * A procedure which could be inlined, if the call site allows it.
+     */
+    private static final class Candidate {
+        private final ProcedureDeclarationNode declaration;
+        private final int size;
+
+        // the names the body uses which are not its own locals
+        private final Set<Token<String>> outerNames;
+
+        private Candidate(ProcedureDeclarationNode declaration, int size, Set<Token<String>> outerNames) {
+            this.declaration = declaration;
+            this.size = size;
+            this.outerNames = outerNames;
+        }
+    }
+
+    private final SymbolTable symbolTable;
+    private final SymbolTable.Builder builder;
+
+    // keyed by the scope of the procedure's block
+    private final Map<Scope, Candidate> candidates = new HashMap<>();
+
+    private int remainingGrowth;
+    private int temporaryCount;
+    private int loopDepth = 0;
+
+    private ProcedureInliner(ProgramNode programNode, SymbolTable symbolTable, int remainingGrowth, int temporaryCount) {
+        this.symbolTable = symbolTable;
+        this.builder = symbolTable.toBuilder();
+        this.remainingGrowth = remainingGrowth;
+        this.temporaryCount = temporaryCount;
+
+        programNode.acceptVisit(new ThoroughVisitor() {
+            @Override
+            public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
+                super.visit(procedureDeclarationNode);
+                then(() -> candidateOf(procedureDeclarationNode).ifPresent(
+                        c -> candidates.put(procedureDeclarationNode.blockNode.scope, c)
+                ));
+            }
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Which procedures can be inlined at all
+    // ---------------------------------------------------------------------------------------------
+
+    private Optional<Candidate> candidateOf(ProcedureDeclarationNode procedureDeclarationNode) {
+        if (! procedureDeclarationNode.blockNode.declarationNode.procedureDeclarations.isEmpty()) {
+            return Optional.empty();
+        }
+
+        CompoundNode body = procedureDeclarationNode.blockNode.compoundNode;
+        int size = sizeOf(body);
+        if (size > MAX_SIZE_IN_LOOP) {
+            return Optional.empty();
+        }
+
+        Scope blockScope = procedureDeclarationNode.blockNode.scope;
+        Set<Token<String>> locals = new HashSet<>(symbolTable.getLayout(blockScope).slotNames);
+        Set<Token<String>> outerNames = new HashSet<>();
+        boolean[] usable = { true };
+
+        body.acceptVisit(new ThoroughVisitor() {
+            private void sawName(Token<String> name) {
+                if (! locals.contains(name)) {
+                    // an undeclared name is an error waiting to happen; leave it where it is
+                    usable[0] &= symbolTable.isDefined(blockScope, name);
+                    outerNames.add(name);
+                }
+            }
+
+            @Override
+            public void visit(VariableAssignNode variableAssignNode) {
+                sawName(variableAssignNode.idToken);
+            }
+
+            @Override
+            public void visit(VariableEvalNode variableEvalNode) {
+                sawName(variableEvalNode.idToken);
+            }
+
+            @Override
+            public void visit(ProcedureCallNode procedureCallNode) {
+                usable[0] = false;
+            }
+        });
+
+        if (! usable[0] || ! AssignedBeforeRead.check(body, locals)) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new Candidate(procedureDeclarationNode, size, outerNames));
+    }
+
+    /**
+     * Checks that every read of a local comes after an assignment to it which certainly ran.
+     * Like LoopInvariantHoister, this only believes assignments made unconditionally earlier on;
+     * anything assigned in a branch or a loop body is forgotten afterward.
+     */
+    private static final class AssignedBeforeRead extends ThoroughVisitor {
+        static boolean check(CompoundNode body, Set<Token<String>> locals) {
+            AssignedBeforeRead checker = new AssignedBeforeRead(locals);
+            body.acceptVisit(checker);
+            return checker.ok;
+        }
+
+        private final Set<Token<String>> locals;
+        private Set<Token<String>> assigned = new HashSet<>();
+        private boolean ok = true;
+
+        private AssignedBeforeRead(Set<Token<String>> locals) {
+            this.locals = locals;
+        }
+
+        @Override
+        public void visit(VariableEvalNode variableEvalNode) {
+            if (locals.contains(variableEvalNode.idToken) && ! assigned.contains(variableEvalNode.idToken)) {
+                ok = false;
+            }
+        }
+
+        @Override
+        public void visit(AssignNode assignNode) {
+            visitChild(assignNode.expressionNode);
+            then(() -> assigned.add(assignNode.variableAssignNode.idToken));
+        }
+
+        @Override
+        public void visit(IfStatementNode ifStatementNode) {
+            // expressions assign nothing, so what's assigned now is what's assigned after the condition
+            Set<Token<String>> before = assigned;
+            visitChild(ifStatementNode.condition);
+
+            then(() -> assigned = new HashSet<>(before));
+            visitChild(ifStatementNode.thenStatement);
+
+            then(() -> assigned = new HashSet<>(before));
+            ifStatementNode.elseStatement.ifPresent(this::visitChild);
+
+            then(() -> assigned = before);
+        }
+
+        @Override
+        public void visit(WhileNode whileNode) {
+            Set<Token<String>> before = assigned;
+            assigned = new HashSet<>(before);
+            super.visit(whileNode);
+            then(() -> assigned = before);
+        }
+
+        @Override
+        public void visit(DoUntilNode doUntilNode) {
+            Set<Token<String>> before = assigned;
+            assigned = new HashSet<>(before);
+            super.visit(doUntilNode);
+            then(() -> assigned = before);
+        }
+
+        @Override
+        public void visit(ForNode forNode) {
+            Set<Token<String>> before = assigned;
+            assigned = new HashSet<>(before);
+
+            // the loop variable is assigned before the body runs, but maybe not after a loop
+            // which never ran
+            visitChild(forNode.assignNode);
+            visitChild(forNode.bound);
+            visitChild(forNode.body);
+
+            then(() -> assigned = before);
+        }
+    }
+
+    /**
+     * Roughly the number of operations a piece of the tree performs, which is what decides
+     * whether inlining it is worth the extra code.
+     */
+    static int sizeOf(SyntaxTree syntaxTree) {
+        int[] size = { 0 };
+
+        syntaxTree.acceptVisit(new ThoroughVisitor() {
+            @Override
+            public void visit(AssignNode assignNode) {
+                size[0] += 1;
+                super.visit(assignNode);
+            }
+
+            @Override
+            public void visit(BinOpNode binOpNode) {
+                size[0] += 1;
+                super.visit(binOpNode);
+            }
+
+            @Override
+            public void visit(UnaryOpNode unaryOpNode) {
+                size[0] += 1;
+                super.visit(unaryOpNode);
+            }
+
+            @Override
+            public void visit(AndThenNode andThenNode) {
+                size[0] += 1;
+                super.visit(andThenNode);
+            }
+
+            @Override
+            public void visit(OrElseNode orElseNode) {
+                size[0] += 1;
+                super.visit(orElseNode);
+            }
+
+            @Override
+            public void visit(VariableEvalNode variableEvalNode) {
+                size[0] += 1;
+            }
+
+            @Override
+            public void visit(IfStatementNode ifStatementNode) {
+                size[0] += 1;
+                super.visit(ifStatementNode);
+            }
+
+            @Override
+            public void visit(WhileNode whileNode) {
+                size[0] += 1;
+                super.visit(whileNode);
+            }
+
+            @Override
+            public void visit(DoUntilNode doUntilNode) {
+                size[0] += 1;
+                super.visit(doUntilNode);
+            }
+
+            @Override
+            public void visit(ForNode forNode) {
+                size[0] += 1;
+                super.visit(forNode);
+            }
+
+            @Override
+            public void visit(ProcedureCallNode procedureCallNode) {
+                size[0] += 1;
+            }
+        });
+
+        return size[0];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Keeping track of whether we're in a loop
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
+        // a procedure body starts out of any loop, wherever it's called from
+        int outerDepth = loopDepth;
+        loopDepth = 0;
+        super.visit(procedureDeclarationNode);
+        then(() -> loopDepth = outerDepth);
+    }
+
+    @Override
+    public void visit(WhileNode whileNode) {
+        loopDepth += 1;
+        super.visit(whileNode);
+        then(() -> loopDepth -= 1);
+    }
+
+    @Override
+    public void visit(DoUntilNode doUntilNode) {
+        loopDepth += 1;
+        super.visit(doUntilNode);
+        then(() -> loopDepth -= 1);
+    }
+
+    @Override
+    public void visit(ForNode forNode) {
+        loopDepth += 1;
+        super.visit(forNode);
+        then(() -> loopDepth -= 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // The calls themselves
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    public void visit(ProcedureCallNode procedureCallNode) {
+        Optional<Candidate> candidate = candidateFor(procedureCallNode);
+
+        if (candidate.isPresent()) {
+            replaceWith(inlined(procedureCallNode, candidate.get()));
+        } else {
+            replaceWith(procedureCallNode);
+        }
+    }
+
+    private Optional<Candidate> candidateFor(ProcedureCallNode procedureCallNode) {
+        Scope scope = procedureCallNode.scope;
+        Token<String> name = procedureCallNode.procedureName;
+
+        if (! symbolTable.isDefined(scope, name) || symbolTable.getType(scope, name) != TypeSpec.PROCEDURE) {
+            return Optional.empty();
+        }
+
+        Scope blockScope = symbolTable.closestScopeFound(scope, name).makeChildScope(name);
+        Candidate candidate = candidates.get(blockScope);
+
+        if (candidate == null) {
+            return Optional.empty();
+        }
+
+        int maxSize = loopDepth > 0 ? MAX_SIZE_IN_LOOP : MAX_SIZE;
+        if (candidate.size > maxSize || candidate.size > remainingGrowth) {
+            return Optional.empty();
+        }
+
+        // something between the caller and the callee might hide what the body refers to
+        for (Token<String> outerName : candidate.outerNames) {
+            Scope meant = symbolTable.closestScopeFound(blockScope, outerName);
+            if (! symbolTable.closestScopeFound(scope, outerName).equals(meant)) {
+                return Optional.empty();
+            }
+        }
+
+        return Optional.of(candidate);
+    }
+
+    private CompoundNode inlined(ProcedureCallNode procedureCallNode, Candidate candidate) {
+        Scope callerScope = procedureCallNode.scope;
+        FrameLayout layout = symbolTable.getLayout(candidate.declaration.blockNode.scope);
+
+        Map<Token<String>, Token<String>> renames = new HashMap<>();
+        for (int slot = 0; slot < layout.size(); slot++) {
+            Token<String> temporary = Token.ID(TEMPORARY_PREFIX + temporaryCount);
+            temporaryCount += 1;
+
+            builder.addSymbol(callerScope, temporary, layout.slotTypes.get(slot));
+            renames.put(layout.slotNames.get(slot), temporary);
+        }
+
+        CompoundNode out = new Copier(renames).copy(candidate.declaration.blockNode.compoundNode);
+        ScopeAssigner.assignScopes(callerScope, out);
+
+        remainingGrowth -= candidate.size;
+        return out;
+    }
+
+    /**
+     * Makes a completely fresh copy of a procedure body, with its locals renamed, so that
+     * nothing is shared between the procedure and the places it was inlined.
+     */
+    private static final class Copier extends TreeRewriter {
+        private final Map<Token<String>, Token<String>> renames;
+
+        private Copier(Map<Token<String>, Token<String>> renames) {
+            this.renames = renames;
+        }
+
+        private CompoundNode copy(CompoundNode compoundNode) {
+            return rewrite(compoundNode);
+        }
+
+        private Token<String> renamed(Token<String> name) {
+            return renames.getOrDefault(name, name);
+        }
+
+        private VariableAssignNode copy(VariableAssignNode variableAssignNode) {
+            return copyAnnotations(variableAssignNode, new VariableAssignNode(renamed(variableAssignNode.idToken)));
+        }
+
+        @Override
+        public void visit(AssignNode assignNode) {
+            rewriteChild(assignNode.expressionNode);
+
+            then(() -> replaceWith(copyAnnotations(
+                    assignNode,
+                    new AssignNode(copy(assignNode.variableAssignNode), rewritten(assignNode.expressionNode))
+            )));
+        }
+
+        @Override
+        public void visit(CompoundNode compoundNode) {
+            super.visit(compoundNode);
+
+            // only an empty one comes back as itself
+            then(() -> {
+                if (replacement() == compoundNode) {
+                    replaceWith(copyAnnotations(compoundNode, new CompoundNode(compoundNode.statements)));
+                }
+            });
+        }
+
+        @Override
+        public void visit(VariableAssignNode variableAssignNode) {
+            replaceWith(copy(variableAssignNode));
+        }
+
+        @Override
+        public void visit(VariableEvalNode variableEvalNode) {
+            replaceWith(copyAnnotations(variableEvalNode, new VariableEvalNode(renamed(variableEvalNode.idToken))));
+        }
+
+        @Override
+        public void visit(IntConstantNode intConstantNode) {
+            replaceWith(copyAnnotations(
+                    intConstantNode,
+                    IntConstantNode.make(Token.INT_CONSTANT(intConstantNode.value.value))
+            ));
+        }
+
+        @Override
+        public void visit(RealConstantNode realConstantNode) {
+            replaceWith(copyAnnotations(
+                    realConstantNode,
+                    RealConstantNode.make(Token.REAL_CONSTANT(realConstantNode.value.value))
+            ));
+        }
+
+        @Override
+        public void visit(BooleanConstantNode booleanConstantNode) {
+            replaceWith(copyAnnotations(
+                    booleanConstantNode,
+                    BooleanConstantNode.make(Token.BOOLEAN_CONSTANT(booleanConstantNode.value.value))
+            ));
+        }
+
+        @Override
+        public void visit(LoopControlNode loopControlNode) {
+            switch (loopControlNode.type) {
+                case BREAK:
+                    replaceWith(copyAnnotations(loopControlNode, LoopControlNode.Break()));
+                    break;
+
+                case CONTINUE:
+                    replaceWith(copyAnnotations(loopControlNode, LoopControlNode.Continue()));
+                    break;
+
+                default:
+                    String message = String.format("Unrecognized loop control type %s", loopControlNode.type);
+                    throw new IllegalStateException(message);
+            }
+        }
+
+        @Override
+        public void visit(NoOpNode noOpNode) {
+            replaceWith(copyAnnotations(noOpNode, new NoOpNode()));
+        }
+    }
+}
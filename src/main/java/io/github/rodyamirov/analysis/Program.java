@@ -1,23 +1,99 @@
 package io.github.rodyamirov.analysis;
 
 import io.github.rodyamirov.eval.EvalVisitor;
+import io.github.rodyamirov.exec.Specializer;
+import io.github.rodyamirov.jvm.BytecodeCompiler;
+import io.github.rodyamirov.jvm.CompiledProgram;
 import io.github.rodyamirov.symbols.SymbolTable;
 import io.github.rodyamirov.symbols.SymbolValueTable;
 import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.vm.VirtualMachine;
+import io.github.rodyamirov.vm.VmCompiler;
+import io.github.rodyamirov.vm.VmProgram;
+import org.objectweb.asm.ClassTooLargeException;
+import org.objectweb.asm.MethodTooLargeException;
 
 /**
  * Created by richard.rast on 1/2/17.
  */
 public class Program {
+    /**
+     * The ways a program can be run. They all end in the same state; they differ only in speed.
+     */
+    public enum Engine {
+        // walks the syntax tree directly
+        VISITOR,
+
+        // rewrites the syntax tree into specialized executable nodes first
+        SPECIALIZED,
+
+        // compiles the program into a JVM class; worth it for long-running programs. Programs too
+        // large for the JVM's limits on a class run on the VM instead
+        BYTECODE,
+
+        // compiles the program into compact register code for a small interpreter loop
+        VM
+    }
+
     private final SymbolTable symbolTable;
     private final ProgramNode programNode;
+    private final Engine engine;
+
+    // generated on the first bytecode run, then reused
+    private CompiledProgram compiledProgram;
+
+    // the JVM limits how much code goes in one method, and how many constants in one class, and
+    // a large enough program is past one or the other; those run on the VM instead
+    private boolean tooLargeForBytecode = false;
+
+    // likewise for the VM
+    private VmProgram vmProgram;
 
     public Program(SymbolTable symbolTable, ProgramNode programNode) {
+        this(symbolTable, programNode, Engine.VISITOR);
+    }
+
+    public Program(SymbolTable symbolTable, ProgramNode programNode, Engine engine) {
         this.symbolTable = symbolTable;
         this.programNode = programNode;
+        this.engine = engine;
     }
 
     public SymbolValueTable run() {
-        return EvalVisitor.evaluateProgram(programNode, symbolTable);
+        return run(engine);
+    }
+
+    public SymbolValueTable run(Engine engine) {
+        switch (engine) {
+            case VISITOR:
+                return EvalVisitor.evaluateProgram(programNode, symbolTable);
+
+            case SPECIALIZED:
+                return Specializer.evaluateProgram(programNode, symbolTable);
+
+            case BYTECODE:
+                if (compiledProgram == null && ! tooLargeForBytecode) {
+                    try {
+                        compiledProgram = BytecodeCompiler.compile(programNode, symbolTable);
+                    } catch (MethodTooLargeException | ClassTooLargeException e) {
+                        tooLargeForBytecode = true;
+                    }
+                }
+
+                if (tooLargeForBytecode) {
+                    return run(Engine.VM);
+                }
+                return compiledProgram.run();
+
+            case VM:
+                if (vmProgram == null) {
+                    vmProgram = VmCompiler.compile(programNode, symbolTable);
+                }
+                return VirtualMachine.run(vmProgram, programNode, symbolTable);
+
+            default:
+                String message = String.format("Unrecognized engine %s", engine);
+                throw new IllegalArgumentException(message);
+        }
     }
 }
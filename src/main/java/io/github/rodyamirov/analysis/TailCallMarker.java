@@ -0,0 +1,78 @@
+package io.github.rodyamirov.analysis;
+
+import io.github.rodyamirov.tree.CompoundNode;
+import io.github.rodyamirov.tree.IfStatementNode;
+import io.github.rodyamirov.tree.NoOpNode;
+import io.github.rodyamirov.tree.ProcedureCallNode;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.StatementNode;
+import io.github.rodyamirov.tree.SyntaxTree;
+import io.github.rodyamirov.tree.ThoroughVisitor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Marks the procedure calls which are the last thing their procedure does: the final statement
+ * of its body, looking into trailing compound statements and both branches of a trailing if, but
+ * never into a loop. Once such a call is made, the caller's activation has nothing left to do
+ * but be cleared, so the evaluators clear it first, and run the callee in its place.
+ *
+ * That is only safe if the callee can't see the caller's frame, so a call to a procedure the
+ * caller itself declares is never marked. This uses the targets SlotResolver binds, so it has to
+ * run after that, and after anything else which rewrites the tree; it can safely be re-run.
+ */
+public class TailCallMarker extends ThoroughVisitor {
+    public static void mark(SyntaxTree syntaxTree) {
+        syntaxTree.acceptVisit(new TailCallMarker());
+    }
+
+    private TailCallMarker() {
+    }
+
+    @Override
+    public void visit(ProcedureCallNode procedureCallNode) {
+        procedureCallNode.tailCall = false;
+    }
+
+    @Override
+    public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
+        super.visit(procedureDeclarationNode);
+        then(() -> markTail(procedureDeclarationNode.blockNode.compoundNode));
+    }
+
+    private static void markTail(StatementNode body) {
+        // the statements which are the last thing the procedure does; there can be a lot of
+        // nested ifs, so this doesn't recurse
+        Deque<StatementNode> toMark = new ArrayDeque<>();
+        toMark.push(body);
+
+        while (! toMark.isEmpty()) {
+            StatementNode statementNode = toMark.pop();
+
+            if (statementNode instanceof CompoundNode) {
+                List<StatementNode> statements = ((CompoundNode) statementNode).statements;
+
+                // a trailing empty statement doesn't change what comes last
+                int last = statements.size() - 1;
+                while (last >= 0 && statements.get(last) instanceof NoOpNode) {
+                    last -= 1;
+                }
+
+                if (last >= 0) {
+                    toMark.push(statements.get(last));
+                }
+            } else if (statementNode instanceof IfStatementNode) {
+                IfStatementNode ifStatementNode = (IfStatementNode) statementNode;
+                toMark.push(ifStatementNode.thenStatement);
+                ifStatementNode.elseStatement.ifPresent(toMark::push);
+            } else if (statementNode instanceof ProcedureCallNode) {
+                ProcedureCallNode procedureCallNode = (ProcedureCallNode) statementNode;
+
+                // at depth 0 the callee was declared by the caller, and links to the caller's frame
+                procedureCallNode.tailCall = procedureCallNode.target != null && procedureCallNode.frameDepth > 0;
+            }
+        }
+    }
+}
@@ -29,6 +29,9 @@ import java.util.Set;
  * raising an error message if you try to multiply two booleans) and checks that variable assignment
  * is well-defined (e.g. not trying to assign a boolean value to an integer variable).
  *
+ * Every node is typed in a then step, once its children have been, and the walk never recurses,
+ * so arbitrarily deep trees are fine.
+ *
  * Created by richard.rast on 1/2/17.
  */
 public class TypeChecker extends ThoroughVisitor {
@@ -99,13 +102,11 @@ public class TypeChecker extends ThoroughVisitor {
     public void visit(ForNode forNode) {
         super.visit(forNode);
 
-        checkTypes(INTEGER, forNode.assignNode.variableAssignNode);
+        then(() -> checkTypes(INTEGER, forNode.assignNode.variableAssignNode));
     }
 
     @Override
     public void visit(VariableAssignNode variableAssignNode) {
-        super.visit(variableAssignNode);
-
         variableAssignNode.variableType =
                 symbolTable.getType(variableAssignNode.scope, variableAssignNode.idToken);
     }
@@ -114,114 +115,127 @@ public class TypeChecker extends ThoroughVisitor {
     public void visit(AssignNode assignNode) {
         super.visit(assignNode);
 
-        TypeSpec actualType = assignNode.expressionNode.outputType;
+        then(() -> {
+            TypeSpec actualType = assignNode.expressionNode.outputType;
 
-        // if we got an error lower down there's no point ...
-        if (actualType != null) {
-            VariableAssignNode van = assignNode.variableAssignNode;
-            TypeSpec goalType = symbolTable.getType(van.scope, van.idToken);
+            // if we got an error lower down there's no point ...
+            if (actualType != null) {
+                VariableAssignNode van = assignNode.variableAssignNode;
+                TypeSpec goalType = symbolTable.getType(van.scope, van.idToken);
 
-            // no output for this, we're just checking validity
-            switch (goalType) {
-                case INTEGER:
-                    checkTypes(INTEGER, assignNode.expressionNode);
-                    break;
+                // no output for this, we're just checking validity
+                switch (goalType) {
+                    case INTEGER:
+                        checkTypes(INTEGER, assignNode.expressionNode);
+                        break;
 
-                case REAL:
-                    checkTypes(INTEGER_OR_REAL, assignNode.expressionNode);
-                    break;
+                    case REAL:
+                        checkTypes(INTEGER_OR_REAL, assignNode.expressionNode);
+                        break;
 
-                case BOOLEAN:
-                    checkTypes(BOOLEAN, assignNode.expressionNode);
-                    break;
+                    case BOOLEAN:
+                        checkTypes(BOOLEAN, assignNode.expressionNode);
+                        break;
 
-                default:
-                    String message = String.format(
-                            "Unrecognized variable type %s",
-                            goalType.name()
-                    );
-                    throw new IllegalArgumentException(message);
+                    default:
+                        String message = String.format(
+                                "Unrecognized variable type %s",
+                                goalType.name()
+                        );
+                        throw new IllegalArgumentException(message);
+                }
             }
-        }
+        });
     }
 
     @Override
     public void visit(BinOpNode binOpNode) {
         super.visit(binOpNode);
 
-        ExpressionNode leftInput = binOpNode.left;
-        ExpressionNode rightInput = binOpNode.right;
+        then(() -> {
+            ExpressionNode leftInput = binOpNode.left;
+            ExpressionNode rightInput = binOpNode.right;
 
-        // if we got an error lower down it doesn't make sense to evaluateProgram the output here
-        if (leftInput.outputType == null || rightInput.outputType == null) {
-            return;
-        }
+            // if we got an error lower down it doesn't make sense to evaluateProgram the output here
+            if (leftInput.outputType == null || rightInput.outputType == null) {
+                return;
+            }
 
-        TypeSpec output;
-        switch (binOpNode.opToken.type) {
-            case MINUS:
-            case PLUS:
-            case TIMES:
-                if (!checkTypes(INTEGER_OR_REAL, leftInput)) return;
-                if (!checkTypes(INTEGER_OR_REAL, rightInput)) return;
-                output = arithmeticIntToFloat(leftInput.outputType, rightInput.outputType);
-                break;
-
-            case REAL_DIVIDE:
-                if (!checkTypes(INTEGER_OR_REAL, leftInput)) return;
-                if (!checkTypes(INTEGER_OR_REAL, rightInput)) return;
-                output = TypeSpec.REAL;
-                break;
-
-            case INT_DIVIDE:
-            case MOD:
-                if (!checkTypes(INTEGER, leftInput)) return;
-                if (!checkTypes(INTEGER, rightInput)) return;
-                output = TypeSpec.INTEGER;
-                break;
-
-            case AND:
-            case OR:
-                if (!checkTypes(BOOLEAN, leftInput)) return;
-                if (!checkTypes(BOOLEAN, rightInput)) return;
-                output = TypeSpec.BOOLEAN;
-                break;
-
-            case LESS_THAN:
-            case LESS_THAN_OR_EQUALS:
-            case GREATER_THAN:
-            case GREATER_THAN_OR_EQUALS:
-                if (!checkTypes(INTEGER_OR_REAL, leftInput)) return;
-                if (!checkTypes(INTEGER_OR_REAL, rightInput)) return;
-                output = TypeSpec.BOOLEAN;
-                break;
-
-            case EQUALS:
-            case NOT_EQUALS:
-                if (! checkTypes(ImmutableSet.of(leftInput.outputType), rightInput)) return;
-                output = TypeSpec.BOOLEAN;
-                break;
+            TypeSpec output;
+            TypeSpec operandType;
+            switch (binOpNode.opToken.type) {
+                case MINUS:
+                case PLUS:
+                case TIMES:
+                    if (!checkTypes(INTEGER_OR_REAL, leftInput)) return;
+                    if (!checkTypes(INTEGER_OR_REAL, rightInput)) return;
+                    output = arithmeticIntToFloat(leftInput.outputType, rightInput.outputType);
+                    operandType = output;
+                    break;
 
-            default:
-                String message = String.format(
-                        "Unrecognized binary operation type %s",
-                        binOpNode.opToken.type.name()
-                );
-                throw new IllegalArgumentException(message);
-        }
+                case REAL_DIVIDE:
+                    if (!checkTypes(INTEGER_OR_REAL, leftInput)) return;
+                    if (!checkTypes(INTEGER_OR_REAL, rightInput)) return;
+                    output = TypeSpec.REAL;
+                    operandType = TypeSpec.REAL;
+                    break;
+
+                case INT_DIVIDE:
+                case MOD:
+                    if (!checkTypes(INTEGER, leftInput)) return;
+                    if (!checkTypes(INTEGER, rightInput)) return;
+                    output = TypeSpec.INTEGER;
+                    operandType = TypeSpec.INTEGER;
+                    break;
+
+                case AND:
+                case OR:
+                    if (!checkTypes(BOOLEAN, leftInput)) return;
+                    if (!checkTypes(BOOLEAN, rightInput)) return;
+                    output = TypeSpec.BOOLEAN;
+                    operandType = TypeSpec.BOOLEAN;
+                    break;
+
+                case LESS_THAN:
+                case LESS_THAN_OR_EQUALS:
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQUALS:
+                    if (!checkTypes(INTEGER_OR_REAL, leftInput)) return;
+                    if (!checkTypes(INTEGER_OR_REAL, rightInput)) return;
+                    output = TypeSpec.BOOLEAN;
+                    operandType = arithmeticIntToFloat(leftInput.outputType, rightInput.outputType);
+                    break;
+
+                case EQUALS:
+                case NOT_EQUALS:
+                    if (! checkTypes(ImmutableSet.of(leftInput.outputType), rightInput)) return;
+                    output = TypeSpec.BOOLEAN;
+                    operandType = leftInput.outputType;
+                    break;
+
+                default:
+                    String message = String.format(
+                            "Unrecognized binary operation type %s",
+                            binOpNode.opToken.type.name()
+                    );
+                    throw new IllegalArgumentException(message);
+            }
 
-        binOpNode.outputType = output;
+            binOpNode.outputType = output;
+
+            // pick the implementation now, so nothing has to look at types while running
+            binOpNode.operation = BinOpNode.Operation.select(binOpNode.opToken.type, operandType);
+            binOpNode.function = binOpNode.operation.function;
+        });
     }
 
     @Override
     public void visit(BooleanConstantNode booleanConstantNode) {
-        super.visit(booleanConstantNode);
         booleanConstantNode.outputType = TypeSpec.BOOLEAN;
     }
 
     @Override
     public void visit(IntConstantNode intConstantNode) {
-        super.visit(intConstantNode);
         intConstantNode.outputType = TypeSpec.INTEGER;
     }
 
@@ -229,43 +243,46 @@ public class TypeChecker extends ThoroughVisitor {
     public void visit(AndThenNode andThenNode) {
         super.visit(andThenNode);
 
-        boolean foundError = false;
+        then(() -> {
+            boolean foundError = false;
 
-        if (andThenNode.left.outputType == null || !checkTypes(BOOLEAN, andThenNode.left)) {
-            foundError = true;
-        }
+            if (andThenNode.left.outputType == null || !checkTypes(BOOLEAN, andThenNode.left)) {
+                foundError = true;
+            }
 
-        if (andThenNode.right.outputType == null || !checkTypes(BOOLEAN, andThenNode.right)) {
-            foundError = true;
-        }
+            if (andThenNode.right.outputType == null || !checkTypes(BOOLEAN, andThenNode.right)) {
+                foundError = true;
+            }
 
-        if (!foundError) {
-            andThenNode.outputType = TypeSpec.BOOLEAN;
-        }
+            if (!foundError) {
+                andThenNode.outputType = TypeSpec.BOOLEAN;
+            }
+        });
     }
 
     @Override
     public void visit(OrElseNode orElseNode) {
         super.visit(orElseNode);
 
-        boolean foundError = false;
+        then(() -> {
+            boolean foundError = false;
 
-        if (orElseNode.left.outputType == null || !checkTypes(BOOLEAN, orElseNode.left)) {
-            foundError = true;
-        }
+            if (orElseNode.left.outputType == null || !checkTypes(BOOLEAN, orElseNode.left)) {
+                foundError = true;
+            }
 
-        if (orElseNode.right.outputType == null || !checkTypes(BOOLEAN, orElseNode.right)) {
-            foundError = true;
-        }
+            if (orElseNode.right.outputType == null || !checkTypes(BOOLEAN, orElseNode.right)) {
+                foundError = true;
+            }
 
-        if (!foundError) {
-            orElseNode.outputType = TypeSpec.BOOLEAN;
-        }
+            if (!foundError) {
+                orElseNode.outputType = TypeSpec.BOOLEAN;
+            }
+        });
     }
 
     @Override
     public void visit(RealConstantNode realConstantNode) {
-        super.visit(realConstantNode);
         realConstantNode.outputType = TypeSpec.REAL;
     }
 
@@ -273,40 +290,43 @@ public class TypeChecker extends ThoroughVisitor {
     public void visit(UnaryOpNode unaryOpNode) {
         super.visit(unaryOpNode);
 
-        TypeSpec inputType = unaryOpNode.child.outputType;
-        if (inputType == null) {
-            return;
-        }
+        then(() -> {
+            TypeSpec inputType = unaryOpNode.child.outputType;
+            if (inputType == null) {
+                return;
+            }
 
-        TypeSpec outputType;
+            TypeSpec outputType;
 
-        switch (unaryOpNode.opToken.type) {
-            case PLUS:
-            case MINUS:
-                if (!checkTypes(INTEGER_OR_REAL, unaryOpNode.child)) return;
-                outputType = unaryOpNode.child.outputType;
-                break;
+            switch (unaryOpNode.opToken.type) {
+                case PLUS:
+                case MINUS:
+                    if (!checkTypes(INTEGER_OR_REAL, unaryOpNode.child)) return;
+                    outputType = unaryOpNode.child.outputType;
+                    break;
 
-            case NOT:
-                if (!checkTypes(BOOLEAN, unaryOpNode.child)) return;
-                outputType = TypeSpec.BOOLEAN;
-                break;
+                case NOT:
+                    if (!checkTypes(BOOLEAN, unaryOpNode.child)) return;
+                    outputType = TypeSpec.BOOLEAN;
+                    break;
 
-            default:
-                String message = String.format(
-                        "Unrecognized unary operation type %s",
-                        unaryOpNode.opToken.type.name()
-                );
-                throw new IllegalArgumentException(message);
-        }
+                default:
+                    String message = String.format(
+                            "Unrecognized unary operation type %s",
+                            unaryOpNode.opToken.type.name()
+                    );
+                    throw new IllegalArgumentException(message);
+            }
+
+            unaryOpNode.outputType = outputType;
 
-        unaryOpNode.outputType = outputType;
+            unaryOpNode.operation = UnaryOpNode.Operation.select(unaryOpNode.opToken.type, inputType);
+            unaryOpNode.function = unaryOpNode.operation.function;
+        });
     }
 
     @Override
     public void visit(VariableEvalNode variableEvalNode) {
-        super.visit(variableEvalNode);
-
         variableEvalNode.outputType =
                 symbolTable.getType(variableEvalNode.scope, variableEvalNode.idToken);
     }
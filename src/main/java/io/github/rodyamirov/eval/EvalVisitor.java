@@ -1,7 +1,9 @@
 package io.github.rodyamirov.eval;
 
-import io.github.rodyamirov.lex.Token;
-import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.exceptions.VariableException;
+import io.github.rodyamirov.symbols.Frame;
+import io.github.rodyamirov.symbols.FramePool;
+import io.github.rodyamirov.symbols.SlotResolver;
 import io.github.rodyamirov.symbols.SymbolTable;
 import io.github.rodyamirov.symbols.SymbolValue;
 import io.github.rodyamirov.symbols.SymbolValueTable;
@@ -27,6 +29,7 @@ import io.github.rodyamirov.tree.ProcedureDeclarationNode;
 import io.github.rodyamirov.tree.ProgramNode;
 import io.github.rodyamirov.tree.RealConstantNode;
 import io.github.rodyamirov.tree.StatementNode;
+import io.github.rodyamirov.tree.ThoroughVisitor;
 import io.github.rodyamirov.tree.UnaryOpNode;
 import io.github.rodyamirov.tree.VariableAssignNode;
 import io.github.rodyamirov.tree.VariableDeclarationNode;
@@ -34,45 +37,152 @@ import io.github.rodyamirov.tree.VariableEvalNode;
 import io.github.rodyamirov.tree.WhileNode;
 import io.github.rodyamirov.utils.SingleElementStack;
 
-import java.util.function.Supplier;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /**
+ * Evaluates a tree by visiting it. Ordinarily each node is evaluated by recursing into its
+ * children, but a tree nested deeper than DEEP_NESTING could run the thread out of stack that way.
+ * For those, statements which contain statements (other than for loops) are run off a stack of our
+ * own instead, as are expressions nested that deeply, which is slower but only limited by the
+ * heap. Procedure calls and nested for loops still take stack space for each level.
+ *
  * Created by richard.rast on 12/25/16.
  */
 public class EvalVisitor extends NodeVisitor {
+    // comfortably within what the default thread stack handles by recursing
+    static final int DEEP_NESTING = 1000;
+
     public static SymbolValueTable evaluateProgram(ProgramNode programNode, SymbolTable symbolTable) {
+        // the Analyzer has usually done this already, but direct callers may not have
+        SlotResolver.resolve(programNode, symbolTable);
+
         EvalVisitor evalVisitor = new EvalVisitor(symbolTable);
+        evalVisitor.deep = ThoroughVisitor.height(programNode) > DEEP_NESTING;
         programNode.acceptVisit(evalVisitor);
         return evalVisitor.symbolValueTable;
     }
 
     public static SymbolValue evaluateExpression(ExpressionNode expressionNode, SymbolTable symbolTable) {
+        SlotResolver.resolve(expressionNode, symbolTable);
+
         EvalVisitor evalVisitor = new EvalVisitor(symbolTable);
+        evalVisitor.currentFrame = evalVisitor.symbolValueTable.getFrame(expressionNode.scope);
+
+        if (ThoroughVisitor.height(expressionNode) > DEEP_NESTING) {
+            return evalVisitor.evaluateDeep(expressionNode);
+        }
+
+        if (isTyped(expressionNode)) {
+            // box once at the end, rather than at every node
+            Frame frame = evalVisitor.currentFrame;
+            PrimitiveEvaluator primitives = evalVisitor.primitives;
+
+            switch (expressionNode.outputType) {
+                case INTEGER:
+                    return SymbolValue.makeInteger(primitives.evaluateInt(expressionNode, frame));
+
+                case REAL:
+                    return SymbolValue.makeReal(primitives.evaluateReal(expressionNode, frame));
+
+                case BOOLEAN:
+                    return SymbolValue.makeBoolean(primitives.evaluateBoolean(expressionNode, frame));
+
+                default:
+                    break;
+            }
+        }
+
         expressionNode.acceptVisit(evalVisitor);
         return evalVisitor.resultStack.pop();
     }
 
+    // anything the TypeChecker has seen can go through the unboxed path
+    private static boolean isTyped(ExpressionNode expressionNode) {
+        return expressionNode.outputType != null;
+    }
+
     private final SingleElementStack<SymbolValue> resultStack = new SingleElementStack<>();
     private final SingleElementStack<LoopControlNode> loopControlNodes = new SingleElementStack<>();
 
     private final SymbolValueTable symbolValueTable;
+    private final PrimitiveEvaluator primitives = new PrimitiveEvaluator();
+
+    // the frame for the scope currently executing; resolved variable references are relative to it
+    private Frame currentFrame;
+
+    // call targets are bound before we start, so their pools can be found by identity
+    private final Map<ProcedureDeclarationNode, FramePool> framePools = new IdentityHashMap<>();
+    private ProcedureDeclarationNode lastCalled = null;
+    private FramePool lastCalledPool = null;
+
+    // a tail call waiting for the procedure making it to finish
+    private ProcedureDeclarationNode tailCallee = null;
+    private Frame tailStaticLink = null;
+
+    // whether to evaluate off our own stacks; see the class comment
+    private boolean deep = false;
+
+    // even then most expressions are shallow, and can still be evaluated unboxed
+    private final Map<ExpressionNode, Boolean> deepExpressions = new IdentityHashMap<>();
+
+    // statements in progress, and how far along each is
+    private StatementNode[] statements = new StatementNode[16];
+    private int[] statementStates = new int[16];
+    private int statementCount = 0;
+
+    // expressions in progress, how far along each is, and the values they've produced so far
+    private ExpressionNode[] expressions = new ExpressionNode[16];
+    private int[] expressionStates = new int[16];
+    private int expressionCount = 0;
+    private SymbolValue[] values = new SymbolValue[16];
+    private int valueCount = 0;
 
     private EvalVisitor(SymbolTable globalDeclarations) {
         symbolValueTable = new SymbolValueTable(globalDeclarations);
     }
 
+    private boolean isDeep(ExpressionNode expressionNode) {
+        return deep && deepExpressions.computeIfAbsent(expressionNode, e -> ThoroughVisitor.height(e) > DEEP_NESTING);
+    }
+
+    private boolean evaluateCondition(ExpressionNode condition) {
+        if (isDeep(condition)) {
+            SymbolValue<Boolean> result = evaluateDeep(condition);
+            return result.value;
+        } else if (isTyped(condition)) {
+            return primitives.evaluateBoolean(condition, currentFrame);
+        } else {
+            condition.acceptVisit(this);
+            SymbolValue<Boolean> result = resultStack.pop();
+            return result.value;
+        }
+    }
+
+    private int evaluateBound(ExpressionNode bound) {
+        if (isDeep(bound)) {
+            SymbolValue<Integer> result = evaluateDeep(bound);
+            return result.value;
+        } else if (isTyped(bound)) {
+            return primitives.evaluateInt(bound, currentFrame);
+        } else {
+            bound.acceptVisit(this);
+            SymbolValue<Integer> result = resultStack.pop();
+            return result.value;
+        }
+    }
+
     @Override
     public void visit(WhileNode whileNode) {
-        Supplier<Boolean> checkCondition =
-                () -> {
-                    whileNode.condition.acceptVisit(this);
-                    SymbolValue<Boolean> result = resultStack.pop();
-                    return result.value;
-                };
-
-        while (checkCondition.get()) {
+        if (deep) {
+            runDeep(whileNode);
+            return;
+        }
+
+        while (evaluateCondition(whileNode.condition)) {
             whileNode.childStatement.acceptVisit(this);
-            if (endLoopShouldBreak()) {
+            if (whileNode.childStatement.canLeave() && endLoopShouldBreak()) {
                 break;
             }
         }
@@ -80,32 +190,25 @@ public class EvalVisitor extends NodeVisitor {
 
     @Override
     public void visit(DoUntilNode doUntilNode) {
-        Supplier<Boolean> checkCondition =
-                () -> {
-                    doUntilNode.condition.acceptVisit(this);
-                    SymbolValue<Boolean> result = resultStack.pop();
-                    return result.value;
-                };
+        if (deep) {
+            runDeep(doUntilNode);
+            return;
+        }
 
         do {
             doUntilNode.childStatement.acceptVisit(this);
-            if (endLoopShouldBreak()) {
+            if (doUntilNode.childStatement.canLeave() && endLoopShouldBreak()) {
                 break;
             }
-        } while (! checkCondition.get());
+        } while (! evaluateCondition(doUntilNode.condition));
     }
 
     @Override
     public void visit(ForNode forNode) {
         VariableAssignNode loopVariable = forNode.assignNode.variableAssignNode;
 
-        // set up the start
-        forNode.assignNode.expressionNode.acceptVisit(this);
-        int start = ((SymbolValue<Integer>) resultStack.pop()).value;
-
-        // set up the end
-        forNode.bound.acceptVisit(this);
-        int end = ((SymbolValue<Integer>) resultStack.pop()).value;
+        int start = evaluateBound(forNode.assignNode.expressionNode);
+        int end = evaluateBound(forNode.bound);
 
         int change;
         switch (forNode.direction) {
@@ -120,18 +223,65 @@ public class EvalVisitor extends NodeVisitor {
                 throw new IllegalStateException(message);
         }
 
+        loopVariable.acceptVisit(this);
+        Frame loopFrame = currentFrame.ancestor(loopVariable.frameDepth);
+        int loopSlot = loopVariable.slotIndex;
+
+        if (forNode.counted) {
+            runCounted(forNode, loopFrame, loopSlot, start, end, change);
+            return;
+        }
+
         for (int i = start; i != end+change; i += change) {
-            SymbolValue<Integer> loopValue = SymbolValue.make(TypeSpec.INTEGER, i);
-            symbolValueTable.setValue(forNode.scope, loopVariable.idToken, loopValue);
-            symbolValueTable.lockValue(forNode.scope, loopVariable.idToken);
+            if (loopVariable.variableType == TypeSpec.INTEGER) {
+                loopFrame.setInt(loopSlot, i);
+            } else {
+                loopFrame.set(loopSlot, SymbolValue.makeInteger(i));
+            }
+            if (! forNode.lockFree) {
+                loopFrame.lock(loopSlot);
+            }
 
             forNode.body.acceptVisit(this);
 
-            symbolValueTable.unlockValue(forNode.scope, loopVariable.idToken);
+            if (! forNode.lockFree) {
+                loopFrame.unlock(loopSlot);
+            }
+
+            if (forNode.body.canLeave() && endLoopShouldBreak()) {
+                break;
+            }
+        }
+    }
+
+    // nothing in the body can see the loop variable, so it only needs to be set at the ends
+    private void runCounted(ForNode forNode, Frame loopFrame, int loopSlot, int start, int end, int change) {
+        if (start == end+change) {
+            return;
+        }
+
+        // the first write still fails if an enclosing loop holds the variable
+        setLoopVariable(forNode, loopFrame, loopSlot, start);
+
+        int i = start;
+        while (true) {
+            forNode.body.acceptVisit(this);
 
-            if (endLoopShouldBreak()) {
+            if ((forNode.body.canLeave() && endLoopShouldBreak()) || i == end) {
                 break;
             }
+
+            i += change;
+        }
+
+        setLoopVariable(forNode, loopFrame, loopSlot, i);
+    }
+
+    private void setLoopVariable(ForNode forNode, Frame loopFrame, int loopSlot, int value) {
+        if (forNode.assignNode.variableAssignNode.variableType == TypeSpec.INTEGER) {
+            loopFrame.setInt(loopSlot, value);
+        } else {
+            loopFrame.set(loopSlot, SymbolValue.makeInteger(value));
         }
     }
 
@@ -165,21 +315,53 @@ public class EvalVisitor extends NodeVisitor {
 
     @Override
     public void visit(ProcedureCallNode procCall) {
-        SymbolValue<ProcedureDeclarationNode> procValue =
-                symbolValueTable.getValue(procCall.scope, procCall.procedureName);
+        ProcedureDeclarationNode call = procCall.target;
 
-        ProcedureDeclarationNode call = procValue.value;
+        if (call == null) {
+            throw VariableException.notDefined(procCall.scope, procCall.procedureName);
+        }
 
-        // just execute everything in the procedure declaration
-        call.blockNode.acceptVisit(this);
+        // the frame holding the declaration is the one the procedure's own frame links to
+        Frame staticLink = currentFrame.ancestor(procCall.frameDepth);
 
-        // then clear out instance variables! they should not persist between calls
-        for (VariableDeclarationNode vdn : call.blockNode.declarationNode.variableDeclarations) {
-            Scope scope = vdn.scope;
-            for (Token<String> idToken : vdn.variableIds) {
-                symbolValueTable.clearValue(scope, idToken);
-            }
+        if (procCall.tailCall) {
+            // the caller is finishing anyway; let it clear its frame, then run this in its place
+            tailCallee = call;
+            tailStaticLink = staticLink;
+            return;
         }
+
+        Frame callerFrame = currentFrame;
+
+        while (call != null) {
+            FramePool framePool = framePoolOf(call);
+            currentFrame = framePool.enter(staticLink);
+
+            // just execute everything in the procedure declaration
+            call.blockNode.acceptVisit(this);
+
+            // then give the frame back; its variables should not persist between calls
+            framePool.exit(currentFrame);
+
+            call = tailCallee;
+            staticLink = tailStaticLink;
+            tailCallee = null;
+            tailStaticLink = null;
+        }
+
+        currentFrame = callerFrame;
+    }
+
+    // hot loops tend to call the same procedure over and over, so remember the last one
+    private FramePool framePoolOf(ProcedureDeclarationNode call) {
+        if (call != lastCalled) {
+            lastCalledPool = framePools.computeIfAbsent(
+                    call, c -> symbolValueTable.getFramePool(c.blockNode.scope)
+            );
+            lastCalled = call;
+        }
+
+        return lastCalledPool;
     }
 
     @Override
@@ -195,7 +377,12 @@ public class EvalVisitor extends NodeVisitor {
                 SymbolValue.make(TypeSpec.PROGRAM, programNode)
         );
 
+        Frame outerFrame = currentFrame;
+        currentFrame = symbolValueTable.getFrame(programNode.blockNode.scope);
+
         programNode.blockNode.acceptVisit(this);
+
+        currentFrame = outerFrame;
     }
 
     @Override
@@ -251,10 +438,12 @@ public class EvalVisitor extends NodeVisitor {
 
     @Override
     public void visit(IfStatementNode ifStatementNode) {
-        ifStatementNode.condition.acceptVisit(this);
-        SymbolValue<Boolean> conditionResult = resultStack.pop();
+        if (deep) {
+            runDeep(ifStatementNode);
+            return;
+        }
 
-        if (conditionResult.value) {
+        if (evaluateCondition(ifStatementNode.condition)) {
             ifStatementNode.thenStatement.acceptVisit(this);
         } else {
             ifStatementNode.elseStatement.ifPresent(s -> s.acceptVisit(this));
@@ -263,9 +452,9 @@ public class EvalVisitor extends NodeVisitor {
 
     @Override
     public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
-        symbolValueTable.setValue(
-                procedureDeclarationNode.scope,
-                procedureDeclarationNode.name,
+        // declared in the current activation of the enclosing block, not just the first one
+        currentFrame.set(
+                currentFrame.layout.slotOf(procedureDeclarationNode.name),
                 SymbolValue.make(TypeSpec.PROCEDURE, procedureDeclarationNode)
         );
     }
@@ -287,25 +476,61 @@ public class EvalVisitor extends NodeVisitor {
 
     @Override
     public void visit(AssignNode assignNode) {
-        assignNode.variableAssignNode.acceptVisit(this);
-        Token<String> varToken = assignNode.variableAssignNode.idToken;
+        VariableAssignNode target = assignNode.variableAssignNode;
+        target.acceptVisit(this);
+
+        ExpressionNode expressionNode = assignNode.expressionNode;
+        Frame targetFrame = currentFrame.ancestor(target.frameDepth);
+
+        if (isDeep(expressionNode)) {
+            targetFrame.set(target.slotIndex, evaluateDeep(expressionNode));
+            return;
+        }
+
+        // if the TypeChecker has been through, we know statically which slot type to write
+        if (target.variableType != null && isTyped(expressionNode)) {
+            switch (target.variableType) {
+                case INTEGER:
+                    targetFrame.setInt(target.slotIndex, primitives.evaluateInt(expressionNode, currentFrame));
+                    return;
+
+                case REAL:
+                    targetFrame.setReal(target.slotIndex, primitives.evaluateReal(expressionNode, currentFrame));
+                    return;
+
+                case BOOLEAN:
+                    targetFrame.setBoolean(target.slotIndex, primitives.evaluateBoolean(expressionNode, currentFrame));
+                    return;
+
+                default:
+                    break;
+            }
+        }
 
         // now figure out what to set the variable to ...
-        assignNode.expressionNode.acceptVisit(this);
+        expressionNode.acceptVisit(this);
         SymbolValue result = resultStack.pop();
 
-        symbolValueTable.setValue(assignNode.scope, varToken, result);
+        targetFrame.set(target.slotIndex, result);
     }
 
     @Override
     public void visit(VariableAssignNode variableAssignNode) {
-        // does nothing; symbol table handles this
+        // nothing to compute, but an unresolved target means the variable was never declared
+        if (variableAssignNode.slotIndex < 0) {
+            throw VariableException.notDefined(variableAssignNode.scope, variableAssignNode.idToken);
+        }
     }
 
     @Override
     public void visit(VariableEvalNode variableEvalNode) {
-        Token<String> varToken = variableEvalNode.idToken;
-        SymbolValue result = symbolValueTable.getValue(variableEvalNode.scope, varToken);
+        if (variableEvalNode.slotIndex < 0) {
+            throw VariableException.notDefined(variableEvalNode.scope, variableEvalNode.idToken);
+        }
+
+        SymbolValue result = currentFrame
+                .ancestor(variableEvalNode.frameDepth)
+                .get(variableEvalNode.slotIndex);
 
         resultStack.push(result);
     }
@@ -325,13 +550,19 @@ public class EvalVisitor extends NodeVisitor {
 
     @Override
     public void visit(CompoundNode compoundNode) {
+        if (deep) {
+            runDeep(compoundNode);
+            return;
+        }
+
         for (StatementNode statement : compoundNode.statements) {
-            // this is the only place a continue/break actually does anything
-            if (! loopControlNodes.isEmpty()){
+            statement.acceptVisit(this);
+
+            // this is the only place a continue/break actually does anything; only statements
+            // which contain one can raise it, so straight-line code never has to look
+            if (statement.canLeave() && ! loopControlNodes.isEmpty()) {
                 break;
             }
-
-            statement.acceptVisit(this);
         }
     }
 
@@ -349,4 +580,193 @@ public class EvalVisitor extends NodeVisitor {
         SymbolValue value = unaryOpNode.function.apply(childValue);
         resultStack.push(value);
     }
+
+    /*
+     * Runs a statement just as the visits above would, but keeps the statements inside it on a
+     * stack of our own. The state of a compound statement is the index of the next statement to
+     * run; an if statement's is 1 once it has picked a branch, and a loop's is 1 once its body
+     * has run.
+     */
+    private void runDeep(StatementNode root) {
+        int base = statementCount;
+        pushStatement(root);
+
+        while (statementCount > base) {
+            int top = statementCount - 1;
+            StatementNode node = statements[top];
+            int state = statementStates[top];
+
+            if (node instanceof CompoundNode) {
+                CompoundNode compoundNode = (CompoundNode) node;
+
+                if (state == compoundNode.statements.size() || (state > 0
+                        && compoundNode.statements.get(state - 1).canLeave() && ! loopControlNodes.isEmpty())) {
+                    popStatement();
+                } else {
+                    statementStates[top] = state + 1;
+                    runOrPush(compoundNode.statements.get(state));
+                }
+            } else if (node instanceof IfStatementNode) {
+                IfStatementNode ifStatementNode = (IfStatementNode) node;
+
+                if (state == 0) {
+                    statementStates[top] = 1;
+
+                    if (evaluateCondition(ifStatementNode.condition)) {
+                        runOrPush(ifStatementNode.thenStatement);
+                    } else if (ifStatementNode.elseStatement.isPresent()) {
+                        runOrPush(ifStatementNode.elseStatement.get());
+                    }
+                } else {
+                    popStatement();
+                }
+            } else if (node instanceof WhileNode) {
+                WhileNode whileNode = (WhileNode) node;
+
+                if (state == 1 && whileNode.childStatement.canLeave() && endLoopShouldBreak()) {
+                    popStatement();
+                } else if (evaluateCondition(whileNode.condition)) {
+                    statementStates[top] = 1;
+                    runOrPush(whileNode.childStatement);
+                } else {
+                    popStatement();
+                }
+            } else {
+                DoUntilNode doUntilNode = (DoUntilNode) node;
+
+                if (state == 1 && ((doUntilNode.childStatement.canLeave() && endLoopShouldBreak())
+                        || evaluateCondition(doUntilNode.condition))) {
+                    popStatement();
+                } else {
+                    statementStates[top] = 1;
+                    runOrPush(doUntilNode.childStatement);
+                }
+            }
+        }
+    }
+
+    private void runOrPush(StatementNode statement) {
+        if (statement instanceof CompoundNode || statement instanceof IfStatementNode
+                || statement instanceof WhileNode || statement instanceof DoUntilNode) {
+            pushStatement(statement);
+        } else {
+            statement.acceptVisit(this);
+        }
+    }
+
+    private void pushStatement(StatementNode statement) {
+        if (statementCount == statements.length) {
+            statements = Arrays.copyOf(statements, statementCount * 2);
+            statementStates = Arrays.copyOf(statementStates, statementCount * 2);
+        }
+
+        statements[statementCount] = statement;
+        statementStates[statementCount] = 0;
+        statementCount += 1;
+    }
+
+    private void popStatement() {
+        statementCount -= 1;
+        statements[statementCount] = null;
+    }
+
+    /*
+     * Evaluates an expression just as the visits above would, boxed, but keeps the expressions in
+     * progress on a stack of our own. The state of an expression is the number of its children
+     * which have been evaluated so far.
+     */
+    private SymbolValue evaluateDeep(ExpressionNode root) {
+        int base = expressionCount;
+        pushExpression(root);
+
+        while (expressionCount > base) {
+            int top = expressionCount - 1;
+            ExpressionNode node = expressions[top];
+            int state = expressionStates[top];
+            expressionStates[top] = state + 1;
+
+            if (node instanceof BinOpNode) {
+                BinOpNode binOpNode = (BinOpNode) node;
+
+                if (state == 0) {
+                    pushExpression(binOpNode.left);
+                } else if (state == 1) {
+                    pushExpression(binOpNode.right);
+                } else {
+                    SymbolValue right = popValue();
+                    SymbolValue left = popValue();
+                    pushValue(binOpNode.function.apply(left, right));
+                    popExpression();
+                }
+            } else if (node instanceof UnaryOpNode) {
+                UnaryOpNode unaryOpNode = (UnaryOpNode) node;
+
+                if (state == 0) {
+                    pushExpression(unaryOpNode.child);
+                } else {
+                    pushValue(unaryOpNode.function.apply(popValue()));
+                    popExpression();
+                }
+            } else if (node instanceof AndThenNode) {
+                // left ? right : left
+                if (state == 0) {
+                    pushExpression(((AndThenNode) node).left);
+                } else if (state == 1 && (Boolean) values[valueCount - 1].value) {
+                    popValue();
+                    pushExpression(((AndThenNode) node).right);
+                } else {
+                    popExpression();
+                }
+            } else if (node instanceof OrElseNode) {
+                // left ? left : right
+                if (state == 0) {
+                    pushExpression(((OrElseNode) node).left);
+                } else if (state == 1 && ! (Boolean) values[valueCount - 1].value) {
+                    popValue();
+                    pushExpression(((OrElseNode) node).right);
+                } else {
+                    popExpression();
+                }
+            } else {
+                // constants and variables have no children, so the usual visit does it
+                node.acceptVisit(this);
+                pushValue(resultStack.pop());
+                popExpression();
+            }
+        }
+
+        return popValue();
+    }
+
+    private void pushExpression(ExpressionNode expression) {
+        if (expressionCount == expressions.length) {
+            expressions = Arrays.copyOf(expressions, expressionCount * 2);
+            expressionStates = Arrays.copyOf(expressionStates, expressionCount * 2);
+        }
+
+        expressions[expressionCount] = expression;
+        expressionStates[expressionCount] = 0;
+        expressionCount += 1;
+    }
+
+    private void popExpression() {
+        expressionCount -= 1;
+        expressions[expressionCount] = null;
+    }
+
+    private void pushValue(SymbolValue value) {
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, valueCount * 2);
+        }
+
+        values[valueCount] = value;
+        valueCount += 1;
+    }
+
+    private SymbolValue popValue() {
+        valueCount -= 1;
+        SymbolValue out = values[valueCount];
+        values[valueCount] = null;
+        return out;
+    }
 }
@@ -0,0 +1,362 @@
+package io.github.rodyamirov.eval;
+
+import io.github.rodyamirov.exceptions.VariableException;
+import io.github.rodyamirov.symbols.Frame;
+import io.github.rodyamirov.symbols.TypeSpec;
+import io.github.rodyamirov.tree.AndThenNode;
+import io.github.rodyamirov.tree.AssignNode;
+import io.github.rodyamirov.tree.BinOpNode;
+import io.github.rodyamirov.tree.BlockNode;
+import io.github.rodyamirov.tree.BooleanConstantNode;
+import io.github.rodyamirov.tree.CompoundNode;
+import io.github.rodyamirov.tree.DeclarationNode;
+import io.github.rodyamirov.tree.DoUntilNode;
+import io.github.rodyamirov.tree.ExpressionNode;
+import io.github.rodyamirov.tree.ForNode;
+import io.github.rodyamirov.tree.IfStatementNode;
+import io.github.rodyamirov.tree.IntConstantNode;
+import io.github.rodyamirov.tree.LoopControlNode;
+import io.github.rodyamirov.tree.NoOpNode;
+import io.github.rodyamirov.tree.NodeVisitor;
+import io.github.rodyamirov.tree.OrElseNode;
+import io.github.rodyamirov.tree.ProcedureCallNode;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.RealConstantNode;
+import io.github.rodyamirov.tree.SyntaxTree;
+import io.github.rodyamirov.tree.UnaryOpNode;
+import io.github.rodyamirov.tree.VariableAssignNode;
+import io.github.rodyamirov.tree.VariableDeclarationNode;
+import io.github.rodyamirov.tree.VariableEvalNode;
+import io.github.rodyamirov.tree.WhileNode;
+
+/**
+ * Evaluates type-checked expressions without boxing. Instead of pushing a SymbolValue for every
+ * node, each visit leaves its answer in one of three primitive registers, picked by the node's
+ * outputType (which TypeChecker has already filled in). Nothing is allocated per operation.
+ *
+ * This only makes sense for trees which passed the TypeChecker; EvalVisitor falls back to the
+ * boxed path for anything without type information.
+ */
+final class PrimitiveEvaluator extends NodeVisitor {
+    private Frame frame;
+
+    private int intResult;
+    private float realResult;
+    private boolean booleanResult;
+
+    int evaluateInt(ExpressionNode expressionNode, Frame frame) {
+        this.frame = frame;
+        return evalInt(expressionNode);
+    }
+
+    float evaluateReal(ExpressionNode expressionNode, Frame frame) {
+        this.frame = frame;
+        return evalReal(expressionNode);
+    }
+
+    boolean evaluateBoolean(ExpressionNode expressionNode, Frame frame) {
+        this.frame = frame;
+        return evalBoolean(expressionNode);
+    }
+
+    private int evalInt(ExpressionNode expressionNode) {
+        expressionNode.acceptVisit(this);
+        return intResult;
+    }
+
+    // widens INTEGER results, which is the only implicit conversion the language has
+    private float evalReal(ExpressionNode expressionNode) {
+        expressionNode.acceptVisit(this);
+        return expressionNode.outputType == TypeSpec.INTEGER ? (float) intResult : realResult;
+    }
+
+    private boolean evalBoolean(ExpressionNode expressionNode) {
+        expressionNode.acceptVisit(this);
+        return booleanResult;
+    }
+
+    @Override
+    public void visit(BinOpNode binOpNode) {
+        ExpressionNode left = binOpNode.left;
+        ExpressionNode right = binOpNode.right;
+
+        // the TypeChecker has already picked the operation, so there are no types to look at
+        switch (binOpNode.operation) {
+            case ADD_INTEGERS:
+                intResult = evalInt(left) + evalInt(right);
+                break;
+
+            case ADD_REALS:
+                realResult = evalReal(left) + evalReal(right);
+                break;
+
+            case SUBTRACT_INTEGERS:
+                intResult = evalInt(left) - evalInt(right);
+                break;
+
+            case SUBTRACT_REALS:
+                realResult = evalReal(left) - evalReal(right);
+                break;
+
+            case MULTIPLY_INTEGERS:
+                intResult = evalInt(left) * evalInt(right);
+                break;
+
+            case MULTIPLY_REALS:
+                realResult = evalReal(left) * evalReal(right);
+                break;
+
+            case DIVIDE_INTEGERS:
+                intResult = evalInt(left) / evalInt(right);
+                break;
+
+            case MOD_INTEGERS:
+                intResult = evalInt(left) % evalInt(right);
+                break;
+
+            case DIVIDE_REALS:
+                realResult = evalReal(left) / evalReal(right);
+                break;
+
+            case AND_BOOLEANS:
+                booleanResult = evalBoolean(left) & evalBoolean(right);
+                break;
+
+            case OR_BOOLEANS:
+                booleanResult = evalBoolean(left) | evalBoolean(right);
+                break;
+
+            case LESS_THAN_INTEGERS:
+                booleanResult = evalInt(left) < evalInt(right);
+                break;
+
+            case LESS_THAN_REALS:
+                booleanResult = evalReal(left) < evalReal(right);
+                break;
+
+            case LESS_THAN_OR_EQUALS_INTEGERS:
+                booleanResult = evalInt(left) <= evalInt(right);
+                break;
+
+            case LESS_THAN_OR_EQUALS_REALS:
+                booleanResult = evalReal(left) <= evalReal(right);
+                break;
+
+            case GREATER_THAN_INTEGERS:
+                booleanResult = evalInt(left) > evalInt(right);
+                break;
+
+            case GREATER_THAN_REALS:
+                booleanResult = evalReal(left) > evalReal(right);
+                break;
+
+            case GREATER_THAN_OR_EQUALS_INTEGERS:
+                booleanResult = evalInt(left) >= evalInt(right);
+                break;
+
+            case GREATER_THAN_OR_EQUALS_REALS:
+                booleanResult = evalReal(left) >= evalReal(right);
+                break;
+
+            case EQUALS_INTEGERS:
+                booleanResult = evalInt(left) == evalInt(right);
+                break;
+
+            case EQUALS_REALS:
+                booleanResult = evalReal(left) == evalReal(right);
+                break;
+
+            case EQUALS_BOOLEANS:
+                booleanResult = evalBoolean(left) == evalBoolean(right);
+                break;
+
+            case NOT_EQUALS_INTEGERS:
+                booleanResult = evalInt(left) != evalInt(right);
+                break;
+
+            case NOT_EQUALS_REALS:
+                booleanResult = evalReal(left) != evalReal(right);
+                break;
+
+            case NOT_EQUALS_BOOLEANS:
+                booleanResult = evalBoolean(left) != evalBoolean(right);
+                break;
+
+            default:
+                String message = String.format(
+                        "Unrecognized binary operation %s",
+                        binOpNode.operation
+                );
+                throw new IllegalArgumentException(message);
+        }
+    }
+
+    @Override
+    public void visit(UnaryOpNode unaryOpNode) {
+        switch (unaryOpNode.operation) {
+            case IDENTITY_INTEGER:
+            case IDENTITY_REAL:
+                unaryOpNode.child.acceptVisit(this);
+                break;
+
+            case NEGATE_INTEGER:
+                intResult = -evalInt(unaryOpNode.child);
+                break;
+
+            case NEGATE_REAL:
+                realResult = -evalReal(unaryOpNode.child);
+                break;
+
+            case NOT_BOOLEAN:
+                booleanResult = ! evalBoolean(unaryOpNode.child);
+                break;
+
+            default:
+                String message = String.format(
+                        "Unrecognized unary operation %s",
+                        unaryOpNode.operation
+                );
+                throw new IllegalArgumentException(message);
+        }
+    }
+
+    @Override
+    public void visit(AndThenNode andThenNode) {
+        booleanResult = evalBoolean(andThenNode.left) && evalBoolean(andThenNode.right);
+    }
+
+    @Override
+    public void visit(OrElseNode orElseNode) {
+        booleanResult = evalBoolean(orElseNode.left) || evalBoolean(orElseNode.right);
+    }
+
+    @Override
+    public void visit(IntConstantNode intConstantNode) {
+        intResult = intConstantNode.value.value;
+    }
+
+    @Override
+    public void visit(RealConstantNode realConstantNode) {
+        realResult = realConstantNode.value.value;
+    }
+
+    @Override
+    public void visit(BooleanConstantNode booleanConstantNode) {
+        booleanResult = booleanConstantNode.value.value;
+    }
+
+    @Override
+    public void visit(VariableEvalNode variableEvalNode) {
+        if (variableEvalNode.slotIndex < 0) {
+            throw VariableException.notDefined(variableEvalNode.scope, variableEvalNode.idToken);
+        }
+
+        Frame home = frame.ancestor(variableEvalNode.frameDepth);
+        int slot = variableEvalNode.slotIndex;
+
+        switch (variableEvalNode.outputType) {
+            case INTEGER:
+                intResult = home.getInt(slot);
+                break;
+
+            case REAL:
+                realResult = home.getReal(slot);
+                break;
+
+            case BOOLEAN:
+                booleanResult = home.getBoolean(slot);
+                break;
+
+            default:
+                String message = String.format(
+                        "Cannot evaluate a variable of type %s",
+                        variableEvalNode.outputType
+                );
+                throw new IllegalArgumentException(message);
+        }
+    }
+
+    private static IllegalStateException notAnExpression(SyntaxTree syntaxTree) {
+        String message = String.format(
+                "%s is not an expression, so it has no primitive value",
+                syntaxTree.getClass().getSimpleName()
+        );
+        return new IllegalStateException(message);
+    }
+
+    @Override
+    public void visit(AssignNode assignNode) {
+        throw notAnExpression(assignNode);
+    }
+
+    @Override
+    public void visit(BlockNode blockNode) {
+        throw notAnExpression(blockNode);
+    }
+
+    @Override
+    public void visit(CompoundNode compoundNode) {
+        throw notAnExpression(compoundNode);
+    }
+
+    @Override
+    public void visit(DeclarationNode declarationNode) {
+        throw notAnExpression(declarationNode);
+    }
+
+    @Override
+    public void visit(DoUntilNode doUntilNode) {
+        throw notAnExpression(doUntilNode);
+    }
+
+    @Override
+    public void visit(ForNode forNode) {
+        throw notAnExpression(forNode);
+    }
+
+    @Override
+    public void visit(IfStatementNode ifStatementNode) {
+        throw notAnExpression(ifStatementNode);
+    }
+
+    @Override
+    public void visit(LoopControlNode loopControlNode) {
+        throw notAnExpression(loopControlNode);
+    }
+
+    @Override
+    public void visit(NoOpNode noOpNode) {
+        throw notAnExpression(noOpNode);
+    }
+
+    @Override
+    public void visit(ProcedureCallNode procedureCallNode) {
+        throw notAnExpression(procedureCallNode);
+    }
+
+    @Override
+    public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
+        throw notAnExpression(procedureDeclarationNode);
+    }
+
+    @Override
+    public void visit(ProgramNode programNode) {
+        throw notAnExpression(programNode);
+    }
+
+    @Override
+    public void visit(VariableAssignNode variableAssignNode) {
+        throw notAnExpression(variableAssignNode);
+    }
+
+    @Override
+    public void visit(VariableDeclarationNode variableDeclarationNode) {
+        throw notAnExpression(variableDeclarationNode);
+    }
+
+    @Override
+    public void visit(WhileNode whileNode) {
+        throw notAnExpression(whileNode);
+    }
+}
@@ -0,0 +1,11 @@
+package io.github.rodyamirov.exec;
+
+import io.github.rodyamirov.symbols.Frame;
+
+/**
+ * An executable expression which is statically known to produce a BOOLEAN.
+ */
+@FunctionalInterface
+public interface BooleanExpression {
+    boolean execute(Frame frame);
+}
@@ -0,0 +1,13 @@
+package io.github.rodyamirov.exec;
+
+import io.github.rodyamirov.symbols.Frame;
+
+/**
+ * An executable expression which is statically known to produce an INTEGER. Each one is built by
+ * the Specializer for one particular shape of expression, so executing it is a single virtual
+ * call with no boxing and no type dispatch.
+ */
+@FunctionalInterface
+public interface IntExpression {
+    int execute(Frame frame);
+}
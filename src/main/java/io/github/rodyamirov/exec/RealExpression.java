@@ -0,0 +1,11 @@
+package io.github.rodyamirov.exec;
+
+import io.github.rodyamirov.symbols.Frame;
+
+/**
+ * An executable expression which is statically known to produce a REAL.
+ */
+@FunctionalInterface
+public interface RealExpression {
+    float execute(Frame frame);
+}
@@ -0,0 +1,927 @@
+package io.github.rodyamirov.exec;
+
+import io.github.rodyamirov.eval.EvalVisitor;
+import io.github.rodyamirov.exceptions.VariableException;
+import io.github.rodyamirov.exec.Statement.Completion;
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.symbols.Frame;
+import io.github.rodyamirov.symbols.FramePool;
+import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.SymbolValue;
+import io.github.rodyamirov.symbols.SymbolValueTable;
+import io.github.rodyamirov.symbols.TypeSpec;
+import io.github.rodyamirov.tree.AndThenNode;
+import io.github.rodyamirov.tree.AssignNode;
+import io.github.rodyamirov.tree.BinOpNode;
+import io.github.rodyamirov.tree.BlockNode;
+import io.github.rodyamirov.tree.BooleanConstantNode;
+import io.github.rodyamirov.tree.CompoundNode;
+import io.github.rodyamirov.tree.DeclarationNode;
+import io.github.rodyamirov.tree.DoUntilNode;
+import io.github.rodyamirov.tree.ExpressionNode;
+import io.github.rodyamirov.tree.ForNode;
+import io.github.rodyamirov.tree.IfStatementNode;
+import io.github.rodyamirov.tree.IntConstantNode;
+import io.github.rodyamirov.tree.LoopControlNode;
+import io.github.rodyamirov.tree.NoOpNode;
+import io.github.rodyamirov.tree.NodeVisitor;
+import io.github.rodyamirov.tree.OrElseNode;
+import io.github.rodyamirov.tree.ProcedureCallNode;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.RealConstantNode;
+import io.github.rodyamirov.tree.StatementNode;
+import io.github.rodyamirov.tree.SyntaxTree;
+import io.github.rodyamirov.tree.ThoroughVisitor;
+import io.github.rodyamirov.tree.UnaryOpNode;
+import io.github.rodyamirov.tree.VariableAssignNode;
+import io.github.rodyamirov.tree.VariableDeclarationNode;
+import io.github.rodyamirov.tree.VariableEvalNode;
+import io.github.rodyamirov.tree.WhileNode;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An alternative to the EvalVisitor. Instead of walking the syntax tree every time it runs, this
+ * rewrites an analyzed tree, once, into a tree of executable nodes, each of which does exactly one
+ * specialized thing -- "add two local integers", "compare a real to a constant", and so on. The
+ * node kind, operand types and variable slots are all fixed before the program starts, so
+ * running it involves no double dispatch, no result stack, no boxing and no operator lookups.
+ *
+ * Since the TypeChecker has already pinned down every type, there is nothing to speculate on, so
+ * each node is specialized as it is built rather than rewriting itself at runtime.
+ *
+ * This needs a tree which has been through the Analyzer; it ends in exactly the same state as
+ * the EvalVisitor would.
+ *
+ * The executable nodes run their children by calling them, so a program nested deeper than
+ * MAX_NESTING would run the thread out of stack; those are handed to the EvalVisitor, which
+ * copes with any depth, instead.
+ */
+public final class Specializer extends NodeVisitor {
+    // about as deep as the nodes can nest and still run on an ordinary thread's stack
+    static final int MAX_NESTING = 1000;
+
+    public static SymbolValueTable evaluateProgram(ProgramNode programNode, SymbolTable symbolTable) {
+        if (ThoroughVisitor.height(programNode) > MAX_NESTING) {
+            return EvalVisitor.evaluateProgram(programNode, symbolTable);
+        }
+
+        SymbolValueTable symbolValueTable = new SymbolValueTable(symbolTable);
+
+        Specializer specializer = new Specializer(symbolTable, symbolValueTable);
+        Statement program = specializer.statementOf(programNode);
+
+        program.execute(symbolValueTable.getFrame(programNode.scope));
+        return symbolValueTable;
+    }
+
+    private static final Statement NO_OP = frame -> Completion.NORMAL;
+    private static final Statement BREAK = frame -> Completion.BREAK;
+    private static final Statement CONTINUE = frame -> Completion.CONTINUE;
+
+    // a procedure body may be called (by itself, or from another body) before it has been built,
+    // so calls go through one of these, which is filled in when the declaration is reached
+    private static final class ProcedureBody {
+        private final FramePool framePool;
+        private Statement body;
+
+        private ProcedureBody(FramePool framePool) {
+            this.framePool = framePool;
+        }
+    }
+
+    private final SymbolTable symbolTable;
+    private final SymbolValueTable symbolValueTable;
+
+    // keyed by the scope of the procedure's block
+    private final Map<Scope, ProcedureBody> procedureBodies = new HashMap<>();
+
+    // a tail call waiting for the procedure making it to finish
+    private ProcedureBody tailCallee = null;
+    private Frame tailStaticLink = null;
+
+    private IntExpression intResult;
+    private RealExpression realResult;
+    private BooleanExpression booleanResult;
+    private Statement statementResult;
+
+    private Specializer(SymbolTable symbolTable, SymbolValueTable symbolValueTable) {
+        this.symbolTable = symbolTable;
+        this.symbolValueTable = symbolValueTable;
+    }
+
+    private ProcedureBody procedureBody(Scope blockScope) {
+        return procedureBodies.computeIfAbsent(
+                blockScope,
+                scope -> new ProcedureBody(symbolValueTable.getFramePool(scope))
+        );
+    }
+
+    private Statement statementOf(SyntaxTree syntaxTree) {
+        syntaxTree.acceptVisit(this);
+        return statementResult;
+    }
+
+    private static void checkType(ExpressionNode expressionNode, TypeSpec expected) {
+        if (expressionNode.outputType != expected) {
+            String message = String.format(
+                    "Expected a type-checked expression of type %s, got %s",
+                    expected, expressionNode.outputType
+            );
+            throw new IllegalStateException(message);
+        }
+    }
+
+    private IntExpression intOf(ExpressionNode expressionNode) {
+        checkType(expressionNode, TypeSpec.INTEGER);
+        expressionNode.acceptVisit(this);
+        return intResult;
+    }
+
+    // INTEGER expressions are widened, which is the only implicit conversion the language has
+    private RealExpression realOf(ExpressionNode expressionNode) {
+        if (expressionNode.outputType == TypeSpec.INTEGER) {
+            IntExpression intExpression = intOf(expressionNode);
+            return frame -> intExpression.execute(frame);
+        }
+
+        checkType(expressionNode, TypeSpec.REAL);
+        expressionNode.acceptVisit(this);
+        return realResult;
+    }
+
+    private BooleanExpression booleanOf(ExpressionNode expressionNode) {
+        checkType(expressionNode, TypeSpec.BOOLEAN);
+        expressionNode.acceptVisit(this);
+        return booleanResult;
+    }
+
+    private static boolean isLocal(ExpressionNode expressionNode) {
+        return expressionNode instanceof VariableEvalNode
+                && ((VariableEvalNode) expressionNode).frameDepth == 0;
+    }
+
+    private static int localSlot(ExpressionNode expressionNode) {
+        return ((VariableEvalNode) expressionNode).slotIndex;
+    }
+
+    private static boolean isConstant(ExpressionNode expressionNode) {
+        return expressionNode instanceof IntConstantNode || expressionNode instanceof RealConstantNode;
+    }
+
+    private static int intConstant(ExpressionNode expressionNode) {
+        return ((IntConstantNode) expressionNode).value.value;
+    }
+
+    private static float realConstant(ExpressionNode expressionNode) {
+        if (expressionNode instanceof IntConstantNode) {
+            return ((IntConstantNode) expressionNode).value.value;
+        } else {
+            return ((RealConstantNode) expressionNode).value.value;
+        }
+    }
+
+    private static IllegalArgumentException unrecognized(Token opToken) {
+        String message = String.format("Unrecognized operation type %s", opToken.type.name());
+        return new IllegalArgumentException(message);
+    }
+
+    @Override
+    public void visit(ProgramNode programNode) {
+        Statement body = statementOf(programNode.blockNode);
+        Frame blockFrame = symbolValueTable.getFrame(programNode.blockNode.scope);
+
+        int nameSlot = symbolTable.getLayout(programNode.scope).slotOf(programNode.name);
+        SymbolValue<ProgramNode> programValue = SymbolValue.makeProgram(programNode);
+
+        statementResult = frame -> {
+            frame.set(nameSlot, programValue);
+            body.execute(blockFrame);
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public void visit(BlockNode blockNode) {
+        Statement declarations = statementOf(blockNode.declarationNode);
+        Statement body = statementOf(blockNode.compoundNode);
+
+        statementResult = frame -> {
+            declarations.execute(frame);
+            return body.execute(frame);
+        };
+    }
+
+    @Override
+    public void visit(DeclarationNode declarationNode) {
+        List<ProcedureDeclarationNode> procedures = declarationNode.procedureDeclarations;
+        Statement[] declarations = new Statement[procedures.size()];
+
+        for (int i = 0; i < declarations.length; i++) {
+            declarations[i] = statementOf(procedures.get(i));
+        }
+
+        statementResult = sequence(declarations);
+    }
+
+    @Override
+    public void visit(VariableDeclarationNode variableDeclarationNode) {
+        // the frames already have room for everything
+        statementResult = NO_OP;
+    }
+
+    @Override
+    public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
+        ProcedureBody procedureBody = procedureBody(procedureDeclarationNode.blockNode.scope);
+        procedureBody.body = statementOf(procedureDeclarationNode.blockNode);
+
+        // running the declaration just records the procedure in its enclosing frame
+        int slot = symbolTable.getLayout(procedureDeclarationNode.scope).slotOf(procedureDeclarationNode.name);
+        SymbolValue<ProcedureDeclarationNode> value = SymbolValue.makeProcedure(procedureDeclarationNode);
+
+        statementResult = frame -> {
+            frame.set(slot, value);
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public void visit(ProcedureCallNode procedureCallNode) {
+        Scope scope = procedureCallNode.scope;
+        Token<String> name = procedureCallNode.procedureName;
+
+        // nothing checks this statically, so only complain if the call is actually reached
+        if (procedureCallNode.target == null) {
+            statementResult = frame -> {
+                throw VariableException.notDefined(scope, name);
+            };
+            return;
+        }
+
+        ProcedureBody procedure = procedureBody(procedureCallNode.target.blockNode.scope);
+        int depth = procedureCallNode.frameDepth;
+
+        if (procedureCallNode.tailCall) {
+            // the caller is finishing anyway; let it clear its frame, then run this in its place
+            statementResult = frame -> {
+                tailCallee = procedure;
+                tailStaticLink = frame.ancestor(depth);
+                return Completion.NORMAL;
+            };
+            return;
+        }
+
+        statementResult = frame -> {
+            ProcedureBody next = procedure;
+            Frame staticLink = frame.ancestor(depth);
+
+            while (next != null) {
+                Frame callee = next.framePool.enter(staticLink);
+                next.body.execute(callee);
+
+                // locals should not persist between calls
+                next.framePool.exit(callee);
+
+                next = tailCallee;
+                staticLink = tailStaticLink;
+                tailCallee = null;
+                tailStaticLink = null;
+            }
+
+            return Completion.NORMAL;
+        };
+    }
+
+    // for statement lists which can't break or continue, so no completion needs checking
+    private static Statement straightLine(Statement[] statements) {
+        switch (statements.length) {
+            case 0:
+                return NO_OP;
+
+            case 1:
+                return statements[0];
+
+            default:
+                return frame -> {
+                    for (Statement statement : statements) {
+                        statement.execute(frame);
+                    }
+                    return Completion.NORMAL;
+                };
+        }
+    }
+
+    private static Statement sequence(Statement[] statements) {
+        switch (statements.length) {
+            case 0:
+                return NO_OP;
+
+            case 1:
+                return statements[0];
+
+            default:
+                return frame -> {
+                    for (Statement statement : statements) {
+                        Completion completion = statement.execute(frame);
+                        if (completion != Completion.NORMAL) {
+                            return completion;
+                        }
+                    }
+                    return Completion.NORMAL;
+                };
+        }
+    }
+
+    @Override
+    public void visit(CompoundNode compoundNode) {
+        List<StatementNode> children = compoundNode.statements;
+        Statement[] statements = new Statement[children.size()];
+
+        for (int i = 0; i < statements.length; i++) {
+            statements[i] = statementOf(children.get(i));
+        }
+
+        statementResult = compoundNode.canLeave() ? sequence(statements) : straightLine(statements);
+    }
+
+    @Override
+    public void visit(NoOpNode noOpNode) {
+        statementResult = NO_OP;
+    }
+
+    @Override
+    public void visit(LoopControlNode loopControlNode) {
+        switch (loopControlNode.type) {
+            case BREAK:
+                statementResult = BREAK;
+                break;
+
+            case CONTINUE:
+                statementResult = CONTINUE;
+                break;
+
+            default:
+                String message = String.format(
+                        "Unrecognized loop control directive %s",
+                        loopControlNode.type
+                );
+                throw new IllegalArgumentException(message);
+        }
+    }
+
+    @Override
+    public void visit(IfStatementNode ifStatementNode) {
+        BooleanExpression condition = booleanOf(ifStatementNode.condition);
+        Statement thenStatement = statementOf(ifStatementNode.thenStatement);
+
+        if (ifStatementNode.elseStatement.isPresent()) {
+            Statement elseStatement = statementOf(ifStatementNode.elseStatement.get());
+            statementResult = frame -> condition.execute(frame)
+                    ? thenStatement.execute(frame)
+                    : elseStatement.execute(frame);
+        } else {
+            statementResult = frame -> condition.execute(frame)
+                    ? thenStatement.execute(frame)
+                    : Completion.NORMAL;
+        }
+    }
+
+    @Override
+    public void visit(WhileNode whileNode) {
+        BooleanExpression condition = booleanOf(whileNode.condition);
+        Statement body = statementOf(whileNode.childStatement);
+
+        statementResult = frame -> {
+            while (condition.execute(frame)) {
+                if (body.execute(frame) == Completion.BREAK) {
+                    break;
+                }
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public void visit(DoUntilNode doUntilNode) {
+        BooleanExpression condition = booleanOf(doUntilNode.condition);
+        Statement body = statementOf(doUntilNode.childStatement);
+
+        statementResult = frame -> {
+            do {
+                if (body.execute(frame) == Completion.BREAK) {
+                    break;
+                }
+            } while (! condition.execute(frame));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public void visit(ForNode forNode) {
+        VariableAssignNode loopVariable = forNode.assignNode.variableAssignNode;
+        loopVariable.acceptVisit(this);
+
+        IntExpression start = intOf(forNode.assignNode.expressionNode);
+        IntExpression end = intOf(forNode.bound);
+        Statement body = statementOf(forNode.body);
+
+        int depth = loopVariable.frameDepth;
+        int slot = loopVariable.slotIndex;
+
+        int change;
+        switch (forNode.direction) {
+            case FORWARD:
+                change = 1; break;
+
+            case BACKWARD:
+                change = -1; break;
+
+            default:
+                String message = String.format("Unrecognized direction %s for a for-loop", forNode.direction);
+                throw new IllegalStateException(message);
+        }
+
+        if (forNode.counted) {
+            // nothing in the body can see the loop variable, so it only needs to be set at the ends
+            statementResult = frame -> {
+                int first = start.execute(frame);
+                int last = end.execute(frame);
+
+                if (first == last + change) {
+                    return Completion.NORMAL;
+                }
+
+                Frame loopFrame = frame.ancestor(depth);
+                loopFrame.setInt(slot, first);
+
+                int i = first;
+                while (body.execute(frame) != Completion.BREAK && i != last) {
+                    i += change;
+                }
+
+                loopFrame.setInt(slot, i);
+                return Completion.NORMAL;
+            };
+            return;
+        }
+
+        if (forNode.lockFree) {
+            // the analysis proved nothing assigns the variable in the meantime
+            statementResult = frame -> {
+                int first = start.execute(frame);
+                int last = end.execute(frame);
+                Frame loopFrame = frame.ancestor(depth);
+
+                for (int i = first; i != last + change; i += change) {
+                    loopFrame.setInt(slot, i);
+
+                    if (body.execute(frame) == Completion.BREAK) {
+                        break;
+                    }
+                }
+                return Completion.NORMAL;
+            };
+            return;
+        }
+
+        statementResult = frame -> {
+            int first = start.execute(frame);
+            int last = end.execute(frame);
+            Frame loopFrame = frame.ancestor(depth);
+
+            for (int i = first; i != last + change; i += change) {
+                loopFrame.setInt(slot, i);
+                loopFrame.lock(slot);
+
+                Completion completion = body.execute(frame);
+
+                loopFrame.unlock(slot);
+
+                if (completion == Completion.BREAK) {
+                    break;
+                }
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public void visit(VariableAssignNode variableAssignNode) {
+        // the TypeChecker would have failed on an undeclared variable, so this shouldn't happen
+        if (variableAssignNode.slotIndex < 0) {
+            throw VariableException.notDefined(variableAssignNode.scope, variableAssignNode.idToken);
+        }
+    }
+
+    @Override
+    public void visit(AssignNode assignNode) {
+        VariableAssignNode target = assignNode.variableAssignNode;
+        target.acceptVisit(this);
+
+        ExpressionNode expressionNode = assignNode.expressionNode;
+        int depth = target.frameDepth;
+        int slot = target.slotIndex;
+
+        switch (target.variableType) {
+            case INTEGER: {
+                IntExpression value = intOf(expressionNode);
+                if (depth == 0) {
+                    statementResult = frame -> {
+                        frame.setInt(slot, value.execute(frame));
+                        return Completion.NORMAL;
+                    };
+                } else {
+                    statementResult = frame -> {
+                        frame.ancestor(depth).setInt(slot, value.execute(frame));
+                        return Completion.NORMAL;
+                    };
+                }
+                break;
+            }
+
+            case REAL: {
+                RealExpression value = realOf(expressionNode);
+                if (depth == 0) {
+                    statementResult = frame -> {
+                        frame.setReal(slot, value.execute(frame));
+                        return Completion.NORMAL;
+                    };
+                } else {
+                    statementResult = frame -> {
+                        frame.ancestor(depth).setReal(slot, value.execute(frame));
+                        return Completion.NORMAL;
+                    };
+                }
+                break;
+            }
+
+            case BOOLEAN: {
+                BooleanExpression value = booleanOf(expressionNode);
+                if (depth == 0) {
+                    statementResult = frame -> {
+                        frame.setBoolean(slot, value.execute(frame));
+                        return Completion.NORMAL;
+                    };
+                } else {
+                    statementResult = frame -> {
+                        frame.ancestor(depth).setBoolean(slot, value.execute(frame));
+                        return Completion.NORMAL;
+                    };
+                }
+                break;
+            }
+
+            default:
+                String message = String.format("Cannot assign to a variable of type %s", target.variableType);
+                throw new IllegalStateException(message);
+        }
+    }
+
+    @Override
+    public void visit(VariableEvalNode variableEvalNode) {
+        if (variableEvalNode.slotIndex < 0) {
+            throw VariableException.notDefined(variableEvalNode.scope, variableEvalNode.idToken);
+        }
+
+        int depth = variableEvalNode.frameDepth;
+        int slot = variableEvalNode.slotIndex;
+
+        switch (variableEvalNode.outputType) {
+            case INTEGER:
+                if (depth == 0) {
+                    intResult = frame -> frame.getInt(slot);
+                } else if (depth == 1) {
+                    intResult = frame -> frame.parent.getInt(slot);
+                } else {
+                    intResult = frame -> frame.ancestor(depth).getInt(slot);
+                }
+                break;
+
+            case REAL:
+                if (depth == 0) {
+                    realResult = frame -> frame.getReal(slot);
+                } else if (depth == 1) {
+                    realResult = frame -> frame.parent.getReal(slot);
+                } else {
+                    realResult = frame -> frame.ancestor(depth).getReal(slot);
+                }
+                break;
+
+            case BOOLEAN:
+                if (depth == 0) {
+                    booleanResult = frame -> frame.getBoolean(slot);
+                } else if (depth == 1) {
+                    booleanResult = frame -> frame.parent.getBoolean(slot);
+                } else {
+                    booleanResult = frame -> frame.ancestor(depth).getBoolean(slot);
+                }
+                break;
+
+            default:
+                String message = String.format(
+                        "Cannot evaluate a variable of type %s",
+                        variableEvalNode.outputType
+                );
+                throw new IllegalStateException(message);
+        }
+    }
+
+    @Override
+    public void visit(IntConstantNode intConstantNode) {
+        int value = intConstantNode.value.value;
+        intResult = frame -> value;
+    }
+
+    @Override
+    public void visit(RealConstantNode realConstantNode) {
+        float value = realConstantNode.value.value;
+        realResult = frame -> value;
+    }
+
+    @Override
+    public void visit(BooleanConstantNode booleanConstantNode) {
+        boolean value = booleanConstantNode.value.value;
+        booleanResult = frame -> value;
+    }
+
+    @Override
+    public void visit(AndThenNode andThenNode) {
+        BooleanExpression left = booleanOf(andThenNode.left);
+        BooleanExpression right = booleanOf(andThenNode.right);
+        booleanResult = frame -> left.execute(frame) && right.execute(frame);
+    }
+
+    @Override
+    public void visit(OrElseNode orElseNode) {
+        BooleanExpression left = booleanOf(orElseNode.left);
+        BooleanExpression right = booleanOf(orElseNode.right);
+        booleanResult = frame -> left.execute(frame) || right.execute(frame);
+    }
+
+    @Override
+    public void visit(UnaryOpNode unaryOpNode) {
+        ExpressionNode child = unaryOpNode.child;
+
+        switch (unaryOpNode.opToken.type) {
+            case PLUS:
+                // nothing to do at runtime at all
+                child.acceptVisit(this);
+                break;
+
+            case MINUS:
+                if (unaryOpNode.outputType == TypeSpec.INTEGER) {
+                    IntExpression value = intOf(child);
+                    intResult = frame -> -value.execute(frame);
+                } else {
+                    RealExpression value = realOf(child);
+                    realResult = frame -> -value.execute(frame);
+                }
+                break;
+
+            case NOT: {
+                BooleanExpression value = booleanOf(child);
+                booleanResult = frame -> ! value.execute(frame);
+                break;
+            }
+
+            default:
+                throw unrecognized(unaryOpNode.opToken);
+        }
+    }
+
+    @Override
+    public void visit(BinOpNode binOpNode) {
+        switch (binOpNode.outputType) {
+            case INTEGER:
+                intResult = intOperation(binOpNode);
+                break;
+
+            case REAL:
+                realResult = realOperation(binOpNode);
+                break;
+
+            case BOOLEAN:
+                booleanResult = booleanOperation(binOpNode);
+                break;
+
+            default:
+                String message = String.format("Unexpected operation type %s", binOpNode.outputType);
+                throw new IllegalStateException(message);
+        }
+    }
+
+    private IntExpression intOperation(BinOpNode binOpNode) {
+        ExpressionNode leftNode = binOpNode.left;
+        ExpressionNode rightNode = binOpNode.right;
+
+        switch (binOpNode.opToken.type) {
+            case PLUS:
+                if (isLocal(leftNode) && isLocal(rightNode)) {
+                    int a = localSlot(leftNode), b = localSlot(rightNode);
+                    return frame -> frame.getInt(a) + frame.getInt(b);
+                } else if (isLocal(leftNode) && rightNode instanceof IntConstantNode) {
+                    int a = localSlot(leftNode), c = intConstant(rightNode);
+                    return frame -> frame.getInt(a) + c;
+                } else if (leftNode instanceof IntConstantNode && isLocal(rightNode)) {
+                    int c = intConstant(leftNode), b = localSlot(rightNode);
+                    return frame -> c + frame.getInt(b);
+                } else {
+                    IntExpression left = intOf(leftNode), right = intOf(rightNode);
+                    return frame -> left.execute(frame) + right.execute(frame);
+                }
+
+            case MINUS:
+                if (isLocal(leftNode) && isLocal(rightNode)) {
+                    int a = localSlot(leftNode), b = localSlot(rightNode);
+                    return frame -> frame.getInt(a) - frame.getInt(b);
+                } else if (isLocal(leftNode) && rightNode instanceof IntConstantNode) {
+                    int a = localSlot(leftNode), c = intConstant(rightNode);
+                    return frame -> frame.getInt(a) - c;
+                } else {
+                    IntExpression left = intOf(leftNode), right = intOf(rightNode);
+                    return frame -> left.execute(frame) - right.execute(frame);
+                }
+
+            case TIMES: {
+                IntExpression left = intOf(leftNode), right = intOf(rightNode);
+                return frame -> left.execute(frame) * right.execute(frame);
+            }
+
+            case INT_DIVIDE: {
+                IntExpression left = intOf(leftNode), right = intOf(rightNode);
+                return frame -> left.execute(frame) / right.execute(frame);
+            }
+
+            case MOD: {
+                IntExpression left = intOf(leftNode), right = intOf(rightNode);
+                return frame -> left.execute(frame) % right.execute(frame);
+            }
+
+            default:
+                throw unrecognized(binOpNode.opToken);
+        }
+    }
+
+    private RealExpression realOperation(BinOpNode binOpNode) {
+        RealExpression left = realOf(binOpNode.left);
+        RealExpression right = realOf(binOpNode.right);
+
+        switch (binOpNode.opToken.type) {
+            case PLUS:
+                return frame -> left.execute(frame) + right.execute(frame);
+
+            case MINUS:
+                return frame -> left.execute(frame) - right.execute(frame);
+
+            case TIMES:
+                return frame -> left.execute(frame) * right.execute(frame);
+
+            case REAL_DIVIDE:
+                return frame -> left.execute(frame) / right.execute(frame);
+
+            default:
+                throw unrecognized(binOpNode.opToken);
+        }
+    }
+
+    private BooleanExpression booleanOperation(BinOpNode binOpNode) {
+        ExpressionNode leftNode = binOpNode.left;
+        ExpressionNode rightNode = binOpNode.right;
+
+        switch (binOpNode.opToken.type) {
+            case AND: {
+                BooleanExpression left = booleanOf(leftNode), right = booleanOf(rightNode);
+                return frame -> left.execute(frame) & right.execute(frame);
+            }
+
+            case OR: {
+                BooleanExpression left = booleanOf(leftNode), right = booleanOf(rightNode);
+                return frame -> left.execute(frame) | right.execute(frame);
+            }
+
+            case EQUALS:
+            case NOT_EQUALS:
+                if (leftNode.outputType == TypeSpec.BOOLEAN) {
+                    return booleanEquality(binOpNode);
+                }
+                // otherwise it's numeric, like the rest
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUALS:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUALS:
+                if (leftNode.outputType == TypeSpec.INTEGER && rightNode.outputType == TypeSpec.INTEGER) {
+                    return intComparison(binOpNode);
+                } else {
+                    return realComparison(binOpNode);
+                }
+
+            default:
+                throw unrecognized(binOpNode.opToken);
+        }
+    }
+
+    private BooleanExpression booleanEquality(BinOpNode binOpNode) {
+        BooleanExpression left = booleanOf(binOpNode.left);
+        BooleanExpression right = booleanOf(binOpNode.right);
+
+        if (binOpNode.opToken.type == Token.Type.EQUALS) {
+            return frame -> left.execute(frame) == right.execute(frame);
+        } else {
+            return frame -> left.execute(frame) != right.execute(frame);
+        }
+    }
+
+    private BooleanExpression intComparison(BinOpNode binOpNode) {
+        ExpressionNode leftNode = binOpNode.left;
+        ExpressionNode rightNode = binOpNode.right;
+
+        // loop conditions are very often "local < constant"
+        if (isLocal(leftNode) && rightNode instanceof IntConstantNode) {
+            int a = localSlot(leftNode), c = intConstant(rightNode);
+
+            switch (binOpNode.opToken.type) {
+                case LESS_THAN:
+                    return frame -> frame.getInt(a) < c;
+                case LESS_THAN_OR_EQUALS:
+                    return frame -> frame.getInt(a) <= c;
+                case GREATER_THAN:
+                    return frame -> frame.getInt(a) > c;
+                case GREATER_THAN_OR_EQUALS:
+                    return frame -> frame.getInt(a) >= c;
+                case EQUALS:
+                    return frame -> frame.getInt(a) == c;
+                case NOT_EQUALS:
+                    return frame -> frame.getInt(a) != c;
+                default:
+                    throw unrecognized(binOpNode.opToken);
+            }
+        }
+
+        IntExpression left = intOf(leftNode), right = intOf(rightNode);
+
+        switch (binOpNode.opToken.type) {
+            case LESS_THAN:
+                return frame -> left.execute(frame) < right.execute(frame);
+            case LESS_THAN_OR_EQUALS:
+                return frame -> left.execute(frame) <= right.execute(frame);
+            case GREATER_THAN:
+                return frame -> left.execute(frame) > right.execute(frame);
+            case GREATER_THAN_OR_EQUALS:
+                return frame -> left.execute(frame) >= right.execute(frame);
+            case EQUALS:
+                return frame -> left.execute(frame) == right.execute(frame);
+            case NOT_EQUALS:
+                return frame -> left.execute(frame) != right.execute(frame);
+            default:
+                throw unrecognized(binOpNode.opToken);
+        }
+    }
+
+    private BooleanExpression realComparison(BinOpNode binOpNode) {
+        RealExpression left = realOf(binOpNode.left);
+
+        if (isConstant(binOpNode.right)) {
+            float c = realConstant(binOpNode.right);
+
+            switch (binOpNode.opToken.type) {
+                case LESS_THAN:
+                    return frame -> left.execute(frame) < c;
+                case LESS_THAN_OR_EQUALS:
+                    return frame -> left.execute(frame) <= c;
+                case GREATER_THAN:
+                    return frame -> left.execute(frame) > c;
+                case GREATER_THAN_OR_EQUALS:
+                    return frame -> left.execute(frame) >= c;
+                case EQUALS:
+                    return frame -> left.execute(frame) == c;
+                case NOT_EQUALS:
+                    return frame -> left.execute(frame) != c;
+                default:
+                    throw unrecognized(binOpNode.opToken);
+            }
+        }
+
+        RealExpression right = realOf(binOpNode.right);
+
+        switch (binOpNode.opToken.type) {
+            case LESS_THAN:
+                return frame -> left.execute(frame) < right.execute(frame);
+            case LESS_THAN_OR_EQUALS:
+                return frame -> left.execute(frame) <= right.execute(frame);
+            case GREATER_THAN:
+                return frame -> left.execute(frame) > right.execute(frame);
+            case GREATER_THAN_OR_EQUALS:
+                return frame -> left.execute(frame) >= right.execute(frame);
+            case EQUALS:
+                return frame -> left.execute(frame) == right.execute(frame);
+            case NOT_EQUALS:
+                return frame -> left.execute(frame) != right.execute(frame);
+            default:
+                throw unrecognized(binOpNode.opToken);
+        }
+    }
+}
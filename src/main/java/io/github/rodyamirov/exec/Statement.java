@@ -0,0 +1,14 @@
+package io.github.rodyamirov.exec;
+
+import io.github.rodyamirov.symbols.Frame;
+
+/**
+ * An executable statement. Rather than parking break and continue on a side stack, a statement
+ * reports how it finished, and the enclosing loop decides what to do about it.
+ */
+@FunctionalInterface
+public interface Statement {
+    enum Completion { NORMAL, BREAK, CONTINUE }
+
+    Completion execute(Frame frame);
+}
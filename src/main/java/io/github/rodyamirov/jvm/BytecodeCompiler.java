@@ -0,0 +1,1240 @@
+package io.github.rodyamirov.jvm;
+
+import io.github.rodyamirov.exceptions.VariableException;
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.symbols.FrameLayout;
+import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.SymbolValueTable;
+import io.github.rodyamirov.symbols.TypeSpec;
+import io.github.rodyamirov.tree.AndThenNode;
+import io.github.rodyamirov.tree.AssignNode;
+import io.github.rodyamirov.tree.BinOpNode;
+import io.github.rodyamirov.tree.BlockNode;
+import io.github.rodyamirov.tree.BooleanConstantNode;
+import io.github.rodyamirov.tree.CompoundNode;
+import io.github.rodyamirov.tree.DeclarationNode;
+import io.github.rodyamirov.tree.DoUntilNode;
+import io.github.rodyamirov.tree.ExpressionNode;
+import io.github.rodyamirov.tree.ForNode;
+import io.github.rodyamirov.tree.IfStatementNode;
+import io.github.rodyamirov.tree.IntConstantNode;
+import io.github.rodyamirov.tree.LoopControlNode;
+import io.github.rodyamirov.tree.NoOpNode;
+import io.github.rodyamirov.tree.OrElseNode;
+import io.github.rodyamirov.tree.ProcedureCallNode;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.RealConstantNode;
+import io.github.rodyamirov.tree.StatementNode;
+import io.github.rodyamirov.tree.ThoroughVisitor;
+import io.github.rodyamirov.tree.UnaryOpNode;
+import io.github.rodyamirov.tree.VariableAssignNode;
+import io.github.rodyamirov.tree.VariableDeclarationNode;
+import io.github.rodyamirov.tree.VariableEvalNode;
+import io.github.rodyamirov.tree.WhileNode;
+import io.github.rodyamirov.tree.WorklistVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Compiles an analyzed program into a JVM class, which HotSpot can then JIT like any other code.
+ * Variables become int or float fields (booleans are ints), or plain JVM locals when nothing
+ * outside their own block can see them; loops become real JVM loops; operators become single
+ * primitive instructions. Each procedure becomes a private method.
+ *
+ * The generated code keeps the same runtime checks the EvalVisitor makes -- reading an unassigned
+ * variable, assigning to a locked loop variable, calling an undeclared procedure -- and throws the
+ * same exceptions, and CompiledProgram writes the end state back into a SymbolValueTable equal to
+ * the one the EvalVisitor would produce.
+ *
+ * The tree is walked as a WorklistVisitor walks it, so compiling a deeply nested program doesn't
+ * recurse; code which has to follow a child's goes in a then step. Past a point the method is too
+ * large for the JVM anyway, but that is for CompiledProgram to find out, not for the stack.
+ */
+public final class BytecodeCompiler extends WorklistVisitor {
+    public static SymbolValueTable evaluateProgram(ProgramNode programNode, SymbolTable symbolTable) {
+        return compile(programNode, symbolTable).run();
+    }
+
+    public static CompiledProgram compile(ProgramNode programNode, SymbolTable symbolTable) {
+        BytecodeCompiler compiler = new BytecodeCompiler(programNode, symbolTable);
+        return compiler.compile();
+    }
+
+    private static final String SUPER_NAME = "io/github/rodyamirov/jvm/GeneratedProgram";
+    private static final String FRAME_NAME = "io/github/rodyamirov/symbols/Frame";
+
+    // an identifier for a variable: which scope declares it, and in which slot
+    private static final class VariableKey {
+        private final Scope scope;
+        private final int slot;
+
+        private VariableKey(Scope scope, int slot) {
+            this.scope = scope;
+            this.slot = slot;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == null || !(o instanceof VariableKey)) {
+                return false;
+            }
+
+            VariableKey other = (VariableKey)o;
+
+            return Objects.equals(this.scope, other.scope)
+                    && this.slot == other.slot;
+        }
+
+        @Override
+        public int hashCode() {
+            return 43 * scope.hashCode() + slot;
+        }
+    }
+
+    // where a variable lives in the generated code; either three fields or three locals
+    private static final class Storage {
+        private final TypeSpec type;
+        private final boolean lockable;
+        private final int unassignedFailure;
+
+        private final boolean isField;
+        private final String valueField, initializedField, lockField;
+        private final int valueLocal, initializedLocal, lockLocal;
+
+        private Storage(TypeSpec type, boolean lockable, int unassignedFailure, String fieldPrefix) {
+            this.type = type;
+            this.lockable = lockable;
+            this.unassignedFailure = unassignedFailure;
+
+            this.isField = true;
+            this.valueField = "v" + fieldPrefix;
+            this.initializedField = "i" + fieldPrefix;
+            this.lockField = "l" + fieldPrefix;
+            this.valueLocal = this.initializedLocal = this.lockLocal = -1;
+        }
+
+        private Storage(TypeSpec type, boolean lockable, int unassignedFailure, int firstLocal) {
+            this.type = type;
+            this.lockable = lockable;
+            this.unassignedFailure = unassignedFailure;
+
+            this.isField = false;
+            this.valueField = this.initializedField = this.lockField = null;
+            this.valueLocal = firstLocal;
+            this.initializedLocal = firstLocal + 1;
+            this.lockLocal = firstLocal + 2;
+        }
+
+        private String descriptor() {
+            return type == TypeSpec.REAL ? "F" : "I";
+        }
+    }
+
+    private static final class ProcedureInfo {
+        private final int index;
+        private final ProcedureDeclarationNode declaration;
+        private final int owner;
+        private final String methodName;
+        private final Set<Integer> callees = new HashSet<>();
+
+        private ProcedureInfo(int index, ProcedureDeclarationNode declaration, int owner) {
+            this.index = index;
+            this.declaration = declaration;
+            this.owner = owner;
+            this.methodName = "p" + index + "_" + declaration.name.value;
+        }
+    }
+
+    private static final class LoopLabels {
+        private final Label breakLabel, continueLabel;
+
+        private LoopLabels(Label breakLabel, Label continueLabel) {
+            this.breakLabel = breakLabel;
+            this.continueLabel = continueLabel;
+        }
+    }
+
+    private static final class GeneratedClassLoader extends ClassLoader {
+        private GeneratedClassLoader() {
+            super(BytecodeCompiler.class.getClassLoader());
+        }
+
+        private Class<?> define(String binaryName, byte[] bytes) {
+            return defineClass(binaryName, bytes, 0, bytes.length);
+        }
+    }
+
+    private final ProgramNode programNode;
+    private final SymbolTable symbolTable;
+    private final String className;
+
+    private final List<ProcedureInfo> procedures = new ArrayList<>();
+    private final Map<Scope, ProcedureInfo> proceduresByBlockScope = new HashMap<>();
+
+    private final Set<VariableKey> captured = new HashSet<>();
+    private final Set<VariableKey> loopVariables = new HashSet<>();
+    private final Map<VariableKey, Storage> storage = new HashMap<>();
+
+    private final List<Supplier<RuntimeException>> failures = new ArrayList<>();
+    private final int lockedFailure;
+
+    // first free local in each block's method, after its own variables
+    private final Map<Scope, Integer> firstFreeLocals = new HashMap<>();
+
+    // per-method state, while generating
+    private MethodVisitor mv;
+    private int nextLocal;
+    private final Deque<LoopLabels> loops = new ArrayDeque<>();
+
+    // the procedure being written, if any, and where its body starts
+    private ProcedureInfo currentProcedure;
+    private Label procedureStart;
+
+    private BytecodeCompiler(ProgramNode programNode, SymbolTable symbolTable) {
+        this.programNode = programNode;
+        this.symbolTable = symbolTable;
+        this.className = "io/github/rodyamirov/jvm/Compiled_" + programNode.name.value;
+
+        this.lockedFailure = addFailure(
+                () -> new IllegalStateException("Cannot set the value of a locked variable!"));
+    }
+
+    private int addFailure(Supplier<RuntimeException> failure) {
+        failures.add(failure);
+        return failures.size() - 1;
+    }
+
+    private CompiledProgram compile() {
+        survey();
+        assignStorage();
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+                className, null, SUPER_NAME, null);
+
+        writeFields(cw);
+        writeConstructor(cw);
+        writeRun(cw);
+
+        for (ProcedureInfo procedure : procedures) {
+            writeProcedure(cw, procedure);
+        }
+
+        cw.visitEnd();
+
+        Class<?> generated = new GeneratedClassLoader().define(className.replace('/', '.'), cw.toByteArray());
+
+        List<ProcedureDeclarationNode> declarations = new ArrayList<>();
+        int[] owners = new int[procedures.size()];
+        for (ProcedureInfo procedure : procedures) {
+            declarations.add(procedure.declaration);
+            owners[procedure.index] = procedure.owner;
+        }
+
+        return new CompiledProgram(
+                symbolTable, programNode,
+                generated.asSubclass(GeneratedProgram.class),
+                declarations, owners, failures
+        );
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Before generating anything: find the procedures, which variables are seen from nested
+    // procedures, which are loop variables, and which procedures can be recursive
+    // ---------------------------------------------------------------------------------------------
+
+    private static Scope declaringScope(Scope scope, int depth) {
+        Scope out = scope;
+        for (int i = 0; i < depth; i++) {
+            out = out.parentScope.get();
+        }
+        return out;
+    }
+
+    private Scope procedureBlockScope(ProcedureCallNode procedureCallNode) {
+        Scope scope = procedureCallNode.scope;
+        Token<String> name = procedureCallNode.procedureName;
+
+        if (symbolTable.isDefined(scope, name)) {
+            return symbolTable.closestScopeFound(scope, name).makeChildScope(name);
+        } else {
+            return null;
+        }
+    }
+
+    private void survey() {
+        List<ProcedureCallNode> calls = new ArrayList<>();
+        List<Integer> callers = new ArrayList<>();
+
+        programNode.acceptVisit(new ThoroughVisitor() {
+            private int currentProcedure = -1;
+
+            @Override
+            public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
+                ProcedureInfo procedure =
+                        new ProcedureInfo(procedures.size(), procedureDeclarationNode, currentProcedure);
+                procedures.add(procedure);
+                proceduresByBlockScope.put(procedureDeclarationNode.blockNode.scope, procedure);
+
+                int outerProcedure = currentProcedure;
+                currentProcedure = procedure.index;
+                super.visit(procedureDeclarationNode);
+                then(() -> currentProcedure = outerProcedure);
+            }
+
+            @Override
+            public void visit(ProcedureCallNode procedureCallNode) {
+                calls.add(procedureCallNode);
+                callers.add(currentProcedure);
+            }
+
+            @Override
+            public void visit(ForNode forNode) {
+                // a variable only needs a lock if some loop over it wasn't proven safe without one
+                if (! forNode.lockFree) {
+                    VariableAssignNode loopVariable = forNode.assignNode.variableAssignNode;
+                    loopVariables.add(keyOf(loopVariable.scope, loopVariable.frameDepth, loopVariable.slotIndex));
+                }
+                super.visit(forNode);
+            }
+
+            @Override
+            public void visit(VariableAssignNode variableAssignNode) {
+                noteReference(variableAssignNode.scope, variableAssignNode.frameDepth, variableAssignNode.slotIndex);
+            }
+
+            @Override
+            public void visit(VariableEvalNode variableEvalNode) {
+                noteReference(variableEvalNode.scope, variableEvalNode.frameDepth, variableEvalNode.slotIndex);
+            }
+
+            private void noteReference(Scope scope, int depth, int slot) {
+                if (slot < 0) {
+                    String message = String.format("Unresolved variable reference in scope %s", scope);
+                    throw new IllegalStateException(message);
+                } else if (depth > 0) {
+                    captured.add(keyOf(scope, depth, slot));
+                }
+            }
+        });
+
+        for (int i = 0; i < calls.size(); i++) {
+            Scope blockScope = procedureBlockScope(calls.get(i));
+            ProcedureInfo callee = blockScope == null ? null : proceduresByBlockScope.get(blockScope);
+            if (callers.get(i) >= 0 && callee != null) {
+                procedures.get(callers.get(i)).callees.add(callee.index);
+            }
+        }
+    }
+
+    private static VariableKey keyOf(Scope scope, int depth, int slot) {
+        return new VariableKey(declaringScope(scope, depth), slot);
+    }
+
+    private boolean isRecursive(ProcedureInfo procedure) {
+        Set<Integer> seen = new HashSet<>();
+        Deque<Integer> toVisit = new ArrayDeque<>(procedure.callees);
+
+        while (! toVisit.isEmpty()) {
+            int next = toVisit.pop();
+            if (next == procedure.index) {
+                return true;
+            } else if (seen.add(next)) {
+                toVisit.addAll(procedures.get(next).callees);
+            }
+        }
+
+        return false;
+    }
+
+    private void assignStorage() {
+        int scopeCount = 0;
+
+        for (Scope scope : symbolTable.knownScopes()) {
+            FrameLayout layout = symbolTable.getLayout(scope);
+
+            int nextFree = scope.equals(programNode.blockNode.scope) ? 2 : 1;
+            scopeCount += 1;
+
+            for (int slot = 0; slot < layout.size(); slot++) {
+                TypeSpec type = layout.slotTypes.get(slot);
+                if (type == TypeSpec.PROCEDURE || type == TypeSpec.PROGRAM) {
+                    continue;
+                }
+
+                VariableKey key = new VariableKey(scope, slot);
+                Token<String> name = layout.slotNames.get(slot);
+                int unassigned = addFailure(() -> VariableException.notAssigned(scope, name));
+                boolean lockable = loopVariables.contains(key);
+
+                if (captured.contains(key)) {
+                    storage.put(key, new Storage(type, lockable, unassigned, scopeCount + "_" + slot));
+                } else {
+                    storage.put(key, new Storage(type, lockable, unassigned, nextFree));
+                    nextFree += 3;
+                }
+            }
+
+            firstFreeLocals.put(scope, nextFree);
+        }
+    }
+
+    private Storage storageOf(Scope scope, int depth, int slot) {
+        return storage.get(keyOf(scope, depth, slot));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Class structure
+    // ---------------------------------------------------------------------------------------------
+
+    private void writeFields(ClassWriter cw) {
+        for (Storage variable : storage.values()) {
+            if (variable.isField) {
+                cw.visitField(Opcodes.ACC_PRIVATE, variable.valueField, variable.descriptor(), null, null).visitEnd();
+                cw.visitField(Opcodes.ACC_PRIVATE, variable.initializedField, "Z", null, null).visitEnd();
+                if (variable.lockable) {
+                    cw.visitField(Opcodes.ACC_PRIVATE, variable.lockField, "I", null, null).visitEnd();
+                }
+            }
+        }
+    }
+
+    private void writeConstructor(ClassWriter cw) {
+        MethodVisitor constructor = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, SUPER_NAME, "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+    }
+
+    private void startMethod(ClassWriter cw, int access, String name, String descriptor, Scope blockScope) {
+        mv = cw.visitMethod(access, name, descriptor, null, null);
+        mv.visitCode();
+        // a block which declares nothing has no scope in the symbol table at all
+        int firstLocal = blockScope.equals(programNode.blockNode.scope) ? 2 : 1;
+        nextLocal = firstFreeLocals.getOrDefault(blockScope, firstLocal);
+
+        // the verifier wants every local assigned before use, and they all start unassigned anyway
+        FrameLayout layout = symbolTable.getLayout(blockScope);
+        for (int slot = 0; slot < layout.size(); slot++) {
+            Storage variable = storage.get(new VariableKey(blockScope, slot));
+            if (variable != null && ! variable.isField) {
+                if (variable.type == TypeSpec.REAL) {
+                    mv.visitInsn(Opcodes.FCONST_0);
+                    mv.visitVarInsn(Opcodes.FSTORE, variable.valueLocal);
+                } else {
+                    mv.visitInsn(Opcodes.ICONST_0);
+                    mv.visitVarInsn(Opcodes.ISTORE, variable.valueLocal);
+                }
+                mv.visitInsn(Opcodes.ICONST_0);
+                mv.visitVarInsn(Opcodes.ISTORE, variable.initializedLocal);
+                mv.visitInsn(Opcodes.ICONST_0);
+                mv.visitVarInsn(Opcodes.ISTORE, variable.lockLocal);
+            }
+        }
+    }
+
+    private void endMethod() {
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        mv = null;
+    }
+
+    private void writeRun(ClassWriter cw) {
+        Scope blockScope = programNode.blockNode.scope;
+        startMethod(cw, Opcodes.ACC_PUBLIC, "run", "(L" + FRAME_NAME + ";)V", blockScope);
+
+        programNode.blockNode.acceptVisit(this);
+
+        // copy the program's variables out into the frame; everything else is cleared by now
+        FrameLayout layout = symbolTable.getLayout(blockScope);
+        for (int slot = 0; slot < layout.size(); slot++) {
+            Storage variable = storage.get(new VariableKey(blockScope, slot));
+            if (variable == null) {
+                continue;
+            }
+
+            Label skip = new Label();
+            loadInitialized(variable);
+            mv.visitJumpInsn(Opcodes.IFEQ, skip);
+
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            pushInt(slot);
+            loadValue(variable);
+
+            switch (variable.type) {
+                case INTEGER:
+                    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, FRAME_NAME, "setInt", "(II)V", false);
+                    break;
+
+                case REAL:
+                    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, FRAME_NAME, "setReal", "(IF)V", false);
+                    break;
+
+                case BOOLEAN:
+                    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, FRAME_NAME, "setBoolean", "(IZ)V", false);
+                    break;
+
+                default:
+                    throw new IllegalStateException("Unexpected variable type " + variable.type);
+            }
+
+            mv.visitLabel(skip);
+        }
+
+        endMethod();
+    }
+
+    private void writeProcedure(ClassWriter cw, ProcedureInfo procedure) {
+        Scope blockScope = procedure.declaration.blockNode.scope;
+        startMethod(cw, Opcodes.ACC_PRIVATE, procedure.methodName, "()V", blockScope);
+
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, SUPER_NAME, "entered", "[Z");
+        pushInt(procedure.index);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.BASTORE);
+
+        // every call gets its own activation. JVM locals take care of themselves, but a recursive
+        // call would share the fields with the activation it interrupts, so those are set aside
+        // for the duration, and put back on the way out
+        FrameLayout layout = symbolTable.getLayout(blockScope);
+        List<Storage> fields = new ArrayList<>();
+        for (int slot = 0; slot < layout.size(); slot++) {
+            Storage variable = storage.get(new VariableKey(blockScope, slot));
+            if (variable != null && variable.isField) {
+                fields.add(variable);
+            }
+        }
+
+        boolean recursive = isRecursive(procedure);
+        int[] saved = new int[fields.size()];
+
+        if (recursive) {
+            for (int i = 0; i < fields.size(); i++) {
+                saved[i] = saveField(fields.get(i));
+            }
+        }
+
+        // a tail call to this same procedure starts the next activation here
+        currentProcedure = procedure;
+        procedureStart = new Label();
+        mv.visitLabel(procedureStart);
+
+        procedure.declaration.blockNode.acceptVisit(this);
+
+        currentProcedure = null;
+        procedureStart = null;
+
+        for (int i = 0; i < fields.size(); i++) {
+            if (recursive) {
+                restoreField(fields.get(i), saved[i]);
+            } else {
+                // locals should not persist between calls
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitInsn(Opcodes.ICONST_0);
+                mv.visitFieldInsn(Opcodes.PUTFIELD, className, fields.get(i).initializedField, "Z");
+            }
+        }
+
+        endMethod();
+    }
+
+    /**
+     * Copies a field variable into three new JVM locals, then leaves it unassigned (and unlocked)
+     * for the activation which is starting.
+     *
+     * @return The first of the three locals
+     */
+    private int saveField(Storage variable) {
+        int first = newLocal();
+        newLocal();
+        newLocal();
+
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, className, variable.valueField, variable.descriptor());
+        mv.visitVarInsn(variable.type == TypeSpec.REAL ? Opcodes.FSTORE : Opcodes.ISTORE, first);
+
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, className, variable.initializedField, "Z");
+        mv.visitVarInsn(Opcodes.ISTORE, first + 1);
+
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, className, variable.initializedField, "Z");
+
+        if (variable.lockable) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, className, variable.lockField, "I");
+            mv.visitVarInsn(Opcodes.ISTORE, first + 2);
+
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitFieldInsn(Opcodes.PUTFIELD, className, variable.lockField, "I");
+        }
+
+        return first;
+    }
+
+    /**
+     * Ends the running activation of the current procedure and starts a new one in its place:
+     * every variable of the block goes back to unassigned and unlocked, and control goes back to
+     * the top of the body. Only a tail call to the procedure itself can do this.
+     */
+    private void restartActivation() {
+        Scope blockScope = currentProcedure.declaration.blockNode.scope;
+        FrameLayout layout = symbolTable.getLayout(blockScope);
+
+        for (int slot = 0; slot < layout.size(); slot++) {
+            Storage variable = storage.get(new VariableKey(blockScope, slot));
+
+            if (variable == null) {
+                continue;
+            } else if (variable.isField) {
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitInsn(Opcodes.ICONST_0);
+                mv.visitFieldInsn(Opcodes.PUTFIELD, className, variable.initializedField, "Z");
+
+                if (variable.lockable) {
+                    mv.visitVarInsn(Opcodes.ALOAD, 0);
+                    mv.visitInsn(Opcodes.ICONST_0);
+                    mv.visitFieldInsn(Opcodes.PUTFIELD, className, variable.lockField, "I");
+                }
+            } else {
+                mv.visitInsn(Opcodes.ICONST_0);
+                mv.visitVarInsn(Opcodes.ISTORE, variable.initializedLocal);
+                mv.visitInsn(Opcodes.ICONST_0);
+                mv.visitVarInsn(Opcodes.ISTORE, variable.lockLocal);
+            }
+        }
+
+        mv.visitJumpInsn(Opcodes.GOTO, procedureStart);
+    }
+
+    // puts back what saveField set aside
+    private void restoreField(Storage variable, int first) {
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(variable.type == TypeSpec.REAL ? Opcodes.FLOAD : Opcodes.ILOAD, first);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, className, variable.valueField, variable.descriptor());
+
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, first + 1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, className, variable.initializedField, "Z");
+
+        if (variable.lockable) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ILOAD, first + 2);
+            mv.visitFieldInsn(Opcodes.PUTFIELD, className, variable.lockField, "I");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Small emitters
+    // ---------------------------------------------------------------------------------------------
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    private void throwFailure(int failure) {
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        pushInt(failure);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, SUPER_NAME, "fail", "(I)Ljava/lang/RuntimeException;", false);
+        mv.visitInsn(Opcodes.ATHROW);
+    }
+
+    private int newLocal() {
+        return nextLocal++;
+    }
+
+    private void loadInitialized(Storage variable) {
+        if (variable.isField) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, className, variable.initializedField, "Z");
+        } else {
+            mv.visitVarInsn(Opcodes.ILOAD, variable.initializedLocal);
+        }
+    }
+
+    private void loadValue(Storage variable) {
+        if (variable.isField) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, className, variable.valueField, variable.descriptor());
+        } else {
+            mv.visitVarInsn(variable.type == TypeSpec.REAL ? Opcodes.FLOAD : Opcodes.ILOAD, variable.valueLocal);
+        }
+    }
+
+    private void loadLock(Storage variable) {
+        if (variable.isField) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, className, variable.lockField, "I");
+        } else {
+            mv.visitVarInsn(Opcodes.ILOAD, variable.lockLocal);
+        }
+    }
+
+    private void addToLock(Storage variable, int change) {
+        if (variable.isField) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitFieldInsn(Opcodes.GETFIELD, className, variable.lockField, "I");
+            pushInt(change);
+            mv.visitInsn(Opcodes.IADD);
+            mv.visitFieldInsn(Opcodes.PUTFIELD, className, variable.lockField, "I");
+        } else {
+            mv.visitIincInsn(variable.lockLocal, change);
+        }
+    }
+
+    /**
+     * Stores a value into a variable, checking the lock first. For field variables, the caller
+     * must have pushed `this` before pushing the value.
+     */
+    private void storeValue(Storage variable) {
+        if (variable.lockable) {
+            Label unlocked = new Label();
+            loadLock(variable);
+            mv.visitJumpInsn(Opcodes.IFEQ, unlocked);
+            throwFailure(lockedFailure);
+            mv.visitLabel(unlocked);
+        }
+
+        if (variable.isField) {
+            mv.visitFieldInsn(Opcodes.PUTFIELD, className, variable.valueField, variable.descriptor());
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitInsn(Opcodes.ICONST_1);
+            mv.visitFieldInsn(Opcodes.PUTFIELD, className, variable.initializedField, "Z");
+        } else {
+            mv.visitVarInsn(variable.type == TypeSpec.REAL ? Opcodes.FSTORE : Opcodes.ISTORE, variable.valueLocal);
+            mv.visitInsn(Opcodes.ICONST_1);
+            mv.visitVarInsn(Opcodes.ISTORE, variable.initializedLocal);
+        }
+    }
+
+    private void prepareStore(Storage variable) {
+        if (variable.isField) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Expressions: INTEGER and BOOLEAN values go on the stack as ints, REAL values as floats
+    // ---------------------------------------------------------------------------------------------
+
+    private void compileExpression(ExpressionNode expressionNode, TypeSpec wanted) {
+        if (expressionNode.outputType == null) {
+            throw new IllegalStateException("The BytecodeCompiler requires a type-checked tree");
+        }
+
+        visitChild(expressionNode);
+
+        if (wanted == TypeSpec.REAL && expressionNode.outputType == TypeSpec.INTEGER) {
+            then(() -> mv.visitInsn(Opcodes.I2F));
+        }
+    }
+
+    // leaves 1 or 0 on the stack, according to a condition
+    private void materialize(ExpressionNode condition) {
+        Label isFalse = new Label();
+        Label done = new Label();
+
+        compileCondition(condition, isFalse);
+
+        then(() -> {
+            mv.visitInsn(Opcodes.ICONST_1);
+            mv.visitJumpInsn(Opcodes.GOTO, done);
+            mv.visitLabel(isFalse);
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitLabel(done);
+        });
+    }
+
+    private static boolean isComparison(Token.Type type) {
+        switch (type) {
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUALS:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUALS:
+            case EQUALS:
+            case NOT_EQUALS:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Emits code which falls through if the condition is true and jumps to the label otherwise,
+     * without ever materializing the boolean when it can help it. Like compileExpression, this
+     * only asks for the code to be written, after anything already asked for.
+     */
+    private void compileCondition(ExpressionNode condition, Label ifFalse) {
+        then(() -> writeCondition(condition, ifFalse));
+    }
+
+    private void writeCondition(ExpressionNode condition, Label ifFalse) {
+        if (condition instanceof BinOpNode && isComparison(((BinOpNode) condition).opToken.type)) {
+            compileComparison((BinOpNode) condition, ifFalse);
+
+        } else if (condition instanceof AndThenNode) {
+            AndThenNode andThenNode = (AndThenNode) condition;
+            compileCondition(andThenNode.left, ifFalse);
+            compileCondition(andThenNode.right, ifFalse);
+
+        } else if (condition instanceof OrElseNode) {
+            OrElseNode orElseNode = (OrElseNode) condition;
+            Label tryRight = new Label();
+            Label isTrue = new Label();
+
+            compileCondition(orElseNode.left, tryRight);
+
+            then(() -> {
+                mv.visitJumpInsn(Opcodes.GOTO, isTrue);
+                mv.visitLabel(tryRight);
+            });
+
+            compileCondition(orElseNode.right, ifFalse);
+            then(() -> mv.visitLabel(isTrue));
+
+        } else if (condition instanceof UnaryOpNode && ((UnaryOpNode) condition).opToken.type == Token.Type.NOT) {
+            compileExpression(((UnaryOpNode) condition).child, TypeSpec.BOOLEAN);
+            then(() -> mv.visitJumpInsn(Opcodes.IFNE, ifFalse));
+
+        } else if (condition instanceof BooleanConstantNode) {
+            if (! ((BooleanConstantNode) condition).value.value) {
+                mv.visitJumpInsn(Opcodes.GOTO, ifFalse);
+            }
+
+        } else {
+            compileExpression(condition, TypeSpec.BOOLEAN);
+            then(() -> mv.visitJumpInsn(Opcodes.IFEQ, ifFalse));
+        }
+    }
+
+    private void compileComparison(BinOpNode binOpNode, Label ifFalse) {
+        TypeSpec leftType = binOpNode.left.outputType;
+        TypeSpec rightType = binOpNode.right.outputType;
+        Token.Type op = binOpNode.opToken.type;
+
+        if (leftType != TypeSpec.REAL && rightType != TypeSpec.REAL) {
+            // integers, or booleans (which are only ever compared for equality)
+            compileExpression(binOpNode.left, leftType);
+            compileExpression(binOpNode.right, rightType);
+
+            then(() -> {
+                switch (op) {
+                    case LESS_THAN:
+                        mv.visitJumpInsn(Opcodes.IF_ICMPGE, ifFalse); break;
+                    case LESS_THAN_OR_EQUALS:
+                        mv.visitJumpInsn(Opcodes.IF_ICMPGT, ifFalse); break;
+                    case GREATER_THAN:
+                        mv.visitJumpInsn(Opcodes.IF_ICMPLE, ifFalse); break;
+                    case GREATER_THAN_OR_EQUALS:
+                        mv.visitJumpInsn(Opcodes.IF_ICMPLT, ifFalse); break;
+                    case EQUALS:
+                        mv.visitJumpInsn(Opcodes.IF_ICMPNE, ifFalse); break;
+                    case NOT_EQUALS:
+                        mv.visitJumpInsn(Opcodes.IF_ICMPEQ, ifFalse); break;
+                    default:
+                        throw unrecognized(binOpNode.opToken);
+                }
+            });
+        } else {
+            compileExpression(binOpNode.left, TypeSpec.REAL);
+            compileExpression(binOpNode.right, TypeSpec.REAL);
+
+            // the same comparisons javac uses, so NaN behaves as it does in Java
+            then(() -> {
+                switch (op) {
+                    case LESS_THAN:
+                        mv.visitInsn(Opcodes.FCMPG);
+                        mv.visitJumpInsn(Opcodes.IFGE, ifFalse); break;
+                    case LESS_THAN_OR_EQUALS:
+                        mv.visitInsn(Opcodes.FCMPG);
+                        mv.visitJumpInsn(Opcodes.IFGT, ifFalse); break;
+                    case GREATER_THAN:
+                        mv.visitInsn(Opcodes.FCMPL);
+                        mv.visitJumpInsn(Opcodes.IFLE, ifFalse); break;
+                    case GREATER_THAN_OR_EQUALS:
+                        mv.visitInsn(Opcodes.FCMPL);
+                        mv.visitJumpInsn(Opcodes.IFLT, ifFalse); break;
+                    case EQUALS:
+                        mv.visitInsn(Opcodes.FCMPL);
+                        mv.visitJumpInsn(Opcodes.IFNE, ifFalse); break;
+                    case NOT_EQUALS:
+                        mv.visitInsn(Opcodes.FCMPL);
+                        mv.visitJumpInsn(Opcodes.IFEQ, ifFalse); break;
+                    default:
+                        throw unrecognized(binOpNode.opToken);
+                }
+            });
+        }
+    }
+
+    private static IllegalArgumentException unrecognized(Token opToken) {
+        String message = String.format("Unrecognized operation type %s", opToken.type.name());
+        return new IllegalArgumentException(message);
+    }
+
+    @Override
+    public void visit(BinOpNode binOpNode) {
+        Token.Type op = binOpNode.opToken.type;
+
+        if (isComparison(op)) {
+            materialize(binOpNode);
+            return;
+        }
+
+        TypeSpec operandType = binOpNode.outputType;
+        compileExpression(binOpNode.left, operandType);
+        compileExpression(binOpNode.right, operandType);
+
+        then(() -> {
+            boolean real = operandType == TypeSpec.REAL;
+
+            switch (op) {
+                case PLUS:
+                    mv.visitInsn(real ? Opcodes.FADD : Opcodes.IADD); break;
+                case MINUS:
+                    mv.visitInsn(real ? Opcodes.FSUB : Opcodes.ISUB); break;
+                case TIMES:
+                    mv.visitInsn(real ? Opcodes.FMUL : Opcodes.IMUL); break;
+                case REAL_DIVIDE:
+                    mv.visitInsn(Opcodes.FDIV); break;
+                case INT_DIVIDE:
+                    mv.visitInsn(Opcodes.IDIV); break;
+                case MOD:
+                    mv.visitInsn(Opcodes.IREM); break;
+                case AND:
+                    mv.visitInsn(Opcodes.IAND); break;
+                case OR:
+                    mv.visitInsn(Opcodes.IOR); break;
+                default:
+                    throw unrecognized(binOpNode.opToken);
+            }
+        });
+    }
+
+    @Override
+    public void visit(UnaryOpNode unaryOpNode) {
+        switch (unaryOpNode.opToken.type) {
+            case PLUS:
+                compileExpression(unaryOpNode.child, unaryOpNode.outputType);
+                break;
+
+            case MINUS:
+                compileExpression(unaryOpNode.child, unaryOpNode.outputType);
+                then(() -> mv.visitInsn(unaryOpNode.outputType == TypeSpec.REAL ? Opcodes.FNEG : Opcodes.INEG));
+                break;
+
+            case NOT:
+                compileExpression(unaryOpNode.child, TypeSpec.BOOLEAN);
+
+                then(() -> {
+                    mv.visitInsn(Opcodes.ICONST_1);
+                    mv.visitInsn(Opcodes.IXOR);
+                });
+                break;
+
+            default:
+                throw unrecognized(unaryOpNode.opToken);
+        }
+    }
+
+    @Override
+    public void visit(AndThenNode andThenNode) {
+        materialize(andThenNode);
+    }
+
+    @Override
+    public void visit(OrElseNode orElseNode) {
+        materialize(orElseNode);
+    }
+
+    @Override
+    public void visit(IntConstantNode intConstantNode) {
+        pushInt(intConstantNode.value.value);
+    }
+
+    @Override
+    public void visit(RealConstantNode realConstantNode) {
+        mv.visitLdcInsn(realConstantNode.value.value);
+    }
+
+    @Override
+    public void visit(BooleanConstantNode booleanConstantNode) {
+        mv.visitInsn(booleanConstantNode.value.value ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+    }
+
+    @Override
+    public void visit(VariableEvalNode variableEvalNode) {
+        Storage variable = storageOf(
+                variableEvalNode.scope, variableEvalNode.frameDepth, variableEvalNode.slotIndex);
+
+        Label assigned = new Label();
+        loadInitialized(variable);
+        mv.visitJumpInsn(Opcodes.IFNE, assigned);
+        throwFailure(variable.unassignedFailure);
+        mv.visitLabel(assigned);
+
+        loadValue(variable);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Statements
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    public void visit(ProgramNode programNode) {
+        throw new IllegalStateException("The program itself is compiled by writeRun");
+    }
+
+    @Override
+    public void visit(BlockNode blockNode) {
+        // procedure declarations get their own methods, and variables need no runtime setup
+        visitChild(blockNode.compoundNode);
+    }
+
+    @Override
+    public void visit(DeclarationNode declarationNode) {
+        // nothing to do at runtime
+    }
+
+    @Override
+    public void visit(VariableDeclarationNode variableDeclarationNode) {
+        // nothing to do at runtime
+    }
+
+    @Override
+    public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
+        // compiled separately by writeProcedure
+    }
+
+    @Override
+    public void visit(ProcedureCallNode procedureCallNode) {
+        Scope blockScope = procedureBlockScope(procedureCallNode);
+
+        if (blockScope == null) {
+            // nothing checks this statically, so only complain if the call is actually reached
+            Scope scope = procedureCallNode.scope;
+            Token<String> name = procedureCallNode.procedureName;
+            throwFailure(addFailure(() -> VariableException.notDefined(scope, name)));
+        } else if (! proceduresByBlockScope.containsKey(blockScope)) {
+            String message = String.format("%s is not a procedure", procedureCallNode.procedureName.value);
+            throwFailure(addFailure(() -> new IllegalStateException(message)));
+        } else {
+            ProcedureInfo procedure = proceduresByBlockScope.get(blockScope);
+
+            if (procedureCallNode.tailCall && procedure == currentProcedure) {
+                restartActivation();
+            } else {
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitMethodInsn(Opcodes.INVOKESPECIAL, className, procedure.methodName, "()V", false);
+            }
+        }
+    }
+
+    @Override
+    public void visit(CompoundNode compoundNode) {
+        for (StatementNode statementNode : compoundNode.statements) {
+            visitChild(statementNode);
+        }
+    }
+
+    @Override
+    public void visit(NoOpNode noOpNode) {
+        // nothing to emit
+    }
+
+    @Override
+    public void visit(LoopControlNode loopControlNode) {
+        LoopLabels labels = loops.peek();
+
+        switch (loopControlNode.type) {
+            case BREAK:
+                mv.visitJumpInsn(Opcodes.GOTO, labels.breakLabel);
+                break;
+
+            case CONTINUE:
+                mv.visitJumpInsn(Opcodes.GOTO, labels.continueLabel);
+                break;
+
+            default:
+                String message = String.format(
+                        "Unrecognized loop control directive %s",
+                        loopControlNode.type
+                );
+                throw new IllegalArgumentException(message);
+        }
+    }
+
+    @Override
+    public void visit(IfStatementNode ifStatementNode) {
+        Label elseLabel = new Label();
+        Label done = new Label();
+
+        compileCondition(ifStatementNode.condition, elseLabel);
+        visitChild(ifStatementNode.thenStatement);
+
+        then(() -> {
+            mv.visitJumpInsn(Opcodes.GOTO, done);
+            mv.visitLabel(elseLabel);
+        });
+
+        ifStatementNode.elseStatement.ifPresent(this::visitChild);
+        then(() -> mv.visitLabel(done));
+    }
+
+    @Override
+    public void visit(WhileNode whileNode) {
+        Label top = new Label();
+        Label done = new Label();
+
+        mv.visitLabel(top);
+        compileCondition(whileNode.condition, done);
+
+        then(() -> loops.push(new LoopLabels(done, top)));
+        visitChild(whileNode.childStatement);
+
+        then(() -> {
+            loops.pop();
+
+            mv.visitJumpInsn(Opcodes.GOTO, top);
+            mv.visitLabel(done);
+        });
+    }
+
+    @Override
+    public void visit(DoUntilNode doUntilNode) {
+        Label top = new Label();
+        Label check = new Label();
+        Label done = new Label();
+
+        mv.visitLabel(top);
+
+        loops.push(new LoopLabels(done, check));
+        visitChild(doUntilNode.childStatement);
+
+        then(() -> {
+            loops.pop();
+            mv.visitLabel(check);
+        });
+
+        compileCondition(doUntilNode.condition, top);
+        then(() -> mv.visitLabel(done));
+    }
+
+    @Override
+    public void visit(ForNode forNode) {
+        VariableAssignNode loopVariable = forNode.assignNode.variableAssignNode;
+        Storage variable = storageOf(loopVariable.scope, loopVariable.frameDepth, loopVariable.slotIndex);
+
+        int change;
+        switch (forNode.direction) {
+            case FORWARD:
+                change = 1; break;
+
+            case BACKWARD:
+                change = -1; break;
+
+            default:
+                String message = String.format("Unrecognized direction %s for a for-loop", forNode.direction);
+                throw new IllegalStateException(message);
+        }
+
+        int counter = newLocal();
+        int limit = newLocal();
+
+        Label top = new Label();
+        Label next = new Label();
+        Label broken = new Label();
+        Label done = new Label();
+
+        compileExpression(forNode.assignNode.expressionNode, TypeSpec.INTEGER);
+        then(() -> mv.visitVarInsn(Opcodes.ISTORE, counter));
+
+        compileExpression(forNode.bound, TypeSpec.INTEGER);
+
+        then(() -> {
+            pushInt(change);
+            mv.visitInsn(Opcodes.IADD);
+            mv.visitVarInsn(Opcodes.ISTORE, limit);
+
+            mv.visitLabel(top);
+            mv.visitVarInsn(Opcodes.ILOAD, counter);
+            mv.visitVarInsn(Opcodes.ILOAD, limit);
+            mv.visitJumpInsn(Opcodes.IF_ICMPEQ, done);
+
+            prepareStore(variable);
+            mv.visitVarInsn(Opcodes.ILOAD, counter);
+            storeValue(variable);
+            if (! forNode.lockFree) {
+                addToLock(variable, 1);
+            }
+
+            loops.push(new LoopLabels(broken, next));
+        });
+
+        visitChild(forNode.body);
+
+        then(() -> {
+            loops.pop();
+
+            mv.visitLabel(next);
+            if (! forNode.lockFree) {
+                addToLock(variable, -1);
+            }
+            mv.visitIincInsn(counter, change);
+            mv.visitJumpInsn(Opcodes.GOTO, top);
+
+            mv.visitLabel(broken);
+            if (! forNode.lockFree) {
+                addToLock(variable, -1);
+            }
+            mv.visitLabel(done);
+        });
+    }
+
+    @Override
+    public void visit(AssignNode assignNode) {
+        VariableAssignNode target = assignNode.variableAssignNode;
+        Storage variable = storageOf(target.scope, target.frameDepth, target.slotIndex);
+
+        prepareStore(variable);
+        compileExpression(assignNode.expressionNode, variable.type);
+        then(() -> storeValue(variable));
+    }
+
+    @Override
+    public void visit(VariableAssignNode variableAssignNode) {
+        // handled by visit(AssignNode) and visit(ForNode)
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.rodyamirov.jvm;
+
+import com.google.common.collect.ImmutableList;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.SymbolValue;
+import io.github.rodyamirov.symbols.SymbolValueTable;
+import io.github.rodyamirov.symbols.TypeSpec;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A program which the BytecodeCompiler has turned into a JVM class. The class is generated and
+ * loaded once; every call to run() makes a fresh instance of it, so it can be run any number of
+ * times, and HotSpot gets to warm up the same code across runs.
+ */
+public final class CompiledProgram {
+    private final SymbolTable symbolTable;
+    private final ProgramNode programNode;
+    private final Class<? extends GeneratedProgram> generatedClass;
+
+    // every procedure in the program, in the order their entered flags are numbered;
+    // owners holds the index of the procedure which declares each one, or -1 for the program
+    private final ImmutableList<ProcedureDeclarationNode> procedures;
+    private final int[] owners;
+
+    private final ImmutableList<Supplier<RuntimeException>> failures;
+
+    CompiledProgram(SymbolTable symbolTable, ProgramNode programNode,
+                    Class<? extends GeneratedProgram> generatedClass,
+                    List<ProcedureDeclarationNode> procedures, int[] owners,
+                    List<Supplier<RuntimeException>> failures) {
+        this.symbolTable = symbolTable;
+        this.programNode = programNode;
+        this.generatedClass = generatedClass;
+        this.procedures = ImmutableList.copyOf(procedures);
+        this.owners = owners.clone();
+        this.failures = ImmutableList.copyOf(failures);
+    }
+
+    public SymbolValueTable run() {
+        SymbolValueTable symbolValueTable = new SymbolValueTable(symbolTable);
+
+        symbolValueTable.setValue(
+                programNode.scope,
+                programNode.name,
+                SymbolValue.make(TypeSpec.PROGRAM, programNode)
+        );
+
+        GeneratedProgram generatedProgram;
+        try {
+            generatedProgram = generatedClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException roe) {
+            throw new IllegalStateException("Could not instantiate the generated program", roe);
+        }
+
+        generatedProgram.prepare(procedures.size(), failures);
+        generatedProgram.run(symbolValueTable.getFrame(programNode.blockNode.scope));
+
+        // a procedure is declared whenever its enclosing block runs
+        for (int k = 0; k < procedures.size(); k++) {
+            if (owners[k] < 0 || generatedProgram.entered[owners[k]]) {
+                ProcedureDeclarationNode procedure = procedures.get(k);
+                symbolValueTable.setValue(
+                        procedure.scope,
+                        procedure.name,
+                        SymbolValue.make(TypeSpec.PROCEDURE, procedure)
+                );
+            }
+        }
+
+        return symbolValueTable;
+    }
+}
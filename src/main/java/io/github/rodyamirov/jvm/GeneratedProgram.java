@@ -0,0 +1,44 @@
+package io.github.rodyamirov.jvm;
+
+import io.github.rodyamirov.symbols.Frame;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * The superclass of every class the BytecodeCompiler generates. Generated code only ever touches
+ * the protected members here; everything else about setting up and reading back a run is handled
+ * by CompiledProgram.
+ */
+public abstract class GeneratedProgram {
+    // entered[k] is set the first time procedure k is called, so we know whose declarations ran
+    protected boolean[] entered;
+
+    private List<Supplier<RuntimeException>> failures;
+
+    protected GeneratedProgram() {
+    }
+
+    void prepare(int procedureCount, List<Supplier<RuntimeException>> failures) {
+        this.entered = new boolean[procedureCount];
+        this.failures = failures;
+    }
+
+    /**
+     * Runs the program, then writes the final state of its variables into the specified frame.
+     *
+     * @param programFrame The frame for the program's block
+     */
+    public abstract void run(Frame programFrame);
+
+    /**
+     * Builds the exception for one of the runtime failures registered at compile time (an
+     * unassigned variable, a locked loop variable, and so on). The generated code throws it.
+     *
+     * @param index The index of the failure
+     * @return The exception to throw
+     */
+    protected final RuntimeException fail(int index) {
+        return failures.get(index).get();
+    }
+}
@@ -0,0 +1,109 @@
+package io.github.rodyamirov.lex;
+
+/**
+ * The identifiers of one program: one token for each (standardized) name, carrying a symbol id
+ * numbered densely from 0 in the order the names first come up. A Tokenizer keeps one of these,
+ * so a name it has seen before costs no new token; everything lexed for the same program shares
+ * one, so the ids agree however the program was lexed. Nothing here is static, so the names go
+ * away along with the program.
+ *
+ * Open addressing on the hash of the names; not thread safe.
+ */
+final class Identifiers {
+    private Token<String>[] table = newTable(64);
+    private int size = 0;
+
+    /**
+     * The number of identifiers so far; every symbol id handed out is below this.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * The token for the name in text[start, end), which is all ASCII, and whose lowercased name
+     * has the given hash (the same as String's).
+     */
+    Token<String> find(char[] text, int start, int end, int hash) {
+        int mask = table.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+
+        for (Token<String> known = table[index]; known != null; known = table[index]) {
+            if (sameName(known.value, text, start, end)) {
+                return known;
+            }
+            index = (index + 1) & mask;
+        }
+
+        // first time we've seen this one
+        return add(index, Tokenizer.standardizeId(new String(text, start, end - start)));
+    }
+
+    /**
+     * The token for the name, which is already standardized.
+     */
+    Token<String> find(String name) {
+        int hash = name.hashCode();
+        int mask = table.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+
+        for (Token<String> known = table[index]; known != null; known = table[index]) {
+            if (known.value.equals(name)) {
+                return known;
+            }
+            index = (index + 1) & mask;
+        }
+
+        return add(index, name);
+    }
+
+    private Token<String> add(int index, String name) {
+        Token<String> token = Token.ID(name, size);
+        table[index] = token;
+        size += 1;
+
+        if (size * 2 > table.length) {
+            grow();
+        }
+
+        return token;
+    }
+
+    private static boolean sameName(String name, char[] text, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (Tokenizer.lowerCase(text[i]) != name.charAt(i - start)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void grow() {
+        Token<String>[] old = table;
+        table = newTable(old.length * 2);
+        int mask = table.length - 1;
+
+        for (Token<String> token : old) {
+            if (token != null) {
+                int hash = token.value.hashCode();
+                int index = (hash ^ (hash >>> 16)) & mask;
+
+                while (table[index] != null) {
+                    index = (index + 1) & mask;
+                }
+
+                table[index] = token;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Token<String>[] newTable(int capacity) {
+        return (Token<String>[]) new Token[capacity];
+    }
+}
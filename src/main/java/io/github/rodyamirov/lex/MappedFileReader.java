@@ -0,0 +1,135 @@
+package io.github.rodyamirov.lex;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.MalformedInputException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a UTF-8 file through memory maps, decoding as it goes, so the file is never copied onto
+ * the heap; the bytes come straight from the OS page cache, which also keeps them around for the
+ * next time the same file is read.
+ *
+ * A single map can't be more than 2GB, so larger files are mapped in windows. Each window maps a
+ * few bytes past where the next one starts, so a character is always whole in the window where
+ * it starts.
+ */
+class MappedFileReader extends Reader {
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    // the longest a UTF-8 character gets, less the byte it starts on
+    private static final int OVERLAP = 3;
+
+    private final MappedByteBuffer[] windows;
+    private int windowIndex;
+    private MappedByteBuffer window;
+
+    MappedFileReader(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int windowCount = (int) Math.max(1, (size + WINDOW_SIZE - 1) / WINDOW_SIZE);
+
+            // the maps stay valid after the channel is closed
+            windows = new MappedByteBuffer[windowCount];
+            for (int i = 0; i < windowCount; i++) {
+                long start = (long) i * WINDOW_SIZE;
+                long length = Math.min(size - start, (long) WINDOW_SIZE + OVERLAP);
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+
+        windowIndex = 0;
+        window = windows[0];
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        int read = 0;
+
+        while (read < length) {
+            if (window.position() >= WINDOW_SIZE && windowIndex + 1 < windows.length) {
+                // we've run into the overlap, which is the start of the next window
+                int carried = window.position() - WINDOW_SIZE;
+                windowIndex += 1;
+                window = windows[windowIndex];
+                window.position(carried);
+            }
+
+            if (!window.hasRemaining()) {
+                break;
+            }
+
+            byte first = window.get();
+            if (first >= 0) {
+                buffer[offset + read] = (char) first;
+                read += 1;
+                continue;
+            }
+
+            int codePoint = decodeMultiByte(first);
+            if (Character.isBmpCodePoint(codePoint)) {
+                buffer[offset + read] = (char) codePoint;
+                read += 1;
+            } else if (read + 2 <= length) {
+                buffer[offset + read] = Character.highSurrogate(codePoint);
+                buffer[offset + read + 1] = Character.lowSurrogate(codePoint);
+                read += 2;
+            } else {
+                // no room for both halves; leave it for next time
+                window.position(window.position() - 4);
+                break;
+            }
+        }
+
+        return read == 0 && !window.hasRemaining() ? -1 : read;
+    }
+
+    private int decodeMultiByte(byte first) throws MalformedInputException {
+        int extra;
+        int codePoint;
+        int min;
+
+        if ((first & 0xE0) == 0xC0) {
+            extra = 1;
+            codePoint = first & 0x1F;
+            min = 0x80;
+        } else if ((first & 0xF0) == 0xE0) {
+            extra = 2;
+            codePoint = first & 0x0F;
+            min = 0x800;
+        } else if ((first & 0xF8) == 0xF0) {
+            extra = 3;
+            codePoint = first & 0x07;
+            min = 0x10000;
+        } else {
+            throw new MalformedInputException(1);
+        }
+
+        if (window.remaining() < extra) {
+            throw new MalformedInputException(1);
+        }
+
+        for (int i = 0; i < extra; i++) {
+            byte next = window.get();
+            if ((next & 0xC0) != 0x80) {
+                throw new MalformedInputException(i + 1);
+            }
+            codePoint = (codePoint << 6) | (next & 0x3F);
+        }
+
+        if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            throw new MalformedInputException(extra + 1);
+        }
+
+        return codePoint;
+    }
+
+    @Override
+    public void close() {
+        // nothing to release; the maps go away when they're collected
+    }
+}
@@ -0,0 +1,219 @@
+package io.github.rodyamirov.lex;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Lexes a large text in pieces, in parallel, then hands the tokens out through an ordinary
+ * Tokenizer, so the parser can't tell the difference.
+ *
+ * Pieces are cut at whitespace, which no token contains, so the only thing which can carry
+ * across a cut is a comment. Braces mean nothing but comments, so how deep in comments a piece
+ * starts is just the number of opening braces before it, less the closing ones; a first pass
+ * counts them for each piece, in parallel, and then each piece is lexed knowing where it starts.
+ *
+ * Errors come out just as they would lexing straight through: after every token before them.
+ */
+public final class ParallelTokenizer {
+    // below this, it isn't worth the trouble
+    private static final int MIN_PARALLEL_LENGTH = 1 << 20;
+
+    private static final int MIN_PIECE_LENGTH = 1 << 16;
+    private static final int PIECES_PER_THREAD = 4;
+
+    private ParallelTokenizer() {
+    }
+
+    /**
+     * Whether lexing the text in pieces should beat lexing it straight through: the text has to
+     * be long enough, and the common pool has to have more than one thread to share it out to.
+     * On one thread, the extra pass and the token array built up front only cost time.
+     */
+    public static boolean isWorthwhile(String text) {
+        return text.length() >= MIN_PARALLEL_LENGTH && ForkJoinPool.commonPool().getParallelism() > 1;
+    }
+
+    public static Tokenizer tokenize(String text) {
+        return tokenize(text, ForkJoinPool.commonPool());
+    }
+
+    public static Tokenizer tokenize(String text, ForkJoinPool pool) {
+        return tokenize(text, pool, MIN_PIECE_LENGTH);
+    }
+
+    static Tokenizer tokenize(String text, ForkJoinPool pool, int minPieceLength) {
+        if (text == null) {
+            throw new IllegalArgumentException("Text must not be null");
+        }
+
+        char[] chars = text.toCharArray();
+        int[] cuts = cut(chars, pool.getParallelism() * PIECES_PER_THREAD, minPieceLength);
+        Piece[] pieces = new Piece[cuts.length - 1];
+
+        for (int i = 0; i < pieces.length; i++) {
+            pieces[i] = new Piece(chars, cuts[i], cuts[i + 1]);
+        }
+
+        runAll(pool, pieces, Piece::countBraces);
+
+        int depth = 0;
+        for (Piece piece : pieces) {
+            piece.startDepth = depth;
+
+            // a negative depth means a stray closing brace, which lexing that piece will trip on
+            depth = Math.max(0, depth + piece.netBraces);
+        }
+
+        for (int i = 0; i + 1 < pieces.length; i++) {
+            pieces[i].endsInComment = pieces[i + 1].startDepth > 0;
+        }
+
+        runAll(pool, pieces, Piece::lex);
+
+        return merge(pieces);
+    }
+
+    private static void runAll(ForkJoinPool pool, Piece[] pieces, Consumer<Piece> step) {
+        RecursiveAction[] actions = new RecursiveAction[pieces.length];
+
+        for (int i = 0; i < pieces.length; i++) {
+            Piece piece = pieces[i];
+            actions[i] = new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    step.accept(piece);
+                }
+            };
+        }
+
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(actions);
+            }
+        });
+    }
+
+    private static int[] cut(char[] chars, int maxPieces, int minPieceLength) {
+        int pieceCount = Math.max(1, Math.min(maxPieces, chars.length / minPieceLength));
+        int[] cuts = new int[pieceCount + 1];
+        int made = 1;
+
+        for (int i = 1; i < pieceCount; i++) {
+            int cut = Math.max((int) ((long) chars.length * i / pieceCount), cuts[made - 1]);
+            while (cut < chars.length && !Character.isWhitespace(chars[cut])) {
+                cut += 1;
+            }
+
+            if (cut > cuts[made - 1] && cut < chars.length) {
+                cuts[made] = cut;
+                made += 1;
+            }
+        }
+
+        cuts[made] = chars.length;
+        return Arrays.copyOf(cuts, made + 1);
+    }
+
+    private static Tokenizer merge(Piece[] pieces) {
+        int count = 0;
+        RuntimeException error = null;
+
+        for (Piece piece : pieces) {
+            count += piece.tokenCount;
+
+            // anything after an error wouldn't have been lexed at all
+            if (piece.error != null) {
+                error = piece.error;
+                break;
+            }
+        }
+
+        Token[] tokens = new Token[Math.max(8, Integer.highestOneBit(Math.max(1, count - 1)) << 1)];
+        int copied = 0;
+        Identifiers identifiers = new Identifiers();
+
+        for (Piece piece : pieces) {
+            // each piece numbered its own identifiers, so they're numbered again for the whole text
+            @SuppressWarnings("unchecked")
+            Token<String>[] renumbered = (Token<String>[]) new Token[piece.identifiers.size()];
+
+            for (int i = 0; i < piece.tokenCount; i++) {
+                Token token = piece.tokens[i];
+
+                if (token.type == Token.Type.ID) {
+                    int id = token.symbolId;
+                    if (renumbered[id] == null) {
+                        renumbered[id] = identifiers.find((String) token.value);
+                    }
+                    token = renumbered[id];
+                }
+
+                tokens[copied] = token;
+                copied += 1;
+            }
+
+            if (piece.error != null) {
+                break;
+            }
+        }
+
+        return new Tokenizer(tokens, count, error, identifiers);
+    }
+
+    private static class Piece {
+        private final char[] chars;
+        private final int start;
+        private final int end;
+
+        private int netBraces;
+        private int startDepth;
+        private boolean endsInComment;
+
+        private Token[] tokens = new Token[64];
+        private int tokenCount = 0;
+        private RuntimeException error;
+        private Identifiers identifiers = new Identifiers();
+
+        private Piece(char[] chars, int start, int end) {
+            this.chars = chars;
+            this.start = start;
+            this.end = end;
+        }
+
+        private void countBraces() {
+            int net = 0;
+            for (int i = start; i < end; i++) {
+                if (chars[i] == '{') {
+                    net += 1;
+                } else if (chars[i] == '}') {
+                    net -= 1;
+                }
+            }
+            netBraces = net;
+        }
+
+        private void lex() {
+            try {
+                Tokenizer tokenizer = new Tokenizer(chars, start, end, startDepth, endsInComment);
+                identifiers = tokenizer.identifiers();
+
+                Token token = tokenizer.getNextToken();
+                while (token != Token.EOF) {
+                    if (tokenCount == tokens.length) {
+                        tokens = Arrays.copyOf(tokens, tokens.length * 2);
+                    }
+                    tokens[tokenCount] = token;
+                    tokenCount += 1;
+
+                    token = tokenizer.getNextToken();
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            }
+        }
+    }
+}
@@ -42,9 +42,21 @@ public class Token<T> {
     public final Type type;
     public final T value;
 
+    // for ID tokens from a tokenizer, the name's id within its program (see Identifiers); -1 for
+    // everything else, including names made up after lexing
+    public final int symbolId;
+
+    private final int hash;
+
     private Token(Type type, T value) {
+        this(type, value, -1);
+    }
+
+    private Token(Type type, T value, int symbolId) {
         this.type = type;
         this.value = value;
+        this.symbolId = symbolId;
+        this.hash = 137 * type.ordinal() + Objects.hashCode(value);
     }
 
     @Override
@@ -54,7 +66,9 @@ public class Token<T> {
 
     @Override
     public boolean equals(Object o) {
-        if (o == null || !(o instanceof Token)) {
+        if (this == o) {
+            return true;
+        } else if (o == null || !(o instanceof Token)) {
             return false;
         }
 
@@ -65,9 +79,7 @@ public class Token<T> {
 
     @Override
     public int hashCode() {
-        int out = 137 * type.ordinal();
-        out += Objects.hashCode(value);
-        return out;
+        return hash;
     }
 
     public static Token<Integer> INT_CONSTANT(int value) {
@@ -87,6 +99,11 @@ public class Token<T> {
         return new Token<>(Type.ID, value);
     }
 
+    // the name is already standardized
+    static Token<String> ID(String name, int symbolId) {
+        return new Token<>(Type.ID, name, symbolId);
+    }
+
     // these are only used for keywords so it doesn't make sense to
     // expose the method
     private static Token<Void> voidToken(Type type) {
@@ -0,0 +1,413 @@
+package io.github.rodyamirov.lex;
+
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Every token of a text, and where each one starts and ends, kept up to date as the text is
+ * edited. An edit is lexed again from the end of the last token before it, up to the first new
+ * token which starts where an old one (after the edit) used to; the text is the same from there
+ * on, and the lexer is between tokens in both, so all the tokens from there on are the same too.
+ *
+ * If the edited text doesn't lex, the old tokens are kept, and the next edit lexes everything
+ * changed since they were right.
+ *
+ * The text and the tokens each have a gap where the last edit was, so an edit only moves what's
+ * between it and the one before, and tokens after the gap keep how far they are from the end of
+ * the text, which edits before them don't change. So an edit near the last one costs about as
+ * much as the text it lexes again, however long the whole text is.
+ */
+public final class TokenList {
+    // an edit is usually lexed again only a few tokens past its end, so there's no point reading
+    // much further ahead than that
+    private static final int READ_SIZE = 256;
+
+    /**
+     * What an edit did to the tokens: the ones in [first, first + removed) were replaced with
+     * the ones now in [first, first + added).
+     */
+    public static final class Change {
+        public final int first;
+        public final int removed;
+        public final int added;
+
+        private Change(int first, int removed, int added) {
+            this.first = first;
+            this.removed = removed;
+            this.added = added;
+        }
+    }
+
+    // the text is text[0, gapStart) and then text[gapEnd, text.length)
+    private char[] text;
+    private int gapStart;
+    private int gapEnd;
+
+    // the tokens, with EOF left off, as of the last time the text lexed, when it was lexedLength
+    // long; tokens[0, tokenGapStart) have where they start and end, and the ones from tokenGapEnd
+    // on have how far that is from the end of the text
+    private Token[] tokens;
+    private int[] starts;
+    private int[] ends;
+    private int tokenGapStart;
+    private int tokenGapEnd;
+
+    // if the text hasn't lexed since some edits: all but the first damageStart characters and
+    // the last damageSuffix may have changed since then
+    private boolean lexed;
+    private int damageStart;
+    private int damageSuffix;
+    private int lexedLength;
+
+    // every identifier lexed so far, so each keeps its symbol id through edits
+    private final Identifiers identifiers = new Identifiers();
+
+    // the new tokens, while an edit is being lexed
+    private Token[] newTokens = new Token[16];
+    private int[] newStarts = new int[16];
+    private int[] newEnds = new int[16];
+    private int newCount = 0;
+
+    public TokenList(String text) {
+        if (text == null) {
+            throw new IllegalArgumentException("Text must not be null");
+        }
+
+        this.text = Arrays.copyOf(text.toCharArray(), text.length() + 16);
+        this.gapStart = text.length();
+        this.gapEnd = this.text.length;
+
+        // with no old tokens, nothing lines up, so this lexes everything
+        this.tokens = new Token[0];
+        this.starts = new int[0];
+        this.ends = new int[0];
+        lex(0, 0, 0);
+
+        tokens = newTokens;
+        starts = newStarts;
+        ends = newEnds;
+        tokenGapStart = newCount;
+        tokenGapEnd = newTokens.length;
+
+        newTokens = new Token[16];
+        newStarts = new int[16];
+        newEnds = new int[16];
+        newCount = 0;
+
+        lexed = true;
+        lexedLength = length();
+    }
+
+    public int size() {
+        return tokens.length - (tokenGapEnd - tokenGapStart);
+    }
+
+    public Token get(int index) {
+        return tokens[physical(index)];
+    }
+
+    public String text() {
+        return new StringBuilder(length())
+                .append(text, 0, gapStart)
+                .append(text, gapEnd, text.length - gapEnd)
+                .toString();
+    }
+
+    private int length() {
+        return text.length - (gapEnd - gapStart);
+    }
+
+    /**
+     * A tokenizer which hands out the tokens in [from, to), then EOF.
+     */
+    public Tokenizer tokenizer(int from, int to) {
+        Token[] out = new Token[to - from];
+
+        int before = Math.max(0, Math.min(to, tokenGapStart) - from);
+        System.arraycopy(tokens, from, out, 0, before);
+        System.arraycopy(tokens, physical(from + before), out, before, out.length - before);
+
+        return new Tokenizer(out, out.length, null, identifiers);
+    }
+
+    /**
+     * Replaces text[start, end) with the replacement, and the tokens to go with it. Throws just
+     * as a Tokenizer would if the new text doesn't lex, but the text is changed regardless.
+     */
+    public Change edit(int start, int end, String replacement) {
+        int length = length();
+
+        if (replacement == null) {
+            throw new IllegalArgumentException("Replacement must not be null");
+        } else if (start < 0 || end < start || end > length) {
+            String message = String.format("Cannot replace [%d, %d) in text of length %d", start, end, length);
+            throw new IllegalArgumentException(message);
+        }
+
+        if (lexed) {
+            damageStart = start;
+            damageSuffix = length - end;
+        } else {
+            damageStart = Math.min(damageStart, start);
+            damageSuffix = Math.min(damageSuffix, length - end);
+        }
+
+        moveGap(end);
+        gapStart = start;
+
+        if (gapEnd - gapStart < replacement.length()) {
+            growGap(replacement.length());
+        }
+
+        replacement.getChars(0, replacement.length(), text, gapStart);
+        gapStart += replacement.length();
+        lexed = false;
+
+        Change change = relex();
+
+        lexed = true;
+        lexedLength = length();
+        return change;
+    }
+
+    private Change relex() {
+        int delta = length() - lexedLength;
+
+        // a token ending right where the damage starts might run on into it, so it goes too
+        int first = firstEndingAtOrAfter(damageStart);
+        int restart = first == 0 ? 0 : end(first - 1);
+
+        // the old tokens from here on are past the damage, so the new ones might line up with them
+        int next = lex(restart, lexedLength - damageSuffix, delta);
+        int lexedCount = newCount;
+
+        // lexing again often gives back some of the same tokens, in the same places
+        int same = 0;
+        while (same < newCount && first + same < next && sameToken(first + same, same, 0)) {
+            same += 1;
+        }
+
+        while (newCount > same && next > first + same && sameToken(next - 1, newCount - 1, delta)) {
+            newCount -= 1;
+            next -= 1;
+        }
+
+        first += same;
+        int removed = next - first;
+        int added = newCount - same;
+
+        // the tokens from next on count from the end of the text, so they're right as they are
+        moveTokenGap(next);
+        Arrays.fill(tokens, first, next, null);
+        tokenGapStart = first;
+
+        if (tokenGapEnd - tokenGapStart < added) {
+            growTokenGap(added);
+        }
+
+        System.arraycopy(newTokens, same, tokens, first, added);
+        System.arraycopy(newStarts, same, starts, first, added);
+        System.arraycopy(newEnds, same, ends, first, added);
+        tokenGapStart += added;
+
+        // this would otherwise hang on to tokens which are gone
+        Arrays.fill(newTokens, 0, lexedCount, null);
+
+        return new Change(first, removed, added);
+    }
+
+    // lexes from restart into the new tokens, stopping at the first which starts where one of the
+    // old ones, at or after oldStart, used to (before the text moved by delta); returns the index
+    // of that old token, or the number of tokens if none lined up
+    private int lex(int restart, int oldStart, int delta) {
+        int count = size();
+        int next = firstStartingAtOrAfter(oldStart);
+        newCount = 0;
+
+        Tokenizer tokenizer = new Tokenizer(new TextReader(restart), READ_SIZE, restart, identifiers);
+
+        for (Token token = tokenizer.getNextToken(); token != Token.EOF; token = tokenizer.getNextToken()) {
+            int start = (int) tokenizer.lastTokenStart();
+
+            while (next < count && start(next) + delta < start) {
+                next += 1;
+            }
+
+            if (next < count && start(next) + delta == start) {
+                return next;
+            }
+
+            if (newCount == newTokens.length) {
+                newTokens = Arrays.copyOf(newTokens, newCount * 2);
+                newStarts = Arrays.copyOf(newStarts, newCount * 2);
+                newEnds = Arrays.copyOf(newEnds, newCount * 2);
+            }
+
+            newTokens[newCount] = token;
+            newStarts[newCount] = start;
+            newEnds[newCount] = (int) tokenizer.lastTokenEnd();
+            newCount += 1;
+        }
+
+        return count;
+    }
+
+    private boolean sameToken(int index, int newIndex, int delta) {
+        return start(index) + delta == newStarts[newIndex]
+                && end(index) + delta == newEnds[newIndex]
+                && get(index).equals(newTokens[newIndex]);
+    }
+
+    private int physical(int index) {
+        return index < tokenGapStart ? index : index + (tokenGapEnd - tokenGapStart);
+    }
+
+    // where tokens start and end, as of the last time the text lexed
+
+    private int start(int index) {
+        return index < tokenGapStart ? starts[index] : lexedLength - starts[physical(index)];
+    }
+
+    private int end(int index) {
+        return index < tokenGapStart ? ends[index] : lexedLength - ends[physical(index)];
+    }
+
+    private int firstEndingAtOrAfter(int position) {
+        int low = 0;
+        int high = size();
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (end(mid) < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private int firstStartingAtOrAfter(int position) {
+        int low = 0;
+        int high = size();
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (start(mid) < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private void moveGap(int position) {
+        if (position < gapStart) {
+            int moved = gapStart - position;
+            System.arraycopy(text, position, text, gapEnd - moved, moved);
+            gapStart -= moved;
+            gapEnd -= moved;
+        } else if (position > gapStart) {
+            int moved = position - gapStart;
+            System.arraycopy(text, gapEnd, text, gapStart, moved);
+            gapStart += moved;
+            gapEnd += moved;
+        }
+    }
+
+    private void growGap(int needed) {
+        int suffix = text.length - gapEnd;
+        char[] grown = new char[Math.max(text.length * 2, gapStart + needed + suffix)];
+
+        System.arraycopy(text, 0, grown, 0, gapStart);
+        System.arraycopy(text, gapEnd, grown, grown.length - suffix, suffix);
+
+        gapEnd = grown.length - suffix;
+        text = grown;
+    }
+
+    // tokens crossing the gap switch between counting from the start and from the end; with no
+    // gap at all they stay where they are, so there's nothing left behind to clear
+    private void moveTokenGap(int index) {
+        int gap = tokenGapEnd - tokenGapStart;
+
+        for (int i = tokenGapStart - 1; i >= index; i--) {
+            tokens[i + gap] = tokens[i];
+            starts[i + gap] = lexedLength - starts[i];
+            ends[i + gap] = lexedLength - ends[i];
+
+            if (gap > 0) {
+                tokens[i] = null;
+            }
+        }
+
+        for (int i = tokenGapStart; i < index; i++) {
+            tokens[i] = tokens[i + gap];
+            starts[i] = lexedLength - starts[i + gap];
+            ends[i] = lexedLength - ends[i + gap];
+
+            if (gap > 0) {
+                tokens[i + gap] = null;
+            }
+        }
+
+        tokenGapStart = index;
+        tokenGapEnd = index + gap;
+    }
+
+    private void growTokenGap(int needed) {
+        int suffix = tokens.length - tokenGapEnd;
+        int capacity = Math.max(tokens.length * 2, tokenGapStart + needed + suffix);
+
+        Token[] grownTokens = new Token[capacity];
+        int[] grownStarts = new int[capacity];
+        int[] grownEnds = new int[capacity];
+
+        System.arraycopy(tokens, 0, grownTokens, 0, tokenGapStart);
+        System.arraycopy(starts, 0, grownStarts, 0, tokenGapStart);
+        System.arraycopy(ends, 0, grownEnds, 0, tokenGapStart);
+
+        System.arraycopy(tokens, tokenGapEnd, grownTokens, capacity - suffix, suffix);
+        System.arraycopy(starts, tokenGapEnd, grownStarts, capacity - suffix, suffix);
+        System.arraycopy(ends, tokenGapEnd, grownEnds, capacity - suffix, suffix);
+
+        tokens = grownTokens;
+        starts = grownStarts;
+        ends = grownEnds;
+        tokenGapEnd = capacity - suffix;
+    }
+
+    // the text from some point on, read across the gap
+    private final class TextReader extends Reader {
+        private int position;
+
+        private TextReader(int position) {
+            this.position = position;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            int remaining = length() - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int read = Math.min(length, remaining);
+            int beforeGap = Math.max(0, Math.min(read, gapStart - position));
+            int afterGap = gapEnd + position + beforeGap - gapStart;
+
+            System.arraycopy(text, position, buffer, offset, beforeGap);
+            System.arraycopy(text, afterGap, buffer, offset + beforeGap, read - beforeGap);
+
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,169 +1,469 @@
 package io.github.rodyamirov.lex;
 
-import com.google.common.collect.ImmutableMap;
-
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
 
 /**
+ * Splits program text into tokens. This is on the path of everything else, so it's written to
+ * allocate nothing for keywords, operators, or identifiers it has already seen: characters are
+ * classified by table lookup (falling back to the Character methods only outside ASCII),
+ * reserved words are recognized with a perfect hash over their first and last letters and
+ * length, identifiers are found again without building a string, numbers are read straight
+ * from the text, and lookahead is kept in a ring buffer.
+ *
+ * It can also read from a Reader or a channel, a buffer at a time, so that a program never has to
+ * be in memory all at once. Only the token being read has to stay in the buffer, so however long
+ * the source, the buffer only grows if a single token is longer than it. Files are read through
+ * memory maps, straight from the page cache.
+ *
  * Created by richard.rast on 12/22/16.
  */
 public class Tokenizer {
+    // character classes, for the ASCII range
+    private static final byte OTHER = 0;
+    private static final byte WHITESPACE = 1;
+    private static final byte LETTER = 2;
+    private static final byte DIGIT = 3;
+
+    private static final byte[] charClasses = new byte[128];
+    private static final char[] lowerCase = new char[128];
+
+    // every integer up to 2^24 is exactly a float, as is every power of ten up to 10^10
+    private static final long EXACT_FLOAT_LIMIT = 1 << 24;
+    private static final float[] exactPowersOfTen = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    // tokens which are always exactly the one character
+    private static final Token[] singleCharTokens = new Token[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            lowerCase[c] = c;
+
+            if (Character.isWhitespace(c)) {
+                charClasses[c] = WHITESPACE;
+            } else if (Character.isDigit(c)) {
+                charClasses[c] = DIGIT;
+            } else if (Character.isLetter(c) || c == '_') {
+                charClasses[c] = LETTER;
+            }
+        }
+
+        for (char c = 'A'; c <= 'Z'; c++) {
+            lowerCase[c] = (char) (c - 'A' + 'a');
+        }
+
+        singleCharTokens['+'] = Token.PLUS;
+        singleCharTokens['-'] = Token.MINUS;
+        singleCharTokens['*'] = Token.TIMES;
+        singleCharTokens['/'] = Token.REAL_DIVIDE;
+        singleCharTokens['('] = Token.L_PAREN;
+        singleCharTokens[')'] = Token.R_PAREN;
+        singleCharTokens[';'] = Token.SEMI;
+        singleCharTokens['.'] = Token.DOT;
+        singleCharTokens[','] = Token.COMMA;
+        singleCharTokens['='] = Token.EQUALS;
+    }
+
     // rig up our keywords ...
-    private static final ImmutableMap<String, Token> reservedWords;
+    private static final int KEYWORD_TABLE_SIZE = 64;
+    private static final char[][] keywordNames = new char[KEYWORD_TABLE_SIZE][];
+    private static final Token[] keywordTokens = new Token[KEYWORD_TABLE_SIZE];
+
     static {
-        Map<String, Token> reservedWordsMap = new HashMap<>();
-        reservedWordsMap.put(standardizeId("BEGIN"), Token.BEGIN);
-        reservedWordsMap.put(standardizeId("END"), Token.END);
-        reservedWordsMap.put(standardizeId("PROGRAM"), Token.PROGRAM);
-        reservedWordsMap.put(standardizeId("PROCEDURE"), Token.PROCEDURE);
-        reservedWordsMap.put(standardizeId("VAR"), Token.VAR);
-
-        reservedWordsMap.put(standardizeId("INTEGER"), Token.INTEGER_TYPE);
-        reservedWordsMap.put(standardizeId("REAL"), Token.REAL_TYPE);
-        reservedWordsMap.put(standardizeId("BOOLEAN"), Token.BOOLEAN_TYPE);
-
-        reservedWordsMap.put(standardizeId("TRUE"), Token.TRUE);
-        reservedWordsMap.put(standardizeId("FALSE"), Token.FALSE);
-        reservedWordsMap.put(standardizeId("AND"), Token.AND);
-        reservedWordsMap.put(standardizeId("THEN"), Token.THEN);
-        reservedWordsMap.put(standardizeId("OR"), Token.OR);
-        reservedWordsMap.put(standardizeId("ELSE"), Token.ELSE);
-        reservedWordsMap.put(standardizeId("NOT"), Token.NOT);
-        reservedWordsMap.put(standardizeId("IF"), Token.IF);
-
-        reservedWordsMap.put(standardizeId("DIV"), Token.INT_DIVIDE);
-        reservedWordsMap.put(standardizeId("MOD"), Token.MOD);
-
-        reservedWordsMap.put(standardizeId("WHILE"), Token.WHILE);
-        reservedWordsMap.put(standardizeId("DO"), Token.DO);
-        reservedWordsMap.put(standardizeId("UNTIL"), Token.UNTIL);
-        reservedWordsMap.put(standardizeId("FOR"), Token.FOR);
-        reservedWordsMap.put(standardizeId("TO"), Token.TO);
-        reservedWordsMap.put(standardizeId("DOWNTO"), Token.DOWNTO);
-        reservedWordsMap.put(standardizeId("CONTINUE"), Token.CONTINUE);
-        reservedWordsMap.put(standardizeId("BREAK"), Token.BREAK);
-
-        reservedWords = ImmutableMap.copyOf(reservedWordsMap);
+        addKeyword("BEGIN", Token.BEGIN);
+        addKeyword("END", Token.END);
+        addKeyword("PROGRAM", Token.PROGRAM);
+        addKeyword("PROCEDURE", Token.PROCEDURE);
+        addKeyword("VAR", Token.VAR);
+
+        addKeyword("INTEGER", Token.INTEGER_TYPE);
+        addKeyword("REAL", Token.REAL_TYPE);
+        addKeyword("BOOLEAN", Token.BOOLEAN_TYPE);
+
+        addKeyword("TRUE", Token.TRUE);
+        addKeyword("FALSE", Token.FALSE);
+        addKeyword("AND", Token.AND);
+        addKeyword("THEN", Token.THEN);
+        addKeyword("OR", Token.OR);
+        addKeyword("ELSE", Token.ELSE);
+        addKeyword("NOT", Token.NOT);
+        addKeyword("IF", Token.IF);
+
+        addKeyword("DIV", Token.INT_DIVIDE);
+        addKeyword("MOD", Token.MOD);
+
+        addKeyword("WHILE", Token.WHILE);
+        addKeyword("DO", Token.DO);
+        addKeyword("UNTIL", Token.UNTIL);
+        addKeyword("FOR", Token.FOR);
+        addKeyword("TO", Token.TO);
+        addKeyword("DOWNTO", Token.DOWNTO);
+        addKeyword("CONTINUE", Token.CONTINUE);
+        addKeyword("BREAK", Token.BREAK);
+    }
+
+    private static int keywordHash(char first, char last, int length) {
+        // the multipliers are just ones which happen to send every keyword to its own slot
+        return (first * 11 + last * 39 + length) & (KEYWORD_TABLE_SIZE - 1);
+    }
+
+    private static void addKeyword(String word, Token token) {
+        char[] name = standardizeId(word).toCharArray();
+        int hash = keywordHash(name[0], name[name.length - 1], name.length);
+
+        if (keywordNames[hash] != null) {
+            String message = String.format("Keyword %s collides with %s; the keyword hash needs retuning",
+                    word, new String(keywordNames[hash]));
+            throw new IllegalStateException(message);
+        }
+
+        keywordNames[hash] = name;
+        keywordTokens[hash] = token;
     }
 
     public static String standardizeId(String id) {
         // for whatever reason, pascal ids are case insensitive, so to avoid this annoyance we
         // just standardize them during the lexer so nobody later has to care
-        return id.toLowerCase();
+        return id.toLowerCase(Locale.ROOT);
+    }
+
+    // PRE: c is ASCII
+    static char lowerCase(char c) {
+        return lowerCase[c];
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c < 128 ? charClasses[c] == WHITESPACE : Character.isWhitespace(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c < 128 ? charClasses[c] == DIGIT : Character.isDigit(c);
     }
 
-    private final LinkedList<Token> tokenQueue = new LinkedList<>();
-    private final String text;
+    private static boolean isIdStartCharacter(char c) {
+        return c < 128 ? charClasses[c] == LETTER : Character.isAlphabetic(c);
+    }
+
+    private static boolean isIdInternalCharacter(char c) {
+        return c < 128 ? charClasses[c] >= LETTER : Character.isLetterOrDigit(c);
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    // text[0, length) is what we have of the source; when reading from a Reader, that's a window
+    // starting at the current token, and discarded characters came before it
+    private char[] text;
+    private int length;
     private int pos;
+    private int tokenStart;
+    private long discarded;
+
+    // null if the whole text was given up front
+    private final Reader source;
+    private boolean exhausted;
+
+    // for a piece of a larger text, being lexed on its own: whether it stops partway through a
+    // comment, which the next piece will finish
+    private boolean endsInComment;
+
+    // for tokens lexed ahead of time, whatever stopped the lexing; thrown once they run out
+    private RuntimeException pendingError;
+
+    // the lookahead; holds queueSize tokens starting at queueStart, wrapping around
+    private Token[] tokenQueue = new Token[8];
+    private int queueStart = 0;
+    private int queueSize = 0;
+
+    // identifiers seen so far, shared with anything else lexing the same program
+    private final Identifiers identifiers;
 
     public Tokenizer(String text) {
         if (text == null) {
             throw new IllegalArgumentException("Text must not be null");
         }
 
+        this.text = text.toCharArray();
+        this.length = this.text.length;
+        this.pos = 0;
+        this.source = null;
+        this.exhausted = true;
+        this.identifiers = new Identifiers();
+    }
+
+    /**
+     * Lexes text[start, end) of a larger text, starting commentDepth comments deep. Token
+     * positions are still indices into the whole text.
+     */
+    Tokenizer(char[] text, int start, int end, int commentDepth, boolean endsInComment) {
         this.text = text;
+        this.length = end;
+        this.pos = start;
+        this.source = null;
+        this.exhausted = true;
+        this.endsInComment = endsInComment;
+        this.identifiers = new Identifiers();
+
+        if (commentDepth > 0) {
+            skipCommentBody(commentDepth);
+        }
+    }
+
+    /**
+     * Hands out tokens[0, count), which were lexed ahead of time with the given identifiers, then
+     * throws pendingError if there is one, or gives EOF if not.
+     */
+    Tokenizer(Token[] tokens, int count, RuntimeException pendingError, Identifiers identifiers) {
+        this.text = new char[0];
+        this.length = 0;
         this.pos = 0;
+        this.source = null;
+        this.exhausted = true;
+        this.pendingError = pendingError;
+        this.identifiers = identifiers;
+
+        // the lookahead wraps around with a mask, so it needs a power of two
+        int capacity = Math.max(8, Integer.highestOneBit(Math.max(1, count - 1)) << 1);
+        this.tokenQueue = tokens.length == capacity ? tokens : Arrays.copyOf(tokens, capacity);
+        this.queueSize = count;
     }
 
-    private boolean atEnd() {
-        return pos >= text.length();
+    public Tokenizer(Reader source) {
+        this(source, DEFAULT_BUFFER_SIZE);
     }
 
-    private void advance() {
-        if (pos <= text.length()) {
-            pos += 1;
+    public Tokenizer(Reader source, int bufferSize) {
+        this(source, bufferSize, 0, new Identifiers());
+    }
+
+    /**
+     * Lexes a source which starts partway through a larger text, offset characters in, so that
+     * positions and errors are given as indices into the whole text, and identifiers are the
+     * ones already found in the rest of it.
+     */
+    Tokenizer(Reader source, int bufferSize, long offset, Identifiers identifiers) {
+        if (source == null) {
+            throw new IllegalArgumentException("Source must not be null");
+        } else if (bufferSize < 2) {
+            // two-character operators have to fit
+            throw new IllegalArgumentException("Buffer size must be at least 2");
+        }
+
+        this.text = new char[bufferSize];
+        this.length = 0;
+        this.pos = 0;
+        this.source = source;
+        this.exhausted = false;
+        this.discarded = offset;
+        this.identifiers = identifiers;
+    }
+
+    public Tokenizer(ReadableByteChannel source, Charset charset) {
+        this(Channels.newReader(source, charset.newDecoder(), DEFAULT_BUFFER_SIZE));
+    }
+
+    /**
+     * Reads a UTF-8 file through memory maps, so the source is never copied onto the heap.
+     */
+    public Tokenizer(Path path) throws IOException {
+        this(new MappedFileReader(path));
+    }
+
+    /**
+     * Reads more of the source into the buffer, first dropping everything before the current
+     * token. Returns false if there was nothing more to read.
+     */
+    private boolean refill() {
+        if (exhausted) {
+            return false;
+        }
+
+        if (tokenStart > 0) {
+            System.arraycopy(text, tokenStart, text, 0, length - tokenStart);
+            pos -= tokenStart;
+            length -= tokenStart;
+            discarded += tokenStart;
+            tokenStart = 0;
+        }
+
+        if (text.length - length < 2) {
+            // one token fills the whole buffer, and we need room for at least a surrogate pair
+            text = Arrays.copyOf(text, text.length * 2);
+        }
+
+        int read;
+        try {
+            do {
+                read = source.read(text, length, text.length - length);
+            } while (read == 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (read < 0) {
+            exhausted = true;
+            return false;
         }
+
+        length += read;
+        return true;
     }
 
-    private char getCurrentCharacter() {
-        return text.charAt(pos);
+    private boolean hasCurrent() {
+        return pos < length || refill();
+    }
+
+    private boolean hasCurrentDiscarding() {
+        // for comments and whitespace, where nothing needs to be kept
+        tokenStart = pos;
+        return pos < length || refill();
+    }
+
+    private boolean hasNext() {
+        // whether there's a character after the current one
+        while (pos + 1 >= length) {
+            if (!refill()) {
+                return false;
+            }
+        }
+
+        return true;
     }
 
     private void skipWhitespace() {
         // no PRE: always safe to call
-        while (!atEnd() && Character.isWhitespace(getCurrentCharacter())) {
-            advance();
+        while (hasCurrentDiscarding() && isWhitespace(text[pos])) {
+            pos += 1;
         }
     }
 
     private void skipComment() {
         // no PRE
-        if (!atEnd() && getCurrentCharacter() == '{') {
-            int openCount = 1;
-            advance();
-
-            while (!atEnd() && openCount > 0) {
-                switch (getCurrentCharacter()) {
-                    case '{': openCount += 1; break;
-                    case '}': openCount -= 1; break;
-                    default: break; // just the inside of a comment
-                }
-                advance();
-            }
-
-            if (openCount > 0) {
-                String message = String.format(
-                        "EOF reached, still %d comment levels deep", openCount
-                );
-                throw new IllegalStateException(message);
-            } // otherwise all good
+        if (hasCurrentDiscarding() && text[pos] == '{') {
+            pos += 1;
+            skipCommentBody(1);
         }
     }
 
-    private boolean isIdInternalCharacter(char c) {
-        return c == '_' || Character.isLetterOrDigit(c);
+    private void skipCommentBody(int openCount) {
+        // PRE: we're openCount comments deep
+        while (openCount > 0 && hasCurrentDiscarding()) {
+            switch (text[pos]) {
+                case '{': openCount += 1; break;
+                case '}': openCount -= 1; break;
+                default: break; // just the inside of a comment
+            }
+            pos += 1;
+        }
+
+        if (openCount > 0 && !endsInComment) {
+            String message = String.format(
+                    "EOF reached, still %d comment levels deep", openCount
+            );
+            throw new IllegalStateException(message);
+        } // otherwise all good
     }
 
     private Token getId() {
-        // PRE: assumes getCurrentCharacter is _ or an alphabetical character
-        StringBuilder sb = new StringBuilder(String.valueOf(getCurrentCharacter()));
+        // PRE: assumes the current character is _ or an alphabetical character, and starts the token
+        boolean ascii = true;
+        int hash = 0;
+
+        while (hasCurrent() && isIdInternalCharacter(text[pos])) {
+            char c = text[pos];
+            if (c < 128) {
+                hash = 31 * hash + lowerCase[c];
+            } else {
+                ascii = false;
+            }
+            pos += 1;
+        }
 
-        advance();
+        if (!ascii) {
+            // lower-casing outside ASCII isn't one char at a time, so leave it to the slow path
+            String tokenString = standardizeId(new String(text, tokenStart, pos - tokenStart));
+            Token reserved = findKeyword(tokenString.toCharArray(), 0, tokenString.length());
+            return reserved != null ? reserved : identifiers.find(tokenString);
+        }
 
-        while (!atEnd() && isIdInternalCharacter(getCurrentCharacter())) {
-            sb.append(getCurrentCharacter());
-            advance();
+        Token reserved = findKeyword(text, tokenStart, pos);
+        if (reserved != null) {
+            return reserved;
         }
 
-        // for whatever reason, ids are case insensitive, so we just standardize them
-        // during the lexing and everybody's happy
-        String tokenString = standardizeId(sb.toString());
+        return identifiers.find(text, tokenStart, pos, hash);
+    }
 
-        for (String reservedKey : reservedWords.keySet()) {
-            if (reservedKey.equals(tokenString)) {
-                return reservedWords.get(reservedKey);
+    private static Token findKeyword(char[] chars, int start, int end) {
+        int length = end - start;
+        char first = chars[start];
+        char last = chars[end - 1];
+
+        if (first >= 128 || last >= 128) {
+            return null;
+        }
+
+        int hash = keywordHash(lowerCase[first], lowerCase[last], length);
+        char[] name = keywordNames[hash];
+
+        if (name == null || name.length != length) {
+            return null;
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c = chars[start + i];
+            if (c >= 128 || lowerCase[c] != name[i]) {
+                return null;
             }
         }
 
-        return Token.ID(tokenString);
+        return keywordTokens[hash];
     }
 
     private Token getNumericalConstant() {
-        // PRE: assumes getCurrentCharacter is a digit
-        StringBuilder sb = new StringBuilder(String.valueOf(getCurrentCharacter()));
+        // PRE: assumes the current character is a digit, and starts the token
+        long whole = 0;
+        boolean overflow = false;
 
-        advance();
-
-        while (!atEnd() && Character.isDigit(getCurrentCharacter())) {
-            sb.append(getCurrentCharacter());
-            advance();
+        while (hasCurrent() && isDigit(text[pos])) {
+            whole = whole * 10 + Character.digit(text[pos], 10);
+            overflow |= whole > Integer.MAX_VALUE;
+            pos += 1;
         }
 
         // check if this is actually a float
-        if (!atEnd() && getCurrentCharacter() == '.') {
-            sb.append('.');
-            advance();
+        if (hasCurrent() && text[pos] == '.') {
+            pos += 1;
+
+            int fractionDigits = 0;
+            long mantissa = whole;
 
-            while (!atEnd() && Character.isDigit(getCurrentCharacter())) {
-                sb.append(getCurrentCharacter());
-                advance();
+            while (hasCurrent() && isDigit(text[pos])) {
+                mantissa = mantissa * 10 + Character.digit(text[pos], 10);
+                overflow |= mantissa > Integer.MAX_VALUE;
+                fractionDigits += 1;
+                pos += 1;
             }
 
-            return Token.REAL_CONSTANT(Float.parseFloat(sb.toString()));
+            // both are exact floats here, so the one rounding in the divide matches parseFloat
+            if (!overflow && mantissa <= EXACT_FLOAT_LIMIT && fractionDigits < exactPowersOfTen.length) {
+                return Token.REAL_CONSTANT(mantissa / exactPowersOfTen[fractionDigits]);
+            }
+
+            return Token.REAL_CONSTANT(Float.parseFloat(new String(text, tokenStart, pos - tokenStart)));
+        } else if (overflow) {
+            // let parseInt complain about it
+            return Token.INT_CONSTANT(Integer.parseInt(new String(text, tokenStart, pos - tokenStart)));
         } else {
-            return Token.INT_CONSTANT(Integer.parseInt(sb.toString()));
+            return Token.INT_CONSTANT((int) whole);
         }
     }
 
@@ -175,11 +475,16 @@ public class Tokenizer {
      * @return The next token in the text
      */
     public Token getNextToken() {
-        if (tokenQueue.size() == 0) {
-            tokenQueue.add(makeToken());
+        if (queueSize == 0) {
+            return makeToken();
         }
 
-        return tokenQueue.poll();
+        Token out = tokenQueue[queueStart];
+        tokenQueue[queueStart] = null;
+        queueStart = (queueStart + 1) & (tokenQueue.length - 1);
+        queueSize -= 1;
+
+        return out;
     }
 
     /**
@@ -206,85 +511,117 @@ public class Tokenizer {
      * @return The next-plus-skip token in the text
      */
     public Token peek(int skip) {
-        while (tokenQueue.size() <= skip) {
-            tokenQueue.add(makeToken());
+        while (queueSize <= skip) {
+            if (queueSize == tokenQueue.length) {
+                growTokenQueue();
+            }
+
+            tokenQueue[(queueStart + queueSize) & (tokenQueue.length - 1)] = makeToken();
+            queueSize += 1;
         }
 
-        return tokenQueue.get(skip);
+        return tokenQueue[(queueStart + skip) & (tokenQueue.length - 1)];
     }
 
-    private Token makeToken() {
-        if (atEnd()) {
-            return Token.EOF;
+    /**
+     * The number of distinct identifiers in the program so far; the symbolId of every identifier
+     * token this hands out is below this.
+     */
+    public int symbolCount() {
+        return identifiers.size();
+    }
+
+    Identifiers identifiers() {
+        return identifiers;
+    }
+
+    /**
+     * Where the token most recently lexed starts, as an index into the whole text. Only meaningful
+     * if nothing has been peeked at, since peeking lexes ahead.
+     */
+    long lastTokenStart() {
+        return discarded + tokenStart;
+    }
+
+    /**
+     * Where the token most recently lexed ends; see lastTokenStart.
+     */
+    long lastTokenEnd() {
+        return discarded + pos;
+    }
+
+    private void growTokenQueue() {
+        Token[] grown = new Token[tokenQueue.length * 2];
+
+        for (int i = 0; i < queueSize; i++) {
+            grown[i] = tokenQueue[(queueStart + i) & (tokenQueue.length - 1)];
         }
 
-        char c = getCurrentCharacter();
+        tokenQueue = grown;
+        queueStart = 0;
+    }
 
-        while (c == '{' || Character.isWhitespace(c)) {
-            skipComment();
-            skipWhitespace();
+    private Token makeToken() {
+        char c;
 
-            if (atEnd()) {
+        while (true) {
+            if (!hasCurrentDiscarding()) {
+                if (pendingError != null) {
+                    throw pendingError;
+                }
                 return Token.EOF;
+            }
+
+            c = text[pos];
+
+            if (c == '{') {
+                skipComment();
+            } else if (isWhitespace(c)) {
+                skipWhitespace();
             } else {
-                c = getCurrentCharacter();
+                break;
             }
         }
 
-        if (Character.isAlphabetic(c) || c == '_') {
+        if (isIdStartCharacter(c)) {
             return getId();
         }
 
-        if (Character.isDigit(c)) {
+        if (isDigit(c)) {
             return getNumericalConstant();
         }
 
-        if (Character.isWhitespace(c)) {
-            skipWhitespace();
-            return getNextToken();
+        if (c < 128 && singleCharTokens[c] != null) {
+            pos += 1;
+            return singleCharTokens[c];
         }
 
         switch (c) {
-            case '+': advance(); return Token.PLUS;
-            case '-': advance(); return Token.MINUS;
-            case '*': advance(); return Token.TIMES;
-            case '/': advance(); return Token.REAL_DIVIDE;
-
-            case '(': advance(); return Token.L_PAREN;
-            case ')': advance(); return Token.R_PAREN;
-
-            case ';': advance(); return Token.SEMI;
-            case '.': advance(); return Token.DOT;
-
-            case ',': advance(); return Token.COMMA;
-
-            case '=': advance(); return Token.EQUALS;
-
             case '<':
-                if (pos+1 < text.length() && text.charAt(pos+1) == '>') {
-                    advance(); advance(); return Token.NOT_EQUALS;
-                } else if (pos+1 < text.length() && text.charAt(pos+1) == '=') {
-                    advance(); advance(); return Token.LESS_THAN_OR_EQUALS;
+                if (hasNext() && text[pos + 1] == '>') {
+                    pos += 2; return Token.NOT_EQUALS;
+                } else if (hasNext() && text[pos + 1] == '=') {
+                    pos += 2; return Token.LESS_THAN_OR_EQUALS;
                 } else {
-                    advance(); return Token.LESS_THAN;
+                    pos += 1; return Token.LESS_THAN;
                 }
 
             case '>':
-                if (pos + 1 < text.length() && text.charAt(pos+1) == '=') {
-                    advance(); advance(); return Token.GREATER_THAN_OR_EQUALS;
+                if (hasNext() && text[pos + 1] == '=') {
+                    pos += 2; return Token.GREATER_THAN_OR_EQUALS;
                 } else {
-                    advance(); return Token.GREATER_THAN;
+                    pos += 1; return Token.GREATER_THAN;
                 }
 
             case ':':
-                if (pos+1 < text.length() && text.charAt(pos+1) == '=') {
-                    advance(); advance(); return Token.ASSIGN;
+                if (hasNext() && text[pos + 1] == '=') {
+                    pos += 2; return Token.ASSIGN;
                 } else {
-                    advance(); return Token.COLON;
+                    pos += 1; return Token.COLON;
                 }
 
             default:
-                String message = String.format("Cannot parse character %s at index %s", c, pos);
+                String message = String.format("Cannot parse character %s at index %s", c, discarded + pos);
                 throw new IllegalStateException(message);
         }
     }
@@ -0,0 +1,605 @@
+package io.github.rodyamirov.parse;
+
+import com.google.common.collect.ImmutableList;
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.lex.TokenList;
+import io.github.rodyamirov.tree.BlockNode;
+import io.github.rodyamirov.tree.CompoundNode;
+import io.github.rodyamirov.tree.DeclarationNode;
+import io.github.rodyamirov.tree.DoUntilNode;
+import io.github.rodyamirov.tree.ForNode;
+import io.github.rodyamirov.tree.IfStatementNode;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.StatementNode;
+import io.github.rodyamirov.tree.SyntaxTree;
+import io.github.rodyamirov.tree.WhileNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.github.rodyamirov.utils.ListHelper.list;
+
+/**
+ * Keeps a program parsed while its text is edited. The tokens are kept, and lexed again only
+ * around each edit (see TokenList); then only the smallest statement or procedure declaration
+ * holding every changed token is parsed again, or a few neighbouring ones in the same compound
+ * statement or declarations if the edit runs across them, and the rest of the tree is kept.
+ *
+ * Nodes don't know where they are, only how many tokens they were parsed from, so the way down
+ * to an edit is found by adding those up; that way nothing has to be updated when an edit moves
+ * everything after it. Since trees are immutable, the nodes above a new piece are made again, and
+ * everything else is shared with the old tree.
+ *
+ * A piece is only parsed on its own at a point where parsing the whole program would be doing
+ * just that, and it has to end exactly where the old one did, before the same tokens. Then the
+ * tree, or the error, is the same one parsing the whole program would give; if it doesn't, the
+ * next piece up is tried, and so on up to the whole program.
+ *
+ * An edit which doesn't parse throws, and leaves the tree as it was; the next edit parses
+ * everything changed since the tree was last right. Nodes shared between trees are annotated
+ * over again by each analysis, so only the newest tree should be analyzed and run.
+ */
+public final class IncrementalParser {
+    private final TokenList tokenList;
+    private ProgramNode programNode;
+
+    // how many tokens there were when the tree was last right
+    private int parsedCount;
+
+    // if the tree hasn't parsed since some edits: all but the first cleanPrefix and the last
+    // cleanSuffix tokens may have changed since then
+    private boolean parsed = true;
+    private int cleanPrefix;
+    private int cleanSuffix;
+
+    // how many tokens the edits added, while the tree is being patched up
+    private int delta;
+
+    // where the child found by childHolding starts
+    private int heldStart;
+
+    public IncrementalParser(String text) {
+        if (text == null) {
+            throw new IllegalArgumentException("Text must not be null");
+        }
+
+        TokenList tokens;
+
+        try {
+            tokens = new TokenList(text);
+        } catch (IllegalStateException | NumberFormatException lexError) {
+            throw firstError(text, lexError);
+        }
+
+        this.tokenList = tokens;
+        this.programNode = Parser.parseProgram(tokenList.tokenizer(0, tokenList.size()));
+        this.parsedCount = tokenList.size();
+    }
+
+    public ProgramNode programNode() {
+        return programNode;
+    }
+
+    public String text() {
+        return tokenList.text();
+    }
+
+    /**
+     * Replaces text[start, end) with the replacement, and returns the program as it is now. If
+     * it doesn't parse, this throws just as Parser.parseProgram would.
+     */
+    public ProgramNode edit(int start, int end, String replacement) {
+        int before = tokenList.size();
+        TokenList.Change change;
+
+        try {
+            change = tokenList.edit(start, end, replacement);
+        } catch (IllegalStateException | NumberFormatException lexError) {
+            throw firstError(tokenList.text(), lexError);
+        }
+
+        if (parsed) {
+            cleanPrefix = change.first;
+            cleanSuffix = before - change.first - change.removed;
+        } else {
+            cleanPrefix = Math.min(cleanPrefix, change.first);
+            cleanSuffix = Math.min(cleanSuffix, before - change.first - change.removed);
+        }
+
+        parsed = false;
+        programNode = reparse();
+        parsed = true;
+        parsedCount = tokenList.size();
+
+        return programNode;
+    }
+
+    // when the text doesn't even lex, which is rare enough to parse the whole thing: the parser
+    // could still trip over something before it gets to whatever the lexer couldn't handle
+    private static RuntimeException firstError(String text, RuntimeException lexError) {
+        try {
+            Parser.parseProgram(text);
+        } catch (RuntimeException e) {
+            return e;
+        }
+
+        return lexError;
+    }
+
+    private ProgramNode reparse() {
+        delta = tokenList.size() - parsedCount;
+
+        // the changed tokens, [first, last) as they were
+        int first = cleanPrefix;
+        int last = parsedCount - cleanSuffix;
+
+        if (first == last && delta == 0) {
+            // just whitespace and comments
+            return programNode;
+        }
+
+        // the nodes holding all of them, from the program down
+        List<SyntaxTree> path = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+
+        SyntaxTree node = programNode;
+        int start = 0;
+
+        while (node != null) {
+            path.add(node);
+            starts.add(start);
+
+            node = childHolding(node, start, first, last);
+            start = heldStart;
+        }
+
+        for (int depth = path.size() - 1; depth >= 0; depth--) {
+            node = path.get(depth);
+            start = starts.get(depth);
+
+            SyntaxTree patched = reparseWithin(node, start, first, last);
+            if (patched != null) {
+                return rebuild(path, depth, patched);
+            }
+
+            // none of its pieces would do, so it has to be parsed again as a whole
+            first = start;
+            last = start + tokenCount(node);
+        }
+
+        return Parser.parseProgram(tokenList.tokenizer(0, tokenList.size()));
+    }
+
+    private int tokenCount(SyntaxTree node) {
+        if (node instanceof StatementNode) {
+            return ((StatementNode) node).tokenCount;
+        } else if (node instanceof ProcedureDeclarationNode) {
+            return ((ProcedureDeclarationNode) node).tokenCount;
+        } else {
+            return parsedCount;
+        }
+    }
+
+    private static boolean holds(int start, int tokenCount, int first, int last) {
+        return start <= first && last <= start + tokenCount;
+    }
+
+    // the statement or procedure declaration directly under node which holds [first, last), if
+    // there is one; it starts at heldStart
+    private SyntaxTree childHolding(SyntaxTree node, int start, int first, int last) {
+        if (node instanceof ProgramNode) {
+            // program -> PROGRAM id SEMI block DOT
+            return blockChildHolding(((ProgramNode) node).blockNode, start + parsedCount - 1, first, last);
+        } else if (node instanceof ProcedureDeclarationNode) {
+            // procedure -> PROCEDURE id SEMI block SEMI
+            ProcedureDeclarationNode procedureNode = (ProcedureDeclarationNode) node;
+            return blockChildHolding(procedureNode.blockNode, start + procedureNode.tokenCount - 1, first, last);
+        } else if (node instanceof CompoundNode) {
+            // compound -> BEGIN statement (SEMI statement)* END
+            int childStart = start + 1;
+
+            for (StatementNode statement : ((CompoundNode) node).statements) {
+                if (holds(childStart, statement.tokenCount, first, last)) {
+                    heldStart = childStart;
+                    return statement;
+                }
+
+                childStart += statement.tokenCount + 1;
+            }
+        } else if (node instanceof IfStatementNode) {
+            // if -> IF expr THEN statement (ELSE statement)?
+            IfStatementNode ifNode = (IfStatementNode) node;
+            int end = start + ifNode.tokenCount;
+
+            if (ifNode.elseStatement.isPresent()) {
+                StatementNode elseStatement = ifNode.elseStatement.get();
+                end -= elseStatement.tokenCount;
+
+                if (holds(end, elseStatement.tokenCount, first, last)) {
+                    heldStart = end;
+                    return elseStatement;
+                }
+
+                end -= 1;
+            }
+
+            if (holds(end - ifNode.thenStatement.tokenCount, ifNode.thenStatement.tokenCount, first, last)) {
+                heldStart = end - ifNode.thenStatement.tokenCount;
+                return ifNode.thenStatement;
+            }
+        } else if (node instanceof WhileNode || node instanceof ForNode || node instanceof DoUntilNode) {
+            StatementNode body = loopBody((StatementNode) node);
+            int bodyStart = loopBodyStart((StatementNode) node, start);
+
+            if (holds(bodyStart, body.tokenCount, first, last)) {
+                heldStart = bodyStart;
+                return body;
+            }
+        }
+
+        return null;
+    }
+
+    // block -> declarations compound, which ends at end
+    private SyntaxTree blockChildHolding(BlockNode blockNode, int end, int first, int last) {
+        int childStart = end - blockNode.compoundNode.tokenCount;
+
+        if (holds(childStart, blockNode.compoundNode.tokenCount, first, last)) {
+            heldStart = childStart;
+            return blockNode.compoundNode;
+        }
+
+        List<ProcedureDeclarationNode> procedures = blockNode.declarationNode.procedureDeclarations;
+
+        for (int i = procedures.size() - 1; i >= 0; i--) {
+            ProcedureDeclarationNode procedure = procedures.get(i);
+            childStart -= procedure.tokenCount;
+
+            if (holds(childStart, procedure.tokenCount, first, last)) {
+                heldStart = childStart;
+                return procedure;
+            }
+        }
+
+        return null;
+    }
+
+    private static StatementNode loopBody(StatementNode loop) {
+        if (loop instanceof WhileNode) {
+            return ((WhileNode) loop).childStatement;
+        } else if (loop instanceof ForNode) {
+            return ((ForNode) loop).body;
+        } else {
+            return ((DoUntilNode) loop).childStatement;
+        }
+    }
+
+    private static int loopBodyStart(StatementNode loop, int start) {
+        if (loop instanceof DoUntilNode) {
+            // doUntil -> DO statement UNTIL expr
+            return start + 1;
+        } else {
+            // while -> WHILE expr DO statement, for -> FOR assign (TO | DOWNTO) expr DO statement
+            return start + loop.tokenCount - loopBody(loop).tokenCount;
+        }
+    }
+
+    // parses again whichever of node's children hold [first, last), and returns node with those
+    // in place of the old ones; or null if that can't be done without parsing node itself again
+    private SyntaxTree reparseWithin(SyntaxTree node, int start, int first, int last) {
+        if (node instanceof ProgramNode) {
+            ProgramNode programNode = (ProgramNode) node;
+            BlockNode blockNode = reparseBlock(programNode.blockNode, start + parsedCount - 1, first, last);
+
+            return blockNode == null ? null : new ProgramNode(programNode.name, blockNode);
+        } else if (node instanceof ProcedureDeclarationNode) {
+            ProcedureDeclarationNode procedureNode = (ProcedureDeclarationNode) node;
+            BlockNode blockNode = reparseBlock(
+                    procedureNode.blockNode, start + procedureNode.tokenCount - 1, first, last);
+
+            return blockNode == null ? null : resized(new ProcedureDeclarationNode(procedureNode.name, blockNode), procedureNode);
+        } else if (node instanceof CompoundNode) {
+            return reparseStatements((CompoundNode) node, start, first, last);
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifNode = (IfStatementNode) node;
+            int end = start + ifNode.tokenCount;
+
+            if (ifNode.elseStatement.isPresent()) {
+                StatementNode elseStatement = ifNode.elseStatement.get();
+                end -= elseStatement.tokenCount;
+
+                StatementNode parsed = reparseStatement(elseStatement, end, first, last);
+                if (parsed != null) {
+                    return resized(new IfStatementNode(ifNode.condition, ifNode.thenStatement, parsed), ifNode);
+                }
+
+                end -= 1;
+            }
+
+            StatementNode parsed = reparseStatement(
+                    ifNode.thenStatement, end - ifNode.thenStatement.tokenCount, first, last);
+
+            if (parsed == null) {
+                return null;
+            } else if (ifNode.elseStatement.isPresent()) {
+                return resized(new IfStatementNode(ifNode.condition, parsed, ifNode.elseStatement.get()), ifNode);
+            } else {
+                return resized(new IfStatementNode(ifNode.condition, parsed), ifNode);
+            }
+        } else if (node instanceof WhileNode || node instanceof ForNode || node instanceof DoUntilNode) {
+            StatementNode loop = (StatementNode) node;
+            StatementNode parsed = reparseStatement(loopBody(loop), loopBodyStart(loop, start), first, last);
+
+            return parsed == null ? null : withChild(loop, loopBody(loop), parsed);
+        }
+
+        return null;
+    }
+
+    private BlockNode reparseBlock(BlockNode blockNode, int end, int first, int last) {
+        CompoundNode compoundNode = blockNode.compoundNode;
+        int compoundStart = end - compoundNode.tokenCount;
+
+        // it has to be a compound statement, and nothing else starts with BEGIN
+        if (compoundStart < tokenList.size() && tokenList.get(compoundStart).type == Token.Type.BEGIN) {
+            StatementNode parsed = reparseStatement(compoundNode, compoundStart, first, last);
+
+            if (parsed != null) {
+                return new BlockNode(blockNode.declarationNode, (CompoundNode) parsed);
+            }
+        }
+
+        // otherwise the procedures touching the damage, which come one right after another
+        List<ProcedureDeclarationNode> procedures = blockNode.declarationNode.procedureDeclarations;
+        int from = -1;
+        int to = -1;
+        int runStart = 0;
+        int runEnd = 0;
+
+        int procedureEnd = compoundStart;
+        for (int i = procedures.size() - 1; i >= 0 && procedureEnd >= first; i--) {
+            int procedureStart = procedureEnd - procedures.get(i).tokenCount;
+
+            if (procedureStart <= last) {
+                if (to < 0) {
+                    to = i;
+                    runEnd = procedureEnd;
+                }
+
+                from = i;
+                runStart = procedureStart;
+            }
+
+            procedureEnd = procedureStart;
+        }
+
+        if (to < 0 || runStart > first || runEnd < last) {
+            return null;
+        }
+
+        int newEnd = runEnd + delta;
+        Parser parser = parserAt(runStart, newEnd);
+        List<ProcedureDeclarationNode> parsed;
+
+        try {
+            parsed = parser.procedureList(newEnd - runStart);
+        } catch (IllegalStateException ise) {
+            if (stoppedWithin(parser, runStart, newEnd)) {
+                throw ise;
+            }
+
+            return null;
+        }
+
+        if (runStart + parser.tokensTaken() != newEnd) {
+            return null;
+        }
+
+        DeclarationNode declarationNode = new DeclarationNode(
+                blockNode.declarationNode.variableDeclarations,
+                splice(procedures, from, to + 1, parsed));
+
+        return new BlockNode(declarationNode, compoundNode);
+    }
+
+    private CompoundNode reparseStatements(CompoundNode compoundNode, int start, int first, int last) {
+        // the statements touching the damage, and the semicolons between them
+        List<StatementNode> statements = compoundNode.statements;
+        int from = -1;
+        int to = -1;
+        int runStart = 0;
+        int runEnd = 0;
+
+        int statementStart = start + 1;
+        for (int i = 0; i < statements.size() && statementStart <= last; i++) {
+            int statementEnd = statementStart + statements.get(i).tokenCount;
+
+            if (first <= statementEnd) {
+                if (from < 0) {
+                    from = i;
+                    runStart = statementStart;
+                }
+
+                to = i;
+                runEnd = statementEnd;
+            }
+
+            statementStart = statementEnd + 1;
+        }
+
+        if (from < 0 || runStart > first || runEnd < last) {
+            return null;
+        }
+
+        int newEnd = runEnd + delta;
+        Parser parser = parserAt(runStart, newEnd);
+        List<StatementNode> parsed;
+
+        try {
+            parsed = parser.statementList(newEnd - runStart);
+        } catch (IllegalStateException ise) {
+            if (stoppedWithin(parser, runStart, newEnd)) {
+                throw ise;
+            }
+
+            return null;
+        }
+
+        if (runStart + parser.tokensTaken() != newEnd) {
+            return null;
+        }
+
+        return resized(new CompoundNode(splice(statements, from, to + 1, parsed)), compoundNode);
+    }
+
+    // parses one statement again, if it holds [first, last)
+    private StatementNode reparseStatement(StatementNode statement, int start, int first, int last) {
+        if (!holds(start, statement.tokenCount, first, last)) {
+            return null;
+        }
+
+        int newEnd = start + statement.tokenCount + delta;
+        Parser parser = parserAt(start, newEnd);
+        StatementNode parsed;
+
+        try {
+            parsed = parser.statement();
+        } catch (IllegalStateException ise) {
+            if (stoppedWithin(parser, start, newEnd)) {
+                throw ise;
+            }
+
+            return null;
+        }
+
+        return start + parser.tokensTaken() == newEnd ? parsed : null;
+    }
+
+    private Parser parserAt(int start, int end) {
+        // the parser never looks more than one token past the one it's on
+        return new Parser(tokenList.tokenizer(start, Math.min(tokenList.size(), end + 2)));
+    }
+
+    // for a parser which stopped with an error: if it was still inside the piece, everything it
+    // saw is what parsing the whole program would have seen, so that's the real error. Past the
+    // end, it ran out of tokens, or the piece wasn't the right one; either way a bigger one will do
+    private static boolean stoppedWithin(Parser parser, int start, int end) {
+        return start + parser.tokensTaken() <= end;
+    }
+
+    // rebuilds the nodes on the path above path[depth], which has been replaced by patched
+    private ProgramNode rebuild(List<SyntaxTree> path, int depth, SyntaxTree patched) {
+        SyntaxTree child = path.get(depth);
+        SyntaxTree newChild = patched;
+
+        for (int i = depth - 1; i >= 0; i--) {
+            SyntaxTree parent = path.get(i);
+            newChild = withChild(parent, child, newChild);
+            child = parent;
+        }
+
+        return (ProgramNode) newChild;
+    }
+
+    // a copy of parent with replacement in place of child
+    private SyntaxTree withChild(SyntaxTree parent, SyntaxTree child, SyntaxTree replacement) {
+        if (parent instanceof ProgramNode) {
+            ProgramNode programNode = (ProgramNode) parent;
+            return new ProgramNode(programNode.name, blockWithChild(programNode.blockNode, child, replacement));
+        } else if (parent instanceof ProcedureDeclarationNode) {
+            ProcedureDeclarationNode procedureNode = (ProcedureDeclarationNode) parent;
+            return resized(new ProcedureDeclarationNode(
+                    procedureNode.name, blockWithChild(procedureNode.blockNode, child, replacement)), procedureNode);
+        } else if (parent instanceof CompoundNode) {
+            CompoundNode compoundNode = (CompoundNode) parent;
+            int index = indexOf(compoundNode.statements, child);
+            List<StatementNode> statements = splice(
+                    compoundNode.statements, index, index + 1, list((StatementNode) replacement));
+
+            return resized(new CompoundNode(statements), compoundNode);
+        } else if (parent instanceof IfStatementNode) {
+            IfStatementNode ifNode = (IfStatementNode) parent;
+
+            if (ifNode.thenStatement == child && ifNode.elseStatement.isPresent()) {
+                return resized(new IfStatementNode(
+                        ifNode.condition, (StatementNode) replacement, ifNode.elseStatement.get()), ifNode);
+            } else if (ifNode.thenStatement == child) {
+                return resized(new IfStatementNode(ifNode.condition, (StatementNode) replacement), ifNode);
+            } else {
+                return resized(new IfStatementNode(
+                        ifNode.condition, ifNode.thenStatement, (StatementNode) replacement), ifNode);
+            }
+        } else if (parent instanceof WhileNode) {
+            WhileNode whileNode = (WhileNode) parent;
+            return resized(new WhileNode(whileNode.condition, (StatementNode) replacement), whileNode);
+        } else if (parent instanceof DoUntilNode) {
+            DoUntilNode doUntilNode = (DoUntilNode) parent;
+            return resized(new DoUntilNode(doUntilNode.condition, (StatementNode) replacement), doUntilNode);
+        } else if (parent instanceof ForNode) {
+            ForNode forNode = (ForNode) parent;
+
+            switch (forNode.direction) {
+                case FORWARD:
+                    return resized(ForNode.Forward(forNode.assignNode, forNode.bound, (StatementNode) replacement), forNode);
+
+                case BACKWARD:
+                    return resized(ForNode.Backward(forNode.assignNode, forNode.bound, (StatementNode) replacement), forNode);
+
+                default:
+                    String message = String.format("Unrecognized direction %s", forNode.direction);
+                    throw new IllegalStateException(message);
+            }
+        } else {
+            String message = String.format("Nothing to replace in %s", parent.getClass().getSimpleName());
+            throw new IllegalStateException(message);
+        }
+    }
+
+    private BlockNode blockWithChild(BlockNode blockNode, SyntaxTree child, SyntaxTree replacement) {
+        if (blockNode.compoundNode == child) {
+            return new BlockNode(blockNode.declarationNode, (CompoundNode) replacement);
+        }
+
+        List<ProcedureDeclarationNode> procedures = blockNode.declarationNode.procedureDeclarations;
+        int index = indexOf(procedures, child);
+
+        DeclarationNode declarationNode = new DeclarationNode(
+                blockNode.declarationNode.variableDeclarations,
+                splice(procedures, index, index + 1, list((ProcedureDeclarationNode) replacement)));
+
+        return new BlockNode(declarationNode, blockNode.compoundNode);
+    }
+
+    // nodes compare by value, and deeply, so this goes by identity instead
+    private static int indexOf(List<? extends SyntaxTree> nodes, SyntaxTree node) {
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i) == node) {
+                return i;
+            }
+        }
+
+        String message = String.format("%s is not there to replace", node.getClass().getSimpleName());
+        throw new IllegalStateException(message);
+    }
+
+    // nodes[0, from) + replacements + nodes[to, end); immutable already, so the node it goes in
+    // doesn't copy it again
+    private static <T> List<T> splice(List<T> nodes, int from, int to, List<T> replacements) {
+        return ImmutableList.<T>builder()
+                .addAll(nodes.subList(0, from))
+                .addAll(replacements)
+                .addAll(nodes.subList(to, nodes.size()))
+                .build();
+    }
+
+    private <T extends StatementNode> T resized(T node, StatementNode old) {
+        node.tokenCount = old.tokenCount + delta;
+        return node;
+    }
+
+    private ProcedureDeclarationNode resized(ProcedureDeclarationNode node, ProcedureDeclarationNode old) {
+        node.tokenCount = old.tokenCount + delta;
+        return node;
+    }
+}
@@ -1,7 +1,7 @@
 package io.github.rodyamirov.parse;
 
-import com.google.common.collect.ImmutableSet;
 import io.github.rodyamirov.exceptions.UnexpectedTokenException;
+import io.github.rodyamirov.lex.ParallelTokenizer;
 import io.github.rodyamirov.lex.Token;
 import io.github.rodyamirov.lex.Tokenizer;
 import io.github.rodyamirov.symbols.TypeSpec;
@@ -31,10 +31,12 @@ import io.github.rodyamirov.tree.VariableDeclarationNode;
 import io.github.rodyamirov.tree.VariableEvalNode;
 import io.github.rodyamirov.tree.WhileNode;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
-import java.util.function.Function;
 
 /**
  * Created by richard.rast on 12/22/16.
@@ -43,50 +45,73 @@ public class Parser {
     private final Tokenizer tokenizer;
     private Token currentToken;
 
-    public Parser(String text) {
-        this.tokenizer = new Tokenizer(text);
-        currentToken = tokenizer.getNextToken();
-    }
-
-    private Token eatStrict(Token.Type... types) {
-        return eatStrict(type -> inArray(type, types));
-    }
+    // how many tokens have been eaten, so currentToken is this one from the start
+    private int tokensTaken = 0;
 
-    private Optional<Token> eatNonstrict(Token.Type... types) {
-        return eatNonstrict(type -> inArray(type, types));
+    public Parser(String text) {
+        this(new Tokenizer(text));
     }
 
-    private boolean inArray(Token.Type type, Token.Type[] array) {
-        for (Token.Type elt : array) {
-            if (elt == type) {
-                return true;
-            }
-        }
-        return false;
+    public Parser(Tokenizer tokenizer) {
+        this.tokenizer = tokenizer;
+        currentToken = tokenizer.getNextToken();
     }
 
-    private Token eatStrict(Function<Token.Type, Boolean> predicate) {
-        if (predicate.apply(currentToken.type)) {
+    private Token eatStrict(Token.Type type) {
+        if (currentToken.type == type) {
             Token out = currentToken;
             currentToken = tokenizer.getNextToken();
+            tokensTaken += 1;
             return out;
         } else {
             throw UnexpectedTokenException.wrongType(currentToken.type);
         }
     }
 
-    private Optional<Token> eatNonstrict(Function<Token.Type, Boolean> predicate) {
-        if (predicate.apply(currentToken.type)) {
-            Token out = currentToken;
+    private Token eatStrict(Token.Type... types) {
+        for (Token.Type type : types) {
+            if (currentToken.type == type) {
+                return eatStrict(type);
+            }
+        }
+
+        throw UnexpectedTokenException.wrongType(currentToken.type);
+    }
+
+    private boolean eatNonstrict(Token.Type type) {
+        if (currentToken.type == type) {
             currentToken = tokenizer.getNextToken();
-            return Optional.of(out);
+            tokensTaken += 1;
+            return true;
         } else {
-            return Optional.empty();
+            return false;
         }
     }
 
     public static ProgramNode parseProgram(String text) {
-        Parser parser = new Parser(text);
+        if (text != null && ParallelTokenizer.isWorthwhile(text)) {
+            return parseProgram(ParallelTokenizer.tokenize(text));
+        }
+
+        return parseProgram(new Tokenizer(text));
+    }
+
+    /**
+     * Parses a program as it's read, so the source never has to be held in memory all at once.
+     */
+    public static ProgramNode parseProgram(Reader source) {
+        return parseProgram(new Tokenizer(source));
+    }
+
+    /**
+     * Parses a UTF-8 file, reading it through memory maps rather than into a String.
+     */
+    public static ProgramNode parseProgram(Path path) throws IOException {
+        return parseProgram(new Tokenizer(path));
+    }
+
+    static ProgramNode parseProgram(Tokenizer tokenizer) {
+        Parser parser = new Parser(tokenizer);
         ProgramNode programNode = parser.program();
         parser.eatStrict(Token.Type.EOF);
         return programNode;
@@ -141,7 +166,7 @@ public class Parser {
     private DeclarationNode declaration() {
         List<VariableDeclarationNode> declarations = new ArrayList<>();
 
-        if (eatNonstrict(Token.Type.VAR).isPresent()) {
+        if (eatNonstrict(Token.Type.VAR)) {
             declarations.add(variableDeclaration());
 
             while (currentToken.type == Token.Type.ID) {
@@ -159,6 +184,7 @@ public class Parser {
     }
 
     private ProcedureDeclarationNode procedureDeclaration() {
+        int start = tokensTaken;
         eatStrict(Token.Type.PROCEDURE);
         Token<String> procedureName = eatStrict(Token.Type.ID);
 
@@ -166,7 +192,9 @@ public class Parser {
         BlockNode blockNode = block();
         eatStrict(Token.Type.SEMI);
 
-        return new ProcedureDeclarationNode(procedureName, blockNode);
+        ProcedureDeclarationNode out = new ProcedureDeclarationNode(procedureName, blockNode);
+        out.tokenCount = tokensTaken - start;
+        return out;
     }
 
     private VariableDeclarationNode variableDeclaration() {
@@ -175,7 +203,7 @@ public class Parser {
 
         ids.add(eatStrict(Token.Type.ID));
 
-        while (eatNonstrict(Token.Type.COMMA).isPresent()) {
+        while (eatNonstrict(Token.Type.COMMA)) {
             ids.add(eatStrict(Token.Type.ID));
         }
 
@@ -195,41 +223,157 @@ public class Parser {
 
     private CompoundNode compoundStatement() {
         // compoundStatement -> BEGIN statementList END
+        int start = tokensTaken;
         eatStrict(Token.Type.BEGIN);
 
-        List<StatementNode> statements = statementList();
+        int base = frameCount;
+        pushFrame(Token.Type.BEGIN, start);
+        return (CompoundNode) statements(base);
+    }
+
+    StatementNode statement() {
+        return statements(frameCount);
+    }
 
-        eatStrict(Token.Type.END);
+    /**
+     * statement (SEMI statement)*, stopping once limit tokens have been taken, even if the next
+     * one is another SEMI. For an IncrementalParser, which parses a few of a compound statement's
+     * statements at a time.
+     */
+    List<StatementNode> statementList(int limit) {
+        List<StatementNode> statements = new ArrayList<>();
+        statements.add(statement());
+
+        while (tokensTaken < limit && eatNonstrict(Token.Type.SEMI)) {
+            statements.add(statement());
+        }
 
-        return new CompoundNode(statements);
+        return statements;
     }
 
-    private List<StatementNode> statementList() {
-        // statementList -> statement (SEMI statement)*
-        List<StatementNode> out = new ArrayList<>();
+    /**
+     * Procedure declarations, one after another, stopping once limit tokens have been taken. For
+     * an IncrementalParser, like statementList.
+     */
+    List<ProcedureDeclarationNode> procedureList(int limit) {
+        List<ProcedureDeclarationNode> procedures = new ArrayList<>();
+
+        while (tokensTaken < limit && currentToken.type == Token.Type.PROCEDURE) {
+            procedures.add(procedureDeclaration());
+        }
 
-        out.add(statement());
+        return procedures;
+    }
 
-        while (eatNonstrict(Token.Type.SEMI).isPresent()) {
-            out.add(statement());
+    int tokensTaken() {
+        return tokensTaken;
+    }
+
+    /*
+     * Statements nest inside statements, as deeply as anyone cares to write them, so rather than
+     * recursing once per level, each statement with statements inside it gets a frame on a stack
+     * of our own while those are parsed. Everything up to its first child is parsed when the frame
+     * goes on; the rest as each child is finished.
+     */
+    private static class StatementFrame {
+        private Token.Type kind;
+        private int start;
+        private ExpressionNode expression;
+        private AssignNode assignNode;
+        private Token directionToken;
+        private StatementNode firstChild;
+        private final List<StatementNode> statements = new ArrayList<>();
+    }
+
+    private final List<StatementFrame> frames = new ArrayList<>();
+    private int frameCount = 0;
+
+    private StatementFrame pushFrame(Token.Type kind, int start) {
+        if (frameCount == frames.size()) {
+            frames.add(new StatementFrame());
         }
 
-        return out;
+        StatementFrame frame = frames.get(frameCount);
+        frameCount += 1;
+
+        frame.kind = kind;
+        frame.start = start;
+        frame.expression = null;
+        frame.assignNode = null;
+        frame.directionToken = null;
+        frame.firstChild = null;
+        frame.statements.clear();
+
+        return frame;
+    }
+
+    // parses statements until every frame above base is finished, and returns the last one; each
+    // is told how many tokens it took up
+    private StatementNode statements(int base) {
+        while (true) {
+            int start = tokensTaken;
+            StatementNode node = startStatement(start);
+
+            if (node != null) {
+                node.tokenCount = tokensTaken - start;
+            }
+
+            while (node != null) {
+                if (frameCount == base) {
+                    return node;
+                }
+
+                StatementFrame frame = frames.get(frameCount - 1);
+                node = finishChild(frame, node);
+
+                if (node != null) {
+                    node.tokenCount = tokensTaken - frame.start;
+                }
+            }
+        }
     }
 
-    private StatementNode statement() {
-        // statement -> compoundStatement | ifStatement | assignmentStatement | empty
+    // statement -> compoundStatement | ifStatement | assignmentStatement | empty | ...
+    // returns the statement if it has no statements inside it, or pushes a frame and returns null
+    private StatementNode startStatement(int start) {
         switch (currentToken.type) {
-            case FOR:
-                return forStatement();
+            case FOR: {
+                eatStrict(Token.Type.FOR);
+                AssignNode assignNode = assignmentStatement();
+                Token directionToken = eatStrict(Token.Type.TO, Token.Type.DOWNTO);
+                ExpressionNode bound = expression();
+                eatStrict(Token.Type.DO);
+
+                StatementFrame frame = pushFrame(Token.Type.FOR, start);
+                frame.assignNode = assignNode;
+                frame.directionToken = directionToken;
+                frame.expression = bound;
+                return null;
+            }
             case DO:
-                return doUntilStatement();
-            case WHILE:
-                return whileStatement();
+                eatStrict(Token.Type.DO);
+                pushFrame(Token.Type.DO, start);
+                return null;
+            case WHILE: {
+                eatStrict(Token.Type.WHILE);
+                ExpressionNode condition = expression();
+                eatStrict(Token.Type.DO);
+
+                pushFrame(Token.Type.WHILE, start).expression = condition;
+                return null;
+            }
             case BEGIN:
-                return compoundStatement();
-            case IF:
-                return ifStatement();
+                eatStrict(Token.Type.BEGIN);
+                pushFrame(Token.Type.BEGIN, start);
+                return null;
+            case IF: {
+                eatStrict(Token.Type.IF);
+                ExpressionNode condition = expression();
+                eatStrict(Token.Type.THEN);
+
+                pushFrame(Token.Type.IF, start).expression = condition;
+                return null;
+            }
             case BREAK:
                 eatStrict(Token.Type.BREAK);
                 return LoopControlNode.Break();
@@ -253,54 +397,66 @@ public class Parser {
         }
     }
 
-    private ForNode forStatement() {
-        eatStrict(Token.Type.FOR);
-
-        AssignNode assignNode = assignmentStatement();
-
-        Token directionToken = eatStrict(Token.Type.TO, Token.Type.DOWNTO);
-
-        ExpressionNode bound = expression();
-
-        eatStrict(Token.Type.DO);
-
-        StatementNode body = statement();
-
-        switch (directionToken.type) {
-            case TO:
-                return ForNode.Forward(assignNode, bound, body);
-
-            case DOWNTO:
-                return ForNode.Backward(assignNode, bound, body);
+    // hands a finished child to the frame on top; returns the frame's statement if that finishes
+    // it (popping the frame), or null if another child is on the way
+    private StatementNode finishChild(StatementFrame frame, StatementNode child) {
+        switch (frame.kind) {
+            case BEGIN:
+                // statementList -> statement (SEMI statement)*
+                frame.statements.add(child);
+                if (eatNonstrict(Token.Type.SEMI)) {
+                    return null;
+                }
 
-            default:
-                String message = String.format("Unrecognized direction token %s", directionToken);
-                throw new IllegalStateException(message);
-        }
-    }
+                eatStrict(Token.Type.END);
+                frameCount -= 1;
+                return new CompoundNode(frame.statements);
 
-    private DoUntilNode doUntilStatement() {
-        eatStrict(Token.Type.DO);
+            case IF:
+                if (frame.firstChild == null) {
+                    if (eatNonstrict(Token.Type.ELSE)) {
+                        frame.firstChild = child;
+                        return null;
+                    }
+
+                    frameCount -= 1;
+                    return new IfStatementNode(frame.expression, child);
+                }
 
-        StatementNode childStatement = statement();
+                frameCount -= 1;
+                return new IfStatementNode(frame.expression, frame.firstChild, child);
 
-        eatStrict(Token.Type.UNTIL);
+            case WHILE:
+                frameCount -= 1;
+                return new WhileNode(frame.expression, child);
 
-        ExpressionNode condition = expression();
+            case DO: {
+                eatStrict(Token.Type.UNTIL);
+                ExpressionNode condition = expression();
 
-        return new DoUntilNode(condition, childStatement);
-    }
+                frameCount -= 1;
+                return new DoUntilNode(condition, child);
+            }
 
-    private WhileNode whileStatement() {
-        eatStrict(Token.Type.WHILE);
+            case FOR:
+                frameCount -= 1;
 
-        ExpressionNode condition = expression();
+                switch (frame.directionToken.type) {
+                    case TO:
+                        return ForNode.Forward(frame.assignNode, frame.expression, child);
 
-        eatStrict(Token.Type.DO);
+                    case DOWNTO:
+                        return ForNode.Backward(frame.assignNode, frame.expression, child);
 
-        StatementNode childStatement = statement();
+                    default:
+                        String message = String.format("Unrecognized direction token %s", frame.directionToken);
+                        throw new IllegalStateException(message);
+                }
 
-        return new WhileNode(condition, childStatement);
+            default:
+                String message = String.format("Unrecognized statement frame %s", frame.kind);
+                throw new IllegalStateException(message);
+        }
     }
 
     private ProcedureCallNode procedureCallStatement() {
@@ -313,23 +469,6 @@ public class Parser {
         return new ProcedureCallNode(procedureId);
     }
 
-    private IfStatementNode ifStatement() {
-        eatStrict(Token.Type.IF);
-
-        ExpressionNode condition = expression();
-
-        eatStrict(Token.Type.THEN);
-
-        StatementNode thenStatement = statement();
-
-        if (eatNonstrict(Token.Type.ELSE).isPresent()) {
-            StatementNode elseStatement = statement();
-            return new IfStatementNode(condition, thenStatement, elseStatement);
-        } else {
-            return new IfStatementNode(condition, thenStatement);
-        }
-    }
-
     private AssignNode assignmentStatement() {
         // assignmentStatement -> variable ASSIGN additiveExpression
         VariableAssignNode var = variableDefinition();
@@ -354,146 +493,177 @@ public class Parser {
         return new NoOpNode();
     }
 
-    private ExpressionNode expression() {
-        // expr -> comp ([and then | or else] comp)*
-        ExpressionNode out = compareExpression();
-
-        // sadly the functional style doesn't work well here
-        // still doing left-associativity
-        boolean hasMore = true;
-        while (hasMore) {
-            // if we see an AND, it didn't grab at a lower level, which means
-            // it must be an AND-THEN (and likewise with OR-ELSE)
-            if (eatNonstrict(Token.Type.AND).isPresent()) {
-                eatStrict(Token.Type.THEN);
-                out = new AndThenNode(out, compareExpression());
-            } else if (eatNonstrict(Token.Type.OR).isPresent()) {
-                eatStrict(Token.Type.ELSE);
-                out = new OrElseNode(out, compareExpression());
-            } else {
-                hasMore = false;
-            }
+    // binding powers for the binary operators, by Token.Type ordinal; 0 for anything else
+    private static final int LOGICAL = 1;       // AND THEN, OR ELSE
+    private static final int COMPARISON = 2;    // = <> < <= > >=
+    private static final int ADDITIVE = 3;      // + - OR
+    private static final int MULTIPLICATIVE = 4; // * / DIV MOD AND
+
+    private static final int[] bindingPowers = new int[Token.Type.values().length];
+    static {
+        for (Token.Type type : new Token.Type[] {
+                Token.Type.EQUALS, Token.Type.NOT_EQUALS, Token.Type.LESS_THAN,
+                Token.Type.LESS_THAN_OR_EQUALS, Token.Type.GREATER_THAN, Token.Type.GREATER_THAN_OR_EQUALS }) {
+            bindingPowers[type.ordinal()] = COMPARISON;
         }
 
-        return out;
-    }
+        bindingPowers[Token.Type.PLUS.ordinal()] = ADDITIVE;
+        bindingPowers[Token.Type.MINUS.ordinal()] = ADDITIVE;
+        bindingPowers[Token.Type.OR.ordinal()] = ADDITIVE;
 
-    private static final ImmutableSet<Token.Type> compareTypes = ImmutableSet.<Token.Type>builder()
-            .add(Token.Type.EQUALS).add(Token.Type.NOT_EQUALS).add(Token.Type.LESS_THAN)
-            .add(Token.Type.LESS_THAN_OR_EQUALS).add(Token.Type.GREATER_THAN)
-            .add(Token.Type.GREATER_THAN_OR_EQUALS).build();
+        bindingPowers[Token.Type.TIMES.ordinal()] = MULTIPLICATIVE;
+        bindingPowers[Token.Type.REAL_DIVIDE.ordinal()] = MULTIPLICATIVE;
+        bindingPowers[Token.Type.INT_DIVIDE.ordinal()] = MULTIPLICATIVE;
+        bindingPowers[Token.Type.MOD.ordinal()] = MULTIPLICATIVE;
+        bindingPowers[Token.Type.AND.ordinal()] = MULTIPLICATIVE;
+    }
 
-    /**
-     * The lowest-precedence operator binding (and thus the "highest" node in terms of being
-     * the first one you go to, to get an "expression")
-     * @return
-     */
-    private ExpressionNode compareExpression() {
-        ExpressionNode out = additiveExpression();
-
-        // this formulation gets left associativity correct; obvious recursion does not
-        Optional<Token> maybeOpToken;
-        while ((maybeOpToken = eatNonstrict(compareTypes::contains)).isPresent()) {
-            Token opToken = maybeOpToken.get();
-            out = new BinOpNode(out, additiveExpression(), opToken);
+    private int bindingPower(Token token) {
+        // AND and OR are AND THEN and OR ELSE if the next token says so, and bind loosest of all
+        switch (token.type) {
+            case AND:
+                return tokenizer.peek().type == Token.Type.THEN ? LOGICAL : MULTIPLICATIVE;
+            case OR:
+                return tokenizer.peek().type == Token.Type.ELSE ? LOGICAL : ADDITIVE;
+            default:
+                return bindingPowers[token.type.ordinal()];
         }
-
-        return out;
     }
 
-    private static final ImmutableSet<Token.Type> expressionTypes = ImmutableSet.<Token.Type>builder()
-            .add(Token.Type.PLUS).add(Token.Type.MINUS).build();
+    // the operator stack also holds these, which bind nothing to their left
+    private static final int PAREN = 0;                     // an open parenthesis
+    private static final int UNARY = MULTIPLICATIVE + 1;    // + - NOT, before an operand
 
-    private ExpressionNode additiveExpression() {
-        // additiveExpression -> factor ([+-] factor)*
-        // additiveExpression -> factor | factor [+-] additiveExpression
+    // operands, and the operators still waiting for their right operands
+    private ExpressionNode[] operands = new ExpressionNode[16];
+    private int operandCount = 0;
+    private Token[] operators = new Token[16];
+    private int[] operatorPowers = new int[16];
+    private int operatorCount = 0;
 
-        ExpressionNode out = factor();
+    private ExpressionNode expression() {
+        // expr -> comp ([and then | or else] comp)*
+        // comp -> additive ([= <> < <= > >=] additive)*
+        // additive -> multiplicative ([+ - OR] multiplicative)*
+        // multiplicative -> unop ([* / DIV MOD AND] unop)*
+        // unop -> ([+-NOT])* terminal
+        // terminal -> INTEGER | REAL | BOOLEAN | variable | L_PAREN expr R_PAREN
 
-        // this formulation gets left associativity correct; obvious recursion does not
-        boolean keepGoing = true;
-        while (keepGoing) {
-            Optional<Token> maybeOpToken;
-            if ((maybeOpToken = eatNonstrict(expressionTypes::contains)).isPresent()) {
-                Token opToken = maybeOpToken.get();
-                out = new BinOpNode(out, factor(), opToken);
-            } else if (currentToken.equals(Token.OR) && ! tokenizer.peek().equals(Token.ELSE)) {
-                eatStrict(Token.Type.OR);
-                out = new BinOpNode(out, factor(), Token.OR);
-            } else {
-                keepGoing = false;
+        // parentheses and unary operators nest as deeply as anyone writes them, so this keeps its
+        // own stacks rather than recursing. Everything is left associative: an operator waits on
+        // the stack until the next one binding no tighter than itself comes along.
+        int operatorBase = operatorCount;
+        int openParens = 0;
+
+        while (true) {
+            switch (currentToken.type) {
+                case PLUS:
+                case MINUS:
+                case NOT:
+                    pushOperator(eatStrict(currentToken.type), UNARY);
+                    continue;
+
+                case L_PAREN:
+                    pushOperator(eatStrict(Token.Type.L_PAREN), PAREN);
+                    openParens += 1;
+                    continue;
+
+                default:
+                    pushOperand(terminal());
+                    break;
             }
-        }
 
-        return out;
-    }
+            // unary operators bind tighter than anything, so they take their operand right away
+            reduce(operatorBase, UNARY);
 
-    private static final ImmutableSet<Token.Type> factorTypes = ImmutableSet.<Token.Type>builder()
-            .add(Token.Type.TIMES).add(Token.Type.REAL_DIVIDE).add(Token.Type.INT_DIVIDE)
-            .add(Token.Type.MOD).build();
+            int power;
+            while ((power = bindingPower(currentToken)) == 0 && openParens > 0) {
+                reduce(operatorBase, PAREN + 1);
+                eatStrict(Token.Type.R_PAREN);
 
-    private ExpressionNode factor() {
-        // factor -> terminal ([*/ AND] terminal)*
-        // factor -> terminal | terminal [*/ AND] factor
+                operatorCount -= 1;
+                openParens -= 1;
+                reduce(operatorBase, UNARY);
+            }
 
-        ExpressionNode out = unop();
+            if (power == 0) {
+                reduce(operatorBase, PAREN + 1);
+                return popOperand();
+            }
 
-        // this formulation gets left associativity correct; obvious recursion does not
-        boolean keepGoing = true;
-        while (keepGoing) {
-            Optional<Token> maybeOpToken;
-            if ((maybeOpToken = eatNonstrict(factorTypes::contains)).isPresent()) {
-                Token opToken = maybeOpToken.get();
-                out = new BinOpNode(out, unop(), opToken);
-            } else if (currentToken.equals(Token.AND) && ! tokenizer.peek().equals(Token.THEN)) {
-                eatStrict(Token.Type.AND);
-                out = new BinOpNode(out, unop(), Token.AND);
-            } else {
-                keepGoing = false;
+            reduce(operatorBase, power);
+
+            Token opToken = eatStrict(currentToken.type);
+            if (power == LOGICAL) {
+                eatStrict(opToken.type == Token.Type.AND ? Token.Type.THEN : Token.Type.ELSE);
             }
+
+            pushOperator(opToken, power);
         }
+    }
 
-        return out;
+    // applies the operators on top of the stack, down to the first binding looser than minPower
+    private void reduce(int operatorBase, int minPower) {
+        while (operatorCount > operatorBase && operatorPowers[operatorCount - 1] >= minPower) {
+            operatorCount -= 1;
+            Token opToken = operators[operatorCount];
+            int power = operatorPowers[operatorCount];
+            operators[operatorCount] = null;
+
+            ExpressionNode right = popOperand();
+
+            if (power == UNARY) {
+                pushOperand(new UnaryOpNode(right, opToken));
+            } else if (power == LOGICAL && opToken.type == Token.Type.AND) {
+                pushOperand(new AndThenNode(popOperand(), right));
+            } else if (power == LOGICAL) {
+                pushOperand(new OrElseNode(popOperand(), right));
+            } else {
+                pushOperand(new BinOpNode(popOperand(), right, opToken));
+            }
+        }
     }
 
-    private static final ImmutableSet<Token.Type> unopTypes = ImmutableSet.<Token.Type>builder()
-            .add(Token.Type.PLUS).add(Token.Type.MINUS).add(Token.Type.NOT).build();
+    private void pushOperator(Token opToken, int power) {
+        if (operatorCount == operators.length) {
+            operators = Arrays.copyOf(operators, operatorCount * 2);
+            operatorPowers = Arrays.copyOf(operatorPowers, operatorCount * 2);
+        }
 
-    private ExpressionNode unop() {
-        // unop -> ([+-NOT])* terminal
-        // unop -> terminal | [+-NOT] unop
+        operators[operatorCount] = opToken;
+        operatorPowers[operatorCount] = power;
+        operatorCount += 1;
+    }
 
-        // unops are right associative (in a sense) so recursion handles it well
-        Optional<Token> maybeOpToken;
-        if ((maybeOpToken = eatNonstrict(unopTypes::contains)).isPresent()) {
-            Token opToken = maybeOpToken.get();
-            return new UnaryOpNode(unop(), opToken);
-        } else {
-            return terminal();
+    private void pushOperand(ExpressionNode operand) {
+        if (operandCount == operands.length) {
+            operands = Arrays.copyOf(operands, operandCount * 2);
         }
+
+        operands[operandCount] = operand;
+        operandCount += 1;
     }
 
-    private ExpressionNode terminal() {
-        // terminal -> INTEGER | REAL | BOOLEAN | variable | L_PAREN expr R_PAREN
+    private ExpressionNode popOperand() {
+        operandCount -= 1;
+        ExpressionNode out = operands[operandCount];
+        operands[operandCount] = null;
+        return out;
+    }
 
-        Optional<Token> maybeToken;
-        if ((maybeToken = eatNonstrict(Token.Type.INTEGER_CONSTANT)).isPresent()) {
-            Token intToken = maybeToken.get();
-            return IntConstantNode.make(intToken);
-        } else if ((maybeToken = eatNonstrict(Token.Type.REAL_CONSTANT)).isPresent()) {
-            Token realToken = maybeToken.get();
-            return RealConstantNode.make(realToken);
-        } else if ((maybeToken = eatNonstrict(Token.Type.BOOLEAN_CONSTANT)).isPresent()) {
-            Token boolToken = maybeToken.get();
-            return BooleanConstantNode.make(boolToken);
-        } else if ((maybeToken = eatNonstrict(Token.Type.ID)).isPresent()) {
-            Token variableToken = maybeToken.get();
-            return new VariableEvalNode(variableToken);
-        } else {
-            eatStrict(Token.Type.L_PAREN);
-            ExpressionNode out = expression();
-            eatStrict(Token.Type.R_PAREN);
-            return out;
+    private ExpressionNode terminal() {
+        // parenthesized expressions are handled by expression() itself
+        switch (currentToken.type) {
+            case INTEGER_CONSTANT:
+                return IntConstantNode.make(eatStrict(Token.Type.INTEGER_CONSTANT));
+            case REAL_CONSTANT:
+                return RealConstantNode.make(eatStrict(Token.Type.REAL_CONSTANT));
+            case BOOLEAN_CONSTANT:
+                return BooleanConstantNode.make(eatStrict(Token.Type.BOOLEAN_CONSTANT));
+            case ID:
+                return new VariableEvalNode(eatStrict(Token.Type.ID));
+            default:
+                throw UnexpectedTokenException.wrongType(currentToken.type);
         }
     }
 }
@@ -0,0 +1,279 @@
+package io.github.rodyamirov.symbols;
+
+import io.github.rodyamirov.exceptions.TypeCheckException;
+import io.github.rodyamirov.exceptions.VariableException;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Runtime storage for the symbols of a single activation of a scope. Values live in plain arrays
+ * indexed by the slot numbers from the scope's FrameLayout, and each Frame holds a link (the
+ * static link) to the Frame of the activation of its lexically enclosing scope. Once SlotResolver
+ * has stamped a (depth, slot) pair onto a variable reference, reading that variable is just
+ * `frame.ancestor(depth).getInt(slot)` -- no hashing.
+ *
+ * INTEGER, REAL and BOOLEAN slots are stored unboxed in a single int array (REAL values by their
+ * float bits), so the typed accessors never allocate. PROCEDURE and PROGRAM slots hold their
+ * nodes as references. The SymbolValue accessors box and unbox as needed, for callers which
+ * don't know the static type of what they're reading.
+ */
+public final class Frame {
+    public final FrameLayout layout;
+
+    // the frame of the enclosing scope's activation; only a FramePool changes it, between uses
+    public Frame parent;
+
+    private final TypeSpec[] slotTypes;
+    private final int[] words;
+    private final Object[] references;
+    private final boolean[] initialized;
+    private final int[] lockLevels;
+
+    public Frame(FrameLayout layout, Frame parent) {
+        this.layout = layout;
+        this.parent = parent;
+
+        int size = layout.size();
+        this.slotTypes = layout.slotTypes.toArray(new TypeSpec[size]);
+        this.words = new int[size];
+        this.references = new Object[size];
+        this.initialized = new boolean[size];
+        this.lockLevels = new int[size];
+    }
+
+    /**
+     * Walks up the static chain by the specified number of links. ancestor(0) is this frame.
+     *
+     * @param depth The number of links to follow
+     * @return The frame that many links up the chain
+     */
+    public Frame ancestor(int depth) {
+        Frame out = this;
+        for (int i = 0; i < depth; i++) {
+            out = out.parent;
+        }
+        return out;
+    }
+
+    public boolean isInitialized(int slot) {
+        return initialized[slot];
+    }
+
+    private void checkInitialized(int slot) {
+        if (! initialized[slot]) {
+            throw VariableException.notAssigned(layout.scope, layout.slotNames.get(slot));
+        }
+    }
+
+    private void checkUnlocked(int slot) {
+        if (lockLevels[slot] > 0) {
+            throw new IllegalStateException("Cannot set the value of a locked variable!");
+        }
+    }
+
+    /**
+     * Reads an INTEGER slot.
+     * @throws VariableException if the slot has not been assigned
+     */
+    public int getInt(int slot) {
+        checkInitialized(slot);
+        return words[slot];
+    }
+
+    /**
+     * Reads a REAL slot.
+     * @throws VariableException if the slot has not been assigned
+     */
+    public float getReal(int slot) {
+        checkInitialized(slot);
+        return Float.intBitsToFloat(words[slot]);
+    }
+
+    /**
+     * Reads a BOOLEAN slot.
+     * @throws VariableException if the slot has not been assigned
+     */
+    public boolean getBoolean(int slot) {
+        checkInitialized(slot);
+        return words[slot] != 0;
+    }
+
+    /**
+     * Writes an INTEGER slot. The caller is responsible for the slot actually being INTEGER.
+     * @throws IllegalStateException if the slot is locked
+     */
+    public void setInt(int slot, int value) {
+        checkUnlocked(slot);
+        words[slot] = value;
+        initialized[slot] = true;
+    }
+
+    /**
+     * Writes a REAL slot. The caller is responsible for the slot actually being REAL.
+     * @throws IllegalStateException if the slot is locked
+     */
+    public void setReal(int slot, float value) {
+        checkUnlocked(slot);
+        words[slot] = Float.floatToRawIntBits(value);
+        initialized[slot] = true;
+    }
+
+    /**
+     * Writes a BOOLEAN slot. The caller is responsible for the slot actually being BOOLEAN.
+     * @throws IllegalStateException if the slot is locked
+     */
+    public void setBoolean(int slot, boolean value) {
+        checkUnlocked(slot);
+        words[slot] = value ? 1 : 0;
+        initialized[slot] = true;
+    }
+
+    /**
+     * Gets the value stored in the specified slot, boxed up as a SymbolValue.
+     *
+     * @param slot The slot to read
+     * @return The value stored there
+     * @throws VariableException if the slot has not been assigned
+     */
+    public SymbolValue get(int slot) {
+        checkInitialized(slot);
+
+        switch (slotTypes[slot]) {
+            case INTEGER:
+                return SymbolValue.makeInteger(words[slot]);
+
+            case REAL:
+                return SymbolValue.makeReal(Float.intBitsToFloat(words[slot]));
+
+            case BOOLEAN:
+                return SymbolValue.makeBoolean(words[slot] != 0);
+
+            default:
+                return SymbolValue.make(slotTypes[slot], references[slot]);
+        }
+    }
+
+    /**
+     * Sets the value stored in the specified slot, converting it to the slot's type if needed.
+     *
+     * @param slot The slot to write
+     * @param value The value to write there
+     * @throws TypeCheckException if the value cannot be converted to the slot's type
+     * @throws IllegalStateException if the slot is locked
+     */
+    public void set(int slot, SymbolValue value) {
+        SymbolValue converted = SymbolValueOps.convert(value, slotTypes[slot]);
+        checkUnlocked(slot);
+
+        switch (slotTypes[slot]) {
+            case INTEGER:
+                words[slot] = (Integer) converted.value;
+                break;
+
+            case REAL:
+                words[slot] = Float.floatToRawIntBits((Float) converted.value);
+                break;
+
+            case BOOLEAN:
+                words[slot] = ((Boolean) converted.value) ? 1 : 0;
+                break;
+
+            default:
+                references[slot] = converted.value;
+                break;
+        }
+
+        initialized[slot] = true;
+    }
+
+    public void clear(int slot) {
+        initialized[slot] = false;
+        references[slot] = null;
+    }
+
+    /**
+     * Unsets every variable (INTEGER, REAL or BOOLEAN) slot in this frame. Procedure and program
+     * slots are left alone, since those are declarations rather than state.
+     */
+    public void clearVariables() {
+        for (int slot = 0; slot < slotTypes.length; slot++) {
+            switch (slotTypes[slot]) {
+                case INTEGER:
+                case REAL:
+                case BOOLEAN:
+                    initialized[slot] = false;
+                    break;
+
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Unsets every slot, procedures included, and releases every lock, so the frame can be used
+     * for a fresh activation.
+     */
+    public void reset() {
+        Arrays.fill(initialized, false);
+        Arrays.fill(references, null);
+        Arrays.fill(lockLevels, 0);
+    }
+
+    public void lock(int slot) {
+        lockLevels[slot] += 1;
+    }
+
+    /**
+     * Reduces the lock level of the specified slot by one.
+     *
+     * @param slot The slot to unlock
+     * @throws IllegalStateException if the slot is already fully unlocked
+     */
+    public void unlock(int slot) {
+        if (lockLevels[slot] <= 0) {
+            throw new IllegalStateException("Cannot unlock a variable which is not locked");
+        } else {
+            lockLevels[slot] -= 1;
+        }
+    }
+
+    public boolean isLocked(int slot) {
+        return lockLevels[slot] > 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || !(o instanceof Frame)) {
+            return false;
+        }
+
+        Frame other = (Frame)o;
+
+        if (! Objects.equals(this.layout, other.layout)
+                || ! Arrays.equals(this.lockLevels, other.lockLevels)) {
+            return false;
+        }
+
+        // compare slot by slot, since a cleared slot may still hold a stale word
+        for (int slot = 0; slot < slotTypes.length; slot++) {
+            if (this.initialized[slot] != other.initialized[slot]) {
+                return false;
+            } else if (this.initialized[slot] && ! this.get(slot).equals(other.get(slot))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int out = layout.hashCode();
+        for (int slot = 0; slot < slotTypes.length; slot++) {
+            out = 43 * out + (initialized[slot] ? get(slot).hashCode() : 0);
+        }
+        return out;
+    }
+}
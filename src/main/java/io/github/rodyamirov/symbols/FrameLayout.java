@@ -0,0 +1,84 @@
+package io.github.rodyamirov.symbols;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.github.rodyamirov.exceptions.VariableException;
+import io.github.rodyamirov.lex.Token;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Describes the shape of the Frame for a single scope: which symbols live there, which slot
+ * each one occupies, and the type of each slot. Slots are numbered in declaration order,
+ * starting from zero. Layouts are immutable and shared between every Frame for their scope.
+ */
+public final class FrameLayout {
+    public final Scope scope;
+    public final ImmutableList<Token<String>> slotNames;
+    public final ImmutableList<TypeSpec> slotTypes;
+
+    private final ImmutableMap<Token<String>, Integer> slotIndices;
+
+    FrameLayout(Scope scope, List<Token<String>> slotNames, List<TypeSpec> slotTypes) {
+        if (slotNames.size() != slotTypes.size()) {
+            throw new IllegalArgumentException("Every slot needs exactly one name and one type");
+        }
+
+        this.scope = scope;
+        this.slotNames = ImmutableList.copyOf(slotNames);
+        this.slotTypes = ImmutableList.copyOf(slotTypes);
+
+        ImmutableMap.Builder<Token<String>, Integer> indexBuilder = ImmutableMap.builder();
+        for (int i = 0; i < slotNames.size(); i++) {
+            indexBuilder.put(slotNames.get(i), i);
+        }
+        this.slotIndices = indexBuilder.build();
+    }
+
+    static FrameLayout empty(Scope scope) {
+        return new FrameLayout(scope, ImmutableList.of(), ImmutableList.of());
+    }
+
+    public int size() {
+        return slotNames.size();
+    }
+
+    /**
+     * Finds the slot associated with the specified symbol in this scope.
+     *
+     * @param idToken The name of the symbol to look for
+     * @return The slot index of that symbol
+     * @throws VariableException if the symbol is not defined exactly at this scope
+     */
+    public int slotOf(Token<String> idToken) {
+        Integer slot = slotIndices.get(idToken);
+
+        if (slot == null) {
+            throw VariableException.notDefined(scope, idToken);
+        } else {
+            return slot;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || !(o instanceof FrameLayout)) {
+            return false;
+        }
+
+        FrameLayout other = (FrameLayout)o;
+
+        return Objects.equals(this.scope, other.scope)
+                && Objects.equals(this.slotNames, other.slotNames)
+                && Objects.equals(this.slotTypes, other.slotTypes);
+    }
+
+    @Override
+    public int hashCode() {
+        int out = Objects.hashCode(scope);
+        out = 43 * out + slotNames.hashCode();
+        out = 43 * out + slotTypes.hashCode();
+        return out;
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.rodyamirov.symbols;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands out the Frames for the activations of a single procedure. The first activation uses the
+ * scope's own frame from the SymbolValueTable, so a program without recursion ends up in exactly
+ * the state it always did; an activation which starts while another is still live (that is, a
+ * recursive call) gets a separate frame, recycled from earlier recursive calls where possible.
+ *
+ * Either way the frame is linked to the given static link on entry, and cleared on exit, so each
+ * call starts from nothing and sees the variables of the activation which encloses it.
+ */
+public final class FramePool {
+    private final Frame home;
+    private final List<Frame> free = new ArrayList<>();
+    private int liveCount = 0;
+
+    public FramePool(Frame home) {
+        this.home = home;
+    }
+
+    /**
+     * Starts an activation.
+     *
+     * @param staticLink The frame of the activation of the enclosing scope
+     * @return The frame for the new activation, with nothing assigned
+     */
+    public Frame enter(Frame staticLink) {
+        Frame out;
+
+        if (liveCount == 0) {
+            out = home;
+        } else if (free.isEmpty()) {
+            out = new Frame(home.layout, staticLink);
+        } else {
+            out = free.remove(free.size() - 1);
+        }
+
+        out.parent = staticLink;
+        liveCount += 1;
+        return out;
+    }
+
+    /**
+     * Ends the activation which is using the specified frame. Activations must end in the
+     * reverse of the order they started.
+     *
+     * @param frame The frame which enter gave out for it
+     */
+    public void exit(Frame frame) {
+        liveCount -= 1;
+
+        if (frame == home) {
+            // locals should not persist between calls, but declarations are left as they were
+            home.clearVariables();
+        } else {
+            frame.reset();
+            free.add(frame);
+        }
+    }
+}
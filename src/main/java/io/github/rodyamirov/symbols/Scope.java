@@ -2,44 +2,63 @@ package io.github.rodyamirov.symbols;
 
 import io.github.rodyamirov.lex.Token;
 
-import java.util.Objects;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 
 /**
+ * A scope is identified by its name and the names of every scope enclosing it. Scopes are
+ * interned: asking for the same root, or the same child of the same scope, always gives back the
+ * same object, so two scopes are equal exactly when they are the same object, and nothing ever
+ * has to walk the parent chain to compare or hash them.
+ *
+ * The interning only holds scopes weakly, so a scope (with everything under it) is dropped once
+ * nothing else uses it; whoever asks for it again after that can't tell the difference. Each scope
+ * also knows its depth (the root is at depth 0).
+ *
  * Created by richard.rast on 12/30/16.
  */
 public final class Scope {
+    private static final WeakScopes ROOTS = new WeakScopes();
+
     public final Optional<Scope> parentScope;
     public final Token<String> immediateScopeName;
 
+    public final int depth;
+
+    private final int hash;
+    private final WeakScopes children = new WeakScopes();
+
     private Scope(Token<String> immediateScopeName, Optional<Scope> parentScope) {
         this.immediateScopeName = immediateScopeName;
         this.parentScope = parentScope;
+
+        this.depth = parentScope.map(ps -> ps.depth + 1).orElse(0);
+
+        // the same hash an uninterned scope would have had, computed once
+        this.hash = immediateScopeName.hashCode() * 43 + parentScope.hashCode();
     }
 
     public static Scope makeRootScope(Token<String> immediateScopeName) {
-        return new Scope(immediateScopeName, Optional.empty());
+        return ROOTS.get(immediateScopeName, name -> new Scope(name, Optional.empty()));
     }
 
     public Scope makeChildScope(Token<String> childScopeName) {
-        return new Scope(childScopeName, Optional.of(this));
+        return children.get(childScopeName, name -> new Scope(name, Optional.of(this)));
     }
 
     @Override
     public boolean equals(Object o) {
-        if (o == null || !(o instanceof Scope)) {
-            return false;
-        }
-
-        Scope other = (Scope)o;
-
-        return Objects.equals(this.immediateScopeName, other.immediateScopeName)
-                && Objects.equals(this.parentScope, other.parentScope);
+        return this == o;
     }
 
     @Override
     public int hashCode() {
-        return immediateScopeName.hashCode() * 43 + parentScope.hashCode();
+        return hash;
     }
 
     @Override
@@ -55,4 +74,45 @@ public final class Scope {
 
         return sb.toString();
     }
+
+    // scopes by their immediate name, held weakly; a child holds on to its parent, so the parent
+    // stays as long as any of its children do
+    private static final class WeakScopes {
+        private final Map<Token<String>, Entry> scopes = new HashMap<>();
+        private final ReferenceQueue<Scope> cleared = new ReferenceQueue<>();
+
+        private static final class Entry extends WeakReference<Scope> {
+            private final Token<String> name;
+
+            private Entry(Scope scope, ReferenceQueue<Scope> queue) {
+                super(scope, queue);
+                this.name = scope.immediateScopeName;
+            }
+        }
+
+        private synchronized Scope get(Token<String> name, Function<Token<String>, Scope> make) {
+            expungeCleared();
+
+            Entry entry = scopes.get(name);
+            Scope scope = entry == null ? null : entry.get();
+
+            if (scope == null) {
+                scope = make.apply(name);
+                scopes.put(name, new Entry(scope, cleared));
+            }
+
+            return scope;
+        }
+
+        private void expungeCleared() {
+            for (Reference<? extends Scope> ref = cleared.poll(); ref != null; ref = cleared.poll()) {
+                Entry entry = (Entry) ref;
+
+                // the name may have been given a new scope since this one was dropped
+                if (scopes.get(entry.name) == entry) {
+                    scopes.remove(entry.name);
+                }
+            }
+        }
+    }
 }
@@ -5,216 +5,155 @@ import io.github.rodyamirov.tree.AndThenNode;
 import io.github.rodyamirov.tree.AssignNode;
 import io.github.rodyamirov.tree.BinOpNode;
 import io.github.rodyamirov.tree.BlockNode;
-import io.github.rodyamirov.tree.BooleanConstantNode;
 import io.github.rodyamirov.tree.CompoundNode;
 import io.github.rodyamirov.tree.DeclarationNode;
 import io.github.rodyamirov.tree.DoUntilNode;
 import io.github.rodyamirov.tree.ForNode;
 import io.github.rodyamirov.tree.IfStatementNode;
-import io.github.rodyamirov.tree.IntConstantNode;
-import io.github.rodyamirov.tree.LoopControlNode;
-import io.github.rodyamirov.tree.NoOpNode;
-import io.github.rodyamirov.tree.NodeVisitor;
 import io.github.rodyamirov.tree.OrElseNode;
-import io.github.rodyamirov.tree.ProcedureCallNode;
 import io.github.rodyamirov.tree.ProcedureDeclarationNode;
 import io.github.rodyamirov.tree.ProgramNode;
-import io.github.rodyamirov.tree.RealConstantNode;
 import io.github.rodyamirov.tree.StatementNode;
 import io.github.rodyamirov.tree.SyntaxTree;
+import io.github.rodyamirov.tree.ThoroughVisitor;
 import io.github.rodyamirov.tree.UnaryOpNode;
-import io.github.rodyamirov.tree.VariableAssignNode;
 import io.github.rodyamirov.tree.VariableDeclarationNode;
-import io.github.rodyamirov.tree.VariableEvalNode;
 import io.github.rodyamirov.tree.WhileNode;
 
 /**
+ * Every node's scope is the scope of its parent, except that a program or procedure declaration
+ * opens a new scope for its block. So the root is given its scope, and then, walking down the tree,
+ * each node hands its own scope (or the one it opens) on to its children.
+ *
  * Created by richard.rast on 1/1/17.
  */
-public class ScopeAssigner extends NodeVisitor {
+public class ScopeAssigner extends ThoroughVisitor {
     // just a standard root scope for general use
     public static final Scope ROOT_SCOPE = Scope.makeRootScope(Token.ID("root"));
 
-    private Scope currentScope;
-    
-    public ScopeAssigner(Scope scope) {
-        this.currentScope = scope;
+    private ScopeAssigner() {
     }
-    
+
     public static <T extends SyntaxTree> void assignScopes(Scope rootScope, T syntaxTree) {
-        ScopeAssigner scopeAssigner = new ScopeAssigner(rootScope);
-        syntaxTree.acceptVisit(scopeAssigner);
+        syntaxTree.scope = rootScope;
+        syntaxTree.acceptVisit(new ScopeAssigner());
     }
 
     @Override
     public void visit(AndThenNode andThenNode) {
-        andThenNode.scope = currentScope;
+        andThenNode.left.scope = andThenNode.scope;
+        andThenNode.right.scope = andThenNode.scope;
 
-        andThenNode.left.acceptVisit(this);
-        andThenNode.right.acceptVisit(this);
+        super.visit(andThenNode);
     }
 
     @Override
     public void visit(AssignNode assignNode) {
-        assignNode.scope = currentScope;
+        assignNode.variableAssignNode.scope = assignNode.scope;
+        assignNode.expressionNode.scope = assignNode.scope;
 
-        assignNode.variableAssignNode.acceptVisit(this);
-        assignNode.expressionNode.acceptVisit(this);
+        super.visit(assignNode);
     }
 
     @Override
     public void visit(BinOpNode binOpNode) {
-        binOpNode.scope = currentScope;
+        binOpNode.left.scope = binOpNode.scope;
+        binOpNode.right.scope = binOpNode.scope;
 
-        binOpNode.left.acceptVisit(this);
-        binOpNode.right.acceptVisit(this);
+        super.visit(binOpNode);
     }
 
     @Override
     public void visit(BlockNode blockNode) {
-        blockNode.scope = currentScope;
+        blockNode.declarationNode.scope = blockNode.scope;
+        blockNode.compoundNode.scope = blockNode.scope;
 
-        blockNode.declarationNode.acceptVisit(this);
-        blockNode.compoundNode.acceptVisit(this);
-    }
-
-    @Override
-    public void visit(BooleanConstantNode booleanConstantNode) {
-        booleanConstantNode.scope = currentScope;
+        super.visit(blockNode);
     }
 
     @Override
     public void visit(CompoundNode compoundNode) {
-        compoundNode.scope = currentScope;
-
         for (StatementNode statementNode : compoundNode.statements) {
-            statementNode.acceptVisit(this);
+            statementNode.scope = compoundNode.scope;
         }
+
+        super.visit(compoundNode);
     }
 
     @Override
     public void visit(DeclarationNode declarationNode) {
-        declarationNode.scope = currentScope;
-
         for (VariableDeclarationNode vdn : declarationNode.variableDeclarations) {
-            vdn.acceptVisit(this);
+            vdn.scope = declarationNode.scope;
         }
 
         for (ProcedureDeclarationNode pdn : declarationNode.procedureDeclarations) {
-            pdn.acceptVisit(this);
+            pdn.scope = declarationNode.scope;
         }
+
+        super.visit(declarationNode);
     }
 
     @Override
     public void visit(DoUntilNode doUntilNode) {
-        doUntilNode.scope = currentScope;
+        doUntilNode.condition.scope = doUntilNode.scope;
+        doUntilNode.childStatement.scope = doUntilNode.scope;
 
-        doUntilNode.condition.acceptVisit(this);
-        doUntilNode.childStatement.acceptVisit(this);
+        super.visit(doUntilNode);
     }
 
     @Override
     public void visit(ForNode forNode) {
-        forNode.scope = currentScope;
+        forNode.assignNode.scope = forNode.scope;
+        forNode.body.scope = forNode.scope;
+        forNode.bound.scope = forNode.scope;
 
-        forNode.assignNode.acceptVisit(this);
-        forNode.body.acceptVisit(this);
-        forNode.bound.acceptVisit(this);
+        super.visit(forNode);
     }
 
     @Override
     public void visit(IfStatementNode ifStatementNode) {
-        ifStatementNode.scope = currentScope;
-
-        ifStatementNode.condition.acceptVisit(this);
-        ifStatementNode.thenStatement.acceptVisit(this);
-        ifStatementNode.elseStatement.ifPresent(es -> es.acceptVisit(this));
-    }
+        ifStatementNode.condition.scope = ifStatementNode.scope;
+        ifStatementNode.thenStatement.scope = ifStatementNode.scope;
+        ifStatementNode.elseStatement.ifPresent(es -> es.scope = ifStatementNode.scope);
 
-    @Override
-    public void visit(IntConstantNode intConstantNode) {
-        intConstantNode.scope = currentScope;
-    }
-
-    @Override
-    public void visit(LoopControlNode loopControlNode) {
-        loopControlNode.scope = currentScope;
-    }
-
-    @Override
-    public void visit(NoOpNode noOpNode) {
-        noOpNode.scope = currentScope;
+        super.visit(ifStatementNode);
     }
 
     @Override
     public void visit(OrElseNode orElseNode) {
-        orElseNode.scope = currentScope;
-
-        orElseNode.left.acceptVisit(this);
-        orElseNode.right.acceptVisit(this);
-    }
+        orElseNode.left.scope = orElseNode.scope;
+        orElseNode.right.scope = orElseNode.scope;
 
-    @Override
-    public void visit(ProcedureCallNode procedureCallNode) {
-        procedureCallNode.scope = currentScope;
+        super.visit(orElseNode);
     }
 
     @Override
     public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
-        procedureDeclarationNode.scope = currentScope;
-
-        Scope oldScope = currentScope;
-        currentScope = currentScope.makeChildScope(procedureDeclarationNode.name);
+        procedureDeclarationNode.blockNode.scope =
+                procedureDeclarationNode.scope.makeChildScope(procedureDeclarationNode.name);
 
-        procedureDeclarationNode.blockNode.acceptVisit(this);
-
-        currentScope = oldScope;
+        super.visit(procedureDeclarationNode);
     }
 
     @Override
     public void visit(ProgramNode programNode) {
-        programNode.scope = currentScope;
-
-        Scope oldScope = currentScope;
-        currentScope = currentScope.makeChildScope(programNode.name);
+        programNode.blockNode.scope = programNode.scope.makeChildScope(programNode.name);
 
-        programNode.blockNode.acceptVisit(this);
-
-        currentScope = oldScope;
-    }
-
-    @Override
-    public void visit(RealConstantNode intConstantNode) {
-        intConstantNode.scope = currentScope;
+        super.visit(programNode);
     }
 
     @Override
     public void visit(UnaryOpNode unaryOpNode) {
-        unaryOpNode.scope = currentScope;
+        unaryOpNode.child.scope = unaryOpNode.scope;
 
-        unaryOpNode.child.acceptVisit(this);
-    }
-
-    @Override
-    public void visit(VariableAssignNode variableAssignNode) {
-        variableAssignNode.scope = currentScope;
-    }
-
-    @Override
-    public void visit(VariableDeclarationNode variableDeclarationNode) {
-        variableDeclarationNode.scope = currentScope;
-    }
-
-    @Override
-    public void visit(VariableEvalNode variableEvalNode) {
-        variableEvalNode.scope = currentScope;
+        super.visit(unaryOpNode);
     }
 
     @Override
     public void visit(WhileNode whileNode) {
-        whileNode.scope = currentScope;
+        whileNode.condition.scope = whileNode.scope;
+        whileNode.childStatement.scope = whileNode.scope;
 
-        whileNode.condition.acceptVisit(this);
-        whileNode.childStatement.acceptVisit(this);
+        super.visit(whileNode);
     }
 }
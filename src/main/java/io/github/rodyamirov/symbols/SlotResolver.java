@@ -0,0 +1,167 @@
+package io.github.rodyamirov.symbols;
+
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.tree.ForNode;
+import io.github.rodyamirov.tree.ProcedureCallNode;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.SyntaxTree;
+import io.github.rodyamirov.tree.ThoroughVisitor;
+import io.github.rodyamirov.tree.VariableAssignNode;
+import io.github.rodyamirov.tree.VariableEvalNode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves every variable reference (and procedure call) in a tree to a fixed (frame depth, slot
+ * index) pair, so that the evaluator never has to look a variable up by name. The depth is the number of static links
+ * between the frame of the scope the reference appears in and the frame of the scope that
+ * declares the variable; the slot is the variable's index in that scope's FrameLayout.
+ *
+ * References to undeclared variables are left unresolved (at -1), since an unanalyzed program may
+ * contain them in code that never runs; the evaluator complains if it actually reaches one.
+ *
+ * Each procedure call is also bound to the declaration it goes to, so that the evaluators can
+ * call it directly instead of looking it up every time.
+ *
+ * Along the way it marks each for loop whose body neither reads nor assigns the loop variable,
+ * and calls no procedures which might; the evaluators can keep the count of such a loop in a
+ * local, and only store it in the variable once the loop is over.
+ *
+ * This should run after ScopeAssigner and SymbolTableBuilder, and it can safely be re-run.
+ */
+public class SlotResolver extends ThoroughVisitor {
+    private final SymbolTable symbolTable;
+
+    // keyed by the scope of the procedure's block
+    private final Map<Scope, ProcedureDeclarationNode> declarations;
+
+    private SlotResolver(SymbolTable symbolTable, Map<Scope, ProcedureDeclarationNode> declarations) {
+        this.symbolTable = symbolTable;
+        this.declarations = declarations;
+    }
+
+    public static void resolve(SyntaxTree syntaxTree, SymbolTable symbolTable) {
+        SlotResolver slotResolver = new SlotResolver(symbolTable, declarations(syntaxTree));
+        syntaxTree.acceptVisit(slotResolver);
+    }
+
+    // a call may come before the declaration it goes to, so collect them all first
+    private static Map<Scope, ProcedureDeclarationNode> declarations(SyntaxTree syntaxTree) {
+        Map<Scope, ProcedureDeclarationNode> declarations = new HashMap<>();
+
+        syntaxTree.acceptVisit(new ThoroughVisitor() {
+            @Override
+            public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
+                declarations.put(procedureDeclarationNode.blockNode.scope, procedureDeclarationNode);
+                super.visit(procedureDeclarationNode);
+            }
+        });
+
+        return declarations;
+    }
+
+    /**
+     * Counts the number of parent links between the two scopes.
+     *
+     * @param from The scope to start at
+     * @param to A scope at or above <code>from</code>
+     * @return The number of links to follow from <code>from</code> to reach <code>to</code>
+     * @throws IllegalArgumentException if <code>to</code> is not an ancestor of <code>from</code>
+     */
+    public static int depthBetween(Scope from, Scope to) {
+        int depth = from.depth - to.depth;
+
+        Scope current = from;
+        for (int i = 0; i < depth; i++) {
+            current = current.parentScope.get();
+        }
+
+        if (current != to) {
+            String message = String.format("Scope %s does not enclose scope %s", to, from);
+            throw new IllegalArgumentException(message);
+        }
+
+        return depth;
+    }
+
+    private int resolveDepth(Scope scope, Token<String> idToken) {
+        if (symbolTable.isDefined(scope, idToken)) {
+            Scope declaringScope = symbolTable.closestScopeFound(scope, idToken);
+            return depthBetween(scope, declaringScope);
+        } else {
+            return -1;
+        }
+    }
+
+    private int resolveSlot(Scope scope, Token<String> idToken) {
+        if (symbolTable.isDefined(scope, idToken)) {
+            return symbolTable.getSlot(scope, idToken);
+        } else {
+            return -1;
+        }
+    }
+
+    @Override
+    public void visit(VariableAssignNode variableAssignNode) {
+        variableAssignNode.frameDepth = resolveDepth(variableAssignNode.scope, variableAssignNode.idToken);
+        variableAssignNode.slotIndex = resolveSlot(variableAssignNode.scope, variableAssignNode.idToken);
+    }
+
+    @Override
+    public void visit(VariableEvalNode variableEvalNode) {
+        variableEvalNode.frameDepth = resolveDepth(variableEvalNode.scope, variableEvalNode.idToken);
+        variableEvalNode.slotIndex = resolveSlot(variableEvalNode.scope, variableEvalNode.idToken);
+    }
+
+    @Override
+    public void visit(ProcedureCallNode procedureCallNode) {
+        procedureCallNode.frameDepth = resolveDepth(procedureCallNode.scope, procedureCallNode.procedureName);
+        procedureCallNode.slotIndex = resolveSlot(procedureCallNode.scope, procedureCallNode.procedureName);
+
+        Scope scope = procedureCallNode.scope;
+        Token<String> name = procedureCallNode.procedureName;
+
+        if (symbolTable.isDefined(scope, name) && symbolTable.getType(scope, name) == TypeSpec.PROCEDURE) {
+            Scope blockScope = symbolTable.closestScopeFound(scope, name).makeChildScope(name);
+            procedureCallNode.target = declarations.get(blockScope);
+        } else {
+            procedureCallNode.target = null;
+        }
+    }
+
+    @Override
+    public void visit(ForNode forNode) {
+        super.visit(forNode);
+
+        // once everything under it, the loop variable included, has been resolved
+        then(() -> {
+            VariableAssignNode loopVariable = forNode.assignNode.variableAssignNode;
+            forNode.counted = loopVariable.slotIndex >= 0 && ! touches(forNode.body, loopVariable.idToken);
+        });
+    }
+
+    // the body of a loop is all in one scope, so the name is enough to tell
+    private static boolean touches(SyntaxTree body, Token<String> idToken) {
+        boolean[] found = { false };
+
+        body.acceptVisit(new ThoroughVisitor() {
+            @Override
+            public void visit(VariableAssignNode variableAssignNode) {
+                found[0] |= variableAssignNode.idToken.equals(idToken);
+            }
+
+            @Override
+            public void visit(VariableEvalNode variableEvalNode) {
+                found[0] |= variableEvalNode.idToken.equals(idToken);
+            }
+
+            @Override
+            public void visit(ProcedureCallNode procedureCallNode) {
+                found[0] = true;
+            }
+        });
+
+        return found[0];
+    }
+}
@@ -1,23 +1,49 @@
 package io.github.rodyamirov.symbols;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import io.github.rodyamirov.exceptions.VariableException;
 import io.github.rodyamirov.lex.Token;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 
 /**
  * Created by richard.rast on 12/27/16.
  */
 public class SymbolTable {
-    // lookup by scope, then look by token to see the registered type
-    private final ImmutableMap<Scope, Map<Token<String>, TypeSpec>> symbolTable;
+    // each known scope's index, numbered densely from 0; everything else about a scope is kept
+    // in arrays by that index
+    private final ImmutableMap<Scope, Integer> scopeIndices;
 
-    private SymbolTable(ImmutableMap<Scope, Map<Token<String>, TypeSpec>> symbolTable) {
-        this.symbolTable = symbolTable;
+    // for each scope, look by token to see the registered type
+    private final ImmutableList<Map<Token<String>, TypeSpec>> symbols;
+
+    // the slot layout of each scope, derived from the order the symbols were added in
+    private final FrameLayout[] frameLayouts;
+
+    private SymbolTable(Map<Scope, Map<Token<String>, TypeSpec>> symbolTable) {
+        ImmutableMap.Builder<Scope, Integer> indexBuilder = ImmutableMap.builder();
+        ImmutableList.Builder<Map<Token<String>, TypeSpec>> symbolBuilder = ImmutableList.builder();
+        this.frameLayouts = new FrameLayout[symbolTable.size()];
+
+        int index = 0;
+        for (Map.Entry<Scope, Map<Token<String>, TypeSpec>> entry : symbolTable.entrySet()) {
+            List<Token<String>> slotNames = new ArrayList<>(entry.getValue().keySet());
+            List<TypeSpec> slotTypes = new ArrayList<>(entry.getValue().values());
+
+            indexBuilder.put(entry.getKey(), index);
+            symbolBuilder.add(ImmutableMap.copyOf(entry.getValue()));
+            frameLayouts[index] = new FrameLayout(entry.getKey(), slotNames, slotTypes);
+            index += 1;
+        }
+
+        this.scopeIndices = indexBuilder.build();
+        this.symbols = symbolBuilder.build();
     }
 
     /**
@@ -25,7 +51,27 @@ public class SymbolTable {
      * @return the set of all scopes which are known to be in this SymbolTable.
      */
     public ImmutableSet<Scope> knownScopes() {
-        return this.symbolTable.keySet();
+        return this.scopeIndices.keySet();
+    }
+
+    /**
+     * The number of scopes known to this table; see indexOf.
+     */
+    public int scopeCount() {
+        return frameLayouts.length;
+    }
+
+    /**
+     * Gets the index of the specified scope in this table. The known scopes are numbered densely
+     * from 0, so anything kept per scope can be kept in an array of scopeCount() entries. The
+     * numbering belongs to this table alone; another table may number the same scope differently.
+     *
+     * @param scope The scope to look up
+     * @return The index of the scope, or -1 if the scope is not known to this table
+     */
+    public int indexOf(Scope scope) {
+        Integer index = scopeIndices.get(scope);
+        return index == null ? -1 : index;
     }
 
     @Override
@@ -35,12 +81,28 @@ public class SymbolTable {
         }
 
         SymbolTable other = (SymbolTable)o;
-        return Objects.equals(this.symbolTable, other.symbolTable);
+
+        if (! this.knownScopes().equals(other.knownScopes())) {
+            return false;
+        }
+
+        for (Scope scope : knownScopes()) {
+            if (! symbols.get(indexOf(scope)).equals(other.symbols.get(other.indexOf(scope)))) {
+                return false;
+            }
+        }
+
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return symbolTable.hashCode();
+        // as a map from each scope to its symbols would hash, which doesn't depend on the order
+        int out = 0;
+        for (Scope scope : knownScopes()) {
+            out += scope.hashCode() ^ symbols.get(indexOf(scope)).hashCode();
+        }
+        return out;
     }
 
     /**
@@ -55,12 +117,28 @@ public class SymbolTable {
      * @return True if there is a symbol by this name at or below the specified scope
      */
     public boolean isDefinedExactlyAt(Scope scope, Token idToken) {
-        if (! symbolTable.containsKey(scope)) {
-            return false;
-        } else {
-            Map<Token<String>, TypeSpec> localTable = symbolTable.get(scope);
-            return localTable.containsKey(idToken);
+        int index = indexOf(scope);
+        return index >= 0 && symbols.get(index).containsKey(idToken);
+    }
+
+    /**
+     * Determines if there is a symbol matching the specified token at or below the specified
+     * scope; that is, if closestScopeFound would succeed.
+     *
+     * @param scope The top scope to look in
+     * @param idToken The Token to match on
+     * @return True iff there is a match at this scope or any scope below it
+     */
+    public boolean isDefined(Scope scope, Token<String> idToken) {
+        while (! isDefinedExactlyAt(scope, idToken)) {
+            if (scope.parentScope.isPresent()) {
+                scope = scope.parentScope.get();
+            } else {
+                return false;
+            }
         }
+
+        return true;
     }
 
     /**
@@ -104,15 +182,13 @@ public class SymbolTable {
      * @throws VariableException if there is no symbol with this id at the specified scope
      */
     public TypeSpec getTypeExactlyAt(Scope scope, Token idToken) {
-        if (!symbolTable.containsKey(scope)) {
+        int index = indexOf(scope);
+        TypeSpec type = index < 0 ? null : symbols.get(index).get(idToken);
+
+        if (type == null) {
             throw VariableException.notDefined(scope, idToken);
         } else {
-            Map<Token<String>, TypeSpec> localTable = symbolTable.get(scope);
-            if (localTable.containsKey(idToken)) {
-                return localTable.get(idToken);
-            } else {
-                throw VariableException.notDefined(scope, idToken);
-            }
+            return type;
         }
     }
 
@@ -129,10 +205,54 @@ public class SymbolTable {
         return getTypeExactlyAt(scope, idToken);
     }
 
+    /**
+     * Gets the slot layout of the specified scope. Scopes with no symbols registered still have
+     * a (trivial) layout, so that every scope in a chain can have a Frame.
+     *
+     * @param scope The scope to get the layout for
+     * @return The layout of the frames for that scope
+     */
+    public FrameLayout getLayout(Scope scope) {
+        int index = indexOf(scope);
+        return index < 0 ? FrameLayout.empty(scope) : frameLayouts[index];
+    }
+
+    /**
+     * Finds the uppermost symbol, at or below the specified scope, which matches the idToken.
+     * Then returns the slot that symbol occupies in the frame for its own scope.
+     *
+     * @param scope The scope to start matches at
+     * @param idToken The token to match the symbol on
+     * @return The slot index of the matching symbol
+     * @throws VariableException if there is no matching symbol
+     */
+    public int getSlot(Scope scope, Token<String> idToken) {
+        scope = closestScopeFound(scope, idToken);
+        return frameLayouts[indexOf(scope)].slotOf(idToken);
+    }
+
     public static Builder builder() {
         return new Builder();
     }
 
+    /**
+     * Makes a Builder which already holds everything in this table, in the same order, so that
+     * symbols added to it go after the existing ones and every existing slot stays where it is.
+     *
+     * @return A new Builder, preloaded with the contents of this table
+     */
+    public Builder toBuilder() {
+        Builder out = new Builder();
+
+        for (FrameLayout layout : frameLayouts) {
+            for (int slot = 0; slot < layout.size(); slot++) {
+                out.addSymbol(layout.scope, layout.slotNames.get(slot), layout.slotTypes.get(slot));
+            }
+        }
+
+        return out;
+    }
+
     public static class Builder {
         private final Map<Scope, Map<Token<String>, TypeSpec>> toReturn;
         private boolean finished;
@@ -149,7 +269,8 @@ public class SymbolTable {
             Map<Token<String>, TypeSpec> localTable;
 
             if (! toReturn.containsKey(scope)) {
-                localTable = new HashMap<>();
+                // insertion order matters; it determines the slot order in the frame layout
+                localTable = new LinkedHashMap<>();
                 toReturn.put(scope, localTable);
             } else {
                 localTable = toReturn.get(scope);
@@ -174,7 +295,7 @@ public class SymbolTable {
                 throw new IllegalStateException("Symbol table has already been built!");
             } else {
                 finished = true;
-                return new SymbolTable(ImmutableMap.copyOf(toReturn));
+                return new SymbolTable(toReturn);
             }
         }
     }
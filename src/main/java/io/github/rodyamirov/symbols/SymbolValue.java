@@ -1,6 +1,8 @@
 package io.github.rodyamirov.symbols;
 
 import io.github.rodyamirov.exceptions.TypeCheckException;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
 
 import java.util.Objects;
 
@@ -33,6 +35,28 @@ public class SymbolValue<T> {
         return 43 * Objects.hashCode(value) + typeSpec.hashCode();
     }
 
+    // these skip the reflective class check in make(), since the types are known statically
+
+    public static SymbolValue<Integer> makeInteger(int value) {
+        return new SymbolValue<>(TypeSpec.INTEGER, value);
+    }
+
+    public static SymbolValue<Float> makeReal(float value) {
+        return new SymbolValue<>(TypeSpec.REAL, value);
+    }
+
+    public static SymbolValue<Boolean> makeBoolean(boolean value) {
+        return new SymbolValue<>(TypeSpec.BOOLEAN, value);
+    }
+
+    public static SymbolValue<ProgramNode> makeProgram(ProgramNode value) {
+        return new SymbolValue<>(TypeSpec.PROGRAM, value);
+    }
+
+    public static SymbolValue<ProcedureDeclarationNode> makeProcedure(ProcedureDeclarationNode value) {
+        return new SymbolValue<>(TypeSpec.PROCEDURE, value);
+    }
+
     public static SymbolValue make(TypeSpec typeSpec, Object value) {
         Class desiredClass = typeSpec.getValueClass();
 
@@ -363,4 +363,134 @@ public final class SymbolValueOps {
 
         return SymbolValue.make(TypeSpec.BOOLEAN, out);
     }
+
+    // -----------------------------------------------------------------------------------------
+    // Specialized operations. The TypeChecker picks one of these for each operator once it knows
+    // the operand types, so none of them check types; an INTEGER operand to a REAL operation is
+    // simply widened.
+    // -----------------------------------------------------------------------------------------
+
+    private static int intValue(SymbolValue a) {
+        return (Integer) a.value;
+    }
+
+    private static float realValue(SymbolValue a) {
+        return ((Number) a.value).floatValue();
+    }
+
+    private static boolean booleanValue(SymbolValue a) {
+        return (Boolean) a.value;
+    }
+
+    public static SymbolValue addIntegers(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeInteger(intValue(a) + intValue(b));
+    }
+
+    public static SymbolValue addReals(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeReal(realValue(a) + realValue(b));
+    }
+
+    public static SymbolValue subtractIntegers(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeInteger(intValue(a) - intValue(b));
+    }
+
+    public static SymbolValue subtractReals(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeReal(realValue(a) - realValue(b));
+    }
+
+    public static SymbolValue multiplyIntegers(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeInteger(intValue(a) * intValue(b));
+    }
+
+    public static SymbolValue multiplyReals(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeReal(realValue(a) * realValue(b));
+    }
+
+    public static SymbolValue divideIntegers(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeInteger(intValue(a) / intValue(b));
+    }
+
+    public static SymbolValue modIntegers(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeInteger(intValue(a) % intValue(b));
+    }
+
+    public static SymbolValue divideReals(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeReal(realValue(a) / realValue(b));
+    }
+
+    public static SymbolValue andBooleans(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(booleanValue(a) & booleanValue(b));
+    }
+
+    public static SymbolValue orBooleans(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(booleanValue(a) | booleanValue(b));
+    }
+
+    public static SymbolValue lessThanIntegers(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(intValue(a) < intValue(b));
+    }
+
+    public static SymbolValue lessThanReals(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(realValue(a) < realValue(b));
+    }
+
+    public static SymbolValue lessThanOrEqualsIntegers(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(intValue(a) <= intValue(b));
+    }
+
+    public static SymbolValue lessThanOrEqualsReals(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(realValue(a) <= realValue(b));
+    }
+
+    public static SymbolValue greaterThanIntegers(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(intValue(a) > intValue(b));
+    }
+
+    public static SymbolValue greaterThanReals(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(realValue(a) > realValue(b));
+    }
+
+    public static SymbolValue greaterThanOrEqualsIntegers(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(intValue(a) >= intValue(b));
+    }
+
+    public static SymbolValue greaterThanOrEqualsReals(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(realValue(a) >= realValue(b));
+    }
+
+    public static SymbolValue equalsIntegers(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(intValue(a) == intValue(b));
+    }
+
+    public static SymbolValue equalsReals(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(realValue(a) == realValue(b));
+    }
+
+    public static SymbolValue equalsBooleans(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(booleanValue(a) == booleanValue(b));
+    }
+
+    public static SymbolValue notEqualsIntegers(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(intValue(a) != intValue(b));
+    }
+
+    public static SymbolValue notEqualsReals(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(realValue(a) != realValue(b));
+    }
+
+    public static SymbolValue notEqualsBooleans(SymbolValue a, SymbolValue b) {
+        return SymbolValue.makeBoolean(booleanValue(a) != booleanValue(b));
+    }
+
+    public static SymbolValue negateInteger(SymbolValue a) {
+        return SymbolValue.makeInteger(-intValue(a));
+    }
+
+    public static SymbolValue negateReal(SymbolValue a) {
+        return SymbolValue.makeReal(-realValue(a));
+    }
+
+    public static SymbolValue notBoolean(SymbolValue a) {
+        return SymbolValue.makeBoolean(! booleanValue(a));
+    }
 }
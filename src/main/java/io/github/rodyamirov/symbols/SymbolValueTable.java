@@ -10,24 +10,84 @@ import java.util.Objects;
 import java.util.function.Supplier;
 
 /**
+ * A name-based view of program state. The values themselves live in one Frame per scope (plus
+ * the extra frames recursive calls take from a FramePool, which are gone by the end); this
+ * class only translates (scope, name) pairs into (frame, slot) pairs, so the evaluator can work
+ * directly on the frames and hand this table back as the end state.
+ *
  * Created by richard.rast on 12/27/16.
  */
 public class SymbolValueTable {
     private final SymbolTable symbolTable;
-    private final Map<Scope, Map<Token<String>, SymbolValue>> valueTables;
-    private final Map<Scope, Map<Token<String>, Integer>> valueLocks;
+
+    // for the scopes the symbol table knows, by their index there
+    private final Frame[] frames;
+    private final FramePool[] framePools;
+
+    // for scopes with no symbols, which the symbol table doesn't number
+    private final Map<Scope, Frame> otherFrames = new HashMap<>();
+    private final Map<Scope, FramePool> otherFramePools = new HashMap<>();
 
     public SymbolValueTable(SymbolTable symbolTable) {
         this.symbolTable = symbolTable;
-        valueTables = new HashMap<>();
-        valueLocks = new HashMap<>();
+        this.frames = new Frame[symbolTable.scopeCount()];
+        this.framePools = new FramePool[symbolTable.scopeCount()];
 
         for (Scope scope : symbolTable.knownScopes()) {
-            valueTables.put(scope, new HashMap<>());
-            valueLocks.put(scope, new HashMap<>());
+            getFrame(scope);
         }
     }
 
+    /**
+     * Gets the Frame holding the values for the specified scope, creating it (and the frames of
+     * any enclosing scopes) if it does not exist yet.
+     *
+     * @param scope The scope whose frame is wanted
+     * @return The frame for that scope
+     */
+    public Frame getFrame(Scope scope) {
+        int index = symbolTable.indexOf(scope);
+        Frame frame = index < 0 ? otherFrames.get(scope) : frames[index];
+
+        if (frame == null) {
+            Frame parent = scope.parentScope.map(this::getFrame).orElse(null);
+            frame = new Frame(symbolTable.getLayout(scope), parent);
+
+            if (index < 0) {
+                otherFrames.put(scope, frame);
+            } else {
+                frames[index] = frame;
+            }
+        }
+
+        return frame;
+    }
+
+    /**
+     * Gets the pool of activation frames for the procedure with the specified block scope. Its
+     * first activation uses the frame getFrame would return.
+     *
+     * @param blockScope The scope of the procedure's block
+     * @return The pool for that procedure
+     */
+    public FramePool getFramePool(Scope blockScope) {
+        int index = symbolTable.indexOf(blockScope);
+
+        if (index < 0) {
+            return otherFramePools.computeIfAbsent(blockScope, scope -> new FramePool(getFrame(scope)));
+        }
+
+        if (framePools[index] == null) {
+            framePools[index] = new FramePool(getFrame(blockScope));
+        }
+
+        return framePools[index];
+    }
+
+    private int slotFor(Scope resolvedScope, Token<String> idToken) {
+        return symbolTable.getLayout(resolvedScope).slotOf(idToken);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o == null || !(o instanceof SymbolValueTable)) {
@@ -36,14 +96,27 @@ public class SymbolValueTable {
 
         SymbolValueTable other = (SymbolValueTable)o;
 
-        return Objects.equals(this.symbolTable, other.symbolTable)
-                && Objects.equals(this.valueTables, other.valueTables)
-                && Objects.equals(this.valueLocks, other.valueLocks);
+        if (! Objects.equals(this.symbolTable, other.symbolTable)) {
+            return false;
+        }
+
+        // frames for scopes without symbols carry no state, so only the known scopes matter
+        for (Scope scope : symbolTable.knownScopes()) {
+            if (! Objects.equals(this.getFrame(scope), other.getFrame(scope))) {
+                return false;
+            }
+        }
+
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return 43 * symbolTable.hashCode() + valueTables.hashCode();
+        int out = symbolTable.hashCode();
+        for (Scope scope : symbolTable.knownScopes()) {
+            out = 43 * out + getFrame(scope).hashCode();
+        }
+        return out;
     }
 
     /**
@@ -88,9 +161,7 @@ public class SymbolValueTable {
      */
     public boolean isInitialized(Scope scope, Token<String> idToken) {
         scope = closestScopeFound(scope, idToken);
-
-        // valueTables.get(scope) is guaranteed to exist, as we created it in the constructor
-        return valueTables.get(scope).containsKey(idToken);
+        return getFrame(scope).isInitialized(slotFor(scope, idToken));
     }
 
     /**
@@ -104,12 +175,7 @@ public class SymbolValueTable {
      */
     public SymbolValue getValue(Scope scope, Token<String> idToken) {
         scope = closestScopeFound(scope, idToken);
-
-        if (isInitialized(scope, idToken)) {
-            return valueTables.get(scope).get(idToken);
-        } else {
-            throw VariableException.notAssigned(scope, idToken);
-        }
+        return getFrame(scope).get(slotFor(scope, idToken));
     }
 
     /**
@@ -135,16 +201,8 @@ public class SymbolValueTable {
      */
     public void lockValue(Scope scope, Token<String> idToken) {
         // TODO test this method
-        Scope closestScope = closestScopeFound(scope, idToken);
-
-        Map<Token<String>, Integer> localLock = valueLocks.get(scope);
-
-        if (valueLocks.containsKey(idToken)) {
-            int currentLockLevel = localLock.get(idToken);
-            localLock.put(idToken, currentLockLevel + 1);
-        } else { // that means it's zero
-            localLock.put(idToken, 1);
-        }
+        scope = closestScopeFound(scope, idToken);
+        getFrame(scope).lock(slotFor(scope, idToken));
     }
 
     /**
@@ -159,25 +217,13 @@ public class SymbolValueTable {
     public void unlockValue(Scope scope, Token<String> idToken) {
         // TODO test this method
         scope = closestScopeFound(scope, idToken);
-
-        Map<Token<String>, Integer> localLock = valueLocks.get(scope);
-
-        // important; never store zero as a value, always unset it
-        // it's a useful condition to maintain for the purpose of equality
-        int currentLockLevel = localLock.get(idToken);
-        if (currentLockLevel <= 0) {
-            throw new IllegalStateException("Cannot unlock a variable which is not locked");
-        } else if (currentLockLevel == 1) {
-            localLock.remove(idToken);
-        } else {
-            localLock.put(idToken, currentLockLevel - 1);
-        }
+        getFrame(scope).unlock(slotFor(scope, idToken));
     }
 
     public boolean isValueLocked(Scope scope, Token<String> idToken) {
         // TODO test this method
         scope = closestScopeFound(scope, idToken);
-        return valueLocks.get(scope).containsKey(idToken);
+        return getFrame(scope).isLocked(slotFor(scope, idToken));
     }
 
     /**
@@ -191,17 +237,9 @@ public class SymbolValueTable {
      * @throws TypeCheckException if the specified value cannot be converted to the required value
      */
     public void setValue(Scope scope, Token<String> idToken, SymbolValue value) {
-        scope = closestScopeFound(scope, idToken);
-
-        TypeSpec desired = symbolTable.getTypeExactlyAt(scope, idToken);
-        SymbolValue setValue = SymbolValueOps.convert(value, desired);
-
         // TODO: test locking behavior
-        if (isValueLocked(scope, idToken)) {
-            throw new IllegalStateException("Cannot set the value of a locked variable!");
-        } else {
-            valueTables.get(scope).put(idToken, setValue);
-        }
+        scope = closestScopeFound(scope, idToken);
+        getFrame(scope).set(slotFor(scope, idToken), value);
     }
 
     /**
@@ -227,6 +265,6 @@ public class SymbolValueTable {
      */
     public void clearValue(Scope scope, Token<String> idToken) {
         scope = closestScopeFound(scope, idToken);
-        valueTables.get(scope).remove(idToken);
+        getFrame(scope).clear(slotFor(scope, idToken));
     }
 }
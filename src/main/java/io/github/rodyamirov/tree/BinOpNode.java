@@ -5,6 +5,7 @@ import com.google.common.collect.ImmutableSet;
 import io.github.rodyamirov.lex.Token;
 import io.github.rodyamirov.symbols.SymbolValue;
 import io.github.rodyamirov.symbols.SymbolValueOps;
+import io.github.rodyamirov.symbols.TypeSpec;
 
 import java.util.Objects;
 import java.util.function.BiFunction;
@@ -15,7 +16,76 @@ import java.util.function.BiFunction;
 public final class BinOpNode extends ExpressionNode {
     public final ExpressionNode left, right;
     public final Token opToken;
-    public final BiFunction<SymbolValue, SymbolValue, SymbolValue> function;
+
+    // starts out generic; the TypeChecker swaps in the specialized version from the operation
+    public BiFunction<SymbolValue, SymbolValue, SymbolValue> function;
+
+    // chosen by the TypeChecker once the operand types are known; null before that
+    public Operation operation = null;
+
+    /**
+     * An operator specialized to the type of its operands. Operands of a REAL operation may also
+     * be INTEGER, and are widened; nothing else is converted.
+     */
+    public enum Operation {
+        ADD_INTEGERS(Token.Type.PLUS, TypeSpec.INTEGER, SymbolValueOps::addIntegers),
+        ADD_REALS(Token.Type.PLUS, TypeSpec.REAL, SymbolValueOps::addReals),
+        SUBTRACT_INTEGERS(Token.Type.MINUS, TypeSpec.INTEGER, SymbolValueOps::subtractIntegers),
+        SUBTRACT_REALS(Token.Type.MINUS, TypeSpec.REAL, SymbolValueOps::subtractReals),
+        MULTIPLY_INTEGERS(Token.Type.TIMES, TypeSpec.INTEGER, SymbolValueOps::multiplyIntegers),
+        MULTIPLY_REALS(Token.Type.TIMES, TypeSpec.REAL, SymbolValueOps::multiplyReals),
+        DIVIDE_INTEGERS(Token.Type.INT_DIVIDE, TypeSpec.INTEGER, SymbolValueOps::divideIntegers),
+        MOD_INTEGERS(Token.Type.MOD, TypeSpec.INTEGER, SymbolValueOps::modIntegers),
+        DIVIDE_REALS(Token.Type.REAL_DIVIDE, TypeSpec.REAL, SymbolValueOps::divideReals),
+
+        AND_BOOLEANS(Token.Type.AND, TypeSpec.BOOLEAN, SymbolValueOps::andBooleans),
+        OR_BOOLEANS(Token.Type.OR, TypeSpec.BOOLEAN, SymbolValueOps::orBooleans),
+
+        LESS_THAN_INTEGERS(Token.Type.LESS_THAN, TypeSpec.INTEGER, SymbolValueOps::lessThanIntegers),
+        LESS_THAN_REALS(Token.Type.LESS_THAN, TypeSpec.REAL, SymbolValueOps::lessThanReals),
+        LESS_THAN_OR_EQUALS_INTEGERS(Token.Type.LESS_THAN_OR_EQUALS, TypeSpec.INTEGER, SymbolValueOps::lessThanOrEqualsIntegers),
+        LESS_THAN_OR_EQUALS_REALS(Token.Type.LESS_THAN_OR_EQUALS, TypeSpec.REAL, SymbolValueOps::lessThanOrEqualsReals),
+        GREATER_THAN_INTEGERS(Token.Type.GREATER_THAN, TypeSpec.INTEGER, SymbolValueOps::greaterThanIntegers),
+        GREATER_THAN_REALS(Token.Type.GREATER_THAN, TypeSpec.REAL, SymbolValueOps::greaterThanReals),
+        GREATER_THAN_OR_EQUALS_INTEGERS(Token.Type.GREATER_THAN_OR_EQUALS, TypeSpec.INTEGER, SymbolValueOps::greaterThanOrEqualsIntegers),
+        GREATER_THAN_OR_EQUALS_REALS(Token.Type.GREATER_THAN_OR_EQUALS, TypeSpec.REAL, SymbolValueOps::greaterThanOrEqualsReals),
+
+        EQUALS_INTEGERS(Token.Type.EQUALS, TypeSpec.INTEGER, SymbolValueOps::equalsIntegers),
+        EQUALS_REALS(Token.Type.EQUALS, TypeSpec.REAL, SymbolValueOps::equalsReals),
+        EQUALS_BOOLEANS(Token.Type.EQUALS, TypeSpec.BOOLEAN, SymbolValueOps::equalsBooleans),
+        NOT_EQUALS_INTEGERS(Token.Type.NOT_EQUALS, TypeSpec.INTEGER, SymbolValueOps::notEqualsIntegers),
+        NOT_EQUALS_REALS(Token.Type.NOT_EQUALS, TypeSpec.REAL, SymbolValueOps::notEqualsReals),
+        NOT_EQUALS_BOOLEANS(Token.Type.NOT_EQUALS, TypeSpec.BOOLEAN, SymbolValueOps::notEqualsBooleans);
+
+        public final Token.Type opType;
+        public final TypeSpec operandType;
+        public final BiFunction<SymbolValue, SymbolValue, SymbolValue> function;
+
+        Operation(Token.Type opType, TypeSpec operandType, BiFunction<SymbolValue, SymbolValue, SymbolValue> function) {
+            this.opType = opType;
+            this.operandType = operandType;
+            this.function = function;
+        }
+
+        /**
+         * Finds the specialized version of an operator.
+         *
+         * @param opType The operator
+         * @param operandType The type both operands will be (after widening, if any)
+         * @return The matching operation
+         * @throws IllegalArgumentException if the operator is not defined on that type
+         */
+        public static Operation select(Token.Type opType, TypeSpec operandType) {
+            for (Operation operation : values()) {
+                if (operation.opType == opType && operation.operandType == operandType) {
+                    return operation;
+                }
+            }
+
+            String message = String.format("No operation %s is defined on type %s", opType, operandType);
+            throw new IllegalArgumentException(message);
+        }
+    }
 
     // static it up
     private static final ImmutableMap<Token.Type, BiFunction<SymbolValue, SymbolValue, SymbolValue>> evaluations =
@@ -11,8 +11,16 @@ import java.util.Objects;
 public final class CompoundNode extends StatementNode {
     public final ImmutableList<StatementNode> statements;
 
+    private final boolean canLeave;
+
     public CompoundNode(List<StatementNode> statements) {
         this.statements = ImmutableList.copyOf(statements);
+        this.canLeave = this.statements.stream().anyMatch(StatementNode::canLeave);
+    }
+
+    @Override
+    public boolean canLeave() {
+        return canLeave;
     }
 
     @Override
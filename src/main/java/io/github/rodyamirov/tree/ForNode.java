@@ -13,6 +13,14 @@ public class ForNode extends LoopStatementNode {
     public final StatementNode body;
     public final Direction direction;
 
+    // whether the body never touches the loop variable, so the count can be kept in a local;
+    // filled in by SlotResolver
+    public boolean counted = false;
+
+    // whether nothing can assign the loop variable while the loop runs, so it needs no lock;
+    // filled in by LoopVariableChecker
+    public boolean lockFree = false;
+
     private ForNode(AssignNode assignNode, ExpressionNode bound, StatementNode body, Direction direction) {
         this.assignNode = assignNode;
         this.bound = bound;
@@ -18,10 +18,13 @@ public final class IfStatementNode extends StatementNode {
     public final StatementNode thenStatement;
     public final Optional<StatementNode> elseStatement;
 
+    private final boolean canLeave;
+
     public IfStatementNode(ExpressionNode condition, StatementNode thenStatement) {
         this.condition = condition;
         this.thenStatement = thenStatement;
         this.elseStatement = Optional.empty();
+        this.canLeave = thenStatement.canLeave();
     }
 
     public IfStatementNode(ExpressionNode condition, StatementNode thenStatement,
@@ -29,6 +32,12 @@ public final class IfStatementNode extends StatementNode {
         this.condition = condition;
         this.thenStatement = thenStatement;
         this.elseStatement = Optional.of(elseStatement);
+        this.canLeave = thenStatement.canLeave() || elseStatement.canLeave();
+    }
+
+    @Override
+    public boolean canLeave() {
+        return canLeave;
     }
 
     @Override
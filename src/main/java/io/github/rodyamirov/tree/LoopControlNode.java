@@ -24,6 +24,11 @@ public final class LoopControlNode extends StatementNode {
         return new LoopControlNode(Type.BREAK);
     }
 
+    @Override
+    public boolean canLeave() {
+        return true;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o == null || !(o instanceof LoopControlNode)) {
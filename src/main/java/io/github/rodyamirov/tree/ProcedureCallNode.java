@@ -10,6 +10,19 @@ import java.util.Objects;
 public final class ProcedureCallNode extends StatementNode {
     public final Token<String> procedureName;
 
+    // where the procedure's declaration lives at runtime, relative to the caller's frame; the
+    // frame found there is also the static link for the call. Filled in by SlotResolver, -1 until then
+    public int frameDepth = -1;
+    public int slotIndex = -1;
+
+    // the declaration this call goes to, which can't change once the program is analyzed.
+    // Filled in by SlotResolver along with the above, null until then (or if there isn't one)
+    public ProcedureDeclarationNode target = null;
+
+    // whether this is the last thing its procedure does, so that the evaluators can reuse the
+    // caller's activation instead of starting a new one. Filled in by TailCallMarker
+    public boolean tailCall = false;
+
     public ProcedureCallNode(Token<String> procedureName) {
         this.procedureName = procedureName;
     }
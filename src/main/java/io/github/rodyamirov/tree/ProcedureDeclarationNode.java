@@ -11,6 +11,9 @@ public final class ProcedureDeclarationNode extends SyntaxTree {
     public final Token<String> name;
     public final BlockNode blockNode;
 
+    // how many tokens this was parsed from; see StatementNode
+    public int tokenCount = -1;
+
     public ProcedureDeclarationNode(Token<String> name, BlockNode blockNode) {
         this.name = name;
         this.blockNode = blockNode;
@@ -4,4 +4,17 @@ package io.github.rodyamirov.tree;
  * Created by richard.rast on 12/25/16.
  */
 public abstract class StatementNode extends SyntaxTree {
+    // how many tokens this was parsed from, which lets an IncrementalParser find its way around
+    // the tree without keeping positions, which every edit would move. Filled in by the Parser
+    public int tokenCount = -1;
+
+    /**
+     * Whether running this statement might end in a break or continue which leaves it, to be
+     * handled by an enclosing loop. Loops and procedure calls stop these, so only statements built
+     * around a LoopControlNode can. Since trees are immutable, this is fixed when the node is
+     * built, and evaluators can use it to skip checking for jumps which can't happen.
+     */
+    public boolean canLeave() {
+        return false;
+    }
 }
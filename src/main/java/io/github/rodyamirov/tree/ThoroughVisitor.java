@@ -6,32 +6,47 @@ package io.github.rodyamirov.tree;
  * Extending classes can override the few number of classes where specific behavior is needed
  * and leave the rest alone.
  *
+ * The children are walked as a WorklistVisitor walks them: super.visit only asks for them, and
+ * they are visited once the override returns. So, unlike a visitor which recurses, anything an
+ * override does after calling super.visit runs BEFORE the children are visited, unless it is put
+ * in a then step. Code which counted on the children being done by then has to wrap it in then.
+ *
  * Created by richard.rast on 1/2/17.
  */
-public abstract class ThoroughVisitor extends NodeVisitor {
+public abstract class ThoroughVisitor extends WorklistVisitor {
+
+    /**
+     * The number of nodes on the longest path down from the root, counting both ends.
+     */
+    public static int height(SyntaxTree root) {
+        ThoroughVisitor measure = new ThoroughVisitor() {
+        };
+        measure.walk(root);
+        return measure.walkedHeight();
+    }
 
     @Override
     public void visit(AndThenNode andThenNode) {
-        andThenNode.left.acceptVisit(this);
-        andThenNode.right.acceptVisit(this);
+        visitChild(andThenNode.left);
+        visitChild(andThenNode.right);
     }
 
     @Override
     public void visit(AssignNode assignNode) {
-        assignNode.variableAssignNode.acceptVisit(this);
-        assignNode.expressionNode.acceptVisit(this);
+        visitChild(assignNode.variableAssignNode);
+        visitChild(assignNode.expressionNode);
     }
 
     @Override
     public void visit(BinOpNode binOpNode) {
-        binOpNode.left.acceptVisit(this);
-        binOpNode.right.acceptVisit(this);
+        visitChild(binOpNode.left);
+        visitChild(binOpNode.right);
     }
 
     @Override
     public void visit(BlockNode blockNode) {
-        blockNode.declarationNode.acceptVisit(this);
-        blockNode.compoundNode.acceptVisit(this);
+        visitChild(blockNode.declarationNode);
+        visitChild(blockNode.compoundNode);
     }
 
     @Override
@@ -41,39 +56,39 @@ public abstract class ThoroughVisitor extends NodeVisitor {
     @Override
     public void visit(CompoundNode compoundNode) {
         for (StatementNode statementNode : compoundNode.statements) {
-            statementNode.acceptVisit(this);
+            visitChild(statementNode);
         }
     }
 
     @Override
     public void visit(DeclarationNode declarationNode) {
         for (VariableDeclarationNode vdn : declarationNode.variableDeclarations) {
-            vdn.acceptVisit(this);
+            visitChild(vdn);
         }
 
         for (ProcedureDeclarationNode pdn : declarationNode.procedureDeclarations) {
-            pdn.acceptVisit(this);
+            visitChild(pdn);
         }
     }
 
     @Override
     public void visit(DoUntilNode doUntilNode) {
-        doUntilNode.condition.acceptVisit(this);
-        doUntilNode.childStatement.acceptVisit(this);
+        visitChild(doUntilNode.condition);
+        visitChild(doUntilNode.childStatement);
     }
 
     @Override
     public void visit(ForNode forNode) {
-        forNode.assignNode.acceptVisit(this);
-        forNode.body.acceptVisit(this);
-        forNode.bound.acceptVisit(this);
+        visitChild(forNode.assignNode);
+        visitChild(forNode.body);
+        visitChild(forNode.bound);
     }
 
     @Override
     public void visit(IfStatementNode ifStatementNode) {
-        ifStatementNode.condition.acceptVisit(this);
-        ifStatementNode.thenStatement.acceptVisit(this);
-        ifStatementNode.elseStatement.ifPresent(es -> es.acceptVisit(this));
+        visitChild(ifStatementNode.condition);
+        visitChild(ifStatementNode.thenStatement);
+        ifStatementNode.elseStatement.ifPresent(this::visitChild);
     }
 
     @Override
@@ -90,8 +105,8 @@ public abstract class ThoroughVisitor extends NodeVisitor {
 
     @Override
     public void visit(OrElseNode orElseNode) {
-        orElseNode.left.acceptVisit(this);
-        orElseNode.right.acceptVisit(this);
+        visitChild(orElseNode.left);
+        visitChild(orElseNode.right);
     }
 
     @Override
@@ -100,12 +115,12 @@ public abstract class ThoroughVisitor extends NodeVisitor {
 
     @Override
     public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
-        procedureDeclarationNode.blockNode.acceptVisit(this);
+        visitChild(procedureDeclarationNode.blockNode);
     }
 
     @Override
     public void visit(ProgramNode programNode) {
-        programNode.blockNode.acceptVisit(this);
+        visitChild(programNode.blockNode);
     }
 
     @Override
@@ -114,7 +129,7 @@ public abstract class ThoroughVisitor extends NodeVisitor {
 
     @Override
     public void visit(UnaryOpNode unaryOpNode) {
-        unaryOpNode.child.acceptVisit(this);
+        visitChild(unaryOpNode.child);
     }
 
     @Override
@@ -131,7 +146,7 @@ public abstract class ThoroughVisitor extends NodeVisitor {
 
     @Override
     public void visit(WhileNode whileNode) {
-        whileNode.condition.acceptVisit(this);
-        whileNode.childStatement.acceptVisit(this);
+        visitChild(whileNode.condition);
+        visitChild(whileNode.childStatement);
     }
 }
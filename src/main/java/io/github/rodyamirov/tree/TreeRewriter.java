@@ -0,0 +1,572 @@
+package io.github.rodyamirov.tree;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The rewriting counterpart to ThoroughVisitor. Since the SyntaxTree classes are immutable, a
+ * pass which wants to change the tree has to build a new one; this walks the whole tree, and
+ * by default gives back each node unchanged, or a copy of it if any of its children changed.
+ * Extending classes override the few visit methods they care about and report what should take
+ * the node's place with replaceWith.
+ *
+ * The walking is done as a WorklistVisitor does it, so however deeply the tree is nested, nothing
+ * recurses: a visit asks for its children with rewriteChild, and picks up what they became with
+ * rewritten, in a then step. An override which calls super.visit and then wants to look at the
+ * result with replacement() has to do that in a then step of its own.
+ *
+ * Copies keep everything earlier passes stamped on the originals (scopes, types, operations,
+ * slots), so a rewrite can happen at any point after parsing.
+ */
+public abstract class TreeRewriter extends WorklistVisitor {
+    // a frame for each node being rewritten, innermost last: where its children's results start,
+    // and what it's to be replaced with so far
+    private int[] frameStarts = new int[16];
+    private SyntaxTree[] frameReplacements = new SyntaxTree[16];
+    private int frameCount = 0;
+
+    // the children rewritten so far, and what each was rewritten to
+    private SyntaxTree[] originals = new SyntaxTree[16];
+    private SyntaxTree[] results = new SyntaxTree[16];
+    private int resultCount = 0;
+
+    /**
+     * Records what should take the place of the node currently being visited.
+     *
+     * @param replacement The new node; may be the one being visited
+     */
+    protected final void replaceWith(SyntaxTree replacement) {
+        checkFrame();
+        frameReplacements[frameCount - 1] = replacement;
+    }
+
+    /**
+     * The replacement recorded so far for the node currently being visited; useful for an
+     * override which calls super.visit and then, in a then step, looks at the rewritten children.
+     */
+    protected final SyntaxTree replacement() {
+        checkFrame();
+        return frameReplacements[frameCount - 1];
+    }
+
+    private void checkFrame() {
+        if (frameCount == 0) {
+            throw new IllegalStateException("Nothing is being rewritten; start with rewrite");
+        }
+    }
+
+    /**
+     * Rewrites a child of the node being visited, after everything already asked for; a then
+     * step can get the result from rewritten.
+     */
+    protected final void rewriteChild(SyntaxTree child) {
+        then(this::openFrame);
+        visitChild(child);
+        then(() -> closeFrame(child));
+    }
+
+    private void openFrame() {
+        if (frameCount == frameStarts.length) {
+            frameStarts = Arrays.copyOf(frameStarts, frameCount * 2);
+            frameReplacements = Arrays.copyOf(frameReplacements, frameCount * 2);
+        }
+
+        frameStarts[frameCount] = resultCount;
+        frameReplacements[frameCount] = null;
+        frameCount += 1;
+    }
+
+    private void closeFrame(SyntaxTree child) {
+        frameCount -= 1;
+        SyntaxTree replacement = frameReplacements[frameCount];
+        frameReplacements[frameCount] = null;
+
+        if (replacement == null) {
+            String message = String.format(
+                    "%s did not supply a replacement for %s",
+                    getClass().getSimpleName(), child.getClass().getSimpleName()
+            );
+            throw new IllegalStateException(message);
+        }
+
+        // the child's own children are done with
+        Arrays.fill(originals, frameStarts[frameCount], resultCount, null);
+        Arrays.fill(results, frameStarts[frameCount], resultCount, null);
+        resultCount = frameStarts[frameCount];
+
+        if (resultCount == originals.length) {
+            originals = Arrays.copyOf(originals, resultCount * 2);
+            results = Arrays.copyOf(results, resultCount * 2);
+        }
+
+        originals[resultCount] = child;
+        results[resultCount] = replacement;
+        resultCount += 1;
+    }
+
+    private SyntaxTree take(SyntaxTree child) {
+        for (int i = frameStarts[frameCount - 1]; i < resultCount; i++) {
+            if (originals[i] == child) {
+                // a node can turn up twice, and each time has its own result
+                originals[i] = null;
+                return results[i];
+            }
+        }
+
+        String message = String.format("%s was not rewritten", child.getClass().getSimpleName());
+        throw new IllegalStateException(message);
+    }
+
+    protected final ExpressionNode rewritten(ExpressionNode expressionNode) {
+        return (ExpressionNode) take(expressionNode);
+    }
+
+    protected final StatementNode rewritten(StatementNode statementNode) {
+        return (StatementNode) take(statementNode);
+    }
+
+    protected final BlockNode rewritten(BlockNode blockNode) {
+        return (BlockNode) take(blockNode);
+    }
+
+    protected final AssignNode rewritten(AssignNode assignNode) {
+        return (AssignNode) take(assignNode);
+    }
+
+    protected final DeclarationNode rewritten(DeclarationNode declarationNode) {
+        return (DeclarationNode) take(declarationNode);
+    }
+
+    protected final ProcedureDeclarationNode rewritten(ProcedureDeclarationNode procedureDeclarationNode) {
+        return (ProcedureDeclarationNode) take(procedureDeclarationNode);
+    }
+
+    // a block's body has to stay a compound statement, whatever it was rewritten to
+    protected final CompoundNode rewritten(CompoundNode compoundNode) {
+        return asCompound(compoundNode, (StatementNode) take(compoundNode));
+    }
+
+    private static CompoundNode asCompound(CompoundNode original, StatementNode out) {
+        if (out instanceof CompoundNode) {
+            return (CompoundNode) out;
+        }
+
+        return copyAnnotations(original, new CompoundNode(ImmutableList.of(out)));
+    }
+
+    // rewrites a whole tree, start to finish; not for use in the middle of a walk
+    private SyntaxTree rewriteNow(SyntaxTree syntaxTree) {
+        if (isWalking()) {
+            String message = String.format(
+                    "%s is in the middle of a walk; use rewriteChild and rewritten",
+                    getClass().getSimpleName()
+            );
+            throw new IllegalStateException(message);
+        }
+
+        int outerFrames = frameCount;
+        int outerResults = resultCount;
+        openFrame();
+
+        try {
+            rewriteChild(syntaxTree);
+            return take(syntaxTree);
+        } finally {
+            Arrays.fill(frameReplacements, outerFrames, frameCount, null);
+            Arrays.fill(originals, outerResults, resultCount, null);
+            Arrays.fill(results, outerResults, resultCount, null);
+            frameCount = outerFrames;
+            resultCount = outerResults;
+        }
+    }
+
+    public final ProgramNode rewrite(ProgramNode programNode) {
+        return (ProgramNode) rewriteNow(programNode);
+    }
+
+    protected final ExpressionNode rewrite(ExpressionNode expressionNode) {
+        return (ExpressionNode) rewriteNow(expressionNode);
+    }
+
+    protected final StatementNode rewrite(StatementNode statementNode) {
+        return (StatementNode) rewriteNow(statementNode);
+    }
+
+    protected final BlockNode rewrite(BlockNode blockNode) {
+        return (BlockNode) rewriteNow(blockNode);
+    }
+
+    protected final AssignNode rewrite(AssignNode assignNode) {
+        return (AssignNode) rewriteNow(assignNode);
+    }
+
+    protected final CompoundNode rewrite(CompoundNode compoundNode) {
+        return asCompound(compoundNode, (StatementNode) rewriteNow(compoundNode));
+    }
+
+    /**
+     * Copies everything a node could have picked up from earlier passes onto its replacement.
+     *
+     * @param from The original node
+     * @param to The node taking its place
+     * @return to, for convenience
+     */
+    protected static <T extends SyntaxTree> T copyAnnotations(SyntaxTree from, T to) {
+        to.scope = from.scope;
+
+        if (from instanceof ExpressionNode && to instanceof ExpressionNode) {
+            ((ExpressionNode) to).outputType = ((ExpressionNode) from).outputType;
+        }
+
+        if (from instanceof BinOpNode && to instanceof BinOpNode) {
+            ((BinOpNode) to).operation = ((BinOpNode) from).operation;
+            ((BinOpNode) to).function = ((BinOpNode) from).function;
+        }
+
+        if (from instanceof UnaryOpNode && to instanceof UnaryOpNode) {
+            ((UnaryOpNode) to).operation = ((UnaryOpNode) from).operation;
+            ((UnaryOpNode) to).function = ((UnaryOpNode) from).function;
+        }
+
+        if (from instanceof VariableAssignNode && to instanceof VariableAssignNode) {
+            ((VariableAssignNode) to).variableType = ((VariableAssignNode) from).variableType;
+        }
+
+        if (from instanceof ForNode && to instanceof ForNode) {
+            ((ForNode) to).lockFree = ((ForNode) from).lockFree;
+        }
+
+        return to;
+    }
+
+    @Override
+    public void visit(AndThenNode andThenNode) {
+        rewriteChild(andThenNode.left);
+        rewriteChild(andThenNode.right);
+
+        then(() -> {
+            ExpressionNode left = rewritten(andThenNode.left);
+            ExpressionNode right = rewritten(andThenNode.right);
+
+            if (left == andThenNode.left && right == andThenNode.right) {
+                replaceWith(andThenNode);
+            } else {
+                replaceWith(copyAnnotations(andThenNode, new AndThenNode(left, right)));
+            }
+        });
+    }
+
+    @Override
+    public void visit(AssignNode assignNode) {
+        rewriteChild(assignNode.expressionNode);
+
+        then(() -> {
+            ExpressionNode expressionNode = rewritten(assignNode.expressionNode);
+
+            if (expressionNode == assignNode.expressionNode) {
+                replaceWith(assignNode);
+            } else {
+                replaceWith(copyAnnotations(
+                        assignNode,
+                        new AssignNode(assignNode.variableAssignNode, expressionNode)
+                ));
+            }
+        });
+    }
+
+    @Override
+    public void visit(BinOpNode binOpNode) {
+        rewriteChild(binOpNode.left);
+        rewriteChild(binOpNode.right);
+
+        then(() -> {
+            ExpressionNode left = rewritten(binOpNode.left);
+            ExpressionNode right = rewritten(binOpNode.right);
+
+            if (left == binOpNode.left && right == binOpNode.right) {
+                replaceWith(binOpNode);
+            } else {
+                replaceWith(copyAnnotations(binOpNode, new BinOpNode(left, right, binOpNode.opToken)));
+            }
+        });
+    }
+
+    @Override
+    public void visit(BlockNode blockNode) {
+        rewriteChild(blockNode.declarationNode);
+        rewriteChild(blockNode.compoundNode);
+
+        then(() -> {
+            DeclarationNode declarationNode = rewritten(blockNode.declarationNode);
+            CompoundNode compoundNode = rewritten(blockNode.compoundNode);
+
+            if (declarationNode == blockNode.declarationNode && compoundNode == blockNode.compoundNode) {
+                replaceWith(blockNode);
+            } else {
+                replaceWith(copyAnnotations(blockNode, new BlockNode(declarationNode, compoundNode)));
+            }
+        });
+    }
+
+    @Override
+    public void visit(BooleanConstantNode booleanConstantNode) {
+        replaceWith(booleanConstantNode);
+    }
+
+    @Override
+    public void visit(CompoundNode compoundNode) {
+        for (StatementNode statementNode : compoundNode.statements) {
+            rewriteChild(statementNode);
+        }
+
+        then(() -> {
+            List<StatementNode> statements = new ArrayList<>(compoundNode.statements.size());
+            boolean changed = false;
+
+            for (StatementNode statementNode : compoundNode.statements) {
+                StatementNode rewritten = rewritten(statementNode);
+                changed |= rewritten != statementNode;
+                statements.add(rewritten);
+            }
+
+            if (changed) {
+                replaceWith(copyAnnotations(compoundNode, new CompoundNode(statements)));
+            } else {
+                replaceWith(compoundNode);
+            }
+        });
+    }
+
+    @Override
+    public void visit(DeclarationNode declarationNode) {
+        for (ProcedureDeclarationNode procedure : declarationNode.procedureDeclarations) {
+            rewriteChild(procedure);
+        }
+
+        then(() -> {
+            List<ProcedureDeclarationNode> procedures = new ArrayList<>(declarationNode.procedureDeclarations.size());
+            boolean changed = false;
+
+            for (ProcedureDeclarationNode procedure : declarationNode.procedureDeclarations) {
+                ProcedureDeclarationNode rewritten = rewritten(procedure);
+                changed |= rewritten != procedure;
+                procedures.add(rewritten);
+            }
+
+            if (changed) {
+                replaceWith(copyAnnotations(
+                        declarationNode,
+                        new DeclarationNode(declarationNode.variableDeclarations, procedures)
+                ));
+            } else {
+                replaceWith(declarationNode);
+            }
+        });
+    }
+
+    @Override
+    public void visit(DoUntilNode doUntilNode) {
+        rewriteChild(doUntilNode.condition);
+        rewriteChild(doUntilNode.childStatement);
+
+        then(() -> {
+            ExpressionNode condition = rewritten(doUntilNode.condition);
+            StatementNode childStatement = rewritten(doUntilNode.childStatement);
+
+            if (condition == doUntilNode.condition && childStatement == doUntilNode.childStatement) {
+                replaceWith(doUntilNode);
+            } else {
+                replaceWith(copyAnnotations(doUntilNode, new DoUntilNode(condition, childStatement)));
+            }
+        });
+    }
+
+    @Override
+    public void visit(ForNode forNode) {
+        rewriteChild(forNode.assignNode);
+        rewriteChild(forNode.bound);
+        rewriteChild(forNode.body);
+
+        then(() -> {
+            AssignNode assignNode = rewritten(forNode.assignNode);
+            ExpressionNode bound = rewritten(forNode.bound);
+            StatementNode body = rewritten(forNode.body);
+
+            if (assignNode == forNode.assignNode && bound == forNode.bound && body == forNode.body) {
+                replaceWith(forNode);
+                return;
+            }
+
+            ForNode out;
+            switch (forNode.direction) {
+                case FORWARD:
+                    out = ForNode.Forward(assignNode, bound, body);
+                    break;
+
+                case BACKWARD:
+                    out = ForNode.Backward(assignNode, bound, body);
+                    break;
+
+                default:
+                    String message = String.format("Unrecognized direction %s for a for-loop", forNode.direction);
+                    throw new IllegalStateException(message);
+            }
+
+            replaceWith(copyAnnotations(forNode, out));
+        });
+    }
+
+    @Override
+    public void visit(IfStatementNode ifStatementNode) {
+        rewriteChild(ifStatementNode.condition);
+        rewriteChild(ifStatementNode.thenStatement);
+        ifStatementNode.elseStatement.ifPresent(this::rewriteChild);
+
+        then(() -> {
+            ExpressionNode condition = rewritten(ifStatementNode.condition);
+            StatementNode thenStatement = rewritten(ifStatementNode.thenStatement);
+            Optional<StatementNode> elseStatement = ifStatementNode.elseStatement.map(this::rewritten);
+
+            boolean unchanged = condition == ifStatementNode.condition
+                    && thenStatement == ifStatementNode.thenStatement
+                    && elseStatement.orElse(null) == ifStatementNode.elseStatement.orElse(null);
+
+            if (unchanged) {
+                replaceWith(ifStatementNode);
+            } else if (elseStatement.isPresent()) {
+                replaceWith(copyAnnotations(
+                        ifStatementNode,
+                        new IfStatementNode(condition, thenStatement, elseStatement.get())
+                ));
+            } else {
+                replaceWith(copyAnnotations(ifStatementNode, new IfStatementNode(condition, thenStatement)));
+            }
+        });
+    }
+
+    @Override
+    public void visit(IntConstantNode intConstantNode) {
+        replaceWith(intConstantNode);
+    }
+
+    @Override
+    public void visit(LoopControlNode loopControlNode) {
+        replaceWith(loopControlNode);
+    }
+
+    @Override
+    public void visit(NoOpNode noOpNode) {
+        replaceWith(noOpNode);
+    }
+
+    @Override
+    public void visit(OrElseNode orElseNode) {
+        rewriteChild(orElseNode.left);
+        rewriteChild(orElseNode.right);
+
+        then(() -> {
+            ExpressionNode left = rewritten(orElseNode.left);
+            ExpressionNode right = rewritten(orElseNode.right);
+
+            if (left == orElseNode.left && right == orElseNode.right) {
+                replaceWith(orElseNode);
+            } else {
+                replaceWith(copyAnnotations(orElseNode, new OrElseNode(left, right)));
+            }
+        });
+    }
+
+    @Override
+    public void visit(ProcedureCallNode procedureCallNode) {
+        replaceWith(procedureCallNode);
+    }
+
+    @Override
+    public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
+        rewriteChild(procedureDeclarationNode.blockNode);
+
+        then(() -> {
+            BlockNode blockNode = rewritten(procedureDeclarationNode.blockNode);
+
+            if (blockNode == procedureDeclarationNode.blockNode) {
+                replaceWith(procedureDeclarationNode);
+            } else {
+                replaceWith(copyAnnotations(
+                        procedureDeclarationNode,
+                        new ProcedureDeclarationNode(procedureDeclarationNode.name, blockNode)
+                ));
+            }
+        });
+    }
+
+    @Override
+    public void visit(ProgramNode programNode) {
+        rewriteChild(programNode.blockNode);
+
+        then(() -> {
+            BlockNode blockNode = rewritten(programNode.blockNode);
+
+            if (blockNode == programNode.blockNode) {
+                replaceWith(programNode);
+            } else {
+                replaceWith(copyAnnotations(programNode, new ProgramNode(programNode.name, blockNode)));
+            }
+        });
+    }
+
+    @Override
+    public void visit(RealConstantNode realConstantNode) {
+        replaceWith(realConstantNode);
+    }
+
+    @Override
+    public void visit(UnaryOpNode unaryOpNode) {
+        rewriteChild(unaryOpNode.child);
+
+        then(() -> {
+            ExpressionNode child = rewritten(unaryOpNode.child);
+
+            if (child == unaryOpNode.child) {
+                replaceWith(unaryOpNode);
+            } else {
+                replaceWith(copyAnnotations(unaryOpNode, new UnaryOpNode(child, unaryOpNode.opToken)));
+            }
+        });
+    }
+
+    @Override
+    public void visit(VariableAssignNode variableAssignNode) {
+        replaceWith(variableAssignNode);
+    }
+
+    @Override
+    public void visit(VariableDeclarationNode variableDeclarationNode) {
+        replaceWith(variableDeclarationNode);
+    }
+
+    @Override
+    public void visit(VariableEvalNode variableEvalNode) {
+        replaceWith(variableEvalNode);
+    }
+
+    @Override
+    public void visit(WhileNode whileNode) {
+        rewriteChild(whileNode.condition);
+        rewriteChild(whileNode.childStatement);
+
+        then(() -> {
+            ExpressionNode condition = rewritten(whileNode.condition);
+            StatementNode childStatement = rewritten(whileNode.childStatement);
+
+            if (condition == whileNode.condition && childStatement == whileNode.childStatement) {
+                replaceWith(whileNode);
+            } else {
+                replaceWith(copyAnnotations(whileNode, new WhileNode(condition, childStatement)));
+            }
+        });
+    }
+}
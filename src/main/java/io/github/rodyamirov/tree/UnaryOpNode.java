@@ -5,6 +5,7 @@ import com.google.common.collect.ImmutableSet;
 import io.github.rodyamirov.lex.Token;
 import io.github.rodyamirov.symbols.SymbolValue;
 import io.github.rodyamirov.symbols.SymbolValueOps;
+import io.github.rodyamirov.symbols.TypeSpec;
 
 import java.util.Objects;
 import java.util.function.Function;
@@ -15,7 +16,52 @@ import java.util.function.Function;
 public final class UnaryOpNode extends ExpressionNode {
     public final ExpressionNode child;
     public final Token opToken;
-    public final Function<SymbolValue, SymbolValue> function;
+
+    // starts out generic; the TypeChecker swaps in the specialized version from the operation
+    public Function<SymbolValue, SymbolValue> function;
+
+    // chosen by the TypeChecker once the operand type is known; null before that
+    public Operation operation = null;
+
+    /**
+     * An operator specialized to the type of its operand.
+     */
+    public enum Operation {
+        IDENTITY_INTEGER(Token.Type.PLUS, TypeSpec.INTEGER, a -> a),
+        IDENTITY_REAL(Token.Type.PLUS, TypeSpec.REAL, a -> a),
+        NEGATE_INTEGER(Token.Type.MINUS, TypeSpec.INTEGER, SymbolValueOps::negateInteger),
+        NEGATE_REAL(Token.Type.MINUS, TypeSpec.REAL, SymbolValueOps::negateReal),
+        NOT_BOOLEAN(Token.Type.NOT, TypeSpec.BOOLEAN, SymbolValueOps::notBoolean);
+
+        public final Token.Type opType;
+        public final TypeSpec operandType;
+        public final Function<SymbolValue, SymbolValue> function;
+
+        Operation(Token.Type opType, TypeSpec operandType, Function<SymbolValue, SymbolValue> function) {
+            this.opType = opType;
+            this.operandType = operandType;
+            this.function = function;
+        }
+
+        /**
+         * Finds the specialized version of an operator.
+         *
+         * @param opType The operator
+         * @param operandType The type of the operand
+         * @return The matching operation
+         * @throws IllegalArgumentException if the operator is not defined on that type
+         */
+        public static Operation select(Token.Type opType, TypeSpec operandType) {
+            for (Operation operation : values()) {
+                if (operation.opType == opType && operation.operandType == operandType) {
+                    return operation;
+                }
+            }
+
+            String message = String.format("No operation %s is defined on type %s", opType, operandType);
+            throw new IllegalArgumentException(message);
+        }
+    }
 
     // static it up
     private static final ImmutableMap<Token.Type, Function<SymbolValue, SymbolValue>> evaluations =
@@ -12,6 +12,10 @@ public final class VariableAssignNode extends SyntaxTree {
     public final Token<String> idToken;
     public TypeSpec variableType;
 
+    // where the value lives at runtime; filled in by SlotResolver, -1 until then
+    public int frameDepth = -1;
+    public int slotIndex = -1;
+
     public VariableAssignNode(Token<String> idToken) {
         if (idToken == null || idToken.type != Token.Type.ID) {
             throw new IllegalArgumentException("idToken must be nonnull and of type ID");
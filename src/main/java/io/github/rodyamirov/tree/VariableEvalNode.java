@@ -10,6 +10,10 @@ import java.util.Objects;
 public final class VariableEvalNode extends TerminalExpressionNode {
     public final Token<String> idToken;
 
+    // where the value lives at runtime; filled in by SlotResolver, -1 until then
+    public int frameDepth = -1;
+    public int slotIndex = -1;
+
     public VariableEvalNode(Token<String> idToken) {
         if (idToken == null || idToken.type != Token.Type.ID) {
             throw new IllegalArgumentException("idToken must be nonnull and of type ID");
@@ -0,0 +1,113 @@
+package io.github.rodyamirov.tree;
+
+import java.util.Arrays;
+
+/**
+ * A visitor which never recurses, so that a tree can be nested as deeply as the heap allows.
+ * Instead of visiting a node's children itself, a visit asks for them with visitChild, and for
+ * anything which has to happen after one of them with then; once the visit returns, all of it
+ * happens in the order it was asked for, off a stack of our own.
+ *
+ * So a visit reads much like a recursive one, except that anything which has to wait for a
+ * child, including looking at whatever the child left behind, goes in a then step. A step can
+ * ask for more children and steps in turn; they happen right after it, before anything which
+ * was asked for earlier.
+ *
+ * Outside of a walk -- when a node is handed this visitor directly, say -- a child is walked
+ * completely as soon as it's asked for, and a step runs at once, which comes to the same thing.
+ */
+public abstract class WorklistVisitor extends NodeVisitor {
+    // what is left to do, next on top: nodes to visit, and steps to run, each with the depth of the
+    // node it belongs to
+    private Object[] work = new Object[16];
+    private int[] depths = new int[16];
+    private int size = 0;
+    private boolean walking = false;
+
+    private int depth = 0;
+    private int maxDepth = 0;
+
+    /**
+     * Visits the child after everything the current visit or step has already asked for.
+     */
+    protected final void visitChild(SyntaxTree child) {
+        if (walking) {
+            push(child, depth + 1);
+        } else {
+            walk(child);
+        }
+    }
+
+    /**
+     * Runs the step after everything the current visit or step has already asked for.
+     */
+    protected final void then(Runnable step) {
+        if (walking) {
+            push(step, depth);
+        } else {
+            step.run();
+        }
+    }
+
+    protected final boolean isWalking() {
+        return walking;
+    }
+
+    /**
+     * The number of nodes on the longest path down from the root of the last walk, counting both
+     * ends.
+     */
+    final int walkedHeight() {
+        return maxDepth;
+    }
+
+    final void walk(SyntaxTree root) {
+        walking = true;
+        maxDepth = 0;
+        push(root, 1);
+
+        try {
+            while (size > 0) {
+                size -= 1;
+                Object next = work[size];
+                work[size] = null;
+                depth = depths[size];
+
+                int start = size;
+                if (next instanceof SyntaxTree) {
+                    maxDepth = Math.max(maxDepth, depth);
+                    ((SyntaxTree) next).acceptVisit(this);
+                } else {
+                    ((Runnable) next).run();
+                }
+
+                // what that asked for went on first to last, but has to come off the same way
+                for (int i = start, j = size - 1; i < j; i++, j--) {
+                    Object swap = work[i];
+                    work[i] = work[j];
+                    work[j] = swap;
+
+                    int swapDepth = depths[i];
+                    depths[i] = depths[j];
+                    depths[j] = swapDepth;
+                }
+            }
+        } finally {
+            Arrays.fill(work, 0, size, null);
+            size = 0;
+            depth = 0;
+            walking = false;
+        }
+    }
+
+    private void push(Object next, int nextDepth) {
+        if (size == work.length) {
+            work = Arrays.copyOf(work, size * 2);
+            depths = Arrays.copyOf(depths, size * 2);
+        }
+
+        work[size] = next;
+        depths[size] = nextDepth;
+        size += 1;
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.rodyamirov.vm;
+
+import com.google.common.collect.ImmutableList;
+import io.github.rodyamirov.symbols.Scope;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The compiled code for one block: the program's, or a single procedure's. Variables stay in the
+ * Frame for the chunk's scope; registers only hold intermediate values and loop bookkeeping, and
+ * every activation of the chunk gets a fresh set of them.
+ */
+public final class Chunk {
+    public final String name;
+    public final Scope scope;
+    public final int registerCount;
+
+    // procedure names for FAIL_UNDEFINED
+    public final ImmutableList<String> names;
+
+    // read directly by the VirtualMachine; never modified after construction
+    final int[] code;
+    final int[] constants;
+
+    Chunk(String name, Scope scope, int registerCount, int[] code, int[] constants, List<String> names) {
+        this.name = name;
+        this.scope = scope;
+        this.registerCount = registerCount;
+        this.code = code.clone();
+        this.constants = constants.clone();
+        this.names = ImmutableList.copyOf(names);
+    }
+
+    public int[] getCode() {
+        return code.clone();
+    }
+
+    public int[] getConstants() {
+        return constants.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || !(o instanceof Chunk)) {
+            return false;
+        }
+
+        Chunk other = (Chunk)o;
+
+        return Objects.equals(this.name, other.name)
+                && Objects.equals(this.scope, other.scope)
+                && this.registerCount == other.registerCount
+                && Arrays.equals(this.code, other.code)
+                && Arrays.equals(this.constants, other.constants)
+                && Objects.equals(this.names, other.names);
+    }
+
+    @Override
+    public int hashCode() {
+        int out = Objects.hashCode(name);
+        out = 43 * out + Objects.hashCode(scope);
+        out = 43 * out + registerCount;
+        out = 43 * out + Arrays.hashCode(code);
+        out = 43 * out + Arrays.hashCode(constants);
+        out = 43 * out + names.hashCode();
+        return out;
+    }
+}
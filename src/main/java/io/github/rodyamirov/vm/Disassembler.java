@@ -0,0 +1,51 @@
+package io.github.rodyamirov.vm;
+
+/**
+ * Renders a VmProgram as text, one instruction per line, for debugging the VmCompiler.
+ */
+public final class Disassembler {
+    private Disassembler() {
+        // static class
+    }
+
+    public static String disassemble(VmProgram vmProgram) {
+        StringBuilder out = new StringBuilder();
+
+        for (int i = 0; i < vmProgram.chunks.size(); i++) {
+            Chunk chunk = vmProgram.chunks.get(i);
+
+            out.append(String.format(
+                    "chunk %d: %s (%s), %d registers%n",
+                    i, chunk.name, chunk.scope, chunk.registerCount
+            ));
+
+            disassemble(chunk, out);
+        }
+
+        return out.toString();
+    }
+
+    private static void disassemble(Chunk chunk, StringBuilder out) {
+        int[] code = chunk.code;
+        int pc = 0;
+
+        while (pc < code.length) {
+            int opcode = code[pc];
+            out.append(String.format("%04d  %-14s", pc, Opcode.name(opcode)));
+
+            int operands = Opcode.operandCount(opcode);
+            for (int i = 1; i <= operands; i++) {
+                out.append(' ').append(code[pc + i]);
+            }
+
+            if (opcode == Opcode.CONST) {
+                out.append("    ; ").append(chunk.constants[code[pc + 2]]);
+            } else if (opcode == Opcode.FAIL_UNDEFINED) {
+                out.append("    ; ").append(chunk.names.get(code[pc + 1]));
+            }
+
+            out.append(String.format("%n"));
+            pc += 1 + operands;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package io.github.rodyamirov.vm;
+
+/**
+ * The instruction set of the VirtualMachine. An instruction is an opcode followed by a fixed
+ * number of int operands, all laid out flat in a chunk's code array. Operands name registers
+ * (r), constant pool entries (k), frame depths and slots, code offsets, or chunks.
+ *
+ * INTEGER and BOOLEAN values sit in registers as ints (booleans as 0 or 1); REAL values sit there
+ * as their float bits. The opcodes are plain int constants, rather than an enum, so the dispatch
+ * loop can switch on them directly.
+ */
+public final class Opcode {
+    // r[dst] := k[index]
+    public static final int CONST = 0;
+    // r[dst] := r[src]
+    public static final int MOVE = 1;
+
+    // r[dst] := the variable at (depth, slot)
+    public static final int LOAD_I = 2;
+    public static final int LOAD_F = 3;
+    public static final int LOAD_B = 4;
+
+    // the variable at (depth, slot) := r[src]
+    public static final int STORE_I = 5;
+    public static final int STORE_F = 6;
+    public static final int STORE_B = 7;
+
+    // r[dst] := r[a] op r[b]
+    public static final int ADD_I = 8;
+    public static final int SUB_I = 9;
+    public static final int MUL_I = 10;
+    public static final int DIV_I = 11;
+    public static final int MOD_I = 12;
+    public static final int ADD_F = 13;
+    public static final int SUB_F = 14;
+    public static final int MUL_F = 15;
+    public static final int DIV_F = 16;
+
+    public static final int LT_I = 17;
+    public static final int LE_I = 18;
+    public static final int GT_I = 19;
+    public static final int GE_I = 20;
+    public static final int EQ_I = 21;
+    public static final int NE_I = 22;
+    public static final int LT_F = 23;
+    public static final int LE_F = 24;
+    public static final int GT_F = 25;
+    public static final int GE_F = 26;
+    public static final int EQ_F = 27;
+    public static final int NE_F = 28;
+
+    public static final int AND = 29;
+    public static final int OR = 30;
+
+    // r[dst] := op r[src]
+    public static final int NEG_I = 31;
+    public static final int NEG_F = 32;
+    public static final int NOT = 33;
+    public static final int I2F = 34;
+
+    // r[reg] := r[reg] + amount
+    public static final int INC_I = 35;
+
+    // pc := target; conditional jumps test r[a] (and r[b])
+    public static final int JUMP = 36;
+    public static final int JUMP_IF_FALSE = 37;
+    public static final int JUMP_IF_TRUE = 38;
+    public static final int JUMP_IF_EQ_I = 39;
+
+    // lock or unlock the variable at (depth, slot)
+    public static final int LOCK = 40;
+    public static final int UNLOCK = 41;
+
+    // run the specified chunk with its own registers and a fresh activation frame, linked to the
+    // frame the given depth up from the caller's; then come back
+    public static final int CALL = 42;
+    // record that the procedure compiled into the specified chunk is declared in the given slot
+    public static final int DECLARE = 43;
+    // throw, because the procedure named by names[index] was never declared
+    public static final int FAIL_UNDEFINED = 44;
+    // leave the current chunk; procedures clear their locals on the way out
+    public static final int RETURN = 45;
+    // like CALL, but the current chunk is done: clear its frame, then run the specified chunk in
+    // its place, so that it returns straight to our caller
+    public static final int TAIL_CALL = 46;
+
+    private static final String[] NAMES = {
+            "CONST", "MOVE",
+            "LOAD_I", "LOAD_F", "LOAD_B",
+            "STORE_I", "STORE_F", "STORE_B",
+            "ADD_I", "SUB_I", "MUL_I", "DIV_I", "MOD_I",
+            "ADD_F", "SUB_F", "MUL_F", "DIV_F",
+            "LT_I", "LE_I", "GT_I", "GE_I", "EQ_I", "NE_I",
+            "LT_F", "LE_F", "GT_F", "GE_F", "EQ_F", "NE_F",
+            "AND", "OR",
+            "NEG_I", "NEG_F", "NOT", "I2F",
+            "INC_I",
+            "JUMP", "JUMP_IF_FALSE", "JUMP_IF_TRUE", "JUMP_IF_EQ_I",
+            "LOCK", "UNLOCK",
+            "CALL", "DECLARE", "FAIL_UNDEFINED", "RETURN", "TAIL_CALL"
+    };
+
+    private static final int[] OPERAND_COUNTS = {
+            2, 2,
+            3, 3, 3,
+            3, 3, 3,
+            3, 3, 3, 3, 3,
+            3, 3, 3, 3,
+            3, 3, 3, 3, 3, 3,
+            3, 3, 3, 3, 3, 3,
+            3, 3,
+            2, 2, 2, 2,
+            2,
+            1, 2, 2, 3,
+            2, 2,
+            2, 2, 1, 0, 2
+    };
+
+    private Opcode() {
+        // static class
+    }
+
+    public static int count() {
+        return NAMES.length;
+    }
+
+    public static String name(int opcode) {
+        return NAMES[opcode];
+    }
+
+    public static int operandCount(int opcode) {
+        return OPERAND_COUNTS[opcode];
+    }
+}
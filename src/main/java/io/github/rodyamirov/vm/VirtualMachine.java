@@ -0,0 +1,412 @@
+package io.github.rodyamirov.vm;
+
+import io.github.rodyamirov.exceptions.VariableException;
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.symbols.Frame;
+import io.github.rodyamirov.symbols.FramePool;
+import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.SymbolValue;
+import io.github.rodyamirov.symbols.SymbolValueTable;
+import io.github.rodyamirov.symbols.TypeSpec;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.ThoroughVisitor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs a VmProgram. Everything happens in one loop which switches on the current opcode; there
+ * is no recursion on the Java stack, even for procedure calls, which push onto explicit arrays
+ * instead. The registers for every live activation share a single int array, each activation
+ * starting where its caller's registers end.
+ *
+ * Variables live in the same Frames the other engines use, and each call takes its activation
+ * frame from the same FramePools, so the resulting SymbolValueTable is exactly what the
+ * EvalVisitor would have produced.
+ */
+public final class VirtualMachine {
+    public static SymbolValueTable evaluateProgram(ProgramNode programNode, SymbolTable symbolTable) {
+        return run(VmCompiler.compile(programNode, symbolTable), programNode, symbolTable);
+    }
+
+    /**
+     * Runs the compiled program against a fresh SymbolValueTable. The tree is only needed for the
+     * values stored when the program and its procedures are declared.
+     *
+     * @param vmProgram The compiled program
+     * @param programNode The tree it was compiled from
+     * @param symbolTable The symbol table for that tree
+     * @return The values of all the variables once the program finishes
+     */
+    public static SymbolValueTable run(VmProgram vmProgram, ProgramNode programNode, SymbolTable symbolTable) {
+        SymbolValueTable symbolValueTable = new SymbolValueTable(symbolTable);
+
+        int nameSlot = symbolTable.getLayout(programNode.scope).slotOf(programNode.name);
+        symbolValueTable.getFrame(programNode.scope).set(nameSlot, SymbolValue.make(TypeSpec.PROGRAM, programNode));
+
+        new VirtualMachine(vmProgram, programNode, symbolValueTable).execute();
+        return symbolValueTable;
+    }
+
+    private final Chunk[] chunks;
+    private final Frame programFrame;
+    private final FramePool[] framePools;
+    private final SymbolValue[] declarations;
+
+    private int[] registers = new int[64];
+
+    // the suspended callers; the running chunk is not on here
+    private int[] callChunks = new int[16];
+    private int[] callPcs = new int[16];
+    private int[] callBases = new int[16];
+    private Frame[] callFrames = new Frame[16];
+    private int callDepth = 0;
+
+    private VirtualMachine(VmProgram vmProgram, ProgramNode programNode, SymbolValueTable symbolValueTable) {
+        Map<Scope, ProcedureDeclarationNode> procedures = new HashMap<>();
+        programNode.acceptVisit(new ThoroughVisitor() {
+            @Override
+            public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
+                procedures.put(procedureDeclarationNode.blockNode.scope, procedureDeclarationNode);
+                super.visit(procedureDeclarationNode);
+            }
+        });
+
+        int size = vmProgram.chunks.size();
+
+        this.chunks = vmProgram.chunks.toArray(new Chunk[size]);
+        this.programFrame = symbolValueTable.getFrame(chunks[0].scope);
+        this.framePools = new FramePool[size];
+        this.declarations = new SymbolValue[size];
+
+        // chunk 0 is the program, which only ever runs once, in its own frame
+        for (int i = 1; i < size; i++) {
+            framePools[i] = symbolValueTable.getFramePool(chunks[i].scope);
+
+            ProcedureDeclarationNode procedure = procedures.get(chunks[i].scope);
+            if (procedure != null) {
+                declarations[i] = SymbolValue.make(TypeSpec.PROCEDURE, procedure);
+            }
+        }
+    }
+
+    private void ensureRegisters(int needed) {
+        if (needed > registers.length) {
+            registers = Arrays.copyOf(registers, Math.max(needed, registers.length * 2));
+        }
+    }
+
+    private void pushCall(int chunkIndex, int pc, int base, Frame frame) {
+        if (callDepth == callChunks.length) {
+            callChunks = Arrays.copyOf(callChunks, callDepth * 2);
+            callPcs = Arrays.copyOf(callPcs, callDepth * 2);
+            callBases = Arrays.copyOf(callBases, callDepth * 2);
+            callFrames = Arrays.copyOf(callFrames, callDepth * 2);
+        }
+
+        callChunks[callDepth] = chunkIndex;
+        callPcs[callDepth] = pc;
+        callBases[callDepth] = base;
+        callFrames[callDepth] = frame;
+        callDepth += 1;
+    }
+
+    private void execute() {
+        int chunkIndex = 0;
+        Chunk chunk = chunks[0];
+        Frame frame = programFrame;
+        int[] code = chunk.code;
+        int[] constants = chunk.constants;
+
+        int base = 0;
+        int pc = 0;
+        ensureRegisters(chunk.registerCount);
+        int[] r = registers;
+
+        while (true) {
+            switch (code[pc]) {
+                case Opcode.CONST:
+                    r[base + code[pc + 1]] = constants[code[pc + 2]];
+                    pc += 3;
+                    break;
+
+                case Opcode.MOVE:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]];
+                    pc += 3;
+                    break;
+
+                case Opcode.LOAD_I:
+                    r[base + code[pc + 1]] = frame.ancestor(code[pc + 2]).getInt(code[pc + 3]);
+                    pc += 4;
+                    break;
+
+                case Opcode.LOAD_F:
+                    r[base + code[pc + 1]] = Float.floatToRawIntBits(frame.ancestor(code[pc + 2]).getReal(code[pc + 3]));
+                    pc += 4;
+                    break;
+
+                case Opcode.LOAD_B:
+                    r[base + code[pc + 1]] = frame.ancestor(code[pc + 2]).getBoolean(code[pc + 3]) ? 1 : 0;
+                    pc += 4;
+                    break;
+
+                case Opcode.STORE_I:
+                    frame.ancestor(code[pc + 1]).setInt(code[pc + 2], r[base + code[pc + 3]]);
+                    pc += 4;
+                    break;
+
+                case Opcode.STORE_F:
+                    frame.ancestor(code[pc + 1]).setReal(code[pc + 2], Float.intBitsToFloat(r[base + code[pc + 3]]));
+                    pc += 4;
+                    break;
+
+                case Opcode.STORE_B:
+                    frame.ancestor(code[pc + 1]).setBoolean(code[pc + 2], r[base + code[pc + 3]] != 0);
+                    pc += 4;
+                    break;
+
+                case Opcode.ADD_I:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]] + r[base + code[pc + 3]];
+                    pc += 4;
+                    break;
+
+                case Opcode.SUB_I:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]] - r[base + code[pc + 3]];
+                    pc += 4;
+                    break;
+
+                case Opcode.MUL_I:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]] * r[base + code[pc + 3]];
+                    pc += 4;
+                    break;
+
+                case Opcode.DIV_I:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]] / r[base + code[pc + 3]];
+                    pc += 4;
+                    break;
+
+                case Opcode.MOD_I:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]] % r[base + code[pc + 3]];
+                    pc += 4;
+                    break;
+
+                case Opcode.ADD_F:
+                    r[base + code[pc + 1]] = Float.floatToRawIntBits(real(r, base, code[pc + 2]) + real(r, base, code[pc + 3]));
+                    pc += 4;
+                    break;
+
+                case Opcode.SUB_F:
+                    r[base + code[pc + 1]] = Float.floatToRawIntBits(real(r, base, code[pc + 2]) - real(r, base, code[pc + 3]));
+                    pc += 4;
+                    break;
+
+                case Opcode.MUL_F:
+                    r[base + code[pc + 1]] = Float.floatToRawIntBits(real(r, base, code[pc + 2]) * real(r, base, code[pc + 3]));
+                    pc += 4;
+                    break;
+
+                case Opcode.DIV_F:
+                    r[base + code[pc + 1]] = Float.floatToRawIntBits(real(r, base, code[pc + 2]) / real(r, base, code[pc + 3]));
+                    pc += 4;
+                    break;
+
+                case Opcode.LT_I:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]] < r[base + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+
+                case Opcode.LE_I:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]] <= r[base + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+
+                case Opcode.GT_I:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]] > r[base + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+
+                case Opcode.GE_I:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]] >= r[base + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+
+                case Opcode.EQ_I:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]] == r[base + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+
+                case Opcode.NE_I:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]] != r[base + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+
+                case Opcode.LT_F:
+                    r[base + code[pc + 1]] = real(r, base, code[pc + 2]) < real(r, base, code[pc + 3]) ? 1 : 0;
+                    pc += 4;
+                    break;
+
+                case Opcode.LE_F:
+                    r[base + code[pc + 1]] = real(r, base, code[pc + 2]) <= real(r, base, code[pc + 3]) ? 1 : 0;
+                    pc += 4;
+                    break;
+
+                case Opcode.GT_F:
+                    r[base + code[pc + 1]] = real(r, base, code[pc + 2]) > real(r, base, code[pc + 3]) ? 1 : 0;
+                    pc += 4;
+                    break;
+
+                case Opcode.GE_F:
+                    r[base + code[pc + 1]] = real(r, base, code[pc + 2]) >= real(r, base, code[pc + 3]) ? 1 : 0;
+                    pc += 4;
+                    break;
+
+                case Opcode.EQ_F:
+                    r[base + code[pc + 1]] = real(r, base, code[pc + 2]) == real(r, base, code[pc + 3]) ? 1 : 0;
+                    pc += 4;
+                    break;
+
+                case Opcode.NE_F:
+                    r[base + code[pc + 1]] = real(r, base, code[pc + 2]) != real(r, base, code[pc + 3]) ? 1 : 0;
+                    pc += 4;
+                    break;
+
+                case Opcode.AND:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]] & r[base + code[pc + 3]];
+                    pc += 4;
+                    break;
+
+                case Opcode.OR:
+                    r[base + code[pc + 1]] = r[base + code[pc + 2]] | r[base + code[pc + 3]];
+                    pc += 4;
+                    break;
+
+                case Opcode.NEG_I:
+                    r[base + code[pc + 1]] = -r[base + code[pc + 2]];
+                    pc += 3;
+                    break;
+
+                case Opcode.NEG_F:
+                    r[base + code[pc + 1]] = Float.floatToRawIntBits(-real(r, base, code[pc + 2]));
+                    pc += 3;
+                    break;
+
+                case Opcode.NOT:
+                    r[base + code[pc + 1]] = 1 - r[base + code[pc + 2]];
+                    pc += 3;
+                    break;
+
+                case Opcode.I2F:
+                    r[base + code[pc + 1]] = Float.floatToRawIntBits((float) r[base + code[pc + 2]]);
+                    pc += 3;
+                    break;
+
+                case Opcode.INC_I:
+                    r[base + code[pc + 1]] += code[pc + 2];
+                    pc += 3;
+                    break;
+
+                case Opcode.JUMP:
+                    pc = code[pc + 1];
+                    break;
+
+                case Opcode.JUMP_IF_FALSE:
+                    pc = r[base + code[pc + 1]] == 0 ? code[pc + 2] : pc + 3;
+                    break;
+
+                case Opcode.JUMP_IF_TRUE:
+                    pc = r[base + code[pc + 1]] != 0 ? code[pc + 2] : pc + 3;
+                    break;
+
+                case Opcode.JUMP_IF_EQ_I:
+                    pc = r[base + code[pc + 1]] == r[base + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                    break;
+
+                case Opcode.LOCK:
+                    frame.ancestor(code[pc + 1]).lock(code[pc + 2]);
+                    pc += 3;
+                    break;
+
+                case Opcode.UNLOCK:
+                    frame.ancestor(code[pc + 1]).unlock(code[pc + 2]);
+                    pc += 3;
+                    break;
+
+                case Opcode.DECLARE:
+                    frame.set(code[pc + 1], declarations[code[pc + 2]]);
+                    pc += 3;
+                    break;
+
+                case Opcode.CALL: {
+                    int callee = code[pc + 1];
+                    Frame staticLink = frame.ancestor(code[pc + 2]);
+                    pushCall(chunkIndex, pc + 3, base, frame);
+
+                    base += chunk.registerCount;
+                    chunkIndex = callee;
+                    chunk = chunks[callee];
+                    frame = framePools[callee].enter(staticLink);
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    pc = 0;
+
+                    ensureRegisters(base + chunk.registerCount);
+                    r = registers;
+                    break;
+                }
+
+                case Opcode.TAIL_CALL: {
+                    int callee = code[pc + 1];
+                    Frame staticLink = frame.ancestor(code[pc + 2]);
+
+                    // nothing is pushed; the callee takes over our registers and our return
+                    framePools[chunkIndex].exit(frame);
+
+                    chunkIndex = callee;
+                    chunk = chunks[callee];
+                    frame = framePools[callee].enter(staticLink);
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    pc = 0;
+
+                    ensureRegisters(base + chunk.registerCount);
+                    r = registers;
+                    break;
+                }
+
+                case Opcode.FAIL_UNDEFINED:
+                    throw VariableException.notDefined(chunk.scope, Token.ID(chunk.names.get(code[pc + 1])));
+
+                case Opcode.RETURN:
+                    if (callDepth == 0) {
+                        return;
+                    }
+
+                    // locals should not persist between calls
+                    framePools[chunkIndex].exit(frame);
+
+                    callDepth -= 1;
+                    chunkIndex = callChunks[callDepth];
+                    pc = callPcs[callDepth];
+                    base = callBases[callDepth];
+                    frame = callFrames[callDepth];
+                    callFrames[callDepth] = null;
+
+                    chunk = chunks[chunkIndex];
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    break;
+
+                default:
+                    String message = String.format("Unrecognized opcode %d at %d in %s", code[pc], pc, chunk.name);
+                    throw new IllegalStateException(message);
+            }
+        }
+    }
+
+    private static float real(int[] registers, int base, int register) {
+        return Float.intBitsToFloat(registers[base + register]);
+    }
+}
@@ -0,0 +1,656 @@
+package io.github.rodyamirov.vm;
+
+import io.github.rodyamirov.exceptions.VariableException;
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.symbols.SlotResolver;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.TypeSpec;
+import io.github.rodyamirov.tree.AndThenNode;
+import io.github.rodyamirov.tree.AssignNode;
+import io.github.rodyamirov.tree.BinOpNode;
+import io.github.rodyamirov.tree.BlockNode;
+import io.github.rodyamirov.tree.BooleanConstantNode;
+import io.github.rodyamirov.tree.CompoundNode;
+import io.github.rodyamirov.tree.DeclarationNode;
+import io.github.rodyamirov.tree.DoUntilNode;
+import io.github.rodyamirov.tree.ExpressionNode;
+import io.github.rodyamirov.tree.ForNode;
+import io.github.rodyamirov.tree.IfStatementNode;
+import io.github.rodyamirov.tree.IntConstantNode;
+import io.github.rodyamirov.tree.LoopControlNode;
+import io.github.rodyamirov.tree.NoOpNode;
+import io.github.rodyamirov.tree.OrElseNode;
+import io.github.rodyamirov.tree.ProcedureCallNode;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.RealConstantNode;
+import io.github.rodyamirov.tree.StatementNode;
+import io.github.rodyamirov.tree.ThoroughVisitor;
+import io.github.rodyamirov.tree.UnaryOpNode;
+import io.github.rodyamirov.tree.VariableAssignNode;
+import io.github.rodyamirov.tree.VariableDeclarationNode;
+import io.github.rodyamirov.tree.VariableEvalNode;
+import io.github.rodyamirov.tree.WhileNode;
+import io.github.rodyamirov.tree.WorklistVisitor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles an analyzed program into a VmProgram. Each block becomes a chunk; expressions are
+ * compiled into registers, allocated like a stack, so that the result of an expression always
+ * lands in the lowest register it used.
+ *
+ * That also means the register an expression will end up in is known before it is compiled: it
+ * is the next free one. So the tree is walked as a WorklistVisitor walks it, and however deeply
+ * it is nested, compiling it never recurses.
+ */
+public final class VmCompiler extends WorklistVisitor {
+    public static VmProgram compile(ProgramNode programNode, SymbolTable symbolTable) {
+        VmCompiler compiler = new VmCompiler(symbolTable);
+        return compiler.compileProgram(programNode);
+    }
+
+    // the code for one chunk while it is being built
+    private static final class ChunkBuilder {
+        private final String name;
+        private final Scope scope;
+
+        private int[] code = new int[64];
+        private int size = 0;
+
+        private final List<Integer> constants = new ArrayList<>();
+        private final Map<Integer, Integer> constantIndices = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+
+        private final List<Integer> labelPositions = new ArrayList<>();
+        // pairs of (code position, label) for jump operands to fill in at the end
+        private final List<int[]> patches = new ArrayList<>();
+
+        private int nextRegister = 0;
+        private int registerCount = 0;
+
+        private ChunkBuilder(String name, Scope scope) {
+            this.name = name;
+            this.scope = scope;
+        }
+
+        private void emit(int word) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, size * 2);
+            }
+            code[size++] = word;
+        }
+
+        private int constant(int word) {
+            return constantIndices.computeIfAbsent(word, w -> {
+                constants.add(w);
+                return constants.size() - 1;
+            });
+        }
+
+        private int newLabel() {
+            labelPositions.add(-1);
+            return labelPositions.size() - 1;
+        }
+
+        private void placeLabel(int label) {
+            labelPositions.set(label, size);
+        }
+
+        private void emitLabelReference(int label) {
+            patches.add(new int[] { size, label });
+            emit(-1);
+        }
+
+        private int allocateRegister() {
+            int register = nextRegister++;
+            registerCount = Math.max(registerCount, nextRegister);
+            return register;
+        }
+
+        private Chunk build() {
+            for (int[] patch : patches) {
+                code[patch[0]] = labelPositions.get(patch[1]);
+            }
+
+            int[] constantWords = new int[constants.size()];
+            for (int i = 0; i < constantWords.length; i++) {
+                constantWords[i] = constants.get(i);
+            }
+
+            return new Chunk(name, scope, registerCount, Arrays.copyOf(code, size), constantWords, names);
+        }
+    }
+
+    private static final class LoopLabels {
+        private final int breakLabel, continueLabel;
+
+        private LoopLabels(int breakLabel, int continueLabel) {
+            this.breakLabel = breakLabel;
+            this.continueLabel = continueLabel;
+        }
+    }
+
+    private final SymbolTable symbolTable;
+
+    // chunk index for every procedure, by the scope of its block; the program is chunk 0
+    private final Map<Scope, Integer> chunkIndices = new HashMap<>();
+    private final List<ProcedureDeclarationNode> procedures = new ArrayList<>();
+
+    private ChunkBuilder chunk;
+    private final Deque<LoopLabels> loops = new ArrayDeque<>();
+
+    private VmCompiler(SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
+    }
+
+    private VmProgram compileProgram(ProgramNode programNode) {
+        programNode.acceptVisit(new ThoroughVisitor() {
+            @Override
+            public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
+                procedures.add(procedureDeclarationNode);
+                chunkIndices.put(procedureDeclarationNode.blockNode.scope, procedures.size());
+                super.visit(procedureDeclarationNode);
+            }
+        });
+
+        List<Chunk> chunks = new ArrayList<>();
+        chunks.add(compileBlock(programNode.name.value, programNode.blockNode));
+
+        for (ProcedureDeclarationNode procedure : procedures) {
+            chunks.add(compileBlock(procedure.name.value, procedure.blockNode));
+        }
+
+        return new VmProgram(chunks);
+    }
+
+    private Chunk compileBlock(String name, BlockNode blockNode) {
+        chunk = new ChunkBuilder(name, blockNode.scope);
+        blockNode.acceptVisit(this);
+        chunk.emit(Opcode.RETURN);
+
+        Chunk out = chunk.build();
+        chunk = null;
+        return out;
+    }
+
+    private void emit(int opcode, int... operands) {
+        chunk.emit(opcode);
+        for (int operand : operands) {
+            chunk.emit(operand);
+        }
+    }
+
+    private void emitJump(int opcode, int label, int... operands) {
+        emit(opcode, operands);
+        chunk.emitLabelReference(label);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Expressions
+    // ---------------------------------------------------------------------------------------------
+
+    // compiles the expression into the given register, which has to be the next free one by the
+    // time it is compiled
+    private void compileExpression(ExpressionNode expressionNode, TypeSpec wanted, int register) {
+        if (expressionNode.outputType == null) {
+            throw new IllegalStateException("The VmCompiler requires a type-checked tree");
+        }
+
+        visitChild(expressionNode);
+
+        if (wanted == TypeSpec.REAL && expressionNode.outputType == TypeSpec.INTEGER) {
+            then(() -> emit(Opcode.I2F, register, register));
+        }
+    }
+
+    private void releaseAbove(int register) {
+        chunk.nextRegister = register + 1;
+    }
+
+    private static int binaryOpcode(BinOpNode.Operation operation) {
+        switch (operation) {
+            case ADD_INTEGERS: return Opcode.ADD_I;
+            case ADD_REALS: return Opcode.ADD_F;
+            case SUBTRACT_INTEGERS: return Opcode.SUB_I;
+            case SUBTRACT_REALS: return Opcode.SUB_F;
+            case MULTIPLY_INTEGERS: return Opcode.MUL_I;
+            case MULTIPLY_REALS: return Opcode.MUL_F;
+            case DIVIDE_INTEGERS: return Opcode.DIV_I;
+            case MOD_INTEGERS: return Opcode.MOD_I;
+            case DIVIDE_REALS: return Opcode.DIV_F;
+
+            case AND_BOOLEANS: return Opcode.AND;
+            case OR_BOOLEANS: return Opcode.OR;
+
+            case LESS_THAN_INTEGERS: return Opcode.LT_I;
+            case LESS_THAN_REALS: return Opcode.LT_F;
+            case LESS_THAN_OR_EQUALS_INTEGERS: return Opcode.LE_I;
+            case LESS_THAN_OR_EQUALS_REALS: return Opcode.LE_F;
+            case GREATER_THAN_INTEGERS: return Opcode.GT_I;
+            case GREATER_THAN_REALS: return Opcode.GT_F;
+            case GREATER_THAN_OR_EQUALS_INTEGERS: return Opcode.GE_I;
+            case GREATER_THAN_OR_EQUALS_REALS: return Opcode.GE_F;
+
+            // booleans sit in registers as 0 or 1, so they compare like integers
+            case EQUALS_INTEGERS:
+            case EQUALS_BOOLEANS:
+                return Opcode.EQ_I;
+            case EQUALS_REALS: return Opcode.EQ_F;
+            case NOT_EQUALS_INTEGERS:
+            case NOT_EQUALS_BOOLEANS:
+                return Opcode.NE_I;
+            case NOT_EQUALS_REALS: return Opcode.NE_F;
+
+            default:
+                String message = String.format("Unrecognized binary operation %s", operation);
+                throw new IllegalArgumentException(message);
+        }
+    }
+
+    @Override
+    public void visit(BinOpNode binOpNode) {
+        BinOpNode.Operation operation = binOpNode.operation;
+
+        int left = chunk.nextRegister;
+        int right = left + 1;
+
+        compileExpression(binOpNode.left, operation.operandType, left);
+        compileExpression(binOpNode.right, operation.operandType, right);
+
+        then(() -> {
+            emit(binaryOpcode(operation), left, left, right);
+            releaseAbove(left);
+        });
+    }
+
+    @Override
+    public void visit(UnaryOpNode unaryOpNode) {
+        int child = chunk.nextRegister;
+        compileExpression(unaryOpNode.child, unaryOpNode.outputType, child);
+
+        then(() -> {
+            switch (unaryOpNode.operation) {
+                case IDENTITY_INTEGER:
+                case IDENTITY_REAL:
+                    break;
+
+                case NEGATE_INTEGER:
+                    emit(Opcode.NEG_I, child, child);
+                    break;
+
+                case NEGATE_REAL:
+                    emit(Opcode.NEG_F, child, child);
+                    break;
+
+                case NOT_BOOLEAN:
+                    emit(Opcode.NOT, child, child);
+                    break;
+
+                default:
+                    String message = String.format("Unrecognized unary operation %s", unaryOpNode.operation);
+                    throw new IllegalArgumentException(message);
+            }
+        });
+    }
+
+    @Override
+    public void visit(AndThenNode andThenNode) {
+        int done = chunk.newLabel();
+        int left = chunk.nextRegister;
+        int right = left + 1;
+
+        compileExpression(andThenNode.left, TypeSpec.BOOLEAN, left);
+        then(() -> emitJump(Opcode.JUMP_IF_FALSE, done, left));
+
+        compileExpression(andThenNode.right, TypeSpec.BOOLEAN, right);
+
+        then(() -> {
+            emit(Opcode.MOVE, left, right);
+
+            chunk.placeLabel(done);
+            releaseAbove(left);
+        });
+    }
+
+    @Override
+    public void visit(OrElseNode orElseNode) {
+        int done = chunk.newLabel();
+        int left = chunk.nextRegister;
+        int right = left + 1;
+
+        compileExpression(orElseNode.left, TypeSpec.BOOLEAN, left);
+        then(() -> emitJump(Opcode.JUMP_IF_TRUE, done, left));
+
+        compileExpression(orElseNode.right, TypeSpec.BOOLEAN, right);
+
+        then(() -> {
+            emit(Opcode.MOVE, left, right);
+
+            chunk.placeLabel(done);
+            releaseAbove(left);
+        });
+    }
+
+    private void loadConstant(int word) {
+        int register = chunk.allocateRegister();
+        emit(Opcode.CONST, register, chunk.constant(word));
+    }
+
+    @Override
+    public void visit(IntConstantNode intConstantNode) {
+        loadConstant(intConstantNode.value.value);
+    }
+
+    @Override
+    public void visit(RealConstantNode realConstantNode) {
+        loadConstant(Float.floatToRawIntBits(realConstantNode.value.value));
+    }
+
+    @Override
+    public void visit(BooleanConstantNode booleanConstantNode) {
+        loadConstant(booleanConstantNode.value.value ? 1 : 0);
+    }
+
+    @Override
+    public void visit(VariableEvalNode variableEvalNode) {
+        if (variableEvalNode.slotIndex < 0) {
+            throw VariableException.notDefined(variableEvalNode.scope, variableEvalNode.idToken);
+        }
+
+        int opcode;
+        switch (variableEvalNode.outputType) {
+            case INTEGER:
+                opcode = Opcode.LOAD_I; break;
+            case REAL:
+                opcode = Opcode.LOAD_F; break;
+            case BOOLEAN:
+                opcode = Opcode.LOAD_B; break;
+            default:
+                String message = String.format("Cannot load a variable of type %s", variableEvalNode.outputType);
+                throw new IllegalStateException(message);
+        }
+
+        int register = chunk.allocateRegister();
+        emit(opcode, register, variableEvalNode.frameDepth, variableEvalNode.slotIndex);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Statements; each leaves the register stack where it found it
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    public void visit(ProgramNode programNode) {
+        throw new IllegalStateException("Programs are compiled with compileProgram");
+    }
+
+    @Override
+    public void visit(BlockNode blockNode) {
+        visitChild(blockNode.declarationNode);
+        visitChild(blockNode.compoundNode);
+    }
+
+    @Override
+    public void visit(DeclarationNode declarationNode) {
+        for (ProcedureDeclarationNode procedure : declarationNode.procedureDeclarations) {
+            visitChild(procedure);
+        }
+    }
+
+    @Override
+    public void visit(VariableDeclarationNode variableDeclarationNode) {
+        // the frames already have room for everything
+    }
+
+    @Override
+    public void visit(ProcedureDeclarationNode procedureDeclarationNode) {
+        // the body is its own chunk; here we only record the declaration
+        int slot = symbolTable.getLayout(procedureDeclarationNode.scope).slotOf(procedureDeclarationNode.name);
+        emit(Opcode.DECLARE, slot, chunkIndices.get(procedureDeclarationNode.blockNode.scope));
+    }
+
+    @Override
+    public void visit(ProcedureCallNode procedureCallNode) {
+        Scope scope = procedureCallNode.scope;
+        Token<String> name = procedureCallNode.procedureName;
+
+        Integer chunkIndex = null;
+        int depth = -1;
+        if (symbolTable.isDefined(scope, name)) {
+            Scope declaringScope = symbolTable.closestScopeFound(scope, name);
+            chunkIndex = chunkIndices.get(declaringScope.makeChildScope(name));
+            depth = SlotResolver.depthBetween(scope, declaringScope);
+        }
+
+        if (chunkIndex == null) {
+            // nothing checks this statically, so only complain if the call is actually reached
+            chunk.names.add(name.value);
+            emit(Opcode.FAIL_UNDEFINED, chunk.names.size() - 1);
+        } else {
+            emit(procedureCallNode.tailCall ? Opcode.TAIL_CALL : Opcode.CALL, chunkIndex, depth);
+        }
+    }
+
+    @Override
+    public void visit(CompoundNode compoundNode) {
+        for (StatementNode statementNode : compoundNode.statements) {
+            visitChild(statementNode);
+        }
+    }
+
+    @Override
+    public void visit(NoOpNode noOpNode) {
+        // nothing to emit
+    }
+
+    @Override
+    public void visit(LoopControlNode loopControlNode) {
+        LoopLabels labels = loops.peek();
+
+        switch (loopControlNode.type) {
+            case BREAK:
+                emitJump(Opcode.JUMP, labels.breakLabel);
+                break;
+
+            case CONTINUE:
+                emitJump(Opcode.JUMP, labels.continueLabel);
+                break;
+
+            default:
+                String message = String.format(
+                        "Unrecognized loop control directive %s",
+                        loopControlNode.type
+                );
+                throw new IllegalArgumentException(message);
+        }
+    }
+
+    @Override
+    public void visit(IfStatementNode ifStatementNode) {
+        int elseLabel = chunk.newLabel();
+        int done = chunk.newLabel();
+
+        int condition = chunk.nextRegister;
+        compileExpression(ifStatementNode.condition, TypeSpec.BOOLEAN, condition);
+
+        then(() -> {
+            releaseAbove(condition - 1);
+            emitJump(Opcode.JUMP_IF_FALSE, elseLabel, condition);
+        });
+
+        visitChild(ifStatementNode.thenStatement);
+
+        if (ifStatementNode.elseStatement.isPresent()) {
+            then(() -> {
+                emitJump(Opcode.JUMP, done);
+                chunk.placeLabel(elseLabel);
+            });
+
+            visitChild(ifStatementNode.elseStatement.get());
+            then(() -> chunk.placeLabel(done));
+        } else {
+            then(() -> chunk.placeLabel(elseLabel));
+        }
+    }
+
+    @Override
+    public void visit(WhileNode whileNode) {
+        int top = chunk.newLabel();
+        int done = chunk.newLabel();
+
+        chunk.placeLabel(top);
+        int condition = chunk.nextRegister;
+        compileExpression(whileNode.condition, TypeSpec.BOOLEAN, condition);
+
+        then(() -> {
+            releaseAbove(condition - 1);
+            emitJump(Opcode.JUMP_IF_FALSE, done, condition);
+
+            loops.push(new LoopLabels(done, top));
+        });
+
+        visitChild(whileNode.childStatement);
+
+        then(() -> {
+            loops.pop();
+
+            emitJump(Opcode.JUMP, top);
+            chunk.placeLabel(done);
+        });
+    }
+
+    @Override
+    public void visit(DoUntilNode doUntilNode) {
+        int top = chunk.newLabel();
+        int check = chunk.newLabel();
+        int done = chunk.newLabel();
+
+        chunk.placeLabel(top);
+
+        loops.push(new LoopLabels(done, check));
+        visitChild(doUntilNode.childStatement);
+
+        then(() -> {
+            loops.pop();
+
+            chunk.placeLabel(check);
+            int condition = chunk.nextRegister;
+            compileExpression(doUntilNode.condition, TypeSpec.BOOLEAN, condition);
+
+            then(() -> {
+                releaseAbove(condition - 1);
+                emitJump(Opcode.JUMP_IF_FALSE, top, condition);
+
+                chunk.placeLabel(done);
+            });
+        });
+    }
+
+    @Override
+    public void visit(ForNode forNode) {
+        VariableAssignNode loopVariable = forNode.assignNode.variableAssignNode;
+        loopVariable.acceptVisit(this);
+        int depth = loopVariable.frameDepth;
+        int slot = loopVariable.slotIndex;
+
+        int change;
+        switch (forNode.direction) {
+            case FORWARD:
+                change = 1; break;
+
+            case BACKWARD:
+                change = -1; break;
+
+            default:
+                String message = String.format("Unrecognized direction %s for a for-loop", forNode.direction);
+                throw new IllegalStateException(message);
+        }
+
+        // the counter and the limit stay live for the whole loop
+        int counter = chunk.nextRegister;
+        int limit = counter + 1;
+        compileExpression(forNode.assignNode.expressionNode, TypeSpec.INTEGER, counter);
+        compileExpression(forNode.bound, TypeSpec.INTEGER, limit);
+
+        int top = chunk.newLabel();
+        int next = chunk.newLabel();
+        int broken = chunk.newLabel();
+        int done = chunk.newLabel();
+
+        then(() -> {
+            emit(Opcode.INC_I, limit, change);
+
+            chunk.placeLabel(top);
+            emitJump(Opcode.JUMP_IF_EQ_I, done, counter, limit);
+            emit(Opcode.STORE_I, depth, slot, counter);
+            if (! forNode.lockFree) {
+                emit(Opcode.LOCK, depth, slot);
+            }
+
+            loops.push(new LoopLabels(broken, next));
+        });
+
+        visitChild(forNode.body);
+
+        then(() -> {
+            loops.pop();
+
+            chunk.placeLabel(next);
+            if (! forNode.lockFree) {
+                emit(Opcode.UNLOCK, depth, slot);
+            }
+            emit(Opcode.INC_I, counter, change);
+            emitJump(Opcode.JUMP, top);
+
+            chunk.placeLabel(broken);
+            if (! forNode.lockFree) {
+                emit(Opcode.UNLOCK, depth, slot);
+            }
+            chunk.placeLabel(done);
+
+            releaseAbove(counter - 1);
+        });
+    }
+
+    @Override
+    public void visit(AssignNode assignNode) {
+        VariableAssignNode target = assignNode.variableAssignNode;
+        target.acceptVisit(this);
+
+        int opcode;
+        switch (target.variableType) {
+            case INTEGER:
+                opcode = Opcode.STORE_I; break;
+            case REAL:
+                opcode = Opcode.STORE_F; break;
+            case BOOLEAN:
+                opcode = Opcode.STORE_B; break;
+            default:
+                String message = String.format("Cannot assign to a variable of type %s", target.variableType);
+                throw new IllegalStateException(message);
+        }
+
+        int value = chunk.nextRegister;
+        compileExpression(assignNode.expressionNode, target.variableType, value);
+
+        then(() -> {
+            emit(opcode, target.frameDepth, target.slotIndex, value);
+            releaseAbove(value - 1);
+        });
+    }
+
+    @Override
+    public void visit(VariableAssignNode variableAssignNode) {
+        // the TypeChecker would have failed on an undeclared variable, so this shouldn't happen
+        if (variableAssignNode.slotIndex < 0) {
+            throw VariableException.notDefined(variableAssignNode.scope, variableAssignNode.idToken);
+        }
+    }
+}
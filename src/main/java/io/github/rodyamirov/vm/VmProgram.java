@@ -0,0 +1,137 @@
+package io.github.rodyamirov.vm;
+
+import com.google.common.collect.ImmutableList;
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.symbols.Scope;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A whole program in VM form: chunk 0 is the program's own block, and every other chunk is one
+ * procedure. CALL and DECLARE operands are indices into this list.
+ *
+ * The format refers to the source only by scope names, so it can be written out and read back
+ * in; running it again only needs the analyzed tree, to fill in the procedure and program
+ * values of the SymbolValueTable.
+ */
+public final class VmProgram {
+    private static final int MAGIC = 0x524f4244; // "ROBD"
+    private static final int VERSION = 3;
+
+    public final ImmutableList<Chunk> chunks;
+
+    VmProgram(List<Chunk> chunks) {
+        this.chunks = ImmutableList.copyOf(chunks);
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(Opcode.count());
+        out.writeInt(chunks.size());
+
+        for (Chunk chunk : chunks) {
+            out.writeUTF(chunk.name);
+            writeScope(chunk.scope, out);
+            out.writeInt(chunk.registerCount);
+            writeInts(chunk.code, out);
+            writeInts(chunk.constants, out);
+
+            out.writeInt(chunk.names.size());
+            for (String name : chunk.names) {
+                out.writeUTF(name);
+            }
+        }
+    }
+
+    /**
+     * Reads back a program written by writeTo.
+     *
+     * @throws IOException if the stream does not hold a program in this version of the format
+     */
+    public static VmProgram readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a compiled program");
+        } else if (in.readInt() != VERSION || in.readInt() != Opcode.count()) {
+            throw new IOException("Compiled program is from an incompatible version");
+        }
+
+        int chunkCount = in.readInt();
+        List<Chunk> chunks = new ArrayList<>(chunkCount);
+
+        for (int i = 0; i < chunkCount; i++) {
+            String name = in.readUTF();
+            Scope scope = readScope(in);
+            int registerCount = in.readInt();
+            int[] code = readInts(in);
+            int[] constants = readInts(in);
+
+            int nameCount = in.readInt();
+            List<String> names = new ArrayList<>(nameCount);
+            for (int j = 0; j < nameCount; j++) {
+                names.add(in.readUTF());
+            }
+
+            chunks.add(new Chunk(name, scope, registerCount, code, constants, names));
+        }
+
+        return new VmProgram(chunks);
+    }
+
+    private static void writeScope(Scope scope, DataOutputStream out) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (Scope current = scope; current != null; current = current.parentScope.orElse(null)) {
+            names.add(0, current.immediateScopeName.value);
+        }
+
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    private static Scope readScope(DataInputStream in) throws IOException {
+        int depth = in.readInt();
+        Scope scope = Scope.makeRootScope(Token.ID(in.readUTF()));
+        for (int i = 1; i < depth; i++) {
+            scope = scope.makeChildScope(Token.ID(in.readUTF()));
+        }
+        return scope;
+    }
+
+    private static void writeInts(int[] values, DataOutputStream out) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || !(o instanceof VmProgram)) {
+            return false;
+        }
+
+        VmProgram other = (VmProgram)o;
+
+        return Objects.equals(this.chunks, other.chunks);
+    }
+
+    @Override
+    public int hashCode() {
+        return chunks.hashCode();
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.rodyamirov.analysis;
+
+import io.github.rodyamirov.parse.Parser;
+import io.github.rodyamirov.symbols.ScopeAssigner;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.SymbolTableBuilder;
+import io.github.rodyamirov.tree.ProgramNode;
+import org.junit.Test;
+
+import static io.github.rodyamirov.symbols.ScopeAssigner.ROOT_SCOPE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class ConstantFolderTest {
+    private static final String DECLARATIONS = "program a; var x, y: integer; r: real; b, c: boolean; ";
+
+    private static ProgramNode typedProgram(String body) {
+        ProgramNode programNode = Parser.parseProgram(DECLARATIONS + body);
+        ScopeAssigner.assignScopes(ROOT_SCOPE, programNode);
+        SymbolTable symbolTable = SymbolTableBuilder.buildFrom(programNode);
+
+        assertThat("Type checks", TypeChecker.assignTypes(programNode, symbolTable).isEmpty(), is(true));
+        return programNode;
+    }
+
+    private void doFoldTest(String body, String expectedBody) {
+        ProgramNode folded = ConstantFolder.fold(typedProgram(body));
+        assertThat(folded, is(typedProgram(expectedBody)));
+    }
+
+    private void doUnchangedTest(String body) {
+        ProgramNode original = typedProgram(body);
+        assertThat("Nothing to fold", ConstantFolder.fold(original) == original, is(true));
+    }
+
+    @Test
+    public void arithmeticTest() {
+        doFoldTest("begin x := 2 * 3 + 4 end.", "begin x := 10 end.");
+        doFoldTest("begin x := -(7 div 2) mod 3 end.", "begin x := 0 end.");
+        doFoldTest("begin r := 1 / 4 + 0.5 end.", "begin r := 0.75 end.");
+        doFoldTest("begin b := 1 < 2.5 end.", "begin b := true end.");
+        doFoldTest("begin b := not (true and false) end.", "begin b := true end.");
+        doFoldTest("begin x := y + (2 * 3) end.", "begin x := y + 6 end.");
+    }
+
+    @Test
+    public void identityTest() {
+        doFoldTest("begin x := y * 1 + 0 end.", "begin x := y end.");
+        doFoldTest("begin x := 0 + 1 * y - 0 end.", "begin x := y end.");
+        doFoldTest("begin x := y div 1 end.", "begin x := y end.");
+        doFoldTest("begin r := r * 1 end.", "begin r := r end.");
+        doFoldTest("begin b := not not c end.", "begin b := c end.");
+        doFoldTest("begin x := - - y end.", "begin x := y end.");
+        doFoldTest("begin b := c and then true end.", "begin b := c end.");
+        doFoldTest("begin b := true and then c end.", "begin b := c end.");
+        doFoldTest("begin b := false and then c end.", "begin b := false end.");
+        doFoldTest("begin b := c or else false end.", "begin b := c end.");
+        doFoldTest("begin b := true or else c end.", "begin b := true end.");
+    }
+
+    @Test
+    public void unsafeIdentityTest() {
+        // these could all fail or change a value at runtime, so they have to stay
+        doUnchangedTest("begin x := y * 0 end.");
+        doUnchangedTest("begin x := y div 0 end.");
+        doUnchangedTest("begin x := 1 mod 0 end.");
+        doUnchangedTest("begin r := r + 0 end.");
+        doUnchangedTest("begin b := c and false end.");
+
+        // the identity would change the type of the expression
+        doUnchangedTest("begin r := y * 1.0 end.");
+    }
+
+    @Test
+    public void ifTest() {
+        doFoldTest("begin if 1 < 2 then x := 1 else x := 2 end.", "begin x := 1 end.");
+        doFoldTest("begin if 1 > 2 then x := 1 else x := 2 end.", "begin x := 2 end.");
+        doFoldTest("begin if false and then c then x := 1; y := 2 end.", "begin ; y := 2 end.");
+        doFoldTest("begin while c do if true then break end.", "begin while c do break end.");
+    }
+
+    @Test
+    public void proceduresTest() {
+        doFoldTest(
+                "procedure p; var z: integer; begin z := 2 + 2 end; begin p() end.",
+                "procedure p; var z: integer; begin z := 4 end; begin p() end."
+        );
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.rodyamirov.analysis;
+
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.parse.Parser;
+import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.symbols.ScopeAssigner;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.SymbolTableBuilder;
+import io.github.rodyamirov.symbols.SymbolValue;
+import io.github.rodyamirov.symbols.SymbolValueTable;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import org.junit.Test;
+
+import java.util.List;
+
+import static io.github.rodyamirov.symbols.ScopeAssigner.ROOT_SCOPE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class DeadCodeEliminatorTest {
+    private static ProgramNode eliminate(String progText) {
+        ProgramNode programNode = Parser.parseProgram(progText);
+        ScopeAssigner.assignScopes(ROOT_SCOPE, programNode);
+        SymbolTable symbolTable = SymbolTableBuilder.buildFrom(programNode);
+
+        return DeadCodeEliminator.eliminate(programNode, symbolTable);
+    }
+
+    private static ProgramNode parse(String progText) {
+        ProgramNode programNode = Parser.parseProgram(progText);
+        ScopeAssigner.assignScopes(ROOT_SCOPE, programNode);
+        return programNode;
+    }
+
+    private void doEliminationTest(String progText, String expectedText) {
+        assertThat(eliminate(progText), is(parse(expectedText)));
+    }
+
+    @Test
+    public void afterLoopControlTest() {
+        doEliminationTest(
+                "program a; var x: integer; begin while true do begin x := 1; break; x := 2; x := 3 end end.",
+                "program a; var x: integer; begin while true do begin x := 1; break end end."
+        );
+
+        doEliminationTest(
+                "program a; var x: integer; begin while true do begin begin continue end; x := 2 end end.",
+                "program a; var x: integer; begin while true do begin begin continue end end end."
+        );
+
+        doEliminationTest(
+                "program a; var x: integer; begin while true do begin if x = 1 then break else continue; x := 2 end end.",
+                "program a; var x: integer; begin while true do begin if x = 1 then break else continue end end."
+        );
+
+        // only one branch leaves, so the rest may still run
+        doEliminationTest(
+                "program a; var x: integer; begin while true do begin if x = 1 then break; x := 2 end end.",
+                "program a; var x: integer; begin while true do begin if x = 1 then break; x := 2 end end."
+        );
+    }
+
+    @Test
+    public void falseWhileTest() {
+        doEliminationTest(
+                "program a; var x: integer; begin x := 1; while false do x := 2; x := 3 end.",
+                "program a; var x: integer; begin x := 1; x := 3 end."
+        );
+    }
+
+    @Test
+    public void noOpTest() {
+        ProgramNode eliminated = eliminate("program a; var x: integer; begin ; x := 1; ; ; end.");
+        assertThat(eliminated.blockNode.compoundNode.statements.size(), is(1));
+    }
+
+    @Test
+    public void unusedProcedureTest() {
+        String used = " procedure used; procedure helper; var h: integer; begin h := 1 end; begin helper() end;";
+        ProgramNode eliminated = eliminate(
+                "program a;"
+                        + used
+                        + " procedure unused; procedure inner; begin end; begin inner() end;"
+                        + " procedure recursive; begin recursive() end;"
+                        + " begin used() end."
+        );
+        ProgramNode expectedUsed = parse("program a;" + used + " begin used() end.");
+
+        List<ProcedureDeclarationNode> procedures = eliminated.blockNode.declarationNode.procedureDeclarations;
+        assertThat(procedures.size(), is(3));
+        assertThat(procedures.get(0), is(expectedUsed.blockNode.declarationNode.procedureDeclarations.get(0)));
+
+        // the others are still declared, but with nothing left to run
+        for (ProcedureDeclarationNode unused : procedures.subList(1, 3)) {
+            assertThat(unused.blockNode.declarationNode.procedureDeclarations.isEmpty(), is(true));
+            assertThat(unused.blockNode.compoundNode.statements.isEmpty(), is(true));
+        }
+    }
+
+    @Test
+    public void unusedProcedureStillDeclaredTest() {
+        Token<String> progName = Token.ID("a");
+        Scope progScope = ROOT_SCOPE.makeChildScope(progName);
+        Program program = Analyzer.setup(
+                "program a; var x: integer; procedure unused; begin x := 1 end; begin x := 2 end."
+        );
+
+        for (Program.Engine engine : Program.Engine.values()) {
+            SymbolValueTable endState = program.run(engine);
+
+            assertThat(engine.name(), endState.isInitialized(progScope, Token.ID("unused")), is(true));
+            assertThat(engine.name(), endState.getValue(progScope, Token.ID("x")), is(SymbolValue.makeInteger(2)));
+        }
+    }
+
+    @Test
+    public void unchangedTest() {
+        ProgramNode original = parse(
+                "program a; var x: integer; procedure p; begin x := x + 1 end;"
+                        + " begin x := 0; while x < 3 do p() end."
+        );
+        SymbolTable symbolTable = SymbolTableBuilder.buildFrom(original);
+
+        assertThat(DeadCodeEliminator.eliminate(original, symbolTable) == original, is(true));
+    }
+}
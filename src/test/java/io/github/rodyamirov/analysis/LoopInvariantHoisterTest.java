@@ -0,0 +1,152 @@
+package io.github.rodyamirov.analysis;
+
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.parse.Parser;
+import io.github.rodyamirov.symbols.FrameLayout;
+import io.github.rodyamirov.symbols.ScopeAssigner;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.SymbolTableBuilder;
+import io.github.rodyamirov.symbols.TypeSpec;
+import io.github.rodyamirov.tree.AssignNode;
+import io.github.rodyamirov.tree.BinOpNode;
+import io.github.rodyamirov.tree.CompoundNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.StatementNode;
+import io.github.rodyamirov.tree.VariableEvalNode;
+import io.github.rodyamirov.tree.WhileNode;
+import org.junit.Test;
+
+import static io.github.rodyamirov.symbols.ScopeAssigner.ROOT_SCOPE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class LoopInvariantHoisterTest {
+    private static ProgramNode typed(String progText, SymbolTable[] symbolTableOut) {
+        ProgramNode programNode = Parser.parseProgram(progText);
+        ScopeAssigner.assignScopes(ROOT_SCOPE, programNode);
+        SymbolTable symbolTable = SymbolTableBuilder.buildFrom(programNode);
+
+        assertThat(TypeChecker.assignTypes(programNode, symbolTable).isEmpty(), is(true));
+
+        symbolTableOut[0] = symbolTable;
+        return programNode;
+    }
+
+    private static void doUnchangedTest(String progText) {
+        SymbolTable[] symbolTable = new SymbolTable[1];
+        ProgramNode programNode = typed(progText, symbolTable);
+
+        LoopInvariantHoister.Result result = LoopInvariantHoister.hoist(programNode, symbolTable[0]);
+
+        assertThat(result.programNode == programNode, is(true));
+        assertThat(result.symbolTable, is(symbolTable[0]));
+    }
+
+    @Test
+    public void invariantHoistedTest() {
+        SymbolTable[] symbolTable = new SymbolTable[1];
+        ProgramNode programNode = typed(
+                "program a; var y, z: integer; begin y := 3; z := 0; while z < 10 do z := z + y * 2 end.",
+                symbolTable
+        );
+
+        LoopInvariantHoister.Result result = LoopInvariantHoister.hoist(programNode, symbolTable[0]);
+
+        // the loop is replaced by the temporary's assignment, then the loop
+        StatementNode replaced = result.programNode.blockNode.compoundNode.statements.get(2);
+        assertThat(replaced instanceof CompoundNode, is(true));
+
+        CompoundNode compoundNode = (CompoundNode) replaced;
+        assertThat(compoundNode.statements.size(), is(2));
+        assertThat(compoundNode.statements.get(1) instanceof WhileNode, is(true));
+
+        AssignNode temporary = (AssignNode) compoundNode.statements.get(0);
+        Token<String> name = temporary.variableAssignNode.idToken;
+        assertThat(name.value.startsWith("$"), is(true));
+
+        // y * 2 was hoisted, z + ... was not
+        WhileNode loop = (WhileNode) compoundNode.statements.get(1);
+        AssignNode bodyAssign = (AssignNode) loop.childStatement;
+        BinOpNode sum = (BinOpNode) bodyAssign.expressionNode;
+        assertThat(sum.right instanceof VariableEvalNode, is(true));
+        assertThat(((VariableEvalNode) sum.right).idToken, is(name));
+
+        // and the temporary went into the frame of the block
+        FrameLayout layout = result.symbolTable.getLayout(programNode.blockNode.scope);
+        assertThat(layout.size(), is(3));
+        assertThat(layout.slotNames.get(2), is(name));
+        assertThat(layout.slotTypes.get(2), is(TypeSpec.INTEGER));
+    }
+
+    @Test
+    public void sharedTemporaryTest() {
+        SymbolTable[] symbolTable = new SymbolTable[1];
+        ProgramNode programNode = typed(
+                "program a; var y, z, w: integer; begin y := 3; z := 0; w := 0;"
+                        + " do begin z := z + (y - 1); w := w + (y - 1) end until z > 10 end.",
+                symbolTable
+        );
+
+        LoopInvariantHoister.Result result = LoopInvariantHoister.hoist(programNode, symbolTable[0]);
+
+        CompoundNode replaced = (CompoundNode) result.programNode.blockNode.compoundNode.statements.get(3);
+        assertThat(replaced.statements.size(), is(2));
+        assertThat(result.symbolTable.getLayout(programNode.blockNode.scope).size(), is(4));
+    }
+
+    @Test
+    public void variantNotHoistedTest() {
+        // z changes in the loop
+        doUnchangedTest("program a; var z: integer; begin z := 0; while z < 10 do z := z + z * 2 + 1 end.");
+
+        // neither does the for variable
+        doUnchangedTest("program a; var i, z: integer; begin z := 0; for i := 1 to 10 do z := z + i * 2 end.");
+    }
+
+    @Test
+    public void mightFailNotHoistedTest() {
+        // y might not be assigned, and the loop might never have read it
+        doUnchangedTest("program a; var y, z: integer; begin z := 0; while z < 10 do z := z + y * 2 end.");
+
+        // y is only assigned on one branch
+        doUnchangedTest(
+                "program a; var y, z: integer; begin z := 0; if z = 1 then y := 1;"
+                        + " while z < 10 do z := z + y * 2 end."
+        );
+
+        // y might be zero
+        doUnchangedTest(
+                "program a; var y, z: integer; begin y := 0; z := 0; while z < 0 do z := z + 10 div y end."
+        );
+
+        // division by a nonzero constant is fine
+        SymbolTable[] symbolTable = new SymbolTable[1];
+        ProgramNode programNode = typed(
+                "program a; var y, z: integer; begin y := 7; z := 0; while z < 10 do z := z + y div 2 end.",
+                symbolTable
+        );
+
+        LoopInvariantHoister.Result result = LoopInvariantHoister.hoist(programNode, symbolTable[0]);
+        assertThat(result.programNode.blockNode.compoundNode.statements.get(2) instanceof CompoundNode, is(true));
+    }
+
+    @Test
+    public void procedureCallNotHoistedTest() {
+        doUnchangedTest(
+                "program a; var y, z: integer; procedure p; begin y := y + 1 end;"
+                        + " begin y := 3; z := 0; while z < 10 do begin p(); z := z + y * 2 end end."
+        );
+    }
+
+    @Test
+    public void endStateTest() {
+        Program program = Analyzer.setup(
+                "program a; var y, z: integer; begin y := 3; z := 0; while z < 10 do z := z + y * 2 end."
+        );
+
+        // the temporary is a variable like any other, and every engine agrees on it
+        assertThat(program.run(Program.Engine.SPECIALIZED), is(program.run(Program.Engine.VISITOR)));
+        assertThat(program.run(Program.Engine.BYTECODE), is(program.run(Program.Engine.VISITOR)));
+        assertThat(program.run(Program.Engine.VM), is(program.run(Program.Engine.VISITOR)));
+    }
+}
@@ -0,0 +1,158 @@
+package io.github.rodyamirov.analysis;
+
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.parse.Parser;
+import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.symbols.ScopeAssigner;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.SymbolTableBuilder;
+import io.github.rodyamirov.symbols.SymbolValue;
+import io.github.rodyamirov.symbols.SymbolValueTable;
+import io.github.rodyamirov.symbols.TypeSpec;
+import io.github.rodyamirov.tree.CompoundNode;
+import io.github.rodyamirov.tree.ForNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.StatementNode;
+import org.junit.Test;
+
+import java.util.List;
+
+import static io.github.rodyamirov.symbols.ScopeAssigner.ROOT_SCOPE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class LoopVariableCheckerTest {
+    private ProgramNode programNode;
+
+    private List<ErrorMessage> check(String programText) {
+        programNode = Parser.parseProgram(programText);
+        ScopeAssigner.assignScopes(ROOT_SCOPE, programNode);
+        SymbolTable symbolTable = SymbolTableBuilder.buildFrom(programNode);
+        return LoopVariableChecker.check(programNode, symbolTable);
+    }
+
+    private StatementNode statement(int index) {
+        return programNode.blockNode.compoundNode.statements.get(index);
+    }
+
+    @Test
+    public void safeLoopsTest() {
+        List<ErrorMessage> errorMessages = check(""
+                + " program test;"
+                + " var i, j, c: integer;"
+                + " procedure p; begin c := c + 1 end;"
+                + " begin"
+                + "     c := 0;"
+                + "     for i := 1 to 10 do"
+                + "         for j := i to 10 do"
+                + "             begin c := c + i * j; p() end;"
+                + "     i := 3;"
+                + "     for i := i to 10 do c := c + i"
+                + " end .");
+
+        assertThat(errorMessages.isEmpty(), is(true));
+
+        ForNode outer = (ForNode) statement(1);
+        assertThat(outer.lockFree, is(true));
+        assertThat(((ForNode) outer.body).lockFree, is(true));
+        assertThat(((ForNode) statement(3)).lockFree, is(true));
+    }
+
+    @Test
+    public void assignInBodyTest() {
+        List<ErrorMessage> errorMessages = check(""
+                + " program test;"
+                + " var i: integer;"
+                + " begin"
+                + "     for i := 1 to 10 do"
+                + "         begin i := 5 end"
+                + " end .");
+
+        ForNode forNode = (ForNode) statement(0);
+        StatementNode badNode = ((CompoundNode) forNode.body).statements.get(0);
+
+        assertThat(errorMessages.size(), is(1));
+        assertThat(errorMessages.get(0).problemNode, is(badNode));
+        assertThat(forNode.lockFree, is(false));
+    }
+
+    @Test
+    public void nestedLoopTest() {
+        List<ErrorMessage> errorMessages = check(""
+                + " program test;"
+                + " var i, c: integer;"
+                + " begin"
+                + "     for i := 1 to 10 do"
+                + "         for i := 1 to 2 do"
+                + "             c := 1"
+                + " end .");
+
+        ForNode outer = (ForNode) statement(0);
+
+        assertThat(errorMessages.size(), is(1));
+        assertThat(errorMessages.get(0).problemNode, is(outer.body));
+        assertThat(outer.lockFree, is(false));
+    }
+
+    @Test
+    public void procedureCallTest() {
+        // q assigns i through p, and p is called from q's loop over i
+        List<ErrorMessage> errorMessages = check(""
+                + " program test;"
+                + " var i: integer;"
+                + " procedure p; begin i := 2 end;"
+                + " procedure q; begin p() end;"
+                + " begin"
+                + "     for i := 1 to 10 do"
+                + "         q()"
+                + " end .");
+
+        ForNode forNode = (ForNode) statement(0);
+
+        assertThat(errorMessages.size(), is(1));
+        assertThat(errorMessages.get(0).problemNode, is(forNode.body));
+    }
+
+    @Test
+    public void recursiveLocalLoopTest() {
+        // each call to rec gets its own i, so the recursive call can't assign the caller's
+        String programText = ""
+                + " program test;"
+                + " var n, total: integer;"
+                + " procedure rec;"
+                + "     var i: integer;"
+                + "     begin"
+                + "         for i := 1 to 2 do"
+                + "             begin"
+                + "                 total := total + i;"
+                + "                 if n < 2 then begin n := n + 1; rec(); n := n - 1 end"
+                + "             end"
+                + "     end;"
+                + " begin"
+                + "     n := 0; total := 0;"
+                + "     rec()"
+                + " end .";
+
+        assertThat(check(programText).isEmpty(), is(true));
+
+        Program program = Analyzer.setup(programText);
+        Scope programScope = ROOT_SCOPE.makeChildScope(Token.ID("test"));
+
+        for (Program.Engine engine : Program.Engine.values()) {
+            SymbolValueTable result = program.run(engine);
+            assertThat(result.getValue(programScope, Token.ID("n")), is(SymbolValue.make(TypeSpec.INTEGER, 0)));
+            assertThat(result.getValue(programScope, Token.ID("total")), is(SymbolValue.make(TypeSpec.INTEGER, 21)));
+        }
+    }
+
+    @Test
+    public void analyzerRejectsTest() {
+        try {
+            Analyzer.setup("program test; var i: integer; begin for i := 1 to 3 do i := 1 end.");
+            throw new AssertionError("Should have been rejected");
+        } catch (Analyzer.AnalyzerException ae) {
+            assertThat(ae.getAnalysisStage(), is(Analyzer.AnalysisStage.CONTROL_CHECKING));
+            assertThat(ae.getErrorMessages().size(), is(1));
+        }
+    }
+}
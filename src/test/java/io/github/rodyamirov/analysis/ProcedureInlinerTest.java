@@ -0,0 +1,160 @@
+package io.github.rodyamirov.analysis;
+
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.parse.Parser;
+import io.github.rodyamirov.symbols.FrameLayout;
+import io.github.rodyamirov.symbols.ScopeAssigner;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.SymbolTableBuilder;
+import io.github.rodyamirov.symbols.TypeSpec;
+import io.github.rodyamirov.tree.AssignNode;
+import io.github.rodyamirov.tree.CompoundNode;
+import io.github.rodyamirov.tree.ProcedureCallNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.StatementNode;
+import io.github.rodyamirov.tree.ThoroughVisitor;
+import io.github.rodyamirov.tree.WhileNode;
+import org.junit.Test;
+
+import static io.github.rodyamirov.symbols.ScopeAssigner.ROOT_SCOPE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class ProcedureInlinerTest {
+    private static ProcedureInliner.Result inline(String progText) {
+        ProgramNode programNode = Parser.parseProgram(progText);
+        ScopeAssigner.assignScopes(ROOT_SCOPE, programNode);
+        SymbolTable symbolTable = SymbolTableBuilder.buildFrom(programNode);
+
+        assertThat(TypeChecker.assignTypes(programNode, symbolTable).isEmpty(), is(true));
+
+        return ProcedureInliner.inline(programNode, symbolTable);
+    }
+
+    private static int countCalls(ProgramNode programNode) {
+        int[] count = { 0 };
+
+        programNode.acceptVisit(new ThoroughVisitor() {
+            @Override
+            public void visit(ProcedureCallNode procedureCallNode) {
+                count[0] += 1;
+            }
+        });
+
+        return count[0];
+    }
+
+    private static void doAgreementTest(String progText) {
+        Program program = Analyzer.setup(progText);
+
+        assertThat(program.run(Program.Engine.SPECIALIZED), is(program.run(Program.Engine.VISITOR)));
+        assertThat(program.run(Program.Engine.BYTECODE), is(program.run(Program.Engine.VISITOR)));
+        assertThat(program.run(Program.Engine.VM), is(program.run(Program.Engine.VISITOR)));
+    }
+
+    @Test
+    public void inlinedInLoopTest() {
+        ProcedureInliner.Result result = inline(""
+                + " program a;"
+                + " var n, total: integer;"
+                + " procedure add; var t: integer; begin t := n * 2; total := total + t end;"
+                + " begin"
+                + "     n := 0; total := 0;"
+                + "     while n < 10 do begin add(); n := n + 1 end"
+                + " end.");
+
+        assertThat(countCalls(result.programNode), is(0));
+
+        // the call became a copy of the body, in the program's scope
+        WhileNode loop = (WhileNode) result.programNode.blockNode.compoundNode.statements.get(2);
+        StatementNode inlined = ((CompoundNode) loop.childStatement).statements.get(0);
+        assertThat(inlined.scope, is(result.programNode.blockNode.scope));
+
+        // and the local went into the program's frame under a new name
+        AssignNode first = (AssignNode) ((CompoundNode) inlined).statements.get(0);
+        Token<String> renamed = first.variableAssignNode.idToken;
+        assertThat(renamed.value.startsWith("$"), is(true));
+        assertThat(first.variableAssignNode.scope, is(result.programNode.blockNode.scope));
+
+        FrameLayout layout = result.symbolTable.getLayout(result.programNode.blockNode.scope);
+        assertThat(layout.slotNames.get(layout.size() - 1), is(renamed));
+        assertThat(layout.slotTypes.get(layout.size() - 1), is(TypeSpec.INTEGER));
+    }
+
+    @Test
+    public void leafChainTest() {
+        // once inner is inlined into outer, outer is a leaf too
+        ProcedureInliner.Result result = inline(""
+                + " program a;"
+                + " var c: integer;"
+                + " procedure inner; begin c := c + 1 end;"
+                + " procedure outer; begin inner(); inner() end;"
+                + " begin"
+                + "     c := 0;"
+                + "     while c < 10 do outer()"
+                + " end.");
+
+        assertThat(countCalls(result.programNode), is(0));
+    }
+
+    @Test
+    public void notInlinedTest() {
+        // recursive
+        ProcedureInliner.Result result = inline(""
+                + " program a;"
+                + " var c: integer;"
+                + " procedure p; begin c := c - 1; if c > 0 then p() end;"
+                + " begin c := 5; while c > 0 do p() end.");
+        assertThat(countCalls(result.programNode), is(2));
+
+        // reads a local which might not have been assigned
+        result = inline(""
+                + " program a;"
+                + " var c: integer;"
+                + " procedure p; var t: integer; begin if c > 2 then t := 1; c := c + t end;"
+                + " begin c := 0; while c < 10 do p() end.");
+        assertThat(countCalls(result.programNode), is(1));
+
+        // c means something else where the call is
+        result = inline(""
+                + " program a;"
+                + " var c: integer;"
+                + " procedure p; begin c := c + 1 end;"
+                + " procedure q; var c: integer; begin c := 0; while c < 10 do begin p(); c := c + 1 end end;"
+                + " begin c := 0; q() end.");
+        assertThat(countCalls(result.programNode), is(2));
+    }
+
+    @Test
+    public void sizeLimitTest() {
+        // small, but not small enough to be worth it outside a loop
+        ProcedureInliner.Result result = inline(""
+                + " program a;"
+                + " var b, c: integer;"
+                + " procedure p; begin b := b + 1; c := c + b * b; b := b - c end;"
+                + " begin b := 1; c := 1; p(); while c < 100 do p() end.");
+
+        assertThat(countCalls(result.programNode), is(1));
+        assertThat(result.programNode.blockNode.compoundNode.statements.get(2) instanceof ProcedureCallNode, is(true));
+    }
+
+    @Test
+    public void endStateTest() {
+        doAgreementTest(""
+                + " program a;"
+                + " var n, total: integer;"
+                + " procedure add; var t, i: integer;"
+                + "     begin t := 0; for i := 1 to n do t := t + i; total := total + t end;"
+                + " begin"
+                + "     n := 0; total := 0;"
+                + "     while n < 10 do begin add(); n := n + 1 end"
+                + " end.");
+
+        doAgreementTest(""
+                + " program a;"
+                + " var c: integer;"
+                + " procedure inner; begin c := c + 1 end;"
+                + " procedure outer; var d: integer; begin d := 2; inner(); c := c * d end;"
+                + " begin c := 0; while c < 100 do outer() end.");
+    }
+}
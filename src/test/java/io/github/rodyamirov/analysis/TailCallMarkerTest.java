@@ -0,0 +1,131 @@
+package io.github.rodyamirov.analysis;
+
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.parse.Parser;
+import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.symbols.ScopeAssigner;
+import io.github.rodyamirov.symbols.SlotResolver;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.SymbolTableBuilder;
+import io.github.rodyamirov.symbols.SymbolValueTable;
+import io.github.rodyamirov.tree.CompoundNode;
+import io.github.rodyamirov.tree.IfStatementNode;
+import io.github.rodyamirov.tree.ProcedureCallNode;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.WhileNode;
+import org.junit.Test;
+
+import java.util.List;
+
+import static io.github.rodyamirov.symbols.ScopeAssigner.ROOT_SCOPE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class TailCallMarkerTest {
+    private static ProgramNode mark(String progText) {
+        ProgramNode programNode = Parser.parseProgram(progText);
+        ScopeAssigner.assignScopes(ROOT_SCOPE, programNode);
+        SymbolTable symbolTable = SymbolTableBuilder.buildFrom(programNode);
+        SlotResolver.resolve(programNode, symbolTable);
+        TailCallMarker.mark(programNode);
+        return programNode;
+    }
+
+    private static final Scope PROGRAM_SCOPE = ROOT_SCOPE.makeChildScope(Token.ID("a"));
+
+    private static Object valueOf(SymbolValueTable endState, String name) {
+        return endState.getValue(PROGRAM_SCOPE, Token.ID(name)).value;
+    }
+
+    @Test
+    public void tailPositionTest() {
+        ProgramNode programNode = mark(""
+                + " program a;"
+                + " var c: integer;"
+                + " procedure p;"
+                + "     begin"
+                + "         q();"
+                + "         if c > 0 then begin c := c - 1; p() end else q();"
+                + "     end;"
+                + " procedure q; begin while c > 0 do q() end;"
+                + " begin p(); q() end.");
+
+        List<ProcedureDeclarationNode> procedures = programNode.blockNode.declarationNode.procedureDeclarations;
+        List<?> pStatements = procedures.get(0).blockNode.compoundNode.statements;
+
+        // the first call has more to come; both branches of the trailing if are tail calls
+        assertThat(((ProcedureCallNode) pStatements.get(0)).tailCall, is(false));
+
+        IfStatementNode ifStatementNode = (IfStatementNode) pStatements.get(1);
+        CompoundNode thenStatement = (CompoundNode) ifStatementNode.thenStatement;
+        assertThat(((ProcedureCallNode) thenStatement.statements.get(1)).tailCall, is(true));
+        assertThat(((ProcedureCallNode) ifStatementNode.elseStatement.get()).tailCall, is(true));
+
+        // never inside a loop
+        WhileNode loop = (WhileNode) procedures.get(1).blockNode.compoundNode.statements.get(0);
+        assertThat(((ProcedureCallNode) loop.childStatement).tailCall, is(false));
+
+        // and never in the program itself
+        List<?> mainStatements = programNode.blockNode.compoundNode.statements;
+        assertThat(((ProcedureCallNode) mainStatements.get(1)).tailCall, is(false));
+    }
+
+    @Test
+    public void nestedCalleeTest() {
+        // inner links to outer's frame, so outer's frame has to stay
+        ProgramNode programNode = mark(""
+                + " program a;"
+                + " procedure outer;"
+                + "     var x: integer;"
+                + "     procedure inner; begin x := 1 end;"
+                + "     begin inner() end;"
+                + " begin outer() end.");
+
+        ProcedureDeclarationNode outer = programNode.blockNode.declarationNode.procedureDeclarations.get(0);
+        ProcedureCallNode call = (ProcedureCallNode) outer.blockNode.compoundNode.statements.get(0);
+        assertThat(call.tailCall, is(false));
+    }
+
+    @Test
+    public void deepSelfRecursionTest() {
+        // far deeper than the Java stack could take a frame per call
+        Program program = Analyzer.setup(""
+                + " program a;"
+                + " var n, total: integer;"
+                + " procedure count;"
+                + "     begin if n > 0 then begin total := total + n; n := n - 1; count() end end;"
+                + " begin n := 50000; total := 0; count() end.");
+
+        SymbolValueTable visitorEndState = program.run(Program.Engine.VISITOR);
+        assertThat(valueOf(visitorEndState, "n"), is(0));
+        assertThat(valueOf(visitorEndState, "total"), is(1250025000));
+
+        assertThat(program.run(Program.Engine.SPECIALIZED), is(visitorEndState));
+        assertThat(program.run(Program.Engine.BYTECODE), is(visitorEndState));
+        assertThat(program.run(Program.Engine.VM), is(visitorEndState));
+    }
+
+    @Test
+    public void mutualRecursionTest() {
+        String progText = ""
+                + " program a;"
+                + " var n, evens: integer;"
+                + " procedure even; var t: integer;"
+                + "     begin t := n; if t > 0 then begin evens := evens + 1; n := t - 1; odd() end end;"
+                + " procedure odd;"
+                + "     begin if n > 0 then begin n := n - 1; even() end end;"
+                + " begin n := %d; evens := 0; even() end.";
+
+        // the bytecode engine only reuses the activation for calls to the same procedure
+        Program deep = Analyzer.setup(String.format(progText, 200000));
+        SymbolValueTable visitorEndState = deep.run(Program.Engine.VISITOR);
+        assertThat(valueOf(visitorEndState, "evens"), is(100000));
+
+        assertThat(deep.run(Program.Engine.SPECIALIZED), is(visitorEndState));
+        assertThat(deep.run(Program.Engine.VM), is(visitorEndState));
+
+        Program shallow = Analyzer.setup(String.format(progText, 100));
+        assertThat(shallow.run(Program.Engine.BYTECODE), is(shallow.run(Program.Engine.VISITOR)));
+    }
+}
@@ -7,8 +7,10 @@ import io.github.rodyamirov.symbols.ScopeAssigner;
 import io.github.rodyamirov.symbols.SymbolTable;
 import io.github.rodyamirov.symbols.SymbolTableBuilder;
 import io.github.rodyamirov.symbols.TypeSpec;
+import io.github.rodyamirov.tree.BinOpNode;
 import io.github.rodyamirov.tree.ExpressionNode;
 import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.UnaryOpNode;
 import org.junit.Test;
 
 import java.util.List;
@@ -175,6 +177,20 @@ public class TypeCheckerTest {
         assertThat(makeExpression("not false").outputType, is(TypeSpec.BOOLEAN));
     }
 
+    @Test
+    public void operationSelectionTest() {
+        assertThat(((BinOpNode) makeExpression("1+12")).operation, is(BinOpNode.Operation.ADD_INTEGERS));
+        assertThat(((BinOpNode) makeExpression("1.0+12")).operation, is(BinOpNode.Operation.ADD_REALS));
+        assertThat(((BinOpNode) makeExpression("1/12")).operation, is(BinOpNode.Operation.DIVIDE_REALS));
+        assertThat(((BinOpNode) makeExpression("1<12")).operation, is(BinOpNode.Operation.LESS_THAN_INTEGERS));
+        assertThat(((BinOpNode) makeExpression("1<=12.5")).operation, is(BinOpNode.Operation.LESS_THAN_OR_EQUALS_REALS));
+        assertThat(((BinOpNode) makeExpression("true=false")).operation, is(BinOpNode.Operation.EQUALS_BOOLEANS));
+
+        assertThat(((UnaryOpNode) makeExpression("-12")).operation, is(UnaryOpNode.Operation.NEGATE_INTEGER));
+        assertThat(((UnaryOpNode) makeExpression("-1.5")).operation, is(UnaryOpNode.Operation.NEGATE_REAL));
+        assertThat(((UnaryOpNode) makeExpression("not true")).operation, is(UnaryOpNode.Operation.NOT_BOOLEAN));
+    }
+
     @Test
     public void complexExpressionTest() {
         assertThat(makeExpression("(1+13.0)<(12*1.6/53)").outputType, is(TypeSpec.BOOLEAN));
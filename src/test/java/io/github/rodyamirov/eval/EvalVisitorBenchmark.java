@@ -0,0 +1,85 @@
+package io.github.rodyamirov.eval;
+
+import io.github.rodyamirov.analysis.TypeChecker;
+import io.github.rodyamirov.lex.TokenizerBenchmark;
+import io.github.rodyamirov.parse.Parser;
+import io.github.rodyamirov.symbols.ScopeAssigner;
+import io.github.rodyamirov.symbols.SlotResolver;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.SymbolTableBuilder;
+import io.github.rodyamirov.tree.ProgramNode;
+
+import java.util.Collections;
+
+/**
+ * Not a test; run main to time the passes over a typical program (assigning scopes, building the
+ * symbol table, type checking and resolving slots), and evaluating a small program with a lot of
+ * looping in it, both as it is and nested deeply enough that the evaluator keeps its own stacks.
+ */
+public class EvalVisitorBenchmark {
+    private static final int PROCEDURES = 2000;
+    private static final int WARMUP_ROUNDS = 100;
+    private static final int ROUNDS = 20;
+
+    private static final String LOOPING_BODY = "total := 0; "
+            + "for i := 1 to 2000 do begin "
+            + "    j := i; "
+            + "    while j > 1 do "
+            + "        if j mod 2 = 0 then j := j div 2 else begin j := 3 * j + 1; total := total + 1 end; "
+            + "    if (total > 1000000) and then (i > 5) then break "
+            + "end";
+
+    private static double millisPer(Runnable runnable) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runnable.run();
+        }
+
+        // this is noisy enough that the best round says more than the average
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            runnable.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        return best / 1e6;
+    }
+
+    private static ProgramNode analyze(String text) {
+        ProgramNode programNode = Parser.parseProgram(text);
+        ScopeAssigner.assignScopes(ScopeAssigner.ROOT_SCOPE, programNode);
+        SymbolTable symbolTable = SymbolTableBuilder.buildFrom(programNode);
+        TypeChecker.assignTypes(programNode, symbolTable);
+        return programNode;
+    }
+
+    private static void timeEvaluation(String name, String text) {
+        ProgramNode programNode = analyze(text);
+        SymbolTable symbolTable = SymbolTableBuilder.buildFrom(programNode);
+
+        System.out.println(String.format("%s: %.2f ms/run", name,
+                millisPer(() -> EvalVisitor.evaluateProgram(programNode, symbolTable))));
+    }
+
+    public static void main(String[] args) {
+        ProgramNode typical = Parser.parseProgram(TokenizerBenchmark.makeSource(PROCEDURES));
+
+        System.out.println(String.format("passes over %d procedures: %.2f ms/round", PROCEDURES, millisPer(() -> {
+            ScopeAssigner.assignScopes(ScopeAssigner.ROOT_SCOPE, typical);
+            SymbolTable symbolTable = SymbolTableBuilder.buildFrom(typical);
+            TypeChecker.assignTypes(typical, symbolTable);
+            SlotResolver.resolve(typical, symbolTable);
+        })));
+
+        timeEvaluation("evaluate looping program",
+                "program looping; var i, j, total: integer; begin " + LOOPING_BODY + " end.");
+
+        int depth = EvalVisitor.DEEP_NESTING;
+        timeEvaluation(String.format("evaluate looping program nested %d deep", depth),
+                "program looping; var i, j, total: integer; begin "
+                        + String.join("", Collections.nCopies(depth, "begin "))
+                        + LOOPING_BODY
+                        + String.join("", Collections.nCopies(depth, " end"))
+                        + " end.");
+    }
+}
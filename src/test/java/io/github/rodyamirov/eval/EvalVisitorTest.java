@@ -1,8 +1,13 @@
 package io.github.rodyamirov.eval;
 
+import io.github.rodyamirov.analysis.Analyzer;
+import io.github.rodyamirov.analysis.Program;
+import io.github.rodyamirov.analysis.TypeChecker;
 import io.github.rodyamirov.exceptions.TypeCheckException;
 import io.github.rodyamirov.lex.Token;
 import io.github.rodyamirov.parse.Parser;
+import io.github.rodyamirov.symbols.Frame;
+import io.github.rodyamirov.symbols.FrameLayout;
 import io.github.rodyamirov.symbols.Scope;
 import io.github.rodyamirov.symbols.ScopeAssigner;
 import io.github.rodyamirov.symbols.SymbolTable;
@@ -15,6 +20,8 @@ import io.github.rodyamirov.tree.ProcedureDeclarationNode;
 import io.github.rodyamirov.tree.ProgramNode;
 import org.junit.Test;
 
+import java.util.Collections;
+
 import static io.github.rodyamirov.symbols.ScopeAssigner.ROOT_SCOPE;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
@@ -28,6 +35,12 @@ public class EvalVisitorTest {
         ScopeAssigner.assignScopes(ROOT_SCOPE, parseTree);
         SymbolValue actualAnswer = EvalVisitor.evaluateExpression(parseTree, symbolTable);
         assertThat("Expression was correctly evaluated", actualAnswer, is(desiredAnswer));
+
+        // once typed, the same expression goes through the unboxed path
+        if (TypeChecker.assignTypes(parseTree, symbolTable).isEmpty()) {
+            SymbolValue typedAnswer = EvalVisitor.evaluateExpression(parseTree, symbolTable);
+            assertThat("Typed expression was correctly evaluated", typedAnswer, is(desiredAnswer));
+        }
     }
 
     private void doExpressionTest(String toParse, SymbolTable symbolTable, int desiredAnswer) {
@@ -42,12 +55,73 @@ public class EvalVisitorTest {
         doExpressionTest(toParse, symbolTable, SymbolValue.make(TypeSpec.BOOLEAN, desiredAnswer));
     }
 
-    private void doProgramTest(String toParse, SymbolValueTable desiredEndState) {
+    private SymbolTable doBoxedProgramTest(String toParse, SymbolValueTable desiredEndState) {
         ProgramNode parseTree = Parser.parseProgram(toParse);
         ScopeAssigner.assignScopes(ROOT_SCOPE, parseTree);
         SymbolTable symbolTable = SymbolTableBuilder.buildFrom(parseTree);
         SymbolValueTable actualEndState = EvalVisitor.evaluateProgram(parseTree, symbolTable);
         assertThat("State at the end was correct", actualEndState, is(desiredEndState));
+
+        return symbolTable;
+    }
+
+    // for programs which only run because the bad parts are never reached; analysis has to turn
+    // them down, and the unboxed path never sees them
+    private void doUncheckedProgramTest(String toParse, SymbolValueTable desiredEndState) {
+        doBoxedProgramTest(toParse, desiredEndState);
+
+        boolean rejected = false;
+        try {
+            Analyzer.setup(toParse);
+        } catch (IllegalStateException ise) {
+            rejected = true;
+        }
+
+        assertThat("Analysis rejected the program", rejected, is(true));
+    }
+
+    private void doProgramTest(String toParse, SymbolValueTable desiredEndState) {
+        SymbolTable symbolTable = doBoxedProgramTest(toParse, desiredEndState);
+
+        // the program should pass analysis, and end up in the same state on the unboxed path
+        Program program = Analyzer.setup(toParse);
+
+        SymbolValueTable visitorEndState = program.run(Program.Engine.VISITOR);
+        assertSameVariables(visitorEndState, desiredEndState, symbolTable);
+
+        // and the other engines should agree with it exactly
+        SymbolValueTable specializedEndState = program.run(Program.Engine.SPECIALIZED);
+        assertThat("Engines agree", specializedEndState, is(visitorEndState));
+
+        SymbolValueTable bytecodeEndState = program.run(Program.Engine.BYTECODE);
+        assertThat("Compiled program agrees", bytecodeEndState, is(visitorEndState));
+
+        SymbolValueTable vmEndState = program.run(Program.Engine.VM);
+        assertThat("Virtual machine agrees", vmEndState, is(visitorEndState));
+    }
+
+    // analyzed procedure and program nodes carry types, so they won't equal the desired ones;
+    // the variables are what matter here anyway
+    private void assertSameVariables(SymbolValueTable actual, SymbolValueTable desired, SymbolTable symbolTable) {
+        for (Scope scope : symbolTable.knownScopes()) {
+            FrameLayout layout = symbolTable.getLayout(scope);
+            Frame actualFrame = actual.getFrame(scope);
+            Frame desiredFrame = desired.getFrame(scope);
+
+            for (int slot = 0; slot < layout.size(); slot++) {
+                TypeSpec slotType = layout.slotTypes.get(slot);
+                if (slotType == TypeSpec.PROCEDURE || slotType == TypeSpec.PROGRAM) {
+                    continue;
+                }
+
+                String name = layout.slotNames.get(slot).value;
+                assertThat(name + " initialized", actualFrame.isInitialized(slot), is(desiredFrame.isInitialized(slot)));
+
+                if (desiredFrame.isInitialized(slot)) {
+                    assertThat(name + " value", actualFrame.get(slot), is(desiredFrame.get(slot)));
+                }
+            }
+        }
     }
 
     private SymbolValue<ProgramNode> makeProgram(Scope rootScope, String progText) {
@@ -471,7 +545,7 @@ public class EvalVisitorTest {
         desired.setValue(progScope, Token.ID("b"), SymbolValue.make(TypeSpec.INTEGER, 12));
         desired.setValue(ROOT_SCOPE, progName, makeProgram(ROOT_SCOPE, prog));
 
-        doProgramTest(prog, desired);
+        doUncheckedProgramTest(prog, desired);
     }
 
     @Test
@@ -493,7 +567,7 @@ public class EvalVisitorTest {
         desired.setValue(progScope, Token.ID("b"), SymbolValue.make(TypeSpec.INTEGER, 12));
         desired.setValue(ROOT_SCOPE, progName, makeProgram(ROOT_SCOPE, prog));
 
-        doProgramTest(prog, desired);
+        doUncheckedProgramTest(prog, desired);
     }
 
     @Test
@@ -525,7 +599,7 @@ public class EvalVisitorTest {
         desired.setValue(progScope, Token.ID("b"), SymbolValue.make(TypeSpec.INTEGER, 12));
         desired.setValue(ROOT_SCOPE, progName, makeProgram(ROOT_SCOPE, prog));
 
-        doProgramTest(prog, desired);
+        doUncheckedProgramTest(prog, desired);
     }
 
     @Test
@@ -557,7 +631,7 @@ public class EvalVisitorTest {
         desired.setValue(progScope, Token.ID("b"), SymbolValue.make(TypeSpec.INTEGER, 12));
         desired.setValue(ROOT_SCOPE, progName, makeProgram(ROOT_SCOPE, prog));
 
-        doProgramTest(prog, desired);
+        doUncheckedProgramTest(prog, desired);
     }
 
     @Test
@@ -938,6 +1012,33 @@ public class EvalVisitorTest {
         doProgramTest(progText, symbolValueTable);
     }
 
+    @Test
+    public void countedForLoopTest() {
+        // none of these bodies look at their loop variable, so it is only stored at the end
+        String progText = ""
+                + "program a;"
+                + "     var i, j, k, c: integer;"
+                + "begin"
+                + "     c := 0;"
+                + "     for i := 1 to 100 do"
+                + "         begin c := c+1; if c = 40 then break end;"
+                + "     for j := 5 downto 1 do"
+                + "         c := c+1;"
+                + "     for k := 3 to 2 do"
+                + "         c := c+100"
+                + "end .";
+
+        Token<String> progName = Token.ID("a");
+        Scope progScope = ROOT_SCOPE.makeChildScope(progName);
+        SymbolValueTable symbolValueTable = new SymbolValueTable(makeSymbolTable(progText));
+        symbolValueTable.setValue(ROOT_SCOPE, progName, makeProgram(ROOT_SCOPE, progText));
+        symbolValueTable.setValue(progScope, Token.ID("i"), SymbolValue.make(TypeSpec.INTEGER, 40));
+        symbolValueTable.setValue(progScope, Token.ID("j"), SymbolValue.make(TypeSpec.INTEGER, 1));
+        symbolValueTable.setValue(progScope, Token.ID("c"), SymbolValue.make(TypeSpec.INTEGER, 45));
+
+        doProgramTest(progText, symbolValueTable);
+    }
+
     @Test
     public void procCallTest1() {
         Token<String> progName = Token.ID("progIt");
@@ -989,4 +1090,90 @@ public class EvalVisitorTest {
 
         doProgramTest(progText, desired);
     }
+
+    @Test
+    public void recursionTest() {
+        Token<String> progName = Token.ID("a");
+        Scope progScope = ROOT_SCOPE.makeChildScope(progName);
+
+        Token<String> downName = Token.ID("down");
+        Scope downScope = progScope.makeChildScope(downName);
+
+        // each call gets its own here, and add sees the one from the call it was made in
+        String addText = "procedure add; begin total := total + here * depth end;";
+        ProcedureDeclarationNode addNode = makeProcedure(downScope, addText).value;
+
+        String downText = String.format(
+                "procedure down; var here: integer; %s"
+                        + " begin here := n; n := n - 1; depth := depth + 1; if n > 0 then down(); add() end;",
+                addText);
+        ProcedureDeclarationNode downNode = makeProcedure(progScope, downText).value;
+
+        String progText = String.format(
+                "program a; var n, total, depth: integer; %s begin n := 4; total := 0; depth := 0; down() end.",
+                downText);
+
+        SymbolValueTable desired = new SymbolValueTable(makeSymbolTable(progText));
+        desired.setValue(ROOT_SCOPE, progName, makeProgram(ROOT_SCOPE, progText));
+        desired.setValue(progScope, Token.ID("n"), SymbolValue.make(TypeSpec.INTEGER, 0));
+        desired.setValue(progScope, Token.ID("total"), SymbolValue.make(TypeSpec.INTEGER, 40));
+        desired.setValue(progScope, Token.ID("depth"), SymbolValue.make(TypeSpec.INTEGER, 4));
+        desired.setValue(progScope, downName, SymbolValue.make(TypeSpec.PROCEDURE, downNode));
+        desired.setValue(downScope, Token.ID("add"), SymbolValue.make(TypeSpec.PROCEDURE, addNode));
+
+        doProgramTest(progText, desired);
+    }
+
+    @Test
+    public void typedBooleanEqualityTest() {
+        // only the unboxed path can compare booleans; SymbolValueOps treats = as arithmetic
+        String progText = "program a; var b, c: boolean; begin b := (1 < 2) = true; c := b <> (2.0 < 1) end.";
+        SymbolValueTable actual = Analyzer.setup(progText).run();
+
+        Scope progScope = ROOT_SCOPE.makeChildScope(Token.ID("a"));
+        assertThat(actual.getValue(progScope, Token.ID("b")), is(SymbolValue.make(TypeSpec.BOOLEAN, true)));
+        assertThat(actual.getValue(progScope, Token.ID("c")), is(SymbolValue.make(TypeSpec.BOOLEAN, true)));
+    }
+
+    @Test
+    public void deepNestingTest() {
+        // far deeper than the thread's stack would allow if we recursed once per level, and built on
+        // n so that nothing can be folded away before the engines see it
+        int depth = 100000;
+        String begins = String.join("", Collections.nCopies(depth, "begin "));
+        String ends = String.join("", Collections.nCopies(depth, " end"));
+        String ifs = String.join("", Collections.nCopies(depth, "if n = 0 then "));
+        String whiles = String.join("", Collections.nCopies(depth, "while n < 3 do "));
+        String opens = String.join("", Collections.nCopies(depth, "("));
+        String sums = String.join("", Collections.nCopies(depth, " + 1)"));
+        String nots = String.join("", Collections.nCopies(depth + 1, "not "));
+        String ands = String.join("", Collections.nCopies(depth, " and then p"));
+
+        String progText = "program deep; var a, b, n: integer; p, q: boolean; "
+                + "begin n := 0; "
+                + begins + "a := " + opens + "n" + sums + ends + "; "
+                + ifs + "b := 2; "
+                + whiles + "n := n + 1; "
+                + "p := " + nots + "(n = 0); "
+                + "q := p" + ands
+                + " end.";
+
+        Program program = Analyzer.setup(progText);
+        Scope progScope = ROOT_SCOPE.makeChildScope(Token.ID("deep"));
+
+        for (Program.Engine engine : Program.Engine.values()) {
+            SymbolValueTable actual = program.run(engine);
+
+            assertThat(engine.name(), actual.getValue(progScope, Token.ID("a")),
+                    is(SymbolValue.make(TypeSpec.INTEGER, depth)));
+            assertThat(engine.name(), actual.getValue(progScope, Token.ID("b")),
+                    is(SymbolValue.make(TypeSpec.INTEGER, 2)));
+            assertThat(engine.name(), actual.getValue(progScope, Token.ID("n")),
+                    is(SymbolValue.make(TypeSpec.INTEGER, 3)));
+            assertThat(engine.name(), actual.getValue(progScope, Token.ID("p")),
+                    is(SymbolValue.make(TypeSpec.BOOLEAN, true)));
+            assertThat(engine.name(), actual.getValue(progScope, Token.ID("q")),
+                    is(SymbolValue.make(TypeSpec.BOOLEAN, true)));
+        }
+    }
 }
@@ -0,0 +1,116 @@
+package io.github.rodyamirov.exec;
+
+import io.github.rodyamirov.analysis.Analyzer;
+import io.github.rodyamirov.analysis.Program;
+import io.github.rodyamirov.exceptions.VariableException;
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.symbols.SymbolValue;
+import io.github.rodyamirov.symbols.SymbolValueTable;
+import io.github.rodyamirov.symbols.TypeSpec;
+import org.junit.Test;
+
+import static io.github.rodyamirov.symbols.ScopeAssigner.ROOT_SCOPE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class SpecializerTest {
+    private SymbolValueTable doAgreementTest(String progText) {
+        Program program = Analyzer.setup(progText, Program.Engine.SPECIALIZED);
+
+        SymbolValueTable specialized = program.run();
+        SymbolValueTable visited = program.run(Program.Engine.VISITOR);
+
+        assertThat("Engines agree", specialized, is(visited));
+        return specialized;
+    }
+
+    @Test
+    public void arithmeticTest() {
+        String progText = ""
+                + "program a;"
+                + " var i, j, k: integer; x, y: real; p, q: boolean;"
+                + " begin"
+                + "     i := 7; j := i + 3; k := 2 + j - i * 4 div 3 mod 5;"
+                + "     x := i / 2; y := -x + 1.5 * k - j;"
+                + "     p := (i < 10) and (x >= 3.5) and not (y = 2.0);"
+                + "     q := (p = true) or else (k <> -k)"
+                + " end.";
+
+        SymbolValueTable end = doAgreementTest(progText);
+
+        Scope progScope = ROOT_SCOPE.makeChildScope(Token.ID("a"));
+        assertThat(end.getValue(progScope, Token.ID("k")), is(SymbolValue.make(TypeSpec.INTEGER, 8)));
+        assertThat(end.getValue(progScope, Token.ID("y")), is(SymbolValue.make(TypeSpec.REAL, -3.5f + 12f - 10)));
+        assertThat(end.getValue(progScope, Token.ID("p")), is(SymbolValue.make(TypeSpec.BOOLEAN, true)));
+    }
+
+    @Test
+    public void loopControlTest() {
+        String progText = ""
+                + "program a;"
+                + " var i, j, total: integer;"
+                + " begin"
+                + "     total := 0;"
+                + "     for i := 1 to 10 do"
+                + "     begin"
+                + "         if i mod 2 = 0 then continue;"
+                + "         j := 0;"
+                + "         while true do begin j := j + 1; if j > i then break end;"
+                + "         total := total + j"
+                + "     end;"
+                + "     do begin total := total - 1; if total < 20 then break end until false;"
+                + "     for i := 5 downto 1 do total := total + i"
+                + " end.";
+
+        SymbolValueTable end = doAgreementTest(progText);
+
+        Scope progScope = ROOT_SCOPE.makeChildScope(Token.ID("a"));
+        assertThat(end.getValue(progScope, Token.ID("total")), is(SymbolValue.make(TypeSpec.INTEGER, 34)));
+        assertThat(end.getValue(progScope, Token.ID("i")), is(SymbolValue.make(TypeSpec.INTEGER, 1)));
+    }
+
+    @Test
+    public void procedureTest() {
+        String progText = ""
+                + "program a;"
+                + " var n, total: integer;"
+                + " procedure down;"
+                + "     var here: integer;"
+                + "     procedure bump; begin total := total + here end;"
+                + "     begin"
+                + "         here := n; n := n - 1;"
+                + "         bump();"
+                + "         if n > 0 then down()"
+                + "     end;"
+                + " begin"
+                + "     n := 4; total := 0;"
+                + "     down();"
+                + "     if false then nowhere()"
+                + " end.";
+
+        SymbolValueTable end = doAgreementTest(progText);
+
+        // the one frame per scope is shared by the recursive calls, as it is for the EvalVisitor
+        Scope progScope = ROOT_SCOPE.makeChildScope(Token.ID("a"));
+        assertThat(end.getValue(progScope, Token.ID("total")), is(SymbolValue.make(TypeSpec.INTEGER, 10)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void lockedLoopVariableTest() {
+        String progText = "program a; var i: integer; begin for i := 1 to 3 do i := 2 end.";
+        Analyzer.setup(progText, Program.Engine.SPECIALIZED).run();
+    }
+
+    @Test(expected = VariableException.class)
+    public void unassignedTest() {
+        String progText = "program a; var i, j: integer; begin i := j + 1 end.";
+        Analyzer.setup(progText, Program.Engine.SPECIALIZED).run();
+    }
+
+    @Test(expected = VariableException.class)
+    public void undefinedProcedureTest() {
+        String progText = "program a; begin nowhere() end.";
+        Analyzer.setup(progText, Program.Engine.SPECIALIZED).run();
+    }
+}
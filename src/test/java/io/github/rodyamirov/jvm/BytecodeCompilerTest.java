@@ -0,0 +1,126 @@
+package io.github.rodyamirov.jvm;
+
+import io.github.rodyamirov.analysis.Analyzer;
+import io.github.rodyamirov.analysis.Program;
+import io.github.rodyamirov.exceptions.VariableException;
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.symbols.SymbolValue;
+import io.github.rodyamirov.symbols.SymbolValueTable;
+import io.github.rodyamirov.symbols.TypeSpec;
+import org.junit.Test;
+
+import static io.github.rodyamirov.symbols.ScopeAssigner.ROOT_SCOPE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class BytecodeCompilerTest {
+    private SymbolValueTable doAgreementTest(String progText) {
+        Program program = Analyzer.setup(progText, Program.Engine.BYTECODE);
+
+        SymbolValueTable compiled = program.run();
+        SymbolValueTable visited = program.run(Program.Engine.VISITOR);
+
+        assertThat("Engines agree", compiled, is(visited));
+
+        // and the generated class can be run again
+        assertThat("Reruns agree", program.run(), is(visited));
+        return compiled;
+    }
+
+    private static final Scope PROG_SCOPE = ROOT_SCOPE.makeChildScope(Token.ID("a"));
+
+    @Test
+    public void numericLoopTest() {
+        String progText = ""
+                + "program a;"
+                + " var i, total: integer; x: real; even: boolean;"
+                + " begin"
+                + "     total := 0; x := 0;"
+                + "     for i := 1 to 100000 do"
+                + "     begin"
+                + "         even := i mod 2 = 0;"
+                + "         if even and then (i > 10) then total := total + i div 2 else total := total - 1;"
+                + "         x := x + 1 / i"
+                + "     end"
+                + " end.";
+
+        SymbolValueTable end = doAgreementTest(progText);
+        assertThat(end.getValue(PROG_SCOPE, Token.ID("i")), is(SymbolValue.make(TypeSpec.INTEGER, 100000)));
+    }
+
+    @Test
+    public void nestedProcedureTest() {
+        String progText = ""
+                + "program a;"
+                + " var n, total: integer;"
+                + " procedure outer;"
+                + "     var step: integer;"
+                + "     procedure inner; begin total := total + step end;"
+                + "     begin"
+                + "         step := 3;"
+                + "         while n > 0 do begin inner(); n := n - 1; if n = 2 then continue end"
+                + "     end;"
+                + " procedure unused; procedure hidden; begin end; begin end;"
+                + " begin"
+                + "     n := 5; total := 0;"
+                + "     outer();"
+                + "     do total := total * 2 until total > 100"
+                + " end.";
+
+        SymbolValueTable end = doAgreementTest(progText);
+        assertThat(end.getValue(PROG_SCOPE, Token.ID("total")), is(SymbolValue.make(TypeSpec.INTEGER, 120)));
+    }
+
+    @Test
+    public void recursiveActivationTest() {
+        // each call has its own here, even though add reads it from a field
+        String progText = ""
+                + "program a;"
+                + " var n, total: integer;"
+                + " procedure down;"
+                + "     var here: integer;"
+                + "     procedure add; begin total := total + here end;"
+                + "     begin here := n; n := n - 1; if n > 0 then down(); add() end;"
+                + " begin n := 4; total := 0; down() end.";
+
+        SymbolValueTable end = doAgreementTest(progText);
+        assertThat(end.getValue(PROG_SCOPE, Token.ID("total")), is(SymbolValue.make(TypeSpec.INTEGER, 10)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void lockedThroughProcedureTest() {
+        String progText = ""
+                + "program a;"
+                + " var i: integer;"
+                + " procedure meddle; begin i := 12 end;"
+                + " begin for i := 1 to 3 do meddle() end.";
+
+        Analyzer.setup(progText, Program.Engine.BYTECODE).run();
+    }
+
+    @Test(expected = VariableException.class)
+    public void unassignedTest() {
+        String progText = "program a; var i, j: integer; begin i := 1; if i > 0 then i := j end.";
+        Analyzer.setup(progText, Program.Engine.BYTECODE).run();
+    }
+
+    @Test(expected = VariableException.class)
+    public void undefinedProcedureTest() {
+        String progText = "program a; var i: integer; begin i := 1; if i = 1 then nowhere() end.";
+        Analyzer.setup(progText, Program.Engine.BYTECODE).run();
+    }
+
+    @Test
+    public void largeProgramTest() {
+        // far more than fits in one JVM method, so this falls back on another engine
+        StringBuilder sb = new StringBuilder("program a; var total, x: integer; begin total := 0; x := 1");
+        for (int i = 0; i < 6000; i++) {
+            sb.append("; total := total + x * ").append(i % 7).append("; x := x mod 5 + 1");
+        }
+        sb.append(" end.");
+
+        SymbolValueTable end = doAgreementTest(sb.toString());
+        assertThat(end.getValue(PROG_SCOPE, Token.ID("x")), is(SymbolValue.make(TypeSpec.INTEGER, 1)));
+    }
+}
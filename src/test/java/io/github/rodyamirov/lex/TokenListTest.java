@@ -0,0 +1,99 @@
+package io.github.rodyamirov.lex;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class TokenListTest {
+    private static final String[] SNIPPETS = {
+            "", " ", "z", "1", ";", ":=", "begin ", " end", "{ c }", "\n", "x + 2", "ab", "12.5", "<", ">", "="
+    };
+
+    // lexing it all over again is the standard to meet
+    private static void assertSameAsFresh(TokenList tokenList, String text) {
+        TokenList fresh = new TokenList(text);
+
+        assertThat(tokenList.text(), is(text));
+        assertThat(tokenList.size(), is(fresh.size()));
+
+        for (int i = 0; i < fresh.size(); i++) {
+            assertThat(tokenList.get(i), is(fresh.get(i)));
+        }
+    }
+
+    private static String lexError(String text) {
+        try {
+            new TokenList(text);
+            return null;
+        } catch (IllegalStateException | NumberFormatException e) {
+            return e.getMessage();
+        }
+    }
+
+    @Test
+    public void fullArrayTest() {
+        // sixteen tokens fill the arrays exactly, so there's no gap to start with
+        String text = "a b c d e f g h i j k l m n o p";
+        TokenList tokenList = new TokenList(text);
+
+        tokenList.edit(0, 1, "z");
+        assertSameAsFresh(tokenList, "z" + text.substring(1));
+    }
+
+    @Test
+    public void symbolIdTest() {
+        TokenList tokenList = new TokenList("a := b + a");
+        Token a = tokenList.get(0);
+
+        // a name keeps its id through edits, and a new one gets the next
+        tokenList.edit(5, 6, "c");
+        assertThat(tokenList.get(2).symbolId, is(2));
+        assertThat(tokenList.get(4), is(a));
+        assertThat(tokenList.get(4).symbolId, is(a.symbolId));
+
+        Tokenizer tokenizer = tokenList.tokenizer(0, tokenList.size());
+        assertThat(tokenizer.symbolCount(), is(3));
+    }
+
+    @Test
+    public void randomEditsTest() {
+        Random random = new Random(25);
+
+        // the sizes around sixteen tokens are the interesting ones, since that's where arrays fill
+        for (int words = 0; words < 40; words++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < words; i++) {
+                sb.append("w").append(i).append(' ');
+            }
+
+            String text = sb.toString();
+            TokenList tokenList = new TokenList(text);
+
+            for (int step = 0; step < 50; step++) {
+                int start = random.nextInt(text.length() + 1);
+                int end = Math.min(text.length(), start + random.nextInt(6));
+                String replacement = SNIPPETS[random.nextInt(SNIPPETS.length)];
+
+                text = text.substring(0, start) + replacement + text.substring(end);
+
+                String expectedError = lexError(text);
+                String error = null;
+
+                try {
+                    tokenList.edit(start, end, replacement);
+                } catch (IllegalStateException | NumberFormatException e) {
+                    error = e.getMessage();
+                }
+
+                // if it doesn't lex, the next edit has to make up for this one too
+                assertThat(error, is(expectedError));
+                if (error == null) {
+                    assertSameAsFresh(tokenList, text);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.rodyamirov.lex;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * Not a test; run main to see how many tokens per second the tokenizer gets through on a large,
+ * generated program, lexing it straight through and in parallel. The source mixes everything the lexer sees in practice: keywords in any
+ * case, repeated and fresh identifiers, integer and real constants, comments and operators.
+ */
+public class TokenizerBenchmark {
+    private static final int PROCEDURES = 2000;
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int ROUNDS = 50;
+
+    public static String makeSource(int procedures) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("PROGRAM bench;\nVAR total, count: INTEGER; scale: REAL;\n");
+
+        for (int i = 0; i < procedures; i++) {
+            sb.append("procedure Step").append(i).append(";\n");
+            sb.append("    var t").append(i).append(", i: integer; r: real;\n");
+            sb.append("    begin { step ").append(i).append(" }\n");
+            sb.append("        t").append(i).append(" := ").append(i * 37).append(";\n");
+            sb.append("        for i := 1 to 10 do\n");
+            sb.append("            if (i mod 3 = 0) and not (count >= 100) then total := total + t")
+                    .append(i).append(" DIV 2\n");
+            sb.append("            else total := total - i * 2;\n");
+            sb.append("        r := ").append(i).append(".25 / scale;\n");
+            sb.append("        while count <> 0 do begin count := count - 1; if count <= 5 then break end\n");
+            sb.append("    End;\n");
+        }
+
+        sb.append("BEGIN total := 0; count := 10; scale := 1.5 END.\n");
+        return sb.toString();
+    }
+
+    private static int drain(Tokenizer tokenizer) {
+        int count = 0;
+
+        // the parser peeks at nearly every token before taking it, so we do too
+        while (tokenizer.peek().type != Token.Type.EOF) {
+            tokenizer.getNextToken();
+            count += 1;
+        }
+
+        return count;
+    }
+
+    private static void measure(String name, String source, Function<String, Tokenizer> makeTokenizer) {
+        int tokens = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            tokens = drain(makeTokenizer.apply(source));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            drain(makeTokenizer.apply(source));
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double tokensPerSecond = (double) tokens * ROUNDS / (elapsed / 1e9);
+        System.out.println(String.format("%s: %d chars, %d tokens per round, %.0f tokens/second",
+                name, source.length(), tokens, tokensPerSecond));
+    }
+
+    public static void main(String[] args) {
+        String source = makeSource(PROCEDURES);
+
+        measure("sequential", source, Tokenizer::new);
+        measure(String.format("parallel (%d threads)", ForkJoinPool.commonPool().getParallelism()),
+                source, ParallelTokenizer::tokenize);
+    }
+}
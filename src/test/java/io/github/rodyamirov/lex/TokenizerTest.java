@@ -3,9 +3,22 @@ package io.github.rodyamirov.lex;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsSame.sameInstance;
 
 /**
  * Created by richard.rast on 12/22/16.
@@ -14,6 +27,9 @@ public class TokenizerTest {
     @Rule
     public ExpectedException thrown = ExpectedException.none();
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private void doTokenizerTest(String text, Token[] tokens) {
         Tokenizer tokenizer = new Tokenizer(text);
         for (Token token : tokens) {
@@ -277,4 +293,149 @@ public class TokenizerTest {
         doTokenizerTestThenError(text, correct,
                 "EOF reached, still 2 comment levels deep");
     }
+
+    @Test
+    public void repeatedIdTest() {
+        Tokenizer tokenizer = new Tokenizer("total Total TOTAL count");
+        Token first = tokenizer.getNextToken();
+
+        // every spelling of the same name is the same token, within one tokenizer
+        assertThat(tokenizer.getNextToken(), sameInstance(first));
+        assertThat(tokenizer.getNextToken(), sameInstance(first));
+        assertThat(Token.ID("tOtAl"), is(first));
+
+        Token count = tokenizer.getNextToken();
+        assertThat(count, not(first));
+
+        // and each name gets the next symbol id, within the program
+        assertThat(first.symbolId, is(0));
+        assertThat(count.symbolId, is(1));
+        assertThat(tokenizer.symbolCount(), is(2));
+
+        // names which didn't come from lexing don't have one
+        assertThat(Token.ID("total").symbolId, is(-1));
+        assertThat(Token.INT_CONSTANT(3).symbolId, is(-1));
+    }
+
+    @Test
+    public void streamingTest() {
+        // comments, two-character operators and long ids straddling every possible boundary
+        String text = "program a; { outer { inner } still outer } var abcdefghij: integer;"
+                + " begin abcdefghij := 12345; if abcdefghij <= 3.25 then abcdefghij := 1"
+                + " else if abcdefghij <> 2 then abcdefghij := 0 end.";
+
+        for (int bufferSize = 2; bufferSize < 20; bufferSize++) {
+            Tokenizer expected = new Tokenizer(text);
+            Tokenizer streamed = new Tokenizer(new StringReader(text), bufferSize);
+
+            Token token;
+            do {
+                assertThat(streamed.peek(2), is(expected.peek(2)));
+                token = expected.getNextToken();
+                assertThat(streamed.getNextToken(), is(token));
+            } while (token != Token.EOF);
+        }
+
+        // and from a channel, through a decoder
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        Tokenizer expected = new Tokenizer(text);
+        Tokenizer streamed = new Tokenizer(
+                Channels.newChannel(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8);
+
+        Token token;
+        do {
+            token = expected.getNextToken();
+            assertThat(streamed.getNextToken(), is(token));
+        } while (token != Token.EOF);
+    }
+
+    @Test
+    public void streamingErrorTest() {
+        Tokenizer tokenizer = new Tokenizer(new StringReader("1 {{ 2 }  3"), 3);
+
+        assertThat(tokenizer.getNextToken(), is(Token.INT_CONSTANT(1)));
+
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage(is("EOF reached, still 1 comment levels deep"));
+
+        tokenizer.getNextToken();
+    }
+
+    @Test
+    public void mappedFileTest() throws IOException {
+        // one, two, three and four byte characters
+        String text = "program caf\u00e9; { na\u00efve \u2192 \ud834\udd1e } var \u00c9t\u00e9: real;"
+                + " begin \u00e9t\u00e9 := 2.5 end.";
+
+        Path path = folder.newFile().toPath();
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+
+        Tokenizer expected = new Tokenizer(text);
+        Tokenizer mapped = new Tokenizer(path);
+
+        Token token;
+        do {
+            token = expected.getNextToken();
+            assertThat(mapped.getNextToken(), is(token));
+        } while (token != Token.EOF);
+    }
+
+    private void doParallelTest(String text, int pieceLength) {
+        Tokenizer expected = new Tokenizer(text);
+        Tokenizer parallel = ParallelTokenizer.tokenize(text, new ForkJoinPool(4), pieceLength);
+
+        RuntimeException expectedError = null;
+        RuntimeException parallelError = null;
+
+        while (expectedError == null) {
+            Token token = null;
+            try {
+                token = expected.getNextToken();
+            } catch (RuntimeException e) {
+                expectedError = e;
+            }
+
+            try {
+                Token next = parallel.getNextToken();
+                assertThat(next, is(token));
+                assertThat(next.symbolId, is(token.symbolId));
+            } catch (RuntimeException e) {
+                parallelError = e;
+            }
+
+            assertThat(parallelError == null, is(expectedError == null));
+
+            if (token == Token.EOF) {
+                break;
+            }
+        }
+
+        if (expectedError != null) {
+            assertThat(parallelError.getClass().equals(expectedError.getClass()), is(true));
+            assertThat(parallelError.getMessage(), is(expectedError.getMessage()));
+        }
+    }
+
+    @Test
+    public void parallelTest() {
+        StringBuilder sb = new StringBuilder("program a; begin ");
+        for (int i = 0; i < 200; i++) {
+            // comments nested, long, and with whitespace where pieces may get cut
+            sb.append("x").append(i).append(" := ").append(i).append(".5 { a { b c } d e }; ");
+            if (i % 17 == 0) {
+                sb.append("{ ").append(String.join(" ", Collections.nCopies(i, "{ } z"))).append(" } ");
+            }
+        }
+        sb.append("end.");
+        String text = sb.toString();
+
+        for (int pieceLength = 1; pieceLength < 40; pieceLength += 3) {
+            doParallelTest(text, pieceLength);
+
+            // errors land where they would have anyway
+            doParallelTest(text.replace("x150", "x150 ?"), pieceLength);
+            doParallelTest(text.replace("x150", "x150 }"), pieceLength);
+            doParallelTest(text + " { { }", pieceLength);
+        }
+    }
 }
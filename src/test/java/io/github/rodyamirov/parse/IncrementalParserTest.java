@@ -0,0 +1,156 @@
+package io.github.rodyamirov.parse;
+
+import io.github.rodyamirov.exceptions.UnexpectedTokenException;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class IncrementalParserTest {
+    private static final String PROGRAM = "program edits; var a, b: boolean; x, y, i: integer;\n"
+            + "procedure outer; var z: integer;\n"
+            + "  procedure inner; begin z := 1; if a then x := 2 else begin y := 3; z := 4 end end;\n"
+            + "  procedure inner2; begin do x := x + 1 until x > 3 end;\n"
+            + "begin inner(); inner2() end;\n"
+            + "procedure first; begin x := 1; for i := 1 to 10 do if x > 5 then break else y := y - i end;\n"
+            + "procedure second; begin { nothing } y := 2; while x <> 0 do begin x := x - 1 end end;\n"
+            + "begin x := 1; while x < 10 do begin if a and then b then x := x + 2 else x := x + 1; "
+            + "for i := 1 to 3 do y := y + i end; outer() end.\n";
+
+    private static final String[] SNIPPETS = {
+            "", " ", "x", "1", ";", "begin ", " end", "if a then ", " else ", "x := 1", "{", "}", "(", ")",
+            "procedure q; begin end;", "while a do ", "do x := 1 until a", "+ 2", "break", ":=", "\n",
+            "var z: integer;", "; x := 2", "begin x := 1; y := 2 end", "not ", " and then b", "#", "99999999999"
+    };
+
+    // the tree parsing the whole text would give, or the error
+    private static Object parseAll(String text) {
+        try {
+            return Parser.parseProgram(text);
+        } catch (RuntimeException e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    }
+
+    private static Object edit(IncrementalParser parser, int start, int end, String replacement) {
+        try {
+            return parser.edit(start, end, replacement);
+        } catch (RuntimeException e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    }
+
+    private static void doRandomEditsTest(String program, Random random, int steps) {
+        IncrementalParser parser = new IncrementalParser(program);
+        String text = program;
+
+        // how to undo the edits so far, so the text keeps coming back to something which parses
+        Deque<Object[]> undos = new ArrayDeque<>();
+        boolean broken = false;
+
+        for (int i = 0; i < steps; i++) {
+            int start;
+            int end;
+            String replacement;
+
+            if (!undos.isEmpty() && random.nextInt(10) < (broken ? 8 : 2)) {
+                Object[] undo = undos.pop();
+                start = (Integer) undo[0];
+                end = (Integer) undo[1];
+                replacement = (String) undo[2];
+            } else {
+                start = random.nextInt(text.length() + 1);
+                end = Math.min(text.length(), start + (random.nextInt(3) == 0 ? random.nextInt(15) : 0));
+                replacement = SNIPPETS[random.nextInt(SNIPPETS.length)];
+                undos.push(new Object[] { start, start + replacement.length(), text.substring(start, end) });
+            }
+
+            text = text.substring(0, start) + replacement + text.substring(end);
+
+            Object expected = parseAll(text);
+            assertThat(edit(parser, start, end, replacement), is(expected));
+            assertThat(parser.text(), is(text));
+
+            broken = !(expected instanceof ProgramNode);
+            if (!broken) {
+                assertThat(parser.programNode(), is(expected));
+            }
+        }
+    }
+
+    @Test
+    public void randomEditsTest() {
+        doRandomEditsTest(PROGRAM, new Random(25), 2000);
+    }
+
+    @Test
+    public void randomEditsOnSmallProgramsTest() {
+        // small programs start with token arrays which are nearly or exactly full
+        Random random = new Random(26);
+        StringBuilder statements = new StringBuilder();
+
+        for (int i = 0; i < 12; i++) {
+            doRandomEditsTest("program p; var x, y: integer; begin x := 1" + statements + " end.", random, 200);
+            statements.append("; y := ").append(i);
+        }
+    }
+
+    @Test
+    public void reuseTest() {
+        IncrementalParser parser = new IncrementalParser(PROGRAM);
+        List<ProcedureDeclarationNode> before = parser.programNode().blockNode.declarationNode.procedureDeclarations;
+
+        int at = PROGRAM.indexOf("y := 2");
+        ProgramNode edited = parser.edit(at, at + "y := 2".length(), "y := 2 * x; x := y");
+        List<ProcedureDeclarationNode> after = edited.blockNode.declarationNode.procedureDeclarations;
+
+        assertThat(edited, is(Parser.parseProgram(parser.text())));
+        assertThat(after.get(0), is(sameInstance(before.get(0))));
+        assertThat(after.get(1), is(sameInstance(before.get(1))));
+        assertThat(after.get(2), is(not(sameInstance(before.get(2)))));
+
+        // the main program's statements are untouched too
+        assertThat(edited.blockNode.compoundNode.statements.get(1),
+                is(sameInstance(parser.programNode().blockNode.compoundNode.statements.get(1))));
+
+        // and whitespace or comments leave the whole tree as it was
+        assertThat(parser.edit(at, at, "{ a comment }  "), is(sameInstance(edited)));
+    }
+
+    @Test
+    public void brokenThenFixedTest() {
+        IncrementalParser parser = new IncrementalParser(PROGRAM);
+        ProgramNode original = parser.programNode();
+
+        // an unterminated comment doesn't even lex
+        int at = PROGRAM.indexOf("x := 1;");
+        Object error = edit(parser, at, at, "{ ");
+        assertThat(error, is(parseAll(parser.text())));
+        assertThat(parser.programNode(), is(sameInstance(original)));
+
+        // then a statement which doesn't parse, after the comment's been closed
+        parser.edit(at + 2, at + 2, "} ");
+
+        int broken = parser.text().indexOf("y := y - i");
+        try {
+            parser.edit(broken, broken + 1, "then");
+            assertThat("Shouldn't be here", true, is(false));
+        } catch (UnexpectedTokenException ute) {
+            assertThat(ute.getMessage(), is("Unexpected token type THEN"));
+        }
+
+        // and fixing it gives the same tree as parsing everything
+        ProgramNode fixed = parser.edit(broken, broken + "then".length(), "y");
+        assertThat(fixed, is(Parser.parseProgram(parser.text())));
+        assertThat(parser.text(), is(PROGRAM.substring(0, at) + "{ } " + PROGRAM.substring(at)));
+    }
+}
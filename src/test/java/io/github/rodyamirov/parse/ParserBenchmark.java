@@ -0,0 +1,100 @@
+package io.github.rodyamirov.parse;
+
+import io.github.rodyamirov.lex.TokenizerBenchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Not a test; run main to time parsing programs already in memory (one typical, one which is
+ * nearly all arithmetic), and to compare parsing a large program file by reading it all into a
+ * String against parsing it straight from a memory map. Then times an IncrementalParser picking up
+ * a one-token edit in the middle of programs of different sizes, against parsing them all again.
+ */
+public class ParserBenchmark {
+    private static final int PROCEDURES = 20000;
+    private static final int WARMUP_ROUNDS = 100;
+    private static final int ROUNDS = 20;
+
+    private interface FileParse {
+        void parse(Path path) throws IOException;
+    }
+
+    private static double millisPerParse(Path path, FileParse fileParse) throws IOException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            fileParse.parse(path);
+        }
+
+        // this is noisy enough that the best round says more than the average
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            fileParse.parse(path);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        return best / 1e6;
+    }
+
+    private static String makeArithmeticSource(int statements) {
+        StringBuilder sb = new StringBuilder("program arithmetic; var a, b, c: integer; begin ");
+
+        for (int i = 0; i < statements; i++) {
+            sb.append("a := (a + b * 3 - c div 2) * (b - 1) + c mod 7 - (a + 1) * (b + 2); ");
+            sb.append("if (a < b) and then not (c >= 2 or b = a) then c := -c; ");
+        }
+
+        sb.append("end.");
+        return sb.toString();
+    }
+
+    // changes the constant in the middle procedure's first statement, and back, so each round is
+    // two edits
+    private static void timeEdits(int procedures) throws IOException {
+        String source = TokenizerBenchmark.makeSource(procedures);
+        IncrementalParser incrementalParser = new IncrementalParser(source);
+
+        String constant = Integer.toString((procedures / 2) * 37);
+        int at = source.indexOf(" := " + constant + ";") + 4;
+        int end = at + constant.length();
+
+        double edit = millisPerParse(null, p -> {
+            incrementalParser.edit(at, end, "1");
+            incrementalParser.edit(at, at + 1, constant);
+        }) / 2;
+        double full = millisPerParse(null, p -> Parser.parseProgram(source));
+
+        System.out.println(String.format("%d chars: incremental edit %.3f ms, full parse %.2f ms",
+                source.length(), edit, full));
+    }
+
+    public static void main(String[] args) throws IOException {
+        String typical = TokenizerBenchmark.makeSource(PROCEDURES / 10);
+        System.out.println(String.format("%d chars in memory, typical: %.2f ms/parse",
+                typical.length(), millisPerParse(null, p -> Parser.parseProgram(typical))));
+
+        String arithmetic = makeArithmeticSource(PROCEDURES / 4);
+        System.out.println(String.format("%d chars in memory, arithmetic: %.2f ms/parse",
+                arithmetic.length(), millisPerParse(null, p -> Parser.parseProgram(arithmetic))));
+
+        Path path = Files.createTempFile("parser-benchmark", ".pas");
+
+        try {
+            Files.write(path, TokenizerBenchmark.makeSource(PROCEDURES).getBytes(StandardCharsets.UTF_8));
+
+            double read = millisPerParse(path,
+                    p -> Parser.parseProgram(new String(Files.readAllBytes(p), StandardCharsets.UTF_8)));
+            double mapped = millisPerParse(path, Parser::parseProgram);
+
+            System.out.println(String.format("%d bytes: readAllBytes %.1f ms/parse, mapped %.1f ms/parse",
+                    Files.size(path), read, mapped));
+        } finally {
+            Files.delete(path);
+        }
+
+        timeEdits(PROCEDURES / 10);
+        timeEdits(PROCEDURES);
+    }
+}
@@ -277,6 +277,38 @@ public class ParserTest {
         doParseExpressionTest(text, tree);
     }
 
+    @Test
+    public void shortCircuitTest3() {
+        // AND and OR only short circuit when THEN or ELSE follows, and then bind loosest of all
+        SyntaxTree tree = new OrElseNode(
+                new AndThenNode(
+                        new BinOpNode(
+                                new VariableEvalNode(Token.ID("a")),
+                                new VariableEvalNode(Token.ID("b")),
+                                Token.AND
+                        ),
+                        new BinOpNode(
+                                new VariableEvalNode(Token.ID("c")),
+                                new BinOpNode(
+                                        new VariableEvalNode(Token.ID("d")),
+                                        new VariableEvalNode(Token.ID("e")),
+                                        Token.OR
+                                ),
+                                Token.EQUALS
+                        )
+                ),
+                new VariableEvalNode(Token.ID("f"))
+        );
+
+        String[] text = new String[] {
+                "a and b and then c = d or e or else f",
+                "((a and b) and then (c = (d or e))) or else f",
+                "(a and b and then c = d or e) or else (f)"
+        };
+
+        doParseExpressionTest(text, tree);
+    }
+
     @Test
     public void boolExprTest1() {
         // tests NOT/OR/AND
@@ -1106,4 +1138,54 @@ public class ParserTest {
         );
         doParseStatementTest(new String[] {loopText}, desired);
     }
+
+    @Test
+    public void canLeaveTest() {
+        assertThat(Parser.parseStatement("break").canLeave(), is(true));
+        assertThat(Parser.parseStatement("begin a := 1; b := 2 end").canLeave(), is(false));
+        assertThat(Parser.parseStatement("begin a := 1; if a = 1 then begin continue end end").canLeave(), is(true));
+        assertThat(Parser.parseStatement("if a = 1 then a := 2 else break").canLeave(), is(true));
+
+        // loops keep their own breaks
+        assertThat(Parser.parseStatement("begin while true do break; a := 1 end").canLeave(), is(false));
+        assertThat(Parser.parseStatement("for a := 1 to 2 do continue").canLeave(), is(false));
+    }
+
+    private static String repeat(String text, int times) {
+        return String.join("", Collections.nCopies(times, text));
+    }
+
+    @Test
+    public void deepNestingTest() {
+        // far deeper than the thread's stack would allow if we recursed once per level
+        int depth = 100000;
+
+        StatementNode statement = Parser.parseStatement(
+                repeat("begin if a then ", depth) + "a := 1" + repeat(" end", depth));
+        for (int i = 0; i < depth; i++) {
+            CompoundNode compoundNode = (CompoundNode) statement;
+            assertThat(compoundNode.statements.size(), is(1));
+            statement = ((IfStatementNode) compoundNode.statements.get(0)).thenStatement;
+        }
+        assertThat(statement, is(new AssignNode(new VariableAssignNode(Token.ID("a")), constant(1))));
+
+        ExpressionNode expression = Parser.parseExpression(repeat("-(", depth) + "1" + repeat(" + 2)", depth));
+        for (int i = 0; i < depth; i++) {
+            UnaryOpNode unaryOpNode = (UnaryOpNode) expression;
+            assertThat(unaryOpNode.opToken, is(Token.MINUS));
+
+            BinOpNode binOpNode = (BinOpNode) unaryOpNode.child;
+            assertThat(binOpNode.right, is(constant(2)));
+            expression = binOpNode.left;
+        }
+        assertThat(expression, is(constant(1)));
+
+        // and the error is the same one the parser would always have given
+        try {
+            Parser.parseExpression(repeat("(", depth) + "1" + repeat(")", depth - 1));
+            assertThat("Shouldn't be here", true, is(false));
+        } catch (UnexpectedTokenException ute) {
+            assertThat(ute.getMessage(), is("Unexpected token type EOF"));
+        }
+    }
 }
@@ -0,0 +1,65 @@
+package io.github.rodyamirov.symbols;
+
+import io.github.rodyamirov.lex.Token;
+import org.junit.Test;
+
+import static io.github.rodyamirov.symbols.ScopeAssigner.ROOT_SCOPE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class FramePoolTest {
+    private static final Scope PROG_SCOPE = ROOT_SCOPE.makeChildScope(Token.ID("a"));
+    private static final Scope PROC_SCOPE = PROG_SCOPE.makeChildScope(Token.ID("p"));
+
+    private final SymbolValueTable symbolValueTable = new SymbolValueTable(SymbolTable.builder()
+            .addSymbol(PROG_SCOPE, Token.ID("p"), TypeSpec.PROCEDURE)
+            .addSymbol(PROC_SCOPE, Token.ID("x"), TypeSpec.INTEGER)
+            .build());
+
+    @Test
+    public void homeFrameFirstTest() {
+        FramePool framePool = symbolValueTable.getFramePool(PROC_SCOPE);
+        Frame home = symbolValueTable.getFrame(PROC_SCOPE);
+        Frame link = symbolValueTable.getFrame(PROG_SCOPE);
+
+        Frame first = framePool.enter(link);
+        assertThat(first == home, is(true));
+        first.setInt(0, 1);
+
+        // a recursive activation gets a frame of its own
+        Frame second = framePool.enter(first.parent);
+        assertThat(second == home, is(false));
+        assertThat(second.isInitialized(0), is(false));
+        second.setInt(0, 2);
+
+        framePool.exit(second);
+        assertThat(first.getInt(0), is(1));
+
+        framePool.exit(first);
+        assertThat(home.isInitialized(0), is(false));
+
+        // and the home frame is free again afterward
+        assertThat(framePool.enter(link) == home, is(true));
+    }
+
+    @Test
+    public void recycledFrameTest() {
+        FramePool framePool = symbolValueTable.getFramePool(PROC_SCOPE);
+        Frame link = symbolValueTable.getFrame(PROG_SCOPE);
+
+        Frame first = framePool.enter(link);
+
+        Frame second = framePool.enter(link);
+        second.setInt(0, 5);
+        second.lock(0);
+        framePool.exit(second);
+
+        Frame third = framePool.enter(link);
+        assertThat(third == second, is(true));
+        assertThat(third.isInitialized(0), is(false));
+        assertThat(third.isLocked(0), is(false));
+
+        framePool.exit(third);
+        framePool.exit(first);
+    }
+}
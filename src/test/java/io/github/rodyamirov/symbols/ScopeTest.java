@@ -64,4 +64,22 @@ public class ScopeTest {
         child2 = root2.makeChildScope(Token.ID("otherChild"));
         assertThat(child3, is(not(child2)));
     }
+
+    @Test
+    public void internedTest() {
+        Scope root = Scope.makeRootScope(Token.ID("interned"));
+        Scope child = root.makeChildScope(Token.ID("a"));
+        Scope grandchild = child.makeChildScope(Token.ID("b"));
+
+        // the same scope is always the same object
+        assertThat(Scope.makeRootScope(Token.ID("interned")) == root, is(true));
+        assertThat(root.makeChildScope(Token.ID("a")) == child, is(true));
+        assertThat(grandchild.parentScope.get() == child, is(true));
+
+        assertThat(root.depth, is(0));
+        assertThat(child.depth, is(1));
+        assertThat(grandchild.depth, is(2));
+
+        assertThat(root.makeChildScope(Token.ID("b")) == grandchild, is(false));
+    }
 }
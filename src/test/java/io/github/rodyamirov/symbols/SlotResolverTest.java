@@ -0,0 +1,146 @@
+package io.github.rodyamirov.symbols;
+
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.parse.Parser;
+import io.github.rodyamirov.tree.AssignNode;
+import io.github.rodyamirov.tree.BinOpNode;
+import io.github.rodyamirov.tree.ForNode;
+import io.github.rodyamirov.tree.IfStatementNode;
+import io.github.rodyamirov.tree.ProcedureCallNode;
+import io.github.rodyamirov.tree.ProcedureDeclarationNode;
+import io.github.rodyamirov.tree.ProgramNode;
+import io.github.rodyamirov.tree.VariableEvalNode;
+import org.junit.Test;
+
+import static io.github.rodyamirov.symbols.ScopeAssigner.ROOT_SCOPE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class SlotResolverTest {
+    private SymbolTable prepare(ProgramNode programNode) {
+        ScopeAssigner.assignScopes(ROOT_SCOPE, programNode);
+        SymbolTable symbolTable = SymbolTableBuilder.buildFrom(programNode);
+        SlotResolver.resolve(programNode, symbolTable);
+        return symbolTable;
+    }
+
+    @Test
+    public void programLevelTest() {
+        ProgramNode programNode = Parser.parseProgram(
+                "program a; var b, c: integer; d: real; begin d := c + b end.");
+        prepare(programNode);
+
+        AssignNode assignNode = (AssignNode) programNode.blockNode.compoundNode.statements.get(0);
+        assertThat(assignNode.variableAssignNode.frameDepth, is(0));
+        assertThat(assignNode.variableAssignNode.slotIndex, is(2));
+
+        BinOpNode sum = (BinOpNode) assignNode.expressionNode;
+        assertThat(((VariableEvalNode) sum.left).frameDepth, is(0));
+        assertThat(((VariableEvalNode) sum.left).slotIndex, is(1));
+        assertThat(((VariableEvalNode) sum.right).frameDepth, is(0));
+        assertThat(((VariableEvalNode) sum.right).slotIndex, is(0));
+    }
+
+    @Test
+    public void nestedScopeTest() {
+        ProgramNode programNode = Parser.parseProgram(""
+                + "program a;"
+                + " var b, c: integer;"
+                + " procedure p;"
+                + "     var c: boolean;"
+                + "     procedure q; begin c := true; b := 2 end;"
+                + "     begin c := false end;"
+                + " begin end.");
+        SymbolTable symbolTable = prepare(programNode);
+
+        ProcedureDeclarationNode p = programNode.blockNode.declarationNode.procedureDeclarations.get(0);
+        ProcedureDeclarationNode q = p.blockNode.declarationNode.procedureDeclarations.get(0);
+
+        // c in p is p's own c, not the program's
+        AssignNode inP = (AssignNode) p.blockNode.compoundNode.statements.get(0);
+        assertThat(inP.variableAssignNode.frameDepth, is(0));
+        assertThat(inP.variableAssignNode.slotIndex, is(0));
+
+        // c in q is one link up (p's c), b is two links up (the program's b)
+        AssignNode cInQ = (AssignNode) q.blockNode.compoundNode.statements.get(0);
+        assertThat(cInQ.variableAssignNode.frameDepth, is(1));
+        assertThat(cInQ.variableAssignNode.slotIndex, is(0));
+
+        AssignNode bInQ = (AssignNode) q.blockNode.compoundNode.statements.get(1);
+        assertThat(bInQ.variableAssignNode.frameDepth, is(2));
+        assertThat(bInQ.variableAssignNode.slotIndex, is(0));
+
+        Scope pScope = ROOT_SCOPE.makeChildScope(Token.ID("a")).makeChildScope(Token.ID("p"));
+        assertThat(symbolTable.getLayout(pScope).slotNames.get(1), is(Token.ID("q")));
+        assertThat(symbolTable.getLayout(pScope).slotTypes.get(1), is(TypeSpec.PROCEDURE));
+    }
+
+    @Test
+    public void undeclaredTest() {
+        ProgramNode programNode = Parser.parseProgram("program a; begin if false then b := 1 end.");
+        prepare(programNode);
+
+        // left alone, so the evaluator can complain if it ever actually gets there
+        IfStatementNode ifStatementNode = (IfStatementNode) programNode.blockNode.compoundNode.statements.get(0);
+        AssignNode assignNode = (AssignNode) ifStatementNode.thenStatement;
+        assertThat(assignNode.variableAssignNode.frameDepth, is(-1));
+        assertThat(assignNode.variableAssignNode.slotIndex, is(-1));
+    }
+
+    @Test
+    public void depthBetweenTest() {
+        Scope a = Scope.makeRootScope(Token.ID("a"));
+        Scope b = a.makeChildScope(Token.ID("b"));
+        Scope c = b.makeChildScope(Token.ID("c"));
+
+        assertThat(SlotResolver.depthBetween(c, c), is(0));
+        assertThat(SlotResolver.depthBetween(c, b), is(1));
+        assertThat(SlotResolver.depthBetween(c, a), is(2));
+    }
+
+    @Test
+    public void countedLoopTest() {
+        ProgramNode programNode = Parser.parseProgram(""
+                + "program a;"
+                + " var i, c: integer;"
+                + " procedure p; begin end;"
+                + " begin"
+                + "     for i := 1 to 10 do c := 1;"
+                + "     for i := 1 to 10 do c := i;"
+                + "     for i := 1 to 10 do p()"
+                + " end.");
+        prepare(programNode);
+
+        // only the first never touches i
+        assertThat(((ForNode) programNode.blockNode.compoundNode.statements.get(0)).counted, is(true));
+        assertThat(((ForNode) programNode.blockNode.compoundNode.statements.get(1)).counted, is(false));
+        assertThat(((ForNode) programNode.blockNode.compoundNode.statements.get(2)).counted, is(false));
+    }
+
+    @Test
+    public void callTargetTest() {
+        ProgramNode programNode = Parser.parseProgram(""
+                + "program a;"
+                + " procedure p; begin q() end;"
+                + " procedure q; begin end;"
+                + " begin"
+                + "     p();"
+                + "     if false then r()"
+                + " end.");
+        prepare(programNode);
+
+        ProcedureDeclarationNode p = programNode.blockNode.declarationNode.procedureDeclarations.get(0);
+        ProcedureDeclarationNode q = programNode.blockNode.declarationNode.procedureDeclarations.get(1);
+
+        ProcedureCallNode callP = (ProcedureCallNode) programNode.blockNode.compoundNode.statements.get(0);
+        assertThat(callP.target == p, is(true));
+
+        // bound even though q is declared after the call
+        ProcedureCallNode callQ = (ProcedureCallNode) p.blockNode.compoundNode.statements.get(0);
+        assertThat(callQ.target == q, is(true));
+        assertThat(callQ.frameDepth, is(1));
+
+        IfStatementNode ifStatementNode = (IfStatementNode) programNode.blockNode.compoundNode.statements.get(1);
+        assertThat(((ProcedureCallNode) ifStatementNode.thenStatement).target == null, is(true));
+    }
+}
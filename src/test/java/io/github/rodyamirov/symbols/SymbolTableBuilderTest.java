@@ -184,4 +184,28 @@ public class SymbolTableBuilderTest {
             assertThat(ve.getMessage(), is(errorMessage));
         }
     }
+
+    @Test
+    public void scopeIndexTest() {
+        Token<String> progName = Token.ID("indexed");
+        Scope progScope = ROOT_SCOPE.makeChildScope(progName);
+        Scope procScope = progScope.makeChildScope(Token.ID("p"));
+
+        SymbolTable symbolTable = SymbolTable.builder()
+                .addSymbol(ROOT_SCOPE, progName, TypeSpec.PROGRAM)
+                .addSymbol(progScope, Token.ID("a"), TypeSpec.INTEGER)
+                .addSymbol(procScope, Token.ID("b"), TypeSpec.REAL)
+                .build();
+
+        // every known scope gets its own index, below the count
+        boolean[] seen = new boolean[symbolTable.scopeCount()];
+        for (Scope scope : symbolTable.knownScopes()) {
+            int index = symbolTable.indexOf(scope);
+            assertThat(seen[index], is(false));
+            seen[index] = true;
+        }
+
+        assertThat(symbolTable.scopeCount(), is(3));
+        assertThat(symbolTable.indexOf(procScope.makeChildScope(Token.ID("q"))), is(-1));
+    }
 }
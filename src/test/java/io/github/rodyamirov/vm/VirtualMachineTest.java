@@ -0,0 +1,158 @@
+package io.github.rodyamirov.vm;
+
+import io.github.rodyamirov.analysis.Analyzer;
+import io.github.rodyamirov.analysis.Program;
+import io.github.rodyamirov.analysis.TypeChecker;
+import io.github.rodyamirov.exceptions.VariableException;
+import io.github.rodyamirov.lex.Token;
+import io.github.rodyamirov.parse.Parser;
+import io.github.rodyamirov.symbols.Scope;
+import io.github.rodyamirov.symbols.ScopeAssigner;
+import io.github.rodyamirov.symbols.SlotResolver;
+import io.github.rodyamirov.symbols.SymbolTable;
+import io.github.rodyamirov.symbols.SymbolTableBuilder;
+import io.github.rodyamirov.symbols.SymbolValue;
+import io.github.rodyamirov.symbols.SymbolValueTable;
+import io.github.rodyamirov.symbols.TypeSpec;
+import io.github.rodyamirov.tree.ProgramNode;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static io.github.rodyamirov.symbols.ScopeAssigner.ROOT_SCOPE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class VirtualMachineTest {
+    private SymbolValueTable doAgreementTest(String progText) {
+        Program program = Analyzer.setup(progText, Program.Engine.VM);
+
+        SymbolValueTable vm = program.run();
+        SymbolValueTable visited = program.run(Program.Engine.VISITOR);
+
+        assertThat("Engines agree", vm, is(visited));
+        assertThat("Reruns agree", program.run(), is(visited));
+        return vm;
+    }
+
+    private static final Scope PROG_SCOPE = ROOT_SCOPE.makeChildScope(Token.ID("a"));
+
+    private static final String NESTED_PROGRAM = ""
+            + "program a;"
+            + " var n, total: integer; x: real;"
+            + " procedure outer;"
+            + "     var step: integer;"
+            + "     procedure inner; begin total := total + step end;"
+            + "     begin"
+            + "         step := 3;"
+            + "         while n > 0 do begin inner(); n := n - 1; if n = 2 then continue end"
+            + "     end;"
+            + " begin"
+            + "     n := 5; total := 0; x := 0;"
+            + "     outer();"
+            + "     do total := total * 2 until total > 100;"
+            + "     for n := 10 downto 1 do begin if n = 3 then break; x := x + 1 / n end"
+            + " end.";
+
+    @Test
+    public void numericLoopTest() {
+        String progText = ""
+                + "program a;"
+                + " var i, total: integer; x: real; even: boolean;"
+                + " begin"
+                + "     total := 0; x := 0;"
+                + "     for i := 1 to 1000 do"
+                + "     begin"
+                + "         even := i mod 2 = 0;"
+                + "         if even and then (i > 10) or else not (i < 5) then total := total + i div 2"
+                + "         else total := total - 1;"
+                + "         x := x + 1 / i - -x * 0.5"
+                + "     end"
+                + " end.";
+
+        SymbolValueTable end = doAgreementTest(progText);
+        assertThat(end.getValue(PROG_SCOPE, Token.ID("i")), is(SymbolValue.make(TypeSpec.INTEGER, 1000)));
+    }
+
+    @Test
+    public void nestedProcedureTest() {
+        SymbolValueTable end = doAgreementTest(NESTED_PROGRAM);
+        assertThat(end.getValue(PROG_SCOPE, Token.ID("total")), is(SymbolValue.make(TypeSpec.INTEGER, 120)));
+    }
+
+    @Test
+    public void disassemblyTest() {
+        String text = Disassembler.disassemble(compile(NESTED_PROGRAM));
+
+        assertThat(text.contains("chunk 0: a"), is(true));
+        assertThat(text.contains("chunk 1: outer"), is(true));
+        assertThat(text.contains("chunk 2: inner"), is(true));
+        assertThat(text.contains("JUMP_IF_EQ_I"), is(true));
+        assertThat(text.contains("CALL"), is(true));
+    }
+
+    @Test
+    public void serializationTest() throws IOException {
+        VmProgram original = compile(NESTED_PROGRAM);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        original.writeTo(new DataOutputStream(bytes));
+
+        VmProgram read = VmProgram.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertThat(read, is(original));
+
+        // and what was read back still runs
+        ProgramNode programNode = analyze(NESTED_PROGRAM);
+        SymbolTable symbolTable = SymbolTableBuilder.buildFrom(programNode);
+        SymbolValueTable end = VirtualMachine.run(read, programNode, symbolTable);
+        assertThat(end.getValue(PROG_SCOPE, Token.ID("total")), is(SymbolValue.make(TypeSpec.INTEGER, 120)));
+    }
+
+    @Test(expected = IOException.class)
+    public void badMagicTest() throws IOException {
+        byte[] garbage = { 1, 2, 3, 4, 5, 6, 7, 8 };
+        VmProgram.readFrom(new DataInputStream(new ByteArrayInputStream(garbage)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void lockedThroughProcedureTest() {
+        String progText = ""
+                + "program a;"
+                + " var i: integer;"
+                + " procedure meddle; begin i := 12 end;"
+                + " begin for i := 1 to 3 do meddle() end.";
+
+        Analyzer.setup(progText, Program.Engine.VM).run();
+    }
+
+    @Test(expected = VariableException.class)
+    public void unassignedTest() {
+        String progText = "program a; var i, j: integer; begin i := 1; if i > 0 then i := j end.";
+        Analyzer.setup(progText, Program.Engine.VM).run();
+    }
+
+    @Test(expected = VariableException.class)
+    public void undefinedProcedureTest() {
+        String progText = "program a; var i: integer; begin i := 1; if i = 1 then nowhere() end.";
+        Analyzer.setup(progText, Program.Engine.VM).run();
+    }
+
+    // does what the Analyzer does, but keeps hold of the tree
+    private static ProgramNode analyze(String progText) {
+        ProgramNode programNode = Parser.parseProgram(progText);
+        ScopeAssigner.assignScopes(ROOT_SCOPE, programNode);
+        SymbolTable symbolTable = SymbolTableBuilder.buildFrom(programNode);
+        TypeChecker.assignTypes(programNode, symbolTable);
+        SlotResolver.resolve(programNode, symbolTable);
+        return programNode;
+    }
+
+    private static VmProgram compile(String progText) {
+        ProgramNode programNode = analyze(progText);
+        return VmCompiler.compile(programNode, SymbolTableBuilder.buildFrom(programNode));
+    }
+}